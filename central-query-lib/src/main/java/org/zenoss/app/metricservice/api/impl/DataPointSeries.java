@@ -0,0 +1,344 @@
+/*
+ * ****************************************************************************
+ *
+ *  Copyright (C) Zenoss, Inc. 2026, all rights reserved.
+ *
+ *  This content is made available according to terms specified in
+ *  License.zenoss distributed with this file.
+ *
+ * ***************************************************************************
+ */
+package org.zenoss.app.metricservice.api.impl;
+
+import java.util.Arrays;
+import java.util.Map;
+import java.util.SortedMap;
+import java.util.TreeMap;
+
+/**
+ * A compact, time ordered series of data points backed by parallel primitive
+ * arrays. Timestamps are kept sorted and unique; adding a point with an
+ * existing timestamp replaces its value, the same as a {@code put} into a
+ * {@code SortedMap<Long, Double>}.
+ * <p/>
+ * Appending in timestamp order (the order in which OpenTSDB returns data) is
+ * amortized O(1); out of order points are inserted in place.
+ */
+public final class DataPointSeries {
+
+    private static final int DEFAULT_CAPACITY = 16;
+    private static final long[] EMPTY_TIMESTAMPS = new long[0];
+    private static final double[] EMPTY_VALUES = new double[0];
+
+    private long[] timestamps;
+    private double[] values;
+    private int size;
+
+    public DataPointSeries() {
+        this(0);
+    }
+
+    /**
+     * @param initialCapacity number of points to reserve space for
+     */
+    public DataPointSeries(int initialCapacity) {
+        if (initialCapacity < 0) {
+            throw new IllegalArgumentException("initialCapacity cannot be negative: " + initialCapacity);
+        }
+        if (initialCapacity == 0) {
+            timestamps = EMPTY_TIMESTAMPS;
+            values = EMPTY_VALUES;
+        } else {
+            timestamps = new long[initialCapacity];
+            values = new double[initialCapacity];
+        }
+    }
+
+    private DataPointSeries(long[] timestamps, double[] values, int size) {
+        this.timestamps = timestamps;
+        this.values = values;
+        this.size = size;
+    }
+
+    /**
+     * Builds a series from a map of timestamp to value.
+     *
+     * @param dataPoints map of timestamp to value, may be unsorted
+     * @return a new series holding the same points
+     */
+    public static DataPointSeries fromMap(Map<Long, Double> dataPoints) {
+        DataPointSeries result = new DataPointSeries(dataPoints.size());
+        SortedMap<Long, Double> sorted = dataPoints instanceof SortedMap && null == ((SortedMap<Long, Double>) dataPoints).comparator()
+                ? (SortedMap<Long, Double>) dataPoints
+                : new TreeMap<>(dataPoints);
+        for (Map.Entry<Long, Double> entry : sorted.entrySet()) {
+            result.append(entry.getKey(), entry.getValue());
+        }
+        return result;
+    }
+
+    /**
+     * Builds a series from parallel arrays of timestamps and values. The
+     * arrays are used as they are, without copying, when the timestamps are
+     * strictly ascending.
+     *
+     * @param timestamps timestamps of the points, may be unsorted
+     * @param values     values of the points, same length as timestamps
+     * @return a new series holding the same points
+     */
+    public static DataPointSeries fromArrays(long[] timestamps, double[] values) {
+        if (timestamps.length != values.length) {
+            throw new IllegalArgumentException(String.format("%d timestamps but %d values", timestamps.length, values.length));
+        }
+        for (int i = 1; i < timestamps.length; i++) {
+            if (timestamps[i] <= timestamps[i - 1]) {
+                DataPointSeries result = new DataPointSeries(timestamps.length);
+                for (int j = 0; j < timestamps.length; j++) {
+                    result.add(timestamps[j], values[j]);
+                }
+                return result;
+            }
+        }
+        return new DataPointSeries(timestamps, values, timestamps.length);
+    }
+
+    public int size() {
+        return size;
+    }
+
+    public boolean isEmpty() {
+        return size == 0;
+    }
+
+    public long getTimestamp(int index) {
+        checkIndex(index);
+        return timestamps[index];
+    }
+
+    public double getValue(int index) {
+        checkIndex(index);
+        return values[index];
+    }
+
+    public void setValue(int index, double value) {
+        checkIndex(index);
+        values[index] = value;
+    }
+
+    public long firstTimestamp() {
+        return getTimestamp(0);
+    }
+
+    public long lastTimestamp() {
+        return getTimestamp(size - 1);
+    }
+
+    /**
+     * Adds a point to the series, replacing the value of an existing point
+     * with the same timestamp.
+     *
+     * @param timestamp timestamp of the point
+     * @param value     value of the point
+     */
+    public void add(long timestamp, double value) {
+        if (size == 0 || timestamp > timestamps[size - 1]) {
+            append(timestamp, value);
+            return;
+        }
+        int index = indexOf(timestamp);
+        if (index >= 0) {
+            values[index] = value;
+            return;
+        }
+        int insertAt = -(index + 1);
+        ensureCapacity(size + 1);
+        System.arraycopy(timestamps, insertAt, timestamps, insertAt + 1, size - insertAt);
+        System.arraycopy(values, insertAt, values, insertAt + 1, size - insertAt);
+        timestamps[insertAt] = timestamp;
+        values[insertAt] = value;
+        size++;
+    }
+
+    /**
+     * Merges all points of another series into this one. Where both series
+     * have a point at the same timestamp the value from {@code other} wins.
+     *
+     * @param other series to merge in
+     */
+    public void addAll(DataPointSeries other) {
+        if (null == other || other.size == 0) {
+            return;
+        }
+        if (size == 0 || other.timestamps[0] > timestamps[size - 1]) {
+            ensureCapacity(size + other.size);
+            System.arraycopy(other.timestamps, 0, timestamps, size, other.size);
+            System.arraycopy(other.values, 0, values, size, other.size);
+            size += other.size;
+            return;
+        }
+        long[] mergedTimestamps = new long[size + other.size];
+        double[] mergedValues = new double[size + other.size];
+        int i = 0, j = 0, n = 0;
+        while (i < size && j < other.size) {
+            long a = timestamps[i];
+            long b = other.timestamps[j];
+            if (a < b) {
+                mergedTimestamps[n] = a;
+                mergedValues[n++] = values[i++];
+            } else if (b < a) {
+                mergedTimestamps[n] = b;
+                mergedValues[n++] = other.values[j++];
+            } else {
+                mergedTimestamps[n] = b;
+                mergedValues[n++] = other.values[j++];
+                i++;
+            }
+        }
+        while (i < size) {
+            mergedTimestamps[n] = timestamps[i];
+            mergedValues[n++] = values[i++];
+        }
+        while (j < other.size) {
+            mergedTimestamps[n] = other.timestamps[j];
+            mergedValues[n++] = other.values[j++];
+        }
+        timestamps = mergedTimestamps;
+        values = mergedValues;
+        size = n;
+    }
+
+    /**
+     * Binary search for a timestamp.
+     *
+     * @param timestamp timestamp to find
+     * @return index of the point, or {@code -(insertion point) - 1} if absent
+     */
+    public int indexOf(long timestamp) {
+        return Arrays.binarySearch(timestamps, 0, size, timestamp);
+    }
+
+    public boolean contains(long timestamp) {
+        return indexOf(timestamp) >= 0;
+    }
+
+    /**
+     * @return index of the last point at or before {@code timestamp}, or -1
+     */
+    public int floorIndex(long timestamp) {
+        int index = indexOf(timestamp);
+        return index >= 0 ? index : -(index + 1) - 1;
+    }
+
+    /**
+     * @return index of the first point at or after {@code timestamp}, or
+     * {@link #size()} if there is none
+     */
+    public int ceilingIndex(long timestamp) {
+        int index = indexOf(timestamp);
+        return index >= 0 ? index : -(index + 1);
+    }
+
+    /**
+     * Returns a copy of the points whose timestamps fall in the closed range
+     * [{@code start}, {@code end}].
+     */
+    public DataPointSeries slice(long start, long end) {
+        int from = ceilingIndex(start);
+        int to = floorIndex(end) + 1;
+        if (to <= from) {
+            return new DataPointSeries();
+        }
+        return new DataPointSeries(Arrays.copyOfRange(timestamps, from, to), Arrays.copyOfRange(values, from, to), to - from);
+    }
+
+    /**
+     * Releases any spare capacity held by the backing arrays.
+     */
+    public void trimToSize() {
+        if (timestamps.length != size) {
+            timestamps = Arrays.copyOf(timestamps, size);
+            values = Arrays.copyOf(values, size);
+        }
+    }
+
+    public void clear() {
+        size = 0;
+    }
+
+    /**
+     * @return the points as a new boxed map. Intended for debugging and tests.
+     */
+    public SortedMap<Long, Double> toSortedMap() {
+        SortedMap<Long, Double> result = new TreeMap<>();
+        for (int i = 0; i < size; i++) {
+            result.put(timestamps[i], values[i]);
+        }
+        return result;
+    }
+
+    private void append(long timestamp, double value) {
+        ensureCapacity(size + 1);
+        timestamps[size] = timestamp;
+        values[size] = value;
+        size++;
+    }
+
+    private void ensureCapacity(int minCapacity) {
+        if (minCapacity <= timestamps.length) {
+            return;
+        }
+        int newCapacity = Math.max(DEFAULT_CAPACITY, timestamps.length + (timestamps.length >> 1));
+        if (newCapacity < minCapacity) {
+            newCapacity = minCapacity;
+        }
+        timestamps = Arrays.copyOf(timestamps, newCapacity);
+        values = Arrays.copyOf(values, newCapacity);
+    }
+
+    private void checkIndex(int index) {
+        if (index < 0 || index >= size) {
+            throw new IndexOutOfBoundsException(String.format("Index: %d, Size: %d", index, size));
+        }
+    }
+
+    @Override
+    public boolean equals(Object o) {
+        if (this == o) return true;
+        if (o == null || getClass() != o.getClass()) return false;
+
+        DataPointSeries that = (DataPointSeries) o;
+        if (size != that.size) return false;
+        for (int i = 0; i < size; i++) {
+            if (timestamps[i] != that.timestamps[i]
+                    || Double.doubleToLongBits(values[i]) != Double.doubleToLongBits(that.values[i])) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    @Override
+    public int hashCode() {
+        int result = 1;
+        for (int i = 0; i < size; i++) {
+            long bits = Double.doubleToLongBits(values[i]);
+            result = 31 * result + (int) (timestamps[i] ^ (timestamps[i] >>> 32));
+            result = 31 * result + (int) (bits ^ (bits >>> 32));
+        }
+        return result;
+    }
+
+    @Override
+    public String toString() {
+        StringBuilder buf = new StringBuilder();
+        buf.append('{');
+        for (int i = 0; i < size; i++) {
+            if (i > 0) {
+                buf.append(", ");
+            }
+            buf.append(timestamps[i]).append('=').append(values[i]);
+        }
+        buf.append('}');
+        return buf.toString();
+    }
+}
@@ -0,0 +1,43 @@
+/*
+ * ****************************************************************************
+ *
+ *  Copyright (C) Zenoss, Inc. 2026, all rights reserved.
+ *
+ *  This content is made available according to terms specified in
+ *  License.zenoss distributed with this file.
+ *
+ * ***************************************************************************
+ */
+package org.zenoss.app.metricservice.api.impl;
+
+import java.util.AbstractList;
+
+/**
+ * Read only view of a {@link DataPointSeries} as the v1
+ * {@link QueryResultDataPoint} list. {@link QueryResultDataPointsSerializer}
+ * writes it straight from the series, the same as a list of data point
+ * beans, so a {@link QueryResult} can be written without creating an object
+ * per point.
+ */
+public class DataPointSeriesList extends AbstractList<QueryResultDataPoint> {
+
+    private final DataPointSeries series;
+
+    public DataPointSeriesList(DataPointSeries series) {
+        this.series = series;
+    }
+
+    public DataPointSeries getSeries() {
+        return series;
+    }
+
+    @Override
+    public QueryResultDataPoint get(int index) {
+        return new QueryResultDataPoint(series.getTimestamp(index), series.getValue(index));
+    }
+
+    @Override
+    public int size() {
+        return series.size();
+    }
+}
@@ -0,0 +1,227 @@
+/*
+ * ****************************************************************************
+ *
+ *  Copyright (C) Zenoss, Inc. 2026, all rights reserved.
+ *
+ *  This content is made available according to terms specified in
+ *  License.zenoss distributed with this file.
+ *
+ * ***************************************************************************
+ */
+package org.zenoss.app.metricservice.api.impl;
+
+import java.util.Arrays;
+
+/**
+ * Compresses a {@link DataPointSeries} the way Facebook's Gorilla does:
+ * timestamps as delta-of-deltas and values XORed with their predecessor.
+ * Points at a regular interval whose values change little take a bit or two
+ * for the timestamp and a few bits to a few bytes for the value.
+ * <p/>
+ * The stream is, most significant bit first:
+ * <pre>
+ *     count                   32 bits
+ *     first timestamp         64 bits
+ *     first value             64 bits, IEEE 754
+ *     then for every further point
+ *       delta-of-delta  '0'                    0
+ *                       '10'   + 7 bits        [-63, 64]
+ *                       '110'  + 9 bits        [-255, 256]
+ *                       '1110' + 12 bits       [-2047, 2048]
+ *                       '1111' + 64 bits       anything else
+ *       value XOR       '0'                    same value
+ *                       '10' + meaningful bits within the previous window
+ *                       '11' + 5 bits leading zeros + 6 bits length - 1
+ *                            + meaningful bits
+ * </pre>
+ * Unlike Gorilla the first delta is taken against zero and large
+ * delta-of-deltas are written in full, so any timestamps round-trip.
+ */
+public final class GorillaCodec {
+
+    private GorillaCodec() {
+    }
+
+    public static byte[] encode(DataPointSeries series) {
+        int size = series.size();
+        // Two bits per point covers regular series with unchanged values
+        BitWriter out = new BitWriter(20 + size / 4);
+        out.write(size, 32);
+        if (size == 0) {
+            return out.toByteArray();
+        }
+        long previousTimestamp = series.getTimestamp(0);
+        long previousValue = Double.doubleToRawLongBits(series.getValue(0));
+        out.write(previousTimestamp, 64);
+        out.write(previousValue, 64);
+
+        long previousDelta = 0;
+        int previousLeading = -1;
+        int previousTrailing = 0;
+        for (int i = 1; i < size; i++) {
+            long timestamp = series.getTimestamp(i);
+            long delta = timestamp - previousTimestamp;
+            long deltaOfDelta = delta - previousDelta;
+            if (deltaOfDelta == 0) {
+                out.write(0, 1);
+            } else if (deltaOfDelta >= -63 && deltaOfDelta <= 64) {
+                out.write(0x2, 2);
+                out.write(deltaOfDelta, 7);
+            } else if (deltaOfDelta >= -255 && deltaOfDelta <= 256) {
+                out.write(0x6, 3);
+                out.write(deltaOfDelta, 9);
+            } else if (deltaOfDelta >= -2047 && deltaOfDelta <= 2048) {
+                out.write(0xE, 4);
+                out.write(deltaOfDelta, 12);
+            } else {
+                out.write(0xF, 4);
+                out.write(deltaOfDelta, 64);
+            }
+            previousDelta = delta;
+            previousTimestamp = timestamp;
+
+            long value = Double.doubleToRawLongBits(series.getValue(i));
+            long xor = value ^ previousValue;
+            previousValue = value;
+            if (xor == 0) {
+                out.write(0, 1);
+                continue;
+            }
+            int leading = Math.min(Long.numberOfLeadingZeros(xor), 31);
+            int trailing = Long.numberOfTrailingZeros(xor);
+            if (previousLeading >= 0 && leading >= previousLeading && trailing >= previousTrailing) {
+                out.write(0x2, 2);
+                out.write(xor >>> previousTrailing, 64 - previousLeading - previousTrailing);
+            } else {
+                int meaningful = 64 - leading - trailing;
+                out.write(0x3, 2);
+                out.write(leading, 5);
+                out.write(meaningful - 1, 6);
+                out.write(xor >>> trailing, meaningful);
+                previousLeading = leading;
+                previousTrailing = trailing;
+            }
+        }
+        return out.toByteArray();
+    }
+
+    /**
+     * @throws IllegalArgumentException if the data is truncated
+     */
+    public static DataPointSeries decode(byte[] data) {
+        BitReader in = new BitReader(data);
+        int size = (int) in.read(32);
+        // Every point after the first takes at least two bits
+        if (size < 0 || (size > 0 && (long) data.length * 8 < 160 + 2L * (size - 1))) {
+            throw new IllegalArgumentException(String.format("Compressed series of %d bytes cannot hold %d points", data.length, size));
+        }
+        long[] timestamps = new long[size];
+        double[] values = new double[size];
+        if (size == 0) {
+            return DataPointSeries.fromArrays(timestamps, values);
+        }
+        long timestamp = in.read(64);
+        long value = in.read(64);
+        timestamps[0] = timestamp;
+        values[0] = Double.longBitsToDouble(value);
+
+        long delta = 0;
+        int leading = 0;
+        int meaningful = 0;
+        for (int i = 1; i < size; i++) {
+            if (in.readBit()) {
+                if (!in.readBit()) {
+                    delta += signed(in.read(7), 7);
+                } else if (!in.readBit()) {
+                    delta += signed(in.read(9), 9);
+                } else if (!in.readBit()) {
+                    delta += signed(in.read(12), 12);
+                } else {
+                    delta += in.read(64);
+                }
+            }
+            timestamp += delta;
+            timestamps[i] = timestamp;
+
+            if (in.readBit()) {
+                if (in.readBit()) {
+                    leading = (int) in.read(5);
+                    meaningful = (int) in.read(6) + 1;
+                }
+                value ^= in.read(meaningful) << (64 - leading - meaningful);
+            }
+            values[i] = Double.longBitsToDouble(value);
+        }
+        return DataPointSeries.fromArrays(timestamps, values);
+    }
+
+    /**
+     * Sign extends the low {@code bits} bits; the ranges above are skewed
+     * by one so their largest positive value reads as the top pattern.
+     */
+    private static long signed(long value, int bits) {
+        long half = 1L << (bits - 1);
+        return value > half ? value - (1L << bits) : value;
+    }
+
+    private static final class BitWriter {
+        private byte[] buffer;
+        private long position = 0;
+
+        private BitWriter(int initialBytes) {
+            buffer = new byte[Math.max(initialBytes, 16)];
+        }
+
+        /**
+         * Writes the low {@code bits} bits of the value, most significant first
+         */
+        private void write(long value, int bits) {
+            while (bits > 0) {
+                int index = (int) (position >>> 3);
+                if (index >= buffer.length) {
+                    buffer = Arrays.copyOf(buffer, buffer.length * 2);
+                }
+                int free = 8 - (int) (position & 7);
+                int n = Math.min(free, bits);
+                int chunk = (int) (value >>> (bits - n)) & ((1 << n) - 1);
+                buffer[index] |= (byte) (chunk << (free - n));
+                position += n;
+                bits -= n;
+            }
+        }
+
+        private byte[] toByteArray() {
+            return Arrays.copyOf(buffer, (int) ((position + 7) >>> 3));
+        }
+    }
+
+    private static final class BitReader {
+        private final byte[] buffer;
+        private long position = 0;
+
+        private BitReader(byte[] buffer) {
+            this.buffer = buffer;
+        }
+
+        private boolean readBit() {
+            return read(1) != 0;
+        }
+
+        private long read(int bits) {
+            long result = 0;
+            while (bits > 0) {
+                int index = (int) (position >>> 3);
+                if (index >= buffer.length) {
+                    throw new IllegalArgumentException("Compressed series is truncated");
+                }
+                int free = 8 - (int) (position & 7);
+                int n = Math.min(free, bits);
+                int chunk = ((buffer[index] & 0xFF) >>> (free - n)) & ((1 << n) - 1);
+                result = (result << n) | chunk;
+                position += n;
+                bits -= n;
+            }
+            return result;
+        }
+    }
+}
@@ -0,0 +1,128 @@
+/*
+ * ****************************************************************************
+ *
+ *  Copyright (C) Zenoss, Inc. 2026, all rights reserved.
+ *
+ *  This content is made available according to terms specified in
+ *  License.zenoss distributed with this file.
+ *
+ * ***************************************************************************
+ */
+package org.zenoss.app.metricservice.api.impl;
+
+import com.fasterxml.jackson.core.JsonGenerator;
+import com.fasterxml.jackson.core.JsonParseException;
+import com.fasterxml.jackson.core.JsonParser;
+import com.fasterxml.jackson.core.JsonToken;
+import com.fasterxml.jackson.databind.SerializerProvider;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.DoubleBuffer;
+import java.nio.LongBuffer;
+
+/**
+ * Packed form of a series used by the binary {@link ResultEncoding}s:
+ * <pre>
+ *     {"timestamps": &lt;binary&gt;, "values": &lt;binary&gt;}
+ * </pre>
+ * where timestamps are big-endian 64 bit integers and values big-endian
+ * IEEE 754 doubles, one of each per point. Writing and reading a series is
+ * a bulk copy rather than a token per number.
+ * <p/>
+ * When the serialization attribute {@link #COMPRESSED} is set the series is
+ * written as {@code {"gorilla": <binary>}} instead, see {@link GorillaCodec}.
+ * Either form is read back.
+ */
+public final class PackedDataPoints {
+
+    public static final String TIMESTAMPS = "timestamps";
+    public static final String VALUES = "values";
+    public static final String GORILLA = "gorilla";
+
+    /**
+     * Serialization attribute that selects the compressed form when
+     * {@link Boolean#TRUE}.
+     */
+    public static final String COMPRESSED = PackedDataPoints.class.getName() + ".compressed";
+
+    private PackedDataPoints() {
+    }
+
+    /**
+     * Returns true if data points written to the generator should be packed,
+     * that is if it writes binary data natively.
+     */
+    public static boolean isPacked(JsonGenerator jgen) {
+        return jgen.canWriteBinaryNatively();
+    }
+
+    public static void write(JsonGenerator jgen, SerializerProvider provider, DataPointSeries series) throws IOException {
+        if (Boolean.TRUE.equals(provider.getAttribute(COMPRESSED))) {
+            jgen.writeStartObject();
+            jgen.writeFieldName(GORILLA);
+            jgen.writeBinary(GorillaCodec.encode(series));
+            jgen.writeEndObject();
+            return;
+        }
+        int size = series.size();
+        ByteBuffer timestamps = ByteBuffer.allocate(size * 8);
+        ByteBuffer values = ByteBuffer.allocate(size * 8);
+        LongBuffer ts = timestamps.asLongBuffer();
+        DoubleBuffer vs = values.asDoubleBuffer();
+        for (int i = 0; i < size; i++) {
+            ts.put(series.getTimestamp(i));
+            vs.put(series.getValue(i));
+        }
+        jgen.writeStartObject();
+        jgen.writeFieldName(TIMESTAMPS);
+        jgen.writeBinary(timestamps.array());
+        jgen.writeFieldName(VALUES);
+        jgen.writeBinary(values.array());
+        jgen.writeEndObject();
+    }
+
+    /**
+     * Reads a packed series; the parser must be positioned on its
+     * START_OBJECT. Unknown fields are skipped.
+     *
+     * @throws JsonParseException if the content is not a packed series
+     */
+    public static DataPointSeries read(JsonParser jp) throws IOException {
+        if (jp.getCurrentToken() != JsonToken.START_OBJECT) {
+            throw new JsonParseException(jp, String.format("Expected packed data points but found %s", jp.getCurrentToken()));
+        }
+        long[] timestamps = new long[0];
+        double[] values = new double[0];
+        DataPointSeries compressed = null;
+        while (jp.nextToken() == JsonToken.FIELD_NAME) {
+            String field = jp.getCurrentName();
+            jp.nextToken();
+            if (TIMESTAMPS.equals(field)) {
+                LongBuffer buffer = ByteBuffer.wrap(jp.getBinaryValue()).asLongBuffer();
+                timestamps = new long[buffer.remaining()];
+                buffer.get(timestamps);
+            } else if (VALUES.equals(field)) {
+                DoubleBuffer buffer = ByteBuffer.wrap(jp.getBinaryValue()).asDoubleBuffer();
+                values = new double[buffer.remaining()];
+                buffer.get(values);
+            } else if (GORILLA.equals(field)) {
+                try {
+                    compressed = GorillaCodec.decode(jp.getBinaryValue());
+                } catch (IllegalArgumentException e) {
+                    throw new JsonParseException(jp, e.getMessage(), e);
+                }
+            } else {
+                jp.skipChildren();
+            }
+        }
+        if (null != compressed) {
+            return compressed;
+        }
+        if (timestamps.length != values.length) {
+            throw new JsonParseException(jp, String.format("Packed data points have %d timestamps but %d values",
+                    timestamps.length, values.length));
+        }
+        return DataPointSeries.fromArrays(timestamps, values);
+    }
+}
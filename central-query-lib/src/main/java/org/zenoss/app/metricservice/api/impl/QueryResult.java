@@ -32,6 +32,8 @@
 package org.zenoss.app.metricservice.api.impl;
 
 import com.fasterxml.jackson.annotation.JsonInclude;
+import com.fasterxml.jackson.databind.annotation.JsonDeserialize;
+import com.fasterxml.jackson.databind.annotation.JsonSerialize;
 import com.google.common.collect.HashMultimap;
 import com.google.common.collect.Multimap;
 import org.apache.commons.lang.builder.EqualsBuilder;
@@ -54,6 +56,8 @@ public class QueryResult {
         }
     }
 
+    @JsonSerialize(using = QueryResultDataPointsSerializer.class)
+    @JsonDeserialize(using = QueryResultDataPointsDeserializer.class)
     private List<QueryResultDataPoint> datapoints;
     private String metric;
     private final Multimap<String, String> tags = HashMultimap.create();
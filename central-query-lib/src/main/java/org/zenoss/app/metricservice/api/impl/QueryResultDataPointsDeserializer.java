@@ -0,0 +1,44 @@
+/*
+ * ****************************************************************************
+ *
+ *  Copyright (C) Zenoss, Inc. 2026, all rights reserved.
+ *
+ *  This content is made available according to terms specified in
+ *  License.zenoss distributed with this file.
+ *
+ * ***************************************************************************
+ */
+package org.zenoss.app.metricservice.api.impl;
+
+import com.fasterxml.jackson.core.JsonParser;
+import com.fasterxml.jackson.core.JsonToken;
+import com.fasterxml.jackson.databind.DeserializationContext;
+import com.fasterxml.jackson.databind.JsonDeserializer;
+
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * Reads the v1 data points of a {@link QueryResult} from either the list of
+ * data point objects or {@link PackedDataPoints}. Packed points are returned
+ * as a {@link DataPointSeriesList} over the decoded series.
+ */
+public class QueryResultDataPointsDeserializer extends JsonDeserializer<List<QueryResultDataPoint>> {
+
+    @Override
+    @SuppressWarnings("unchecked")
+    public List<QueryResultDataPoint> deserialize(JsonParser jp, DeserializationContext ctxt) throws IOException {
+        if (jp.getCurrentToken() == JsonToken.START_OBJECT) {
+            return new DataPointSeriesList(PackedDataPoints.read(jp));
+        }
+        if (jp.getCurrentToken() != JsonToken.START_ARRAY) {
+            return (List<QueryResultDataPoint>) ctxt.handleUnexpectedToken(List.class, jp);
+        }
+        List<QueryResultDataPoint> result = new ArrayList<>();
+        while (jp.nextToken() != JsonToken.END_ARRAY) {
+            result.add(ctxt.readValue(jp, QueryResultDataPoint.class));
+        }
+        return result;
+    }
+}
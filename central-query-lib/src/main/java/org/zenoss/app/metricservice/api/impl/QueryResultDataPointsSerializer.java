@@ -0,0 +1,69 @@
+/*
+ * ****************************************************************************
+ *
+ *  Copyright (C) Zenoss, Inc. 2026, all rights reserved.
+ *
+ *  This content is made available according to terms specified in
+ *  License.zenoss distributed with this file.
+ *
+ * ***************************************************************************
+ */
+package org.zenoss.app.metricservice.api.impl;
+
+import com.fasterxml.jackson.core.JsonGenerator;
+import com.fasterxml.jackson.databind.JsonSerializer;
+import com.fasterxml.jackson.databind.SerializerProvider;
+
+import java.io.IOException;
+import java.util.List;
+
+/**
+ * Writes the v1 data points of a {@link QueryResult} in the
+ * {@code [{"timestamp": <ts>, "value": <value>}, ...]} form, or as
+ * {@link PackedDataPoints} to binary encodings.
+ */
+public class QueryResultDataPointsSerializer extends JsonSerializer<List<QueryResultDataPoint>> {
+
+    @Override
+    public void serialize(List<QueryResultDataPoint> value, JsonGenerator jgen, SerializerProvider provider) throws IOException {
+        if (PackedDataPoints.isPacked(jgen)) {
+            PackedDataPoints.write(jgen, provider, toSeries(value));
+            return;
+        }
+        jgen.writeStartArray();
+        if (value instanceof DataPointSeriesList) {
+            DataPointSeries series = ((DataPointSeriesList) value).getSeries();
+            for (int i = 0; i < series.size(); i++) {
+                writeDataPoint(jgen, series.getTimestamp(i), series.getValue(i));
+            }
+        } else {
+            for (QueryResultDataPoint dataPoint : value) {
+                writeDataPoint(jgen, dataPoint.getTimestamp(), dataPoint.getValue());
+            }
+        }
+        jgen.writeEndArray();
+    }
+
+    @Override
+    public boolean isEmpty(SerializerProvider provider, List<QueryResultDataPoint> value) {
+        return null == value || value.isEmpty();
+    }
+
+    private static void writeDataPoint(JsonGenerator jgen, long timestamp, double value) throws IOException {
+        jgen.writeStartObject();
+        jgen.writeNumberField("timestamp", timestamp);
+        jgen.writeNumberField("value", value);
+        jgen.writeEndObject();
+    }
+
+    private static DataPointSeries toSeries(List<QueryResultDataPoint> value) {
+        if (value instanceof DataPointSeriesList) {
+            return ((DataPointSeriesList) value).getSeries();
+        }
+        DataPointSeries series = new DataPointSeries(value.size());
+        for (QueryResultDataPoint dataPoint : value) {
+            series.add(dataPoint.getTimestamp(), dataPoint.getValue());
+        }
+        return series;
+    }
+}
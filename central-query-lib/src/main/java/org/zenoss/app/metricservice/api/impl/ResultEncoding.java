@@ -0,0 +1,116 @@
+/*
+ * ****************************************************************************
+ *
+ *  Copyright (C) Zenoss, Inc. 2026, all rights reserved.
+ *
+ *  This content is made available according to terms specified in
+ *  License.zenoss distributed with this file.
+ *
+ * ***************************************************************************
+ */
+package org.zenoss.app.metricservice.api.impl;
+
+import com.fasterxml.jackson.annotation.JsonInclude;
+import com.fasterxml.jackson.core.JsonFactory;
+import com.fasterxml.jackson.databind.DeserializationFeature;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import com.fasterxml.jackson.databind.SerializationFeature;
+import com.fasterxml.jackson.dataformat.cbor.CBORFactory;
+import com.fasterxml.jackson.dataformat.smile.SmileFactory;
+import com.fasterxml.jackson.dataformat.smile.SmileGenerator;
+
+import javax.ws.rs.core.MediaType;
+import java.util.List;
+
+/**
+ * Encodings that query results can be served in. The binary encodings carry
+ * the same model as JSON, except that data points are written as
+ * {@link PackedDataPoints}.
+ * <p/>
+ * Clients opt in to Gorilla compressed data points by adding the parameter
+ * {@code datapoints=gorilla} to a binary media type in their Accept header,
+ * e.g. {@code application/x-jackson-smile; datapoints=gorilla}.
+ * <p/>
+ * {@link #getObjectMapper()} returns a mapper that reads as well as writes
+ * the encoding, so clients can decode a {@link SeriesQueryResult} or v2
+ * {@code QueryResult} with it directly.
+ */
+public enum ResultEncoding {
+
+    JSON(MediaType.APPLICATION_JSON, new JsonFactory(), false),
+    SMILE(ResultEncoding.APPLICATION_SMILE, newSmileFactory(), false),
+    CBOR(ResultEncoding.APPLICATION_CBOR, new CBORFactory(), false),
+    SMILE_GORILLA(ResultEncoding.APPLICATION_SMILE, newSmileFactory(), true),
+    CBOR_GORILLA(ResultEncoding.APPLICATION_CBOR, new CBORFactory(), true);
+
+    public static final String APPLICATION_SMILE = "application/x-jackson-smile";
+    public static final String APPLICATION_CBOR = "application/cbor";
+    public static final String DATAPOINTS_PARAMETER = "datapoints";
+    public static final String GORILLA = "gorilla";
+
+    private final String mediaType;
+    private final boolean compressed;
+    private final ObjectMapper mapper;
+
+    ResultEncoding(String mediaType, JsonFactory factory, boolean compressed) {
+        this.mediaType = mediaType;
+        this.compressed = compressed;
+        this.mapper = new ObjectMapper(factory);
+        mapper.setSerializationInclusion(JsonInclude.Include.NON_NULL);
+        mapper.configure(DeserializationFeature.FAIL_ON_UNKNOWN_PROPERTIES, false);
+        mapper.enable(SerializationFeature.WRITE_ENUMS_USING_TO_STRING);
+        mapper.enable(DeserializationFeature.READ_ENUMS_USING_TO_STRING);
+        if (compressed) {
+            mapper.setConfig(mapper.getSerializationConfig().withAttribute(PackedDataPoints.COMPRESSED, Boolean.TRUE));
+        }
+    }
+
+    private static SmileFactory newSmileFactory() {
+        return new SmileFactory().disable(SmileGenerator.Feature.ENCODE_BINARY_AS_7BIT);
+    }
+
+    /**
+     * @return the media type of the response, including the
+     * {@code datapoints} parameter for compressed encodings
+     */
+    public String getMediaType() {
+        return compressed ? mediaType + "; " + DATAPOINTS_PARAMETER + '=' + GORILLA : mediaType;
+    }
+
+    public ObjectMapper getObjectMapper() {
+        return mapper;
+    }
+
+    public boolean isBinary() {
+        return this != JSON;
+    }
+
+    /**
+     * @return true if data points are written Gorilla compressed
+     */
+    public boolean isCompressed() {
+        return compressed;
+    }
+
+    /**
+     * Picks the encoding for a request from its acceptable media types, most
+     * preferred first. Wildcards and types that are not supported resolve to
+     * JSON, so existing clients are unaffected. A binary type selects the
+     * compressed encoding only if it carries {@code datapoints=gorilla}.
+     */
+    public static ResultEncoding fromAcceptableMediaTypes(List<MediaType> acceptable) {
+        for (MediaType type : acceptable) {
+            if (type.isWildcardType() || type.isWildcardSubtype()) {
+                return JSON;
+            }
+            boolean gorilla = GORILLA.equalsIgnoreCase(type.getParameters().get(DATAPOINTS_PARAMETER));
+            for (ResultEncoding encoding : values()) {
+                if (encoding.mediaType.equalsIgnoreCase(type.getType() + '/' + type.getSubtype())
+                        && encoding.compressed == gorilla) {
+                    return encoding;
+                }
+            }
+        }
+        return JSON;
+    }
+}
@@ -0,0 +1,55 @@
+/*
+ * ****************************************************************************
+ *
+ *  Copyright (C) Zenoss, Inc. 2026, all rights reserved.
+ *
+ *  This content is made available according to terms specified in
+ *  License.zenoss distributed with this file.
+ *
+ * ***************************************************************************
+ */
+package org.zenoss.app.metricservice.api.model.v2;
+
+import com.fasterxml.jackson.core.JsonParseException;
+import com.fasterxml.jackson.core.JsonParser;
+import com.fasterxml.jackson.core.JsonToken;
+import com.fasterxml.jackson.databind.DeserializationContext;
+import com.fasterxml.jackson.databind.JsonDeserializer;
+
+import org.zenoss.app.metricservice.api.impl.DataPointSeries;
+import org.zenoss.app.metricservice.api.impl.PackedDataPoints;
+
+import java.io.IOException;
+
+/**
+ * Reads the data points written by {@link DatapointSerializer}, either
+ * {@code [[<ts>, <value>], ...]} or {@link PackedDataPoints}.
+ */
+public class DatapointDeserializer extends JsonDeserializer<DataPointSeries> {
+
+    @Override
+    public DataPointSeries deserialize(JsonParser jp, DeserializationContext ctxt) throws IOException {
+        if (jp.getCurrentToken() == JsonToken.START_OBJECT) {
+            return PackedDataPoints.read(jp);
+        }
+        expect(jp, jp.getCurrentToken(), JsonToken.START_ARRAY);
+        DataPointSeries result = new DataPointSeries();
+        JsonToken token;
+        while ((token = jp.nextToken()) != JsonToken.END_ARRAY) {
+            expect(jp, token, JsonToken.START_ARRAY);
+            jp.nextToken();
+            long timestamp = jp.getValueAsLong();
+            jp.nextToken();
+            double value = jp.getValueAsDouble();
+            expect(jp, jp.nextToken(), JsonToken.END_ARRAY);
+            result.add(timestamp, value);
+        }
+        return result;
+    }
+
+    private static void expect(JsonParser jp, JsonToken actual, JsonToken expected) throws JsonParseException {
+        if (actual != expected) {
+            throw new JsonParseException(jp, String.format("Expected %s but found %s", expected, actual));
+        }
+    }
+}
@@ -15,20 +15,25 @@ import com.fasterxml.jackson.core.JsonGenerator;
 import com.fasterxml.jackson.databind.JsonSerializer;
 import com.fasterxml.jackson.databind.SerializerProvider;
 
+import org.zenoss.app.metricservice.api.impl.DataPointSeries;
+import org.zenoss.app.metricservice.api.impl.PackedDataPoints;
+
 import java.io.IOException;
-import java.util.Map;
-import java.util.SortedMap;
 
-public class DatapointSerializer extends JsonSerializer<SortedMap<Long, Double>> {
+public class DatapointSerializer extends JsonSerializer<DataPointSeries> {
 
 
     @Override
-    public void serialize(SortedMap<Long, Double> value, JsonGenerator jgen, SerializerProvider provider) throws IOException, JsonGenerationException {
+    public void serialize(DataPointSeries value, JsonGenerator jgen, SerializerProvider provider) throws IOException, JsonGenerationException {
+        if (PackedDataPoints.isPacked(jgen)) {
+            PackedDataPoints.write(jgen, provider, value);
+            return;
+        }
         jgen.writeStartArray();
-        for (Map.Entry<Long, Double> dp : value.entrySet()) {
+        for (int i = 0; i < value.size(); i++) {
             jgen.writeStartArray();
-            jgen.writeNumber(dp.getKey());
-            jgen.writeNumber(dp.getValue());
+            jgen.writeNumber(value.getTimestamp(i));
+            jgen.writeNumber(value.getValue(i));
             jgen.writeEndArray();
         }
         jgen.writeEndArray();
@@ -0,0 +1,81 @@
+/*
+ * ****************************************************************************
+ *
+ *  Copyright (C) Zenoss, Inc. 2026, all rights reserved.
+ *
+ *  This content is made available according to terms specified in
+ *  License.zenoss distributed with this file.
+ *
+ * ***************************************************************************
+ */
+
+package org.zenoss.app.metricservice.api.model.v2;
+
+import com.fasterxml.jackson.annotation.JsonInclude;
+import com.fasterxml.jackson.annotation.JsonProperty;
+
+import javax.validation.constraints.NotNull;
+import java.util.HashMap;
+import java.util.Map;
+
+/**
+ * One data point as the metric-consumer accepts it: the timestamp is in
+ * seconds, or in milliseconds if it is too large to be seconds.
+ */
+@JsonInclude(JsonInclude.Include.NON_NULL)
+public class Metric {
+    @JsonProperty
+    @NotNull
+    private String metric;
+
+    @JsonProperty
+    private long timestamp;
+
+    @JsonProperty
+    private double value;
+
+    @JsonProperty
+    private Map<String, String> tags = new HashMap<>();
+
+    public Metric() {
+    }
+
+    public Metric(String metric, long timestamp, double value, Map<String, String> tags) {
+        this.metric = metric;
+        this.timestamp = timestamp;
+        this.value = value;
+        setTags(tags);
+    }
+
+    public final String getMetric() {
+        return metric;
+    }
+
+    public final void setMetric(String metric) {
+        this.metric = metric;
+    }
+
+    public final long getTimestamp() {
+        return timestamp;
+    }
+
+    public final void setTimestamp(long timestamp) {
+        this.timestamp = timestamp;
+    }
+
+    public final double getValue() {
+        return value;
+    }
+
+    public final void setValue(double value) {
+        this.value = value;
+    }
+
+    public final Map<String, String> getTags() {
+        return tags;
+    }
+
+    public final void setTags(Map<String, String> tags) {
+        this.tags = null == tags ? new HashMap<String, String>() : tags;
+    }
+}
@@ -10,12 +10,13 @@
  */
 package org.zenoss.app.metricservice.api.model.v2;
 
+import com.fasterxml.jackson.databind.annotation.JsonDeserialize;
 import com.fasterxml.jackson.databind.annotation.JsonSerialize;
+import org.zenoss.app.metricservice.api.impl.DataPointSeries;
 import org.zenoss.app.metricservice.api.impl.QueryStatus;
 
 import java.util.List;
 import java.util.Map;
-import java.util.SortedMap;
 
 public class QueryResult {
 
@@ -41,15 +42,16 @@ public class QueryResult {
 
     public static class Series {
         @JsonSerialize(using = DatapointSerializer.class)
-        public SortedMap<Long, Double> datapoints;
+        @JsonDeserialize(using = DatapointDeserializer.class)
+        public DataPointSeries datapoints;
         private String metric;
         private Map<String, String> tags;
 
-        public SortedMap<Long, Double> getDatapoints() {
+        public DataPointSeries getDatapoints() {
             return datapoints;
         }
 
-        public void setDatapoints(SortedMap<Long, Double> datapoints) {
+        public void setDatapoints(DataPointSeries datapoints) {
             this.datapoints = datapoints;
         }
 
@@ -0,0 +1,38 @@
+/*
+ * ****************************************************************************
+ *
+ *  Copyright (C) Zenoss, Inc. 2026, all rights reserved.
+ *
+ *  This content is made available according to terms specified in
+ *  License.zenoss distributed with this file.
+ *
+ * ***************************************************************************
+ */
+
+package org.zenoss.app.metricservice.api.model.v2;
+
+import com.fasterxml.jackson.annotation.JsonIgnoreProperties;
+import com.fasterxml.jackson.annotation.JsonProperty;
+
+import javax.validation.Valid;
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * Recent data points pushed in the metric-consumer's format. Its other
+ * fields, such as control, are ignored.
+ */
+@JsonIgnoreProperties(ignoreUnknown = true)
+public class StoreRequest {
+    @JsonProperty
+    @Valid
+    private List<Metric> metrics = new ArrayList<>();
+
+    public List<Metric> getMetrics() {
+        return metrics;
+    }
+
+    public void setMetrics(List<Metric> metrics) {
+        this.metrics = null == metrics ? new ArrayList<Metric>() : metrics;
+    }
+}
@@ -0,0 +1,95 @@
+/*
+ * ****************************************************************************
+ *
+ *  Copyright (C) Zenoss, Inc. 2026, all rights reserved.
+ *
+ *  This content is made available according to terms specified in
+ *  License.zenoss distributed with this file.
+ *
+ * ***************************************************************************
+ */
+package org.zenoss.app.metricservice.api.impl;
+
+import org.junit.Assert;
+import org.junit.Ignore;
+import org.junit.Test;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.SortedMap;
+import java.util.TreeMap;
+
+/**
+ * Compares the retained heap of a week of one minute data held as a boxed
+ * {@code TreeMap<Long, Double>} against a {@link DataPointSeries}. The
+ * measurement depends on the collector and the JVM, so it is only run by
+ * hand.
+ */
+public class DataPointSeriesFootprintTest {
+
+    private static final int SERIES = 50;
+    private static final int POINTS = 7 * 24 * 60;
+    private static final long START = 1437520981L;
+
+    @Test
+    public void testSeriesHoldsTheSamePoints() {
+        List<SortedMap<Long, Double>> maps = makeMaps();
+        for (SortedMap<Long, Double> map : maps) {
+            DataPointSeries series = DataPointSeries.fromMap(map);
+            series.trimToSize();
+            Assert.assertEquals(POINTS, series.size());
+            Assert.assertEquals(map, series.toSortedMap());
+        }
+    }
+
+    @Ignore("measures the heap, which depends on the collector; run by hand")
+    @Test
+    public void compareRetainedHeap() {
+        long baseline = usedHeap();
+        List<SortedMap<Long, Double>> maps = makeMaps();
+        long mapBytes = usedHeap() - baseline;
+        Assert.assertEquals(SERIES, maps.size());
+        maps = null;
+
+        baseline = usedHeap();
+        List<DataPointSeries> compact = makeSeries();
+        long compactBytes = usedHeap() - baseline;
+        Assert.assertEquals(SERIES, compact.size());
+
+        Assert.assertTrue("DataPointSeries should retain well under half the heap of a TreeMap",
+                compactBytes * 2 < mapBytes);
+    }
+
+    private static List<SortedMap<Long, Double>> makeMaps() {
+        List<SortedMap<Long, Double>> result = new ArrayList<>(SERIES);
+        for (int s = 0; s < SERIES; s++) {
+            SortedMap<Long, Double> map = new TreeMap<>();
+            for (int i = 0; i < POINTS; i++) {
+                map.put(START + i * 60L, Math.random());
+            }
+            result.add(map);
+        }
+        return result;
+    }
+
+    private static List<DataPointSeries> makeSeries() {
+        List<DataPointSeries> result = new ArrayList<>(SERIES);
+        for (int s = 0; s < SERIES; s++) {
+            DataPointSeries series = new DataPointSeries();
+            for (int i = 0; i < POINTS; i++) {
+                series.add(START + i * 60L, Math.random());
+            }
+            series.trimToSize();
+            result.add(series);
+        }
+        return result;
+    }
+
+    private static long usedHeap() {
+        Runtime runtime = Runtime.getRuntime();
+        for (int i = 0; i < 4; i++) {
+            System.gc();
+        }
+        return runtime.totalMemory() - runtime.freeMemory();
+    }
+}
@@ -0,0 +1,171 @@
+/*
+ * ****************************************************************************
+ *
+ *  Copyright (C) Zenoss, Inc. 2026, all rights reserved.
+ *
+ *  This content is made available according to terms specified in
+ *  License.zenoss distributed with this file.
+ *
+ * ***************************************************************************
+ */
+package org.zenoss.app.metricservice.api.impl;
+
+import org.junit.Assert;
+import org.junit.Test;
+
+import java.util.HashMap;
+import java.util.Map;
+import java.util.SortedMap;
+import java.util.TreeMap;
+
+public class DataPointSeriesTest {
+
+    @Test
+    public void testAppendInOrder() {
+        DataPointSeries subject = new DataPointSeries();
+        for (int i = 0; i < 100; i++) {
+            subject.add(i * 60L, i);
+        }
+        Assert.assertEquals(100, subject.size());
+        Assert.assertEquals(0L, subject.firstTimestamp());
+        Assert.assertEquals(99 * 60L, subject.lastTimestamp());
+        Assert.assertEquals(42.0, subject.getValue(42), 0.0);
+    }
+
+    @Test
+    public void testOutOfOrderAddKeepsSortedOrder() {
+        DataPointSeries subject = new DataPointSeries();
+        subject.add(300, 3.0);
+        subject.add(100, 1.0);
+        subject.add(200, 2.0);
+        Assert.assertEquals(3, subject.size());
+        Assert.assertEquals(100, subject.getTimestamp(0));
+        Assert.assertEquals(200, subject.getTimestamp(1));
+        Assert.assertEquals(300, subject.getTimestamp(2));
+        Assert.assertEquals(2.0, subject.getValue(1), 0.0);
+    }
+
+    @Test
+    public void testAddReplacesExistingTimestamp() {
+        DataPointSeries subject = new DataPointSeries();
+        subject.add(100, 1.0);
+        subject.add(200, 2.0);
+        subject.add(100, 5.0);
+        Assert.assertEquals(2, subject.size());
+        Assert.assertEquals(5.0, subject.getValue(0), 0.0);
+    }
+
+    @Test
+    public void testBinarySearch() {
+        DataPointSeries subject = series(10, 20, 30);
+        Assert.assertEquals(1, subject.indexOf(20));
+        Assert.assertTrue(subject.indexOf(25) < 0);
+        Assert.assertTrue(subject.contains(30));
+        Assert.assertFalse(subject.contains(31));
+        Assert.assertEquals(1, subject.floorIndex(25));
+        Assert.assertEquals(-1, subject.floorIndex(5));
+        Assert.assertEquals(2, subject.ceilingIndex(25));
+        Assert.assertEquals(3, subject.ceilingIndex(35));
+    }
+
+    @Test
+    public void testSliceIsInclusive() {
+        DataPointSeries subject = series(10, 20, 30, 40, 50);
+        DataPointSeries slice = subject.slice(20, 40);
+        Assert.assertEquals(series(20, 30, 40), slice);
+        Assert.assertEquals(series(20, 30), subject.slice(15, 35));
+        Assert.assertTrue(subject.slice(51, 100).isEmpty());
+        Assert.assertTrue(subject.slice(40, 20).isEmpty());
+    }
+
+    @Test
+    public void testSliceIsACopy() {
+        DataPointSeries subject = series(10, 20, 30);
+        DataPointSeries slice = subject.slice(10, 30);
+        slice.setValue(0, -1);
+        Assert.assertEquals(10.0, subject.getValue(0), 0.0);
+    }
+
+    @Test
+    public void testAddAllAppendsDisjointSeries() {
+        DataPointSeries subject = series(10, 20);
+        subject.addAll(series(30, 40));
+        Assert.assertEquals(series(10, 20, 30, 40), subject);
+    }
+
+    @Test
+    public void testAddAllMergesOverlappingSeriesLikePutAll() {
+        DataPointSeries subject = series(10, 20, 30);
+        DataPointSeries other = new DataPointSeries();
+        other.add(15, 1.5);
+        other.add(20, -2.0);
+        other.add(40, 4.0);
+        subject.addAll(other);
+
+        SortedMap<Long, Double> expected = new TreeMap<>();
+        expected.put(10L, 10.0);
+        expected.put(15L, 1.5);
+        expected.put(20L, -2.0);
+        expected.put(30L, 30.0);
+        expected.put(40L, 4.0);
+        Assert.assertEquals(expected, subject.toSortedMap());
+    }
+
+    @Test
+    public void testFromMap() {
+        Map<Long, Double> map = new HashMap<>();
+        map.put(30L, 3.0);
+        map.put(10L, 1.0);
+        map.put(20L, 2.0);
+        DataPointSeries subject = DataPointSeries.fromMap(map);
+        Assert.assertEquals(new TreeMap<>(map), subject.toSortedMap());
+    }
+
+    @Test
+    public void testTrimToSizeKeepsPoints() {
+        DataPointSeries subject = new DataPointSeries(1000);
+        subject.add(1, 1.0);
+        subject.trimToSize();
+        Assert.assertEquals(series(1).toSortedMap(), subject.toSortedMap());
+        subject.add(2, 2.0);
+        Assert.assertEquals(2, subject.size());
+    }
+
+    @Test
+    public void testEqualsAndHashCode() {
+        Assert.assertEquals(series(1, 2, 3), series(1, 2, 3));
+        Assert.assertEquals(series(1, 2, 3).hashCode(), series(1, 2, 3).hashCode());
+        Assert.assertNotEquals(series(1, 2, 3), series(1, 2));
+    }
+
+    @Test(expected = IndexOutOfBoundsException.class)
+    public void testGetOutOfRange() {
+        series(1).getValue(1);
+    }
+
+    @Test
+    public void testFromArrays() {
+        DataPointSeries subject = DataPointSeries.fromArrays(new long[]{10, 20, 30}, new double[]{1.0, 2.0, 3.0});
+        Assert.assertEquals(3, subject.size());
+        Assert.assertEquals(20L, subject.getTimestamp(1));
+        Assert.assertEquals(3.0, subject.getValue(2), 0.0);
+
+        DataPointSeries unsorted = DataPointSeries.fromArrays(new long[]{30, 10, 20, 10}, new double[]{3.0, 1.0, 2.0, 4.0});
+        Assert.assertEquals(3, unsorted.size());
+        Assert.assertEquals(10L, unsorted.firstTimestamp());
+        Assert.assertEquals("the later value wins, as with add", 4.0, unsorted.getValue(0), 0.0);
+    }
+
+    @Test(expected = IllegalArgumentException.class)
+    public void testFromArraysOfDifferentLengths() {
+        DataPointSeries.fromArrays(new long[]{10, 20}, new double[]{1.0});
+    }
+
+    private static DataPointSeries series(long... timestamps) {
+        DataPointSeries result = new DataPointSeries();
+        for (long ts : timestamps) {
+            result.add(ts, ts);
+        }
+        return result;
+    }
+}
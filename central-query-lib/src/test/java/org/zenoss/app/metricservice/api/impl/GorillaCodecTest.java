@@ -0,0 +1,183 @@
+/*
+ * ****************************************************************************
+ *
+ *  Copyright (C) Zenoss, Inc. 2026, all rights reserved.
+ *
+ *  This content is made available according to terms specified in
+ *  License.zenoss distributed with this file.
+ *
+ * ***************************************************************************
+ */
+package org.zenoss.app.metricservice.api.impl;
+
+import org.junit.Assert;
+import org.junit.Test;
+
+import java.io.IOException;
+import java.util.Arrays;
+import java.util.Random;
+
+public class GorillaCodecTest {
+
+    private static final long START = 1437520800L;
+    private static final int FIVE_MINUTES = 300;
+    /** One week at five minutes */
+    private static final int POINTS = 7 * 24 * 12;
+
+    @Test
+    public void testEmpty() {
+        assertRoundTrip(new DataPointSeries());
+        Assert.assertEquals(4, GorillaCodec.encode(new DataPointSeries()).length);
+    }
+
+    @Test
+    public void testSinglePoint() {
+        DataPointSeries series = new DataPointSeries();
+        series.add(START, 42.5);
+        assertRoundTrip(series);
+    }
+
+    @Test
+    public void testRegularInterval() {
+        DataPointSeries series = new DataPointSeries();
+        for (int i = 0; i < POINTS; i++) {
+            series.add(START + i * FIVE_MINUTES, 7.0);
+        }
+        byte[] encoded = assertRoundTrip(series);
+        // Header, the first interval and then two bits per point
+        Assert.assertTrue(encoded.length <= 20 + 2 + (POINTS + 3) / 4);
+    }
+
+    @Test
+    public void testIrregularTimestamps() {
+        Random random = new Random(7);
+        DataPointSeries series = new DataPointSeries();
+        long ts = START;
+        for (int i = 0; i < POINTS; i++) {
+            // Jitter of a few seconds, occasional gaps and the odd huge jump
+            ts += FIVE_MINUTES + random.nextInt(21) - 10;
+            if (i % 97 == 0) {
+                ts += 3600;
+            }
+            if (i % 503 == 0) {
+                ts += 1L << 40;
+            }
+            series.add(ts, random.nextInt(100));
+        }
+        assertRoundTrip(series);
+    }
+
+    @Test
+    public void testSpecialValues() {
+        double[] values = {0.0, -0.0, Double.NaN, Double.POSITIVE_INFINITY, Double.NEGATIVE_INFINITY,
+                Double.MIN_VALUE, Double.MAX_VALUE, -1.5, 1.5, Double.NaN, 0.0, Long.MAX_VALUE, -123456.789};
+        DataPointSeries series = new DataPointSeries();
+        for (int i = 0; i < values.length; i++) {
+            series.add(i, values[i]);
+        }
+        assertRoundTrip(series);
+    }
+
+    @Test
+    public void testExtremeTimestamps() {
+        DataPointSeries series = new DataPointSeries();
+        series.add(Long.MIN_VALUE, 1.0);
+        series.add(-1, 2.0);
+        series.add(0, 3.0);
+        series.add(Long.MAX_VALUE - 1, 4.0);
+        series.add(Long.MAX_VALUE, 5.0);
+        assertRoundTrip(series);
+    }
+
+    @Test
+    public void testRandomSeries() {
+        Random random = new Random(42);
+        for (int round = 0; round < 50; round++) {
+            DataPointSeries series = new DataPointSeries();
+            long ts = random.nextInt();
+            int size = random.nextInt(500);
+            for (int i = 0; i < size; i++) {
+                ts += 1 + random.nextInt(1 + random.nextInt(5000));
+                double value;
+                switch (random.nextInt(4)) {
+                    case 0:
+                        value = random.nextDouble();
+                        break;
+                    case 1:
+                        value = Double.longBitsToDouble(random.nextLong());
+                        break;
+                    case 2:
+                        value = random.nextInt(10);
+                        break;
+                    default:
+                        value = series.isEmpty() ? 0 : series.getValue(series.size() - 1);
+                }
+                series.add(ts, value);
+            }
+            assertRoundTrip(series);
+        }
+    }
+
+    @Test
+    public void testTruncated() {
+        DataPointSeries series = new DataPointSeries();
+        for (int i = 0; i < 100; i++) {
+            series.add(START + i * FIVE_MINUTES, i * 0.25);
+        }
+        byte[] encoded = GorillaCodec.encode(series);
+        for (int length : new int[]{0, 3, 10, 20, encoded.length - 1}) {
+            try {
+                GorillaCodec.decode(Arrays.copyOf(encoded, length));
+                Assert.fail("Expected truncated data of " + length + " bytes to be rejected");
+            } catch (IllegalArgumentException e) {
+                // expected
+            }
+        }
+    }
+
+    /**
+     * Checks the compressed form is smaller than the
+     * {@link PackedDataPoints} arrays (16 bytes per point) and v2 JSON for a
+     * week of data at five minutes.
+     */
+    @Test
+    public void testCompressionRatio() throws IOException {
+        Random random = new Random(42);
+        DataPointSeries constant = new DataPointSeries(POINTS);
+        DataPointSeries counter = new DataPointSeries(POINTS);
+        DataPointSeries gauge = new DataPointSeries(POINTS);
+        DataPointSeries noise = new DataPointSeries(POINTS);
+        long count = 1000000;
+        double level = 50;
+        for (int i = 0; i < POINTS; i++) {
+            long ts = START + (long) i * FIVE_MINUTES;
+            constant.add(ts, 1.0);
+            count += random.nextInt(1000);
+            counter.add(ts, count);
+            level = Math.max(0, Math.round((level + random.nextGaussian()) * 100) / 100.0);
+            gauge.add(ts, level);
+            noise.add(ts, random.nextDouble() * 1e5);
+        }
+
+        assertCompresses("constant", constant);
+        assertCompresses("counter", counter);
+        assertCompresses("2 decimal gauge", gauge);
+        assertCompresses("random doubles", noise);
+    }
+
+    private static void assertCompresses(String name, DataPointSeries series) throws IOException {
+        byte[] compressed = assertRoundTrip(series);
+        org.zenoss.app.metricservice.api.model.v2.QueryResult.Series v2 = new org.zenoss.app.metricservice.api.model.v2.QueryResult.Series();
+        v2.setDatapoints(series);
+        int json = Utils.getObjectMapper().writeValueAsBytes(v2).length;
+        int packed = series.size() * 16;
+        Assert.assertTrue(name + " should compress", compressed.length < packed);
+        Assert.assertTrue(name + " should be smaller than JSON", compressed.length < json);
+    }
+
+    private static byte[] assertRoundTrip(DataPointSeries series) {
+        byte[] encoded = GorillaCodec.encode(series);
+        Assert.assertEquals(series, GorillaCodec.decode(encoded));
+        return encoded;
+    }
+}
@@ -0,0 +1,101 @@
+/*
+ * ****************************************************************************
+ *
+ *  Copyright (C) Zenoss, Inc. 2026, all rights reserved.
+ *
+ *  This content is made available according to terms specified in
+ *  License.zenoss distributed with this file.
+ *
+ * ***************************************************************************
+ */
+package org.zenoss.app.metricservice.api.impl;
+
+import com.fasterxml.jackson.databind.ObjectMapper;
+import org.junit.Assert;
+import org.junit.Test;
+import org.zenoss.app.metricservice.api.model.v2.QueryResult.Series;
+
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+import java.util.Random;
+
+/**
+ * Compares the payload size of the JSON and binary {@link ResultEncoding}s
+ * for v1 and v2 results, and checks that each round trips. The number of
+ * series, one week at one minute each, is set by
+ * {@code encoding.benchmark.series}, 10 by default.
+ */
+public class ResultEncodingPerformanceTest {
+
+    private static final int POINTS_PER_SERIES = 10080;
+
+    @Test
+    public void compareV2Encodings() throws IOException {
+        final org.zenoss.app.metricservice.api.model.v2.QueryResult result = new org.zenoss.app.metricservice.api.model.v2.QueryResult();
+        List<Series> seriesList = new ArrayList<>();
+        for (DataPointSeries dataPoints : makeSeries()) {
+            Series series = new Series();
+            series.setMetric("cgroup.cpuacct.user");
+            series.setTags(Collections.singletonMap("device", "device" + seriesList.size()));
+            series.setDatapoints(dataPoints);
+            seriesList.add(series);
+        }
+        result.setSeries(seriesList);
+        result.setStatuses(Arrays.asList(new QueryStatus(QueryStatus.QueryStatusEnum.SUCCESS, "")));
+
+        for (ResultEncoding encoding : ResultEncoding.values()) {
+            org.zenoss.app.metricservice.api.model.v2.QueryResult decoded = (org.zenoss.app.metricservice.api.model.v2.QueryResult)
+                    roundTrip(encoding, result, org.zenoss.app.metricservice.api.model.v2.QueryResult.class);
+            for (int i = 0; i < seriesList.size(); i++) {
+                Assert.assertEquals(seriesList.get(i).getDatapoints(), decoded.getSeries().get(i).getDatapoints());
+            }
+        }
+    }
+
+    @Test
+    public void compareV1Encodings() throws IOException {
+        SeriesQueryResult result = new SeriesQueryResult();
+        List<QueryResult> results = new ArrayList<>();
+        for (DataPointSeries dataPoints : makeSeries()) {
+            QueryResult queryResult = new QueryResult();
+            queryResult.setMetric("cgroup.cpuacct.user");
+            queryResult.setDatapoints(new DataPointSeriesList(dataPoints));
+            results.add(queryResult);
+        }
+        result.addResults(results);
+
+        for (ResultEncoding encoding : ResultEncoding.values()) {
+            SeriesQueryResult decoded = (SeriesQueryResult) roundTrip(encoding, result, SeriesQueryResult.class);
+            Assert.assertEquals(results, new ArrayList<>(decoded.getResults()));
+        }
+    }
+
+    private static Object roundTrip(ResultEncoding encoding, Object value, Class<?> type) throws IOException {
+        ObjectMapper mapper = encoding.getObjectMapper();
+        byte[] encoded = mapper.writeValueAsBytes(value);
+        Object decoded = mapper.readValue(encoded, type);
+        if (encoding.isBinary()) {
+            byte[] json = ResultEncoding.JSON.getObjectMapper().writeValueAsBytes(value);
+            Assert.assertTrue(encoding + " should be smaller than JSON", encoded.length < json.length);
+        }
+        return decoded;
+    }
+
+    private static List<DataPointSeries> makeSeries() {
+        int count = Integer.getInteger("encoding.benchmark.series", 10);
+        Random random = new Random(42);
+        List<DataPointSeries> result = new ArrayList<>(count);
+        for (int i = 0; i < count; i++) {
+            DataPointSeries series = new DataPointSeries(POINTS_PER_SERIES);
+            long ts = 1437520680;
+            for (int j = 0; j < POINTS_PER_SERIES; j++, ts += 60) {
+                series.add(ts, random.nextDouble() * 1e5);
+            }
+            result.add(series);
+        }
+        return result;
+    }
+}
@@ -0,0 +1,183 @@
+/*
+ * ****************************************************************************
+ *
+ *  Copyright (C) Zenoss, Inc. 2026, all rights reserved.
+ *
+ *  This content is made available according to terms specified in
+ *  License.zenoss distributed with this file.
+ *
+ * ***************************************************************************
+ */
+package org.zenoss.app.metricservice.api.impl;
+
+import com.fasterxml.jackson.databind.ObjectMapper;
+import org.junit.Assert;
+import org.junit.Test;
+import org.zenoss.app.metricservice.api.model.ReturnSet;
+import org.zenoss.app.metricservice.api.model.v2.QueryResult.Series;
+
+import javax.ws.rs.core.MediaType;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+public class ResultEncodingTest {
+
+    @Test
+    public void testSeriesQueryResultRoundTrip() throws IOException {
+        for (ResultEncoding encoding : ResultEncoding.values()) {
+            ObjectMapper mapper = encoding.getObjectMapper();
+            SeriesQueryResult expected = makeSeriesQueryResult();
+            SeriesQueryResult actual = mapper.readValue(mapper.writeValueAsBytes(expected), SeriesQueryResult.class);
+
+            Assert.assertEquals(encoding.name(), expected.getClientId(), actual.getClientId());
+            Assert.assertEquals(encoding.name(), expected.getReturnset(), actual.getReturnset());
+            Assert.assertEquals(encoding.name(), expected.getStartTimeActual(), actual.getStartTimeActual());
+            Assert.assertEquals(encoding.name(), new ArrayList<>(expected.getResults()), new ArrayList<>(actual.getResults()));
+        }
+    }
+
+    @Test
+    public void testV2QueryResultRoundTrip() throws IOException {
+        for (ResultEncoding encoding : ResultEncoding.values()) {
+            ObjectMapper mapper = encoding.getObjectMapper();
+            org.zenoss.app.metricservice.api.model.v2.QueryResult expected = makeV2QueryResult();
+            org.zenoss.app.metricservice.api.model.v2.QueryResult actual = mapper.readValue(mapper.writeValueAsBytes(expected),
+                    org.zenoss.app.metricservice.api.model.v2.QueryResult.class);
+
+            Assert.assertEquals(encoding.name(), expected.getSeries().size(), actual.getSeries().size());
+            for (int i = 0; i < expected.getSeries().size(); i++) {
+                Series e = expected.getSeries().get(i);
+                Series a = actual.getSeries().get(i);
+                Assert.assertEquals(encoding.name(), e.getMetric(), a.getMetric());
+                Assert.assertEquals(encoding.name(), e.getTags(), a.getTags());
+                Assert.assertEquals(encoding.name(), e.getDatapoints(), a.getDatapoints());
+            }
+            Assert.assertEquals(encoding.name(), expected.getStatuses(), actual.getStatuses());
+        }
+    }
+
+    @Test
+    public void testJsonFormatIsUnchanged() throws IOException {
+        ObjectMapper mapper = Utils.getObjectMapper();
+        QueryResult v1 = new QueryResult();
+        v1.setDatapoints(Arrays.asList(new QueryResultDataPoint(10, 1.5), new QueryResultDataPoint(20, 2.0)));
+        Assert.assertEquals("{\"datapoints\":[{\"timestamp\":10,\"value\":1.5},{\"timestamp\":20,\"value\":2.0}]}",
+                mapper.writeValueAsString(v1));
+        v1.setDatapoints(new DataPointSeriesList(series(10, 1.5, 20, 2.0)));
+        Assert.assertEquals("{\"datapoints\":[{\"timestamp\":10,\"value\":1.5},{\"timestamp\":20,\"value\":2.0}]}",
+                mapper.writeValueAsString(v1));
+
+        Series v2 = new Series();
+        v2.setDatapoints(series(10, 1.5, 20, 2.0));
+        Assert.assertEquals("{\"datapoints\":[[10,1.5],[20,2.0]]}", mapper.writeValueAsString(v2));
+        Series read = mapper.readValue("{\"datapoints\":[[10,1.5],[20,2.0]]}", Series.class);
+        Assert.assertEquals(series(10, 1.5, 20, 2.0), read.getDatapoints());
+    }
+
+    @Test
+    public void testBinaryDataPointsArePacked() throws IOException {
+        for (ResultEncoding encoding : Arrays.asList(ResultEncoding.SMILE, ResultEncoding.CBOR)) {
+            Series v2 = new Series();
+            v2.setDatapoints(series(10, 1.5, 20, 2.0));
+            Map<?, ?> decoded = encoding.getObjectMapper().readValue(encoding.getObjectMapper().writeValueAsBytes(v2), Map.class);
+            Map<?, ?> packed = (Map<?, ?>) decoded.get("datapoints");
+            Assert.assertEquals(encoding.name(), 16, ((byte[]) packed.get(PackedDataPoints.TIMESTAMPS)).length);
+            Assert.assertEquals(encoding.name(), 16, ((byte[]) packed.get(PackedDataPoints.VALUES)).length);
+        }
+    }
+
+    @Test
+    public void testCompressedDataPoints() throws IOException {
+        for (ResultEncoding encoding : Arrays.asList(ResultEncoding.SMILE_GORILLA, ResultEncoding.CBOR_GORILLA)) {
+            Series v2 = new Series();
+            v2.setDatapoints(series(10, 1.5, 20, 2.0));
+            Map<?, ?> decoded = encoding.getObjectMapper().readValue(encoding.getObjectMapper().writeValueAsBytes(v2), Map.class);
+            Map<?, ?> packed = (Map<?, ?>) decoded.get("datapoints");
+            Assert.assertEquals(encoding.name(), Collections.singleton(PackedDataPoints.GORILLA), packed.keySet());
+            Assert.assertEquals(encoding.name(), series(10, 1.5, 20, 2.0),
+                    GorillaCodec.decode((byte[]) packed.get(PackedDataPoints.GORILLA)));
+
+            // The plain binary mapper of the same format reads compressed data points too
+            ResultEncoding plain = ResultEncoding.valueOf(encoding.name().substring(0, encoding.name().indexOf('_')));
+            Series read = plain.getObjectMapper().readValue(encoding.getObjectMapper().writeValueAsBytes(v2), Series.class);
+            Assert.assertEquals(encoding.name(), v2.getDatapoints(), read.getDatapoints());
+        }
+    }
+
+    @Test
+    public void testFromAcceptableMediaTypes() {
+        Assert.assertEquals(ResultEncoding.JSON, ResultEncoding.fromAcceptableMediaTypes(Collections.<MediaType>emptyList()));
+        Assert.assertEquals(ResultEncoding.JSON, ResultEncoding.fromAcceptableMediaTypes(Arrays.asList(
+                MediaType.WILDCARD_TYPE, new MediaType("application", "x-jackson-smile"))));
+        Assert.assertEquals(ResultEncoding.SMILE, ResultEncoding.fromAcceptableMediaTypes(Arrays.asList(
+                new MediaType("application", "x-jackson-smile"), MediaType.APPLICATION_JSON_TYPE)));
+        Assert.assertEquals(ResultEncoding.CBOR, ResultEncoding.fromAcceptableMediaTypes(Arrays.asList(
+                new MediaType("text", "html"), new MediaType("application", "cbor"))));
+        Assert.assertEquals(ResultEncoding.JSON, ResultEncoding.fromAcceptableMediaTypes(Arrays.asList(
+                MediaType.APPLICATION_JSON_TYPE, new MediaType("application", "cbor"))));
+
+        Map<String, String> gorilla = Collections.singletonMap("datapoints", "gorilla");
+        Assert.assertEquals(ResultEncoding.SMILE_GORILLA, ResultEncoding.fromAcceptableMediaTypes(Arrays.asList(
+                new MediaType("application", "x-jackson-smile", gorilla))));
+        Assert.assertEquals(ResultEncoding.CBOR_GORILLA, ResultEncoding.fromAcceptableMediaTypes(Arrays.asList(
+                new MediaType("application", "cbor", gorilla), MediaType.APPLICATION_JSON_TYPE)));
+        Assert.assertEquals(ResultEncoding.JSON, ResultEncoding.fromAcceptableMediaTypes(Arrays.asList(
+                new MediaType("application", "json", gorilla))));
+        Assert.assertEquals(ResultEncoding.SMILE, ResultEncoding.fromAcceptableMediaTypes(Arrays.asList(
+                new MediaType("application", "x-jackson-smile", Collections.singletonMap("datapoints", "packed")))));
+        Assert.assertEquals("application/cbor; datapoints=gorilla", ResultEncoding.CBOR_GORILLA.getMediaType());
+        Assert.assertEquals(ResultEncoding.CBOR_GORILLA, ResultEncoding.fromAcceptableMediaTypes(Arrays.asList(
+                MediaType.valueOf(ResultEncoding.CBOR_GORILLA.getMediaType()))));
+    }
+
+    private static SeriesQueryResult makeSeriesQueryResult() {
+        SeriesQueryResult result = new SeriesQueryResult();
+        result.setClientId("client");
+        result.setReturnset(ReturnSet.EXACT);
+        result.setSeries(true);
+        result.setStartTimeActual(10);
+        result.setEndTimeActual(30);
+        List<QueryResult> results = new ArrayList<>();
+        QueryResult populated = new QueryResult();
+        populated.setMetric("m1");
+        Map<String, List<String>> tags = new HashMap<>();
+        tags.put("device", Arrays.asList("d1"));
+        populated.setTags(tags);
+        populated.setDatapoints(new DataPointSeriesList(series(10, 1.5, 20, Double.NaN, 30, -3.25)));
+        results.add(populated);
+        QueryResult beans = new QueryResult();
+        beans.setMetric("m2");
+        beans.setDatapoints(Arrays.asList(new QueryResultDataPoint(10, 4.0)));
+        results.add(beans);
+        result.addResults(results);
+        return result;
+    }
+
+    private static org.zenoss.app.metricservice.api.model.v2.QueryResult makeV2QueryResult() {
+        List<Series> seriesList = new ArrayList<>();
+        for (int i = 0; i < 3; i++) {
+            Series series = new Series();
+            series.setMetric("m" + i);
+            series.setTags(Collections.singletonMap("device", "d" + i));
+            series.setDatapoints(i == 2 ? new DataPointSeries() : series(10, 1.5 * i, 20, i));
+            seriesList.add(series);
+        }
+        org.zenoss.app.metricservice.api.model.v2.QueryResult result = new org.zenoss.app.metricservice.api.model.v2.QueryResult();
+        result.setSeries(seriesList);
+        result.setStatuses(Arrays.asList(new QueryStatus(QueryStatus.QueryStatusEnum.SUCCESS, "ok")));
+        return result;
+    }
+
+    private static DataPointSeries series(double... pairs) {
+        DataPointSeries result = new DataPointSeries();
+        for (int i = 0; i < pairs.length; i += 2) {
+            result.add((long) pairs[i], pairs[i + 1]);
+        }
+        return result;
+    }
+}
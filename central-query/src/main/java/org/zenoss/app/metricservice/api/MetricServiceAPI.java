@@ -31,6 +31,7 @@
 package org.zenoss.app.metricservice.api;
 
 import com.google.common.base.Optional;
+import org.zenoss.app.metricservice.api.impl.ResultEncoding;
 import org.zenoss.app.metricservice.api.model.MetricSpecification;
 import org.zenoss.app.metricservice.api.model.ReturnSet;
 
@@ -65,5 +66,16 @@ public interface MetricServiceAPI {
                    Optional<Map<String, List<String>>> tags,
                    List<MetricSpecification> metrics);
 
+    /**
+     * Same as {@link #query(Optional, Optional, Optional, Optional, Optional, Optional, double, Optional, List)}
+     * with the response written in the given encoding.
+     */
+    Response query(Optional<String> id, Optional<String> start,
+                   Optional<String> end, Optional<ReturnSet> returnset,
+                   Optional<Boolean> series, Optional<String> downsample,
+                   double downsampleMultiplier,
+                   Optional<Map<String, List<String>>> tags,
+                   List<MetricSpecification> metrics, ResultEncoding encoding);
+
     Response options(String request);
 }
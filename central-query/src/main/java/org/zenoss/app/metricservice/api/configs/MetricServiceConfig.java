@@ -76,6 +76,72 @@ public class MetricServiceConfig {
     @JsonProperty
     private int executorThreadPoolMaxSize = 250;
 
+    @JsonProperty
+    private boolean connectionBoundedExecutor = false;
+
+    @JsonProperty
+    private int maxSubQueriesPerRequest = 1;
+
+    @JsonProperty
+    private boolean coalesceQueries = false;
+
+    @JsonProperty
+    private boolean resultCacheEnabled = false;
+
+    @JsonProperty
+    private long resultCacheMaxBytes = 256L * 1024 * 1024;
+
+    @JsonProperty
+    private long resultCacheSegmentSeconds = 3600;
+
+    @JsonProperty
+    private long resultCacheSettleSeconds = 300;
+
+    @JsonProperty
+    private String resultCacheDirectory = null;
+
+    @JsonProperty
+    private long resultCacheMaxDiskBytes = 4L * 1024 * 1024 * 1024;
+
+    @JsonProperty
+    private boolean slidingWindowEnabled = false;
+
+    @JsonProperty
+    private long slidingWindowMaxQueries = 1000;
+
+    @JsonProperty
+    private long slidingWindowTtlSeconds = 600;
+
+    @JsonProperty
+    private long slidingWindowStaleSeconds = 30;
+
+    @JsonProperty
+    private long slidingWindowSettleSeconds = 120;
+
+    @JsonProperty
+    private long queryChunkSeconds = 0;
+
+    @JsonProperty
+    private int queryChunkParallelism = 4;
+
+    @JsonProperty
+    private boolean lastQueryEnabled = false;
+
+    @JsonProperty
+    private boolean recentTierEnabled = false;
+
+    @JsonProperty
+    private int recentTierMaxSeries = 100000;
+
+    @JsonProperty
+    private int recentTierPointsPerSeries = 32;
+
+    @JsonProperty
+    private long recentTierStaleSeconds = 60;
+
+    @JsonProperty
+    private long recentTierIdleSeconds = 3600;
+
 
     @JsonProperty
     private int httpSocketTimeoutMs = 30000;
@@ -92,6 +158,30 @@ public class MetricServiceConfig {
     @JsonProperty
     private long rateOptionCutoffTs = -1;
 
+    @JsonProperty
+    private boolean streamResults = false;
+
+    @JsonProperty
+    private boolean compressResponses = false;
+
+    @JsonProperty
+    private int compressionThresholdBytes = 4096;
+
+    @JsonProperty
+    private boolean acceptCompressedRequests = true;
+
+    @JsonProperty
+    private boolean requestCompressedOpenTsdbResponses = true;
+
+    @JsonProperty
+    private boolean parallelResultProcessing = false;
+
+    @JsonProperty
+    private long parallelMinDataPoints = 100000;
+
+    @JsonProperty
+    private int parallelMinPartitionRows = 4096;
+
     public int getMaxTotalPoolConnections() {
         return maxTotalPoolConnections;
     }
@@ -124,6 +214,300 @@ public class MetricServiceConfig {
         this.executorThreadPoolMaxSize = executorThreadPoolMaxSize;
     }
 
+    /**
+     * Bound the requests in flight to maxTotalPoolConnections, and read
+     * OpenTSDB's answers on as many threads, started as needed and stopped
+     * once idle, instead of on the executor thread pool
+     * @return
+     */
+    public boolean isConnectionBoundedExecutor() {
+        return connectionBoundedExecutor;
+    }
+
+    public void setConnectionBoundedExecutor(boolean connectionBoundedExecutor) {
+        this.connectionBoundedExecutor = connectionBoundedExecutor;
+    }
+
+    /**
+     * The most metric specifications sent to OpenTSDB as sub-queries of one
+     * request; 1 queries each specification on its own
+     * @return
+     */
+    public int getMaxSubQueriesPerRequest() {
+        return maxSubQueriesPerRequest;
+    }
+
+    public void setMaxSubQueriesPerRequest(int maxSubQueriesPerRequest) {
+        this.maxSubQueriesPerRequest = maxSubQueriesPerRequest;
+    }
+
+    /**
+     * Let identical OpenTSDB queries issued at the same time share one request
+     * @return
+     */
+    public boolean isCoalesceQueries() {
+        return coalesceQueries;
+    }
+
+    public void setCoalesceQueries(boolean coalesceQueries) {
+        this.coalesceQueries = coalesceQueries;
+    }
+
+    /**
+     * Cache completed time segments of query results and only query OpenTSDB
+     * for the rest of each range
+     * @return
+     */
+    public boolean isResultCacheEnabled() {
+        return resultCacheEnabled;
+    }
+
+    public void setResultCacheEnabled(boolean resultCacheEnabled) {
+        this.resultCacheEnabled = resultCacheEnabled;
+    }
+
+    /**
+     * The most memory, roughly, cached result segments may take
+     * @return
+     */
+    public long getResultCacheMaxBytes() {
+        return resultCacheMaxBytes;
+    }
+
+    public void setResultCacheMaxBytes(long resultCacheMaxBytes) {
+        this.resultCacheMaxBytes = resultCacheMaxBytes;
+    }
+
+    /**
+     * The length of cached result segments, rounded up to a multiple of the
+     * downsample interval of each series
+     * @return
+     */
+    public long getResultCacheSegmentSeconds() {
+        return resultCacheSegmentSeconds;
+    }
+
+    public void setResultCacheSegmentSeconds(long resultCacheSegmentSeconds) {
+        this.resultCacheSegmentSeconds = resultCacheSegmentSeconds;
+    }
+
+    /**
+     * How long after it ends a result segment is complete and can be cached
+     * @return
+     */
+    public long getResultCacheSettleSeconds() {
+        return resultCacheSettleSeconds;
+    }
+
+    public void setResultCacheSettleSeconds(long resultCacheSettleSeconds) {
+        this.resultCacheSettleSeconds = resultCacheSettleSeconds;
+    }
+
+    /**
+     * Directory where result segments are also kept on disk, so they survive
+     * restarts; none if empty
+     * @return
+     */
+    public String getResultCacheDirectory() {
+        return resultCacheDirectory;
+    }
+
+    public void setResultCacheDirectory(String resultCacheDirectory) {
+        this.resultCacheDirectory = resultCacheDirectory;
+    }
+
+    /**
+     * The most space result segments may take on disk
+     * @return
+     */
+    public long getResultCacheMaxDiskBytes() {
+        return resultCacheMaxDiskBytes;
+    }
+
+    public void setResultCacheMaxDiskBytes(long resultCacheMaxDiskBytes) {
+        this.resultCacheMaxDiskBytes = resultCacheMaxDiskBytes;
+    }
+
+    /**
+     * Keep the last result of queries over a window ending now, such as
+     * start=1h-ago, and only fetch what changed when they are polled again
+     *
+     * @return
+     */
+    public boolean isSlidingWindowEnabled() {
+        return slidingWindowEnabled;
+    }
+
+    public void setSlidingWindowEnabled(boolean slidingWindowEnabled) {
+        this.slidingWindowEnabled = slidingWindowEnabled;
+    }
+
+    /**
+     * The most queries whose last result is kept at once
+     *
+     * @return
+     */
+    public long getSlidingWindowMaxQueries() {
+        return slidingWindowMaxQueries;
+    }
+
+    public void setSlidingWindowMaxQueries(long slidingWindowMaxQueries) {
+        this.slidingWindowMaxQueries = slidingWindowMaxQueries;
+    }
+
+    /**
+     * How long the last result of a query nobody polls is kept
+     *
+     * @return
+     */
+    public long getSlidingWindowTtlSeconds() {
+        return slidingWindowTtlSeconds;
+    }
+
+    public void setSlidingWindowTtlSeconds(long slidingWindowTtlSeconds) {
+        this.slidingWindowTtlSeconds = slidingWindowTtlSeconds;
+    }
+
+    /**
+     * How old a last result may be and still be answered at once, while it
+     * is refreshed in the background
+     *
+     * @return
+     */
+    public long getSlidingWindowStaleSeconds() {
+        return slidingWindowStaleSeconds;
+    }
+
+    public void setSlidingWindowStaleSeconds(long slidingWindowStaleSeconds) {
+        this.slidingWindowStaleSeconds = slidingWindowStaleSeconds;
+    }
+
+    /**
+     * How far before the previous poll points may still change, and are
+     * fetched again
+     *
+     * @return
+     */
+    public long getSlidingWindowSettleSeconds() {
+        return slidingWindowSettleSeconds;
+    }
+
+    public void setSlidingWindowSettleSeconds(long slidingWindowSettleSeconds) {
+        this.slidingWindowSettleSeconds = slidingWindowSettleSeconds;
+    }
+
+    /**
+     * The length of the chunks queries over longer ranges are split into,
+     * rounded up to a multiple of their downsample intervals; 0 to send
+     * every query whole. OpenTSDB does not interpolate across the edges of
+     * chunks when it aggregates series with missing points.
+     *
+     * @return
+     */
+    public long getQueryChunkSeconds() {
+        return queryChunkSeconds;
+    }
+
+    public void setQueryChunkSeconds(long queryChunkSeconds) {
+        this.queryChunkSeconds = queryChunkSeconds;
+    }
+
+    /**
+     * The most chunks of one query fetched at once
+     *
+     * @return
+     */
+    public int getQueryChunkParallelism() {
+        return queryChunkParallelism;
+    }
+
+    public void setQueryChunkParallelism(int queryChunkParallelism) {
+        this.queryChunkParallelism = queryChunkParallelism;
+    }
+
+    /**
+     * Whether queries for the last point in a range ask OpenTSDB for the last
+     * point of each series instead of scanning the range
+     *
+     * @return
+     */
+    public boolean isLastQueryEnabled() {
+        return lastQueryEnabled;
+    }
+
+    public void setLastQueryEnabled(boolean lastQueryEnabled) {
+        this.lastQueryEnabled = lastQueryEnabled;
+    }
+
+    /**
+     * Whether recent points pushed to the store endpoint are kept, and the
+     * newest points of queries read from them. Points must be pushed to
+     * every replica.
+     *
+     * @return
+     */
+    public boolean isRecentTierEnabled() {
+        return recentTierEnabled;
+    }
+
+    public void setRecentTierEnabled(boolean recentTierEnabled) {
+        this.recentTierEnabled = recentTierEnabled;
+    }
+
+    /**
+     * The most series whose recent points are kept
+     *
+     * @return
+     */
+    public int getRecentTierMaxSeries() {
+        return recentTierMaxSeries;
+    }
+
+    public void setRecentTierMaxSeries(int recentTierMaxSeries) {
+        this.recentTierMaxSeries = recentTierMaxSeries;
+    }
+
+    /**
+     * The most recent points kept of each series
+     *
+     * @return
+     */
+    public int getRecentTierPointsPerSeries() {
+        return recentTierPointsPerSeries;
+    }
+
+    public void setRecentTierPointsPerSeries(int recentTierPointsPerSeries) {
+        this.recentTierPointsPerSeries = recentTierPointsPerSeries;
+    }
+
+    /**
+     * How long nothing may be pushed before the recent points are no longer
+     * read
+     *
+     * @return
+     */
+    public long getRecentTierStaleSeconds() {
+        return recentTierStaleSeconds;
+    }
+
+    public void setRecentTierStaleSeconds(long recentTierStaleSeconds) {
+        this.recentTierStaleSeconds = recentTierStaleSeconds;
+    }
+
+    /**
+     * How long after its newest point a series may be dropped to make room
+     * for others
+     *
+     * @return
+     */
+    public long getRecentTierIdleSeconds() {
+        return recentTierIdleSeconds;
+    }
+
+    public void setRecentTierIdleSeconds(long recentTierIdleSeconds) {
+        this.recentTierIdleSeconds = recentTierIdleSeconds;
+    }
+
     /**
      * @return the defaultReturnSet
      */
@@ -267,7 +651,8 @@ public class MetricServiceConfig {
     }
 
     /**
-     * Timeout to wait for data
+     * Timeout to wait for OpenTSDB's whole answer, including the wait for a
+     * free connection
      */
     public int getHttpSocketTimeoutMs() {
         return httpSocketTimeoutMs;
@@ -275,6 +660,8 @@ public class MetricServiceConfig {
 
     /**
      * Timeout to wait for connection from pool
+     * @deprecated requests to OpenTSDB wait for a connection within
+     * {@link #getHttpSocketTimeoutMs()}
      */
     public int getConnectionManagerTimeoutMs() {
         return connectionManagerTimeoutMs;
@@ -308,4 +695,107 @@ public class MetricServiceConfig {
         this.rateOptionCutoffTs = rateOptionCutoffTs;
     }
 
+    /**
+     * Write query results to the client as they are serialized instead of
+     * building the complete response first. v2 queries also write each
+     * series as soon as its backend query completes.
+     * @return
+     */
+    public boolean isStreamResults() {
+        return streamResults;
+    }
+
+    public void setStreamResults(boolean streamResults) {
+        this.streamResults = streamResults;
+    }
+
+    /**
+     * Compress query responses with gzip or deflate when the client accepts
+     * it. Streamed responses are compressed whatever their size.
+     * @return
+     */
+    public boolean isCompressResponses() {
+        return compressResponses;
+    }
+
+    public void setCompressResponses(boolean compressResponses) {
+        this.compressResponses = compressResponses;
+    }
+
+    /**
+     * Smallest response, in bytes, that is compressed
+     * @return
+     */
+    public int getCompressionThresholdBytes() {
+        return compressionThresholdBytes;
+    }
+
+    public void setCompressionThresholdBytes(int compressionThresholdBytes) {
+        this.compressionThresholdBytes = compressionThresholdBytes;
+    }
+
+    /**
+     * Accept gzip or deflate encoded performance query request bodies
+     * @return
+     */
+    public boolean isAcceptCompressedRequests() {
+        return acceptCompressedRequests;
+    }
+
+    public void setAcceptCompressedRequests(boolean acceptCompressedRequests) {
+        this.acceptCompressedRequests = acceptCompressedRequests;
+    }
+
+    /**
+     * Send Accept-Encoding to OpenTSDB and decompress its responses when they
+     * are parsed
+     * @return
+     */
+    public boolean isRequestCompressedOpenTsdbResponses() {
+        return requestCompressedOpenTsdbResponses;
+    }
+
+    public void setRequestCompressedOpenTsdbResponses(boolean requestCompressedOpenTsdbResponses) {
+        this.requestCompressedOpenTsdbResponses = requestCompressedOpenTsdbResponses;
+    }
+
+    /**
+     * Bucket, interpolate and calculate large query results on all cores
+     * instead of only the request thread
+     * @return
+     */
+    public boolean isParallelResultProcessing() {
+        return parallelResultProcessing;
+    }
+
+    public void setParallelResultProcessing(boolean parallelResultProcessing) {
+        this.parallelResultProcessing = parallelResultProcessing;
+    }
+
+    /**
+     * Fewest data points, or buckets times interpolated series, that are
+     * bucketed or interpolated in parallel
+     * @return
+     */
+    public long getParallelMinDataPoints() {
+        return parallelMinDataPoints;
+    }
+
+    public void setParallelMinDataPoints(long parallelMinDataPoints) {
+        this.parallelMinDataPoints = parallelMinDataPoints;
+    }
+
+    /**
+     * Fewest buckets in each of the time ranges that calculated values are
+     * evaluated over in parallel
+     * @return
+     */
+    public int getParallelMinPartitionRows() {
+        return parallelMinPartitionRows;
+    }
+
+    public void setParallelMinPartitionRows(int parallelMinPartitionRows) {
+        this.parallelMinPartitionRows = parallelMinPartitionRows;
+    }
+
 }
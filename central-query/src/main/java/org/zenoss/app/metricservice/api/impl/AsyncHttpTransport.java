@@ -0,0 +1,366 @@
+/*
+ * ****************************************************************************
+ *
+ *  Copyright (C) Zenoss, Inc. 2026, all rights reserved.
+ *
+ *  This content is made available according to terms specified in
+ *  License.zenoss distributed with this file.
+ *
+ * ***************************************************************************
+ */
+package org.zenoss.app.metricservice.api.impl;
+
+import org.eclipse.jetty.client.HttpClient;
+import org.eclipse.jetty.client.HttpExchange;
+import org.eclipse.jetty.io.Buffer;
+import org.eclipse.jetty.io.ByteArrayBuffer;
+import org.eclipse.jetty.util.thread.QueuedThreadPool;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.InterruptedIOException;
+import java.net.SocketTimeoutException;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayDeque;
+import java.util.Queue;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.Semaphore;
+import java.util.zip.GZIPInputStream;
+import java.util.zip.InflaterInputStream;
+
+/**
+ * Exchanges with OpenTSDB over non-blocking connections, so that a request
+ * waiting for OpenTSDB holds no thread. A few selector threads send the
+ * requests and read the answers. An answer is completed once its headers are
+ * in; its content is handed over chunk by chunk as it arrives, to be decoded
+ * by the caller as a stream, so the body is never held whole. Reading the
+ * content waits for the chunks, so it must not be done on the selector
+ * threads.
+ * <p/>
+ * Requests beyond the connections allowed to OpenTSDB wait in a queue for
+ * one to be free. If the requests in flight are bounded, the ones beyond the
+ * bound wait here instead, before they are sent, and their timeout only
+ * starts once they are.
+ */
+public class AsyncHttpTransport {
+    private static final Logger log = LoggerFactory.getLogger(AsyncHttpTransport.class);
+
+    private final HttpClient client;
+    private final boolean acceptCompressed;
+
+    /**
+     * Permits for the requests in flight, released as they complete; null if
+     * they are not bounded
+     */
+    private final Semaphore inFlight;
+    private final Queue<Exchange> waiting = new ConcurrentLinkedQueue<>();
+
+    /**
+     * @param maxConnections   the most connections open to OpenTSDB
+     * @param connectTimeoutMs how long to wait for a connection to open
+     * @param timeoutMs        how long to wait for an answer
+     * @param acceptCompressed whether OpenTSDB may compress its answers
+     */
+    public AsyncHttpTransport(int maxConnections, int connectTimeoutMs, long timeoutMs, boolean acceptCompressed) {
+        this(maxConnections, 0, connectTimeoutMs, timeoutMs, acceptCompressed);
+    }
+
+    /**
+     * @param maxInFlight the most requests sent and not yet answered, or 0 for
+     *                    no bound besides the connections
+     */
+    public AsyncHttpTransport(int maxConnections, int maxInFlight, int connectTimeoutMs, long timeoutMs, boolean acceptCompressed) {
+        this.acceptCompressed = acceptCompressed;
+        this.inFlight = maxInFlight > 0 ? new Semaphore(maxInFlight) : null;
+        client = new HttpClient();
+        client.setConnectorType(HttpClient.CONNECTOR_SELECT_CHANNEL);
+        client.setMaxConnectionsPerAddress(Math.max(1, maxConnections));
+        client.setConnectTimeout(connectTimeoutMs);
+        client.setTimeout(timeoutMs);
+        QueuedThreadPool threads = new QueuedThreadPool();
+        threads.setName("TSDB-io");
+        threads.setMinThreads(2);
+        threads.setMaxThreads(8);
+        threads.setDaemon(true);
+        client.setThreadPool(threads);
+    }
+
+    public void start() throws Exception {
+        client.start();
+    }
+
+    public void stop() {
+        try {
+            client.stop();
+        } catch (Exception e) {
+            log.warn("Unable to stop the OpenTSDB client: {}", e.getMessage());
+        }
+        for (Exchange exchange = waiting.poll(); null != exchange; exchange = waiting.poll()) {
+            exchange.answer.completeExceptionally(new IOException("The OpenTSDB client was stopped"));
+        }
+    }
+
+    /**
+     * Posts a JSON document
+     *
+     * @return the future answer, failed with an IOException if none came
+     */
+    CompletableFuture<Answer> post(String url, String json) {
+        Exchange exchange = new Exchange(url, "POST");
+        exchange.setRequestContentType("application/json");
+        exchange.setRequestContent(new ByteArrayBuffer(json.getBytes(StandardCharsets.UTF_8)));
+        return send(exchange);
+    }
+
+    /**
+     * @return the future answer, failed with an IOException if none came
+     */
+    CompletableFuture<Answer> get(String url) {
+        return send(new Exchange(url, "GET"));
+    }
+
+    private CompletableFuture<Answer> send(Exchange exchange) {
+        if (acceptCompressed) {
+            exchange.setRequestHeader("Accept-Encoding", "gzip,deflate");
+        }
+        if (null == inFlight) {
+            dispatch(exchange);
+        } else {
+            waiting.add(exchange);
+            sendWaiting();
+        }
+        return exchange.answer;
+    }
+
+    /**
+     * Sends waiting requests while there are permits. Both queuing a request
+     * and releasing a permit end here, so none is left waiting with a permit
+     * free. Requests whose answer was completed while they waited, because
+     * they were cancelled or the transport stopped, are dropped.
+     */
+    private void sendWaiting() {
+        while (!waiting.isEmpty() && inFlight.tryAcquire()) {
+            Exchange next = waiting.poll();
+            if (null == next || next.answer.isDone()) {
+                inFlight.release();
+                continue;
+            }
+            // Only an exchange holding a permit gives one back
+            next.done.whenComplete((done, failure) -> {
+                inFlight.release();
+                sendWaiting();
+            });
+            dispatch(next);
+        }
+    }
+
+    private void dispatch(Exchange exchange) {
+        try {
+            client.send(exchange);
+        } catch (IOException e) {
+            exchange.fail(e);
+        }
+    }
+
+    /**
+     * The status and headers of an answer, and its content as it arrives
+     */
+    static final class Answer {
+        private final int status;
+        private final String reason;
+        private final String encoding;
+        private final ContentStream content;
+
+        private Answer(int status, String reason, String encoding, ContentStream content) {
+            this.status = status;
+            this.reason = reason;
+            this.encoding = encoding;
+            this.content = content;
+        }
+
+        int getStatus() {
+            return status;
+        }
+
+        String getReason() {
+            return reason;
+        }
+
+        /**
+         * Waits for the first chunk of content or the end of the answer
+         */
+        boolean hasContent() throws IOException {
+            return content.hasMore();
+        }
+
+        /**
+         * @return the content as it arrives, decompressed if OpenTSDB
+         * compressed it
+         */
+        InputStream getContent() throws IOException {
+            if ("gzip".equalsIgnoreCase(encoding) || "x-gzip".equalsIgnoreCase(encoding)) {
+                return new GZIPInputStream(content);
+            }
+            if ("deflate".equalsIgnoreCase(encoding)) {
+                return new InflaterInputStream(content);
+            }
+            return content;
+        }
+    }
+
+    /**
+     * Chunks of content queued by the selector threads as they arrive, read
+     * by one other thread. A chunk is dropped once read.
+     */
+    private static final class ContentStream extends InputStream {
+        private final Queue<byte[]> chunks = new ArrayDeque<>();
+        private byte[] current = new byte[0];
+        private int position = 0;
+        private boolean ended = false;
+        private IOException failure = null;
+
+        synchronized void add(byte[] chunk) {
+            chunks.add(chunk);
+            notifyAll();
+        }
+
+        synchronized void end() {
+            ended = true;
+            notifyAll();
+        }
+
+        synchronized void fail(IOException e) {
+            failure = e;
+            notifyAll();
+        }
+
+        /**
+         * Waits for a chunk with bytes left in it
+         *
+         * @return false at the end of the content
+         */
+        synchronized boolean hasMore() throws IOException {
+            while (position == current.length) {
+                if (!chunks.isEmpty()) {
+                    current = chunks.poll();
+                    position = 0;
+                } else if (null != failure) {
+                    throw failure;
+                } else if (ended) {
+                    return false;
+                } else {
+                    try {
+                        wait();
+                    } catch (InterruptedException e) {
+                        Thread.currentThread().interrupt();
+                        throw new InterruptedIOException("Interrupted while waiting for OpenTSDB's answer");
+                    }
+                }
+            }
+            return true;
+        }
+
+        @Override
+        public synchronized int read() throws IOException {
+            return hasMore() ? current[position++] & 0xff : -1;
+        }
+
+        @Override
+        public synchronized int read(byte[] b, int off, int len) throws IOException {
+            if (len == 0) {
+                return 0;
+            }
+            if (!hasMore()) {
+                return -1;
+            }
+            int n = Math.min(len, current.length - position);
+            System.arraycopy(current, position, b, off, n);
+            position += n;
+            return n;
+        }
+
+        @Override
+        public synchronized int available() {
+            return current.length - position;
+        }
+    }
+
+    private static final class Exchange extends HttpExchange {
+        /**
+         * Completed once the headers are in
+         */
+        final CompletableFuture<Answer> answer = new CompletableFuture<>();
+
+        /**
+         * Completed once the exchange is over, whichever way
+         */
+        final CompletableFuture<Void> done = new CompletableFuture<>();
+
+        private final ContentStream content = new ContentStream();
+        private int status;
+        private String reason;
+        private String encoding;
+
+        Exchange(String url, String method) {
+            setURL(url);
+            setMethod(method);
+        }
+
+        @Override
+        protected void onResponseStatus(Buffer version, int status, Buffer reason) throws IOException {
+            this.status = status;
+            this.reason = null == reason ? null : reason.toString();
+        }
+
+        @Override
+        protected void onResponseHeader(Buffer name, Buffer value) throws IOException {
+            if ("Content-Encoding".equalsIgnoreCase(name.toString())) {
+                encoding = value.toString();
+            }
+        }
+
+        @Override
+        protected void onResponseHeaderComplete() throws IOException {
+            answer.complete(new Answer(status, reason, encoding, content));
+        }
+
+        @Override
+        protected void onResponseContent(Buffer chunk) throws IOException {
+            content.add(chunk.asArray());
+        }
+
+        @Override
+        protected void onResponseComplete() throws IOException {
+            content.end();
+            answer.complete(new Answer(status, reason, encoding, content));
+            done.complete(null);
+        }
+
+        @Override
+        protected void onConnectionFailed(Throwable x) {
+            fail(x instanceof IOException ? (IOException) x : new IOException(x.getMessage(), x));
+        }
+
+        @Override
+        protected void onException(Throwable x) {
+            fail(x instanceof IOException ? (IOException) x : new IOException(x.getMessage(), x));
+        }
+
+        @Override
+        protected void onExpire() {
+            fail(new SocketTimeoutException("No answer from " + getRequestURI() + " in time"));
+        }
+
+        /**
+         * Fails the answer if the headers were not in yet, else its content
+         */
+        private void fail(IOException e) {
+            answer.completeExceptionally(e);
+            content.fail(e);
+            done.complete(null);
+        }
+    }
+}
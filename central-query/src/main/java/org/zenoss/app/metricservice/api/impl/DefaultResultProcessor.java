@@ -32,7 +32,9 @@
 package org.zenoss.app.metricservice.api.impl;
 
 import com.google.common.base.Strings;
+import com.google.common.base.Throwables;
 import com.google.common.collect.ArrayListMultimap;
+import com.google.common.collect.Iterables;
 import com.google.common.collect.Multimap;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
@@ -40,6 +42,8 @@ import org.zenoss.app.metricservice.api.metric.impl.MetricService;
 import org.zenoss.app.metricservice.api.model.InterpolatorType;
 import org.zenoss.app.metricservice.api.model.MetricSpecification;
 import org.zenoss.app.metricservice.buckets.Buckets;
+import org.zenoss.app.metricservice.buckets.DenseBuckets;
+import org.zenoss.app.metricservice.buckets.InterpolatedSeries;
 import org.zenoss.app.metricservice.buckets.Interpolator;
 import org.zenoss.app.metricservice.buckets.InterpolatorFactory;
 import org.zenoss.app.metricservice.buckets.Value;
@@ -50,10 +54,18 @@ import javax.ws.rs.core.Response;
 import java.io.BufferedReader;
 import java.io.IOException;
 import java.util.ArrayList;
+import java.util.Arrays;
 import java.util.Collection;
 import java.util.HashMap;
+import java.util.HashSet;
+import java.util.LinkedHashMap;
 import java.util.List;
 import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.Future;
 
 /**
  * Processes the output stream from the back end metric query storage into
@@ -69,17 +81,58 @@ public class DefaultResultProcessor implements ResultProcessor,
     private final Iterable<OpenTSDBQueryResult> results;
     private final List<MetricSpecification> queries;
     private final long bucketSize;
+    private final long start;
+    private final long end;
     private Map<MetricKey, MetricCalculator> calculatorMap;
+    private Map<MetricKey, String> expressionMap;
     private MetricKeyCache keyCache;
     private Buckets<IHasShortcut> buckets;
 
+    /**
+     * Pool running the parallel parts of the processing, or null to process
+     * everything on the calling thread
+     */
+    private ForkJoinPool pool = null;
+    private long minParallelDataPoints = Long.MAX_VALUE;
+    private int minPartitionRows = Integer.MAX_VALUE;
+
     public DefaultResultProcessor(Iterable<OpenTSDBQueryResult> results, List<MetricSpecification> queries, long bucketSize) {
+        this(results, queries, bucketSize, -1, -1);
+    }
+
+    /**
+     * @param start start of the queried range in seconds, or -1 if unknown
+     * @param end   end of the queried range in seconds, or -1 if unknown
+     */
+    public DefaultResultProcessor(Iterable<OpenTSDBQueryResult> results, List<MetricSpecification> queries, long bucketSize,
+                                  long start, long end) {
         this.results = results;
         this.queries = queries;
         this.bucketSize = bucketSize;
+        this.start = start;
+        this.end = end;
     }
 
 
+    /**
+     * Processes large results in parallel. Series are bucketed and
+     * interpolated as independent tasks once there are enough data points,
+     * and calculated values are evaluated in partitions of the time range.
+     * The results are the same as when processing sequentially.
+     *
+     * @param pool                  the pool to run the tasks in
+     * @param minParallelDataPoints fewest data points, or buckets times
+     *                              interpolated series, worth bucketing or
+     *                              interpolating in parallel
+     * @param minPartitionRows      fewest buckets worth evaluating as a
+     *                              partition of the calculated values
+     */
+    public void setParallelism(ForkJoinPool pool, long minParallelDataPoints, int minPartitionRows) {
+        this.pool = pool;
+        this.minParallelDataPoints = Math.max(1, minParallelDataPoints);
+        this.minPartitionRows = Math.max(1, minPartitionRows);
+    }
+
     /*
      * (non-Javadoc)
      *
@@ -128,28 +181,129 @@ public class DefaultResultProcessor implements ResultProcessor,
         // Get a list of calculated values
         List<MetricSpecification> calculatedValues = MetricService.calculatedValueFilter(queries);
 
-        long dataPointTimeStamp = 0l;
-        Tags curTags = null;
-
-        // iterate over results (a result is a data series - with metric name, collection of points, tags, etc.
+        List<OpenTSDBQueryResult> series = new ArrayList<>();
+        List<MetricKey> seriesKeys = new ArrayList<>();
+        long dataPointCount = 0;
         for (OpenTSDBQueryResult result : this.results) {
-            curTags = Tags.fromOpenTsdbTags(result.tags);
+            Tags curTags = Tags.fromOpenTsdbTags(result.tags);
             MetricKey key = keyCache.get(result.metric, result.metricSpecName, result.metricSpecId, curTags);
-            QueryStatus status = result.getStatus();
+            series.add(result);
+            seriesKeys.add(key);
+            dataPointCount += result.getDataPoints().size();
+        }
+
+        buckets = newBuckets(series.size(), dataPointCount);
+        for (int s = 0; s < series.size(); s++) {
+            MetricKey key = seriesKeys.get(s);
+            QueryStatus status = series.get(s).getStatus();
             log.debug(String.format("Adding QueryStatus %s for key %s (hashcode: %d)", status.getMessage(), key.toString(), key.hashCode()));
             buckets.addQueryStatus(key, status);
+        }
 
-            // iterate over data points for the current series
-            for (Map.Entry<Long, Double> dataPointEntry : result.dps.entrySet()) {
-                double dataPointValue = dataPointEntry.getValue();
-                dataPointTimeStamp = dataPointEntry.getKey();
+        // Parallel processing gives the same results as long as no two series share a shortcut
+        boolean parallel = null != pool && hasDistinctShortcuts(seriesKeys);
+        if (parallel && dataPointCount >= minParallelDataPoints) {
+            bucketSeriesInParallel(series, seriesKeys);
+        } else {
+            bucketSeries(series, seriesKeys);
+        }
+        if (parallel) {
+            interpolateValuesInParallel(buckets);
+        } else {
+            interpolateValues(buckets);
+        }
+        calculateValues(calculatedValues, buckets);
+        return buckets;
+    }
+
+    private void bucketSeries(List<OpenTSDBQueryResult> series, List<MetricKey> seriesKeys) {
+        // iterate over results (a result is a data series - with metric name, collection of points, tags, etc.
+        for (int s = 0; s < series.size(); s++) {
+            MetricKey key = seriesKeys.get(s);
 
-                buckets.add(key, dataPointTimeStamp, dataPointValue);
+            // iterate over data points for the current series
+            DataPointSeries dataPoints = series.get(s).getDataPoints();
+            for (int i = 0; i < dataPoints.size(); i++) {
+                buckets.add(key, dataPoints.getTimestamp(i), dataPoints.getValue(i));
             } // iterate over data points in this series
         } //iterate over all series in result set
-        interpolateValues(buckets);
-        calculateValues(calculatedValues, buckets);
-        return buckets;
+    }
+
+    /**
+     * Sums the data points of every key into its buckets as a separate task,
+     * then adds the sums to the buckets. All series of a key are summed by
+     * one task in their original order, so the sums are exactly those of
+     * {@link #bucketSeries(List, List)}.
+     */
+    private void bucketSeriesInParallel(List<OpenTSDBQueryResult> series, List<MetricKey> seriesKeys) {
+        Map<MetricKey, List<DataPointSeries>> byKey = new LinkedHashMap<>();
+        for (int s = 0; s < series.size(); s++) {
+            List<DataPointSeries> dataPoints = byKey.get(seriesKeys.get(s));
+            if (null == dataPoints) {
+                dataPoints = new ArrayList<>();
+                byKey.put(seriesKeys.get(s), dataPoints);
+            }
+            dataPoints.add(series.get(s).getDataPoints());
+        }
+        List<Callable<SeriesSums>> tasks = new ArrayList<>(byKey.size());
+        for (final List<DataPointSeries> dataPoints : byKey.values()) {
+            tasks.add(new Callable<SeriesSums>() {
+                @Override
+                public SeriesSums call() {
+                    SeriesSums sums = new SeriesSums();
+                    for (DataPointSeries points : dataPoints) {
+                        for (int i = 0; i < points.size(); i++) {
+                            sums.add(buckets.getBucketTimestamp(points.getTimestamp(i)), points.getValue(i));
+                        }
+                    }
+                    return sums;
+                }
+            });
+        }
+        List<SeriesSums> sums;
+        try {
+            sums = invokeAll(tasks);
+        } catch (ExecutionException e) {
+            throw new IllegalStateException(e.getCause());
+        }
+        int k = 0;
+        for (MetricKey key : byKey.keySet()) {
+            sums.get(k++).addTo(buckets, key);
+        }
+    }
+
+    /**
+     * Computes the interpolated values of every series as a separate task,
+     * reading the buckets only, then adds them to the buckets.
+     */
+    private void interpolateValuesInParallel(final Buckets<IHasShortcut> buckets) {
+        long rows = buckets.getOrderedTimestamps().length;
+        if (rows * interpolatorMap.size() < minParallelDataPoints) {
+            interpolateValues(buckets);
+            return;
+        }
+        List<Callable<InterpolatedSeries>> tasks = new ArrayList<>(interpolatorMap.size());
+        for (InterpolatorType interpolatorType : interpolatorMap.keySet()) {
+            final Interpolator interpolator = InterpolatorFactory.getInterpolator(interpolatorType);
+            for (final IHasShortcut key : interpolatorMap.get(interpolatorType)) {
+                log.debug("Series [{}] interpolated with [{}] interpolator.", key.getShortcut(), interpolatorType);
+                tasks.add(new Callable<InterpolatedSeries>() {
+                    @Override
+                    public InterpolatedSeries call() {
+                        return interpolator.interpolateSeries(buckets, key);
+                    }
+                });
+            }
+        }
+        List<InterpolatedSeries> interpolated;
+        try {
+            interpolated = invokeAll(tasks);
+        } catch (ExecutionException e) {
+            throw new IllegalStateException(e.getCause());
+        }
+        for (InterpolatedSeries values : interpolated) {
+            values.applyTo(buckets);
+        }
     }
 
     private void interpolateValues(Buckets<IHasShortcut> buckets) {
@@ -164,45 +318,201 @@ public class DefaultResultProcessor implements ResultProcessor,
         }
     }
 
+    private boolean hasDistinctShortcuts(List<MetricKey> seriesKeys) {
+        Map<String, IHasShortcut> byShortcut = new HashMap<>();
+        for (IHasShortcut key : Iterables.<IHasShortcut>concat(seriesKeys, calculatorMap.keySet(), interpolatorMap.values())) {
+            IHasShortcut other = byShortcut.put(key.getShortcut(), key);
+            if (null != other && !other.equals(key)) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    /**
+     * Runs the tasks in the pool and returns their results in order
+     *
+     * @throws ExecutionException if a task failed with a checked exception;
+     *                            unchecked ones are rethrown as they are
+     */
+    private <T> List<T> invokeAll(List<Callable<T>> tasks) throws ExecutionException {
+        List<T> results = new ArrayList<>(tasks.size());
+        try {
+            for (Future<T> future : pool.invokeAll(tasks)) {
+                results.add(future.get());
+            }
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new WebApplicationException(e);
+        } catch (ExecutionException e) {
+            Throwables.throwIfUnchecked(e.getCause());
+            throw e;
+        }
+        return results;
+    }
+
     private void initialize() {
-        buckets = new Buckets<>(bucketSize);
         calculatorMap = new HashMap<>();
+        expressionMap = new HashMap<>();
         keyCache = new MetricKeyCache();
     }
 
+    /**
+     * Holds the range densely only when the series are downsampled and
+     * expected to fill enough of its buckets, see
+     * {@link DenseBuckets#isWorthwhile(long, long, long, int, long)}.
+     */
+    private Buckets<IHasShortcut> newBuckets(int seriesCount, long dataPointCount) {
+        if (DenseBuckets.isWorthwhile(bucketSize, start, end, seriesCount, dataPointCount)) {
+            log.debug("Using dense buckets for range [{}, {}].", start, end);
+            return new DenseBuckets<>(bucketSize, start, end);
+        }
+        return new Buckets<>(bucketSize);
+    }
 
-    private void calculateValues(List<MetricSpecification> calculatedValues, Buckets<IHasShortcut> buckets) throws BadExpressionException {
+    private void calculateValues(List<MetricSpecification> calculatedValues, Buckets<IHasShortcut> buckets)
+            throws BadExpressionException, ClassNotFoundException {
+        Map<MetricKey, MetricCalculator> calculators = new LinkedHashMap<>();
         for (MetricSpecification metricSpecification : calculatedValues) {
             Tags tags = Tags.fromValue(metricSpecification.getTags());
             MetricKey key = keyCache.get(metricSpecification.getMetricOrName(), metricSpecification.getNameOrMetric(), metricSpecification.getId(), tags);
             MetricCalculator calculator = calculatorMap.get(key);
-            if (null != calculator) {
-                for (Long timestamp : buckets.getTimestamps()) {
-                    Buckets<IHasShortcut>.Bucket bucket = buckets.getBucket(timestamp);
-                    if (null == bucket) {
-                        log.error("Null bucket at timestamp {}", timestamp);
-                        throw new NullPointerException("unexpected null bucket");
-                    }
+            if (null != calculator && !calculators.containsKey(key)) {
+                calculators.put(key, calculator);
+            }
+        }
+        if (calculators.isEmpty()) {
+            return;
+        }
 
-                    BucketClosure closure = new BucketClosure(timestamp, bucket);
-                    double val = 0.0;
-                    try {
-                        val = calculator.evaluate(closure);
-                        buckets.add(key, timestamp, val);
-                    } catch (UnknownReferenceException e) {
-                        log.debug("UnknownReferenceException swallowed for calculation at timestamp {}: {}", timestamp, e);
-                        /*
-                         * Just because a reference was not in the same bucket does not
-                         * mean a real failure. It is legitimate.
-                         */
-                    } catch (BadExpressionException e) {
-                        // log and rethrow
-                        log.error(e.getMessage());
-                        throw e;
-                    }
+        long[] timestamps = buckets.getOrderedTimestamps();
+        List<Partition> partitions = partition(calculators, timestamps);
+        for (MetricKey key : dependencyOrder(calculators)) {
+            double[] values;
+            try {
+                values = evaluate(partitions, key, timestamps.length);
+            } catch (UnknownReferenceException e) {
+                log.debug("UnknownReferenceException swallowed for calculation of {}: {}", key, e);
+                /*
+                 * References missing from the buckets are NaN; this is only
+                 * thrown by calculators that cannot resolve a reference at
+                 * all, which is legitimate.
+                 */
+                continue;
+            } catch (BadExpressionException e) {
+                // log and rethrow
+                log.error(e.getMessage());
+                throw e;
+            }
+            for (int i = 0; i < timestamps.length; i++) {
+                buckets.add(key, timestamps[i], values[i]);
+            }
+            // Calculations referencing this one must see the new values
+            for (Partition partition : partitions) {
+                partition.shared.invalidate(key.getShortcut());
+            }
+        }
+        if (log.isDebugEnabled()) {
+            long reused = 0;
+            for (Partition partition : partitions) {
+                reused += partition.shared.getReused();
+            }
+            log.debug("Reused {} intermediate results of calculations in {} partitions.", reused, partitions.size());
+        }
+    }
+
+    /**
+     * Splits the buckets into ranges evaluated in parallel, each with its own
+     * calculators. Without parallelism there is a single range evaluated by
+     * the calculators of the request.
+     */
+    private List<Partition> partition(Map<MetricKey, MetricCalculator> calculators, long[] timestamps)
+            throws ClassNotFoundException {
+        int count = null == pool ? 1 : (int) Math.min(pool.getParallelism(), timestamps.length / minPartitionRows);
+        List<Partition> partitions = new ArrayList<>();
+        if (count <= 1) {
+            partitions.add(new Partition(0, timestamps, calculators));
+            return partitions;
+        }
+        for (int p = 0; p < count; p++) {
+            int from = (int) ((long) timestamps.length * p / count);
+            int to = (int) ((long) timestamps.length * (p + 1) / count);
+            Map<MetricKey, MetricCalculator> copies = new LinkedHashMap<>();
+            for (MetricKey key : calculators.keySet()) {
+                MetricCalculator calc = MetricCalculatorFactory.newInstance(expressionMap.get(key));
+                calc.setReferenceProvider(this);
+                copies.put(key, calc);
+            }
+            partitions.add(new Partition(from, Arrays.copyOfRange(timestamps, from, to), copies));
+        }
+        return partitions;
+    }
+
+    private double[] evaluate(List<Partition> partitions, final MetricKey key, int rows)
+            throws UnknownReferenceException, BadExpressionException {
+        if (partitions.size() == 1) {
+            return partitions.get(0).evaluate(key);
+        }
+        List<Callable<double[]>> tasks = new ArrayList<>(partitions.size());
+        for (final Partition partition : partitions) {
+            tasks.add(new Callable<double[]>() {
+                @Override
+                public double[] call() throws UnknownReferenceException, BadExpressionException {
+                    return partition.evaluate(key);
+                }
+            });
+        }
+        List<double[]> results;
+        try {
+            results = invokeAll(tasks);
+        } catch (ExecutionException e) {
+            Throwables.propagateIfPossible(e.getCause(), UnknownReferenceException.class, BadExpressionException.class);
+            throw new IllegalStateException(e.getCause());
+        }
+        double[] values = new double[rows];
+        for (int p = 0; p < partitions.size(); p++) {
+            double[] result = results.get(p);
+            System.arraycopy(result, 0, values, partitions.get(p).from, result.length);
+        }
+        return values;
+    }
+
+    /**
+     * Orders the calculations so that those referencing another calculated
+     * value come after it. Otherwise, and when calculations reference each
+     * other in a cycle, the order of the request is kept.
+     */
+    static <K extends IHasShortcut> List<K> dependencyOrder(Map<K, MetricCalculator> calculators) {
+        List<K> keys = new ArrayList<>(calculators.keySet());
+        Map<K, Set<K>> dependencies = new HashMap<>();
+        for (K key : keys) {
+            Set<String> references = calculators.get(key).getReferences();
+            Set<K> dependsOn = new HashSet<>();
+            for (K other : keys) {
+                if (other != key && references.contains(other.getShortcut())) {
+                    dependsOn.add(other);
+                }
+            }
+            dependencies.put(key, dependsOn);
+        }
+
+        List<K> ordered = new ArrayList<>(keys.size());
+        List<K> remaining = new ArrayList<>(keys);
+        while (!remaining.isEmpty()) {
+            K next = remaining.get(0);
+            for (K key : remaining) {
+                if (dependencies.get(key).isEmpty()) {
+                    next = key;
+                    break;
                 }
             }
+            remaining.remove(next);
+            ordered.add(next);
+            for (K key : remaining) {
+                dependencies.get(key).remove(next);
+            }
         }
+        return ordered;
     }
 
     private void preProcessQuerySpecifications(MetricSpecification spec) throws ClassNotFoundException {
@@ -212,27 +522,114 @@ public class DefaultResultProcessor implements ResultProcessor,
             MetricCalculator calc = MetricCalculatorFactory.newInstance(expr);
             calc.setReferenceProvider(this);
             calculatorMap.put(key, calc);
+            expressionMap.put(key, expr);
         }
         interpolatorMap.put(spec.getInterpolator(), key);
     }
 
-    private static class BucketClosure implements Closure {
-        private long ts;
-        public Buckets<IHasShortcut>.Bucket bucket;
+    /**
+     * A range of buckets over which calculated values are evaluated, with
+     * its own calculators and shared columns.
+     */
+    private final class Partition {
+        private final int from;
+        private final int rows;
+        private final SharedColumns shared;
+        private final Map<MetricKey, MetricCalculator> calculators;
 
-        private BucketClosure(long timestamp, Buckets<IHasShortcut>.Bucket bucket) {
-            this.ts = timestamp;
-            this.bucket = bucket;
+        private Partition(int from, long[] timestamps, Map<MetricKey, MetricCalculator> calculators) {
+            this.from = from;
+            this.rows = timestamps.length;
+            this.calculators = calculators;
+            // References and subexpressions common to several calculations are computed once
+            this.shared = new SharedColumns(new BucketColumns(buckets, timestamps));
+            for (MetricCalculator calculator : calculators.values()) {
+                calculator.prepare(shared);
+            }
         }
 
-        @Override
-        public long getTimeStamp() {
-            return ts;
+        private double[] evaluate(MetricKey key) throws UnknownReferenceException, BadExpressionException {
+            return calculators.get(key).evaluate(rows, shared);
+        }
+    }
+
+    /**
+     * The sum and count of the values of a key in each bucket, kept in
+     * ascending bucket order.
+     */
+    private static final class SeriesSums {
+        private long[] timestamps = new long[16];
+        private double[] sums = new double[16];
+        private long[] counts = new long[16];
+        private int size = 0;
+
+        private void add(long bucketTimestamp, double value) {
+            int index = size - 1;
+            // Data points usually come in time order, only search when they do not
+            if (size == 0 || bucketTimestamp > timestamps[index]) {
+                index = insert(size, bucketTimestamp);
+            } else if (bucketTimestamp != timestamps[index]) {
+                index = Arrays.binarySearch(timestamps, 0, size, bucketTimestamp);
+                if (index < 0) {
+                    index = insert(-index - 1, bucketTimestamp);
+                }
+            }
+            sums[index] += value;
+            counts[index]++;
+        }
+
+        private int insert(int index, long bucketTimestamp) {
+            if (size == timestamps.length) {
+                timestamps = Arrays.copyOf(timestamps, size * 2);
+                sums = Arrays.copyOf(sums, size * 2);
+                counts = Arrays.copyOf(counts, size * 2);
+            }
+            System.arraycopy(timestamps, index, timestamps, index + 1, size - index);
+            System.arraycopy(sums, index, sums, index + 1, size - index);
+            System.arraycopy(counts, index, counts, index + 1, size - index);
+            timestamps[index] = bucketTimestamp;
+            sums[index] = 0.0;
+            counts[index] = 0;
+            size++;
+            return index;
+        }
+
+        private void addTo(Buckets<IHasShortcut> buckets, MetricKey key) {
+            for (int i = 0; i < size; i++) {
+                buckets.add(key, timestamps[i], sums[i], counts[i]);
+            }
+        }
+    }
+
+    /**
+     * The values of references in every bucket, as referenced by calculated
+     * values.
+     */
+    private static class BucketColumns implements ColumnProvider {
+        private final Buckets<IHasShortcut> buckets;
+        private final long[] timestamps;
+
+        private BucketColumns(Buckets<IHasShortcut> buckets, long[] timestamps) {
+            this.buckets = buckets;
+            this.timestamps = timestamps;
         }
 
         @Override
-        public Value getValueByShortcut(String name) {
-            return bucket.getValueByShortcut(name);
+        public double[] lookup(String name) {
+            double[] column = new double[timestamps.length];
+            // As evaluated a row at a time over a BucketClosure: "time" is the bucket timestamp, and a value
+            // missing from a bucket is NaN, since Bucket.getValueByShortcut gives an empty Value for it
+            // rather than null, so lookup(String, Closure) does not throw and the row is not skipped
+            if ("time".equalsIgnoreCase(name)) {
+                for (int i = 0; i < timestamps.length; i++) {
+                    column[i] = timestamps[i];
+                }
+            } else {
+                for (int i = 0; i < timestamps.length; i++) {
+                    column[i] = buckets.getValueByShortcut(name, timestamps[i]);
+                }
+            }
+            return column;
         }
     }
 }
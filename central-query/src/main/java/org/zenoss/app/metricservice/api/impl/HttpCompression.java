@@ -0,0 +1,321 @@
+/*
+ * ****************************************************************************
+ *
+ *  Copyright (C) Zenoss, Inc. 2026, all rights reserved.
+ *
+ *  This content is made available according to terms specified in
+ *  License.zenoss distributed with this file.
+ *
+ * ***************************************************************************
+ */
+package org.zenoss.app.metricservice.api.impl;
+
+import org.zenoss.app.metricservice.api.configs.MetricServiceConfig;
+
+import javax.ws.rs.WebApplicationException;
+import javax.ws.rs.core.HttpHeaders;
+import javax.ws.rs.core.MediaType;
+import javax.ws.rs.core.MultivaluedMap;
+import javax.ws.rs.core.Response;
+import javax.ws.rs.core.StreamingOutput;
+import javax.ws.rs.ext.MessageBodyWriter;
+import javax.ws.rs.ext.Providers;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.lang.annotation.Annotation;
+import java.util.List;
+import java.util.zip.Deflater;
+import java.util.zip.DeflaterOutputStream;
+import java.util.zip.GZIPInputStream;
+import java.util.zip.GZIPOutputStream;
+import java.util.zip.InflaterInputStream;
+
+/**
+ * gzip and deflate content coding of query requests and responses, as
+ * configured in {@link MetricServiceConfig}.
+ */
+public final class HttpCompression {
+
+    public static final String GZIP = "gzip";
+    public static final String DEFLATE = "deflate";
+
+    private static final String X_GZIP = "x-gzip";
+    private static final String IDENTITY = "identity";
+    private static final int BUFFER_SIZE = 8192;
+    private static final Annotation[] NO_ANNOTATIONS = new Annotation[0];
+
+    private HttpCompression() {
+    }
+
+    /**
+     * Returns a stream that decodes a request body sent with the given
+     * Content-Encoding.
+     * <p/>
+     * Dropwizard's gzip handler, when enabled, already inflates bodies sent
+     * with Content-Encoding gzip but leaves the header on the request; those
+     * bodies are returned as they are.
+     *
+     * @param gzipInflated whether the container has already inflated bodies
+     *                     sent with Content-Encoding gzip
+     * @throws WebApplicationException with 415 Unsupported Media Type if the
+     *                                 coding is not supported or compressed
+     *                                 requests are not accepted
+     */
+    public static InputStream decode(InputStream body, String contentEncoding, MetricServiceConfig config,
+                                     boolean gzipInflated) throws IOException {
+        String coding = null == contentEncoding ? "" : contentEncoding.trim();
+        if (coding.isEmpty() || IDENTITY.equalsIgnoreCase(coding)) {
+            return body;
+        }
+        if (config.isAcceptCompressedRequests()) {
+            if (GZIP.equalsIgnoreCase(coding) && gzipInflated) {
+                return body;
+            }
+            if (GZIP.equalsIgnoreCase(coding) || X_GZIP.equalsIgnoreCase(coding)) {
+                return new GZIPInputStream(body, BUFFER_SIZE);
+            }
+            if (DEFLATE.equalsIgnoreCase(coding)) {
+                return new InflaterInputStream(body);
+            }
+        }
+        throw new WebApplicationException(Utils.getErrorResponse(null, Response.Status.UNSUPPORTED_MEDIA_TYPE.getStatusCode(),
+                String.format("Content-Encoding %s is not supported", coding), "Unsupported Content-Encoding"));
+    }
+
+    /**
+     * Compresses the entity of a successful response if compression is
+     * enabled and the client accepts gzip or deflate. Streamed entities are
+     * compressed as they are written. Any other entity is only compressed if
+     * it is at least {@link MetricServiceConfig#getCompressionThresholdBytes()}
+     * long: it is serialized into a buffer of that size, and if it does not
+     * fit it is serialized again as the response is written, straight into
+     * the compressor.
+     */
+    public static Response compress(Response response, HttpHeaders headers, Providers providers, MetricServiceConfig config) throws IOException {
+        Object entity = response.getEntity();
+        if (!config.isCompressResponses() || null == entity || response.getStatus() != Response.Status.OK.getStatusCode()) {
+            return response;
+        }
+        String coding = negotiate(headers.getRequestHeader(HttpHeaders.ACCEPT_ENCODING));
+        if (null == coding) {
+            return Response.fromResponse(response).header(HttpHeaders.VARY, HttpHeaders.ACCEPT_ENCODING).build();
+        }
+        if (entity instanceof StreamingOutput) {
+            return Response.fromResponse(response)
+                    .entity(new EncodingStreamingOutput((StreamingOutput) entity, coding))
+                    .header(HttpHeaders.CONTENT_ENCODING, coding)
+                    .header(HttpHeaders.VARY, HttpHeaders.ACCEPT_ENCODING)
+                    .build();
+        }
+
+        Object contentType = response.getMetadata().getFirst(HttpHeaders.CONTENT_TYPE);
+        final MediaType type = null == contentType ? MediaType.APPLICATION_JSON_TYPE : MediaType.valueOf(contentType.toString());
+        @SuppressWarnings("unchecked")
+        final Class<Object> entityClass = (Class<Object>) entity.getClass();
+        final MessageBodyWriter<Object> writer = providers.getMessageBodyWriter(entityClass, entityClass, NO_ANNOTATIONS, type);
+        if (null == writer) {
+            return response;
+        }
+        Response.ResponseBuilder builder = Response.fromResponse(response)
+                .type(type)
+                .header(HttpHeaders.VARY, HttpHeaders.ACCEPT_ENCODING);
+        BoundedOutputStream buffer = new BoundedOutputStream(config.getCompressionThresholdBytes());
+        try {
+            writer.writeTo(entity, entityClass, entityClass, NO_ANNOTATIONS, type, response.getMetadata(), buffer);
+            return builder.entity(buffer.toByteArray()).build();
+        } catch (ThresholdReachedException e) {
+            // Large enough to compress
+        }
+        final Object value = entity;
+        final MultivaluedMap<String, Object> metadata = response.getMetadata();
+        StreamingOutput output = new StreamingOutput() {
+            @Override
+            public void write(OutputStream output) throws IOException {
+                writer.writeTo(value, entityClass, entityClass, NO_ANNOTATIONS, type, metadata, output);
+            }
+        };
+        return builder.entity(new EncodingStreamingOutput(output, coding)).header(HttpHeaders.CONTENT_ENCODING, coding).build();
+    }
+
+    /**
+     * Picks the content coding for a response from Accept-Encoding header
+     * values, preferring gzip over deflate when both are equally acceptable.
+     *
+     * @return {@link #GZIP}, {@link #DEFLATE} or null if neither is accepted
+     */
+    static String negotiate(List<String> acceptEncoding) {
+        if (null == acceptEncoding) {
+            return null;
+        }
+        float gzip = -1, deflate = -1, any = -1;
+        for (String header : acceptEncoding) {
+            for (String element : header.split(",")) {
+                String[] parts = element.split(";");
+                String coding = parts[0].trim();
+                float quality = 1;
+                for (int i = 1; i < parts.length; i++) {
+                    String parameter = parts[i].trim();
+                    if (parameter.startsWith("q=")) {
+                        try {
+                            quality = Float.parseFloat(parameter.substring(2));
+                        } catch (NumberFormatException e) {
+                            quality = 0;
+                        }
+                    }
+                }
+                if (GZIP.equalsIgnoreCase(coding) || X_GZIP.equalsIgnoreCase(coding)) {
+                    gzip = Math.max(gzip, quality);
+                } else if (DEFLATE.equalsIgnoreCase(coding)) {
+                    deflate = Math.max(deflate, quality);
+                } else if ("*".equals(coding)) {
+                    any = quality;
+                }
+            }
+        }
+        if (gzip < 0) {
+            gzip = any;
+        }
+        if (deflate < 0) {
+            deflate = any;
+        }
+        if (gzip > 0 && gzip >= deflate) {
+            return GZIP;
+        }
+        return deflate > 0 ? DEFLATE : null;
+    }
+
+    /**
+     * Buffers what is written until it reaches a limit, then fails
+     */
+    private static final class BoundedOutputStream extends OutputStream {
+        private final long limit;
+        private final ByteArrayOutputStream buffer;
+
+        private BoundedOutputStream(long limit) {
+            this.limit = limit;
+            this.buffer = new ByteArrayOutputStream((int) Math.max(0, Math.min(limit, BUFFER_SIZE)));
+        }
+
+        @Override
+        public void write(int b) throws IOException {
+            write(new byte[]{(byte) b}, 0, 1);
+        }
+
+        @Override
+        public void write(byte[] b, int off, int len) throws IOException {
+            if (buffer.size() + (long) len >= limit) {
+                throw new ThresholdReachedException();
+            }
+            buffer.write(b, off, len);
+        }
+
+        private byte[] toByteArray() {
+            return buffer.toByteArray();
+        }
+    }
+
+    /**
+     * Thrown as an IOException, which serializers pass on as it is
+     */
+    private static final class ThresholdReachedException extends IOException {
+    }
+
+    private static final class EncodingStreamingOutput implements StreamingOutput {
+        private final StreamingOutput delegate;
+        private final String coding;
+
+        private EncodingStreamingOutput(StreamingOutput delegate, String coding) {
+            this.delegate = delegate;
+            this.coding = coding;
+        }
+
+        @Override
+        public void write(OutputStream output) throws IOException, WebApplicationException {
+            EncodingOutputStream out = new EncodingOutputStream(output, coding);
+            try {
+                delegate.write(out);
+                out.finish();
+            } finally {
+                out.end();
+            }
+        }
+    }
+
+    /**
+     * Compresses onto a stream. Nothing is written until the first byte, so
+     * a streamed response that fails up front can still become an error
+     * response, and flushes push out everything written so far.
+     */
+    private static final class EncodingOutputStream extends OutputStream {
+        private final OutputStream out;
+        private final String coding;
+        private Deflater deflater;
+        private DeflaterOutputStream encoder;
+
+        private EncodingOutputStream(OutputStream out, String coding) {
+            this.out = out;
+            this.coding = coding;
+        }
+
+        private DeflaterOutputStream encoder() throws IOException {
+            if (null == encoder) {
+                if (GZIP.equals(coding)) {
+                    GzipOutputStream gzip = new GzipOutputStream(out);
+                    deflater = gzip.deflater();
+                    encoder = gzip;
+                } else {
+                    deflater = new Deflater();
+                    encoder = new DeflaterOutputStream(out, deflater, BUFFER_SIZE, true);
+                }
+            }
+            return encoder;
+        }
+
+        @Override
+        public void write(int b) throws IOException {
+            encoder().write(b);
+        }
+
+        @Override
+        public void write(byte[] b, int off, int len) throws IOException {
+            encoder().write(b, off, len);
+        }
+
+        @Override
+        public void flush() throws IOException {
+            if (null != encoder) {
+                encoder.flush();
+            }
+        }
+
+        /**
+         * Writes the remaining compressed data without closing the
+         * underlying stream.
+         */
+        private void finish() throws IOException {
+            encoder().finish();
+            out.flush();
+        }
+
+        /**
+         * Releases the native memory of the compressor
+         */
+        private void end() {
+            if (null != deflater) {
+                deflater.end();
+            }
+        }
+    }
+
+    private static final class GzipOutputStream extends GZIPOutputStream {
+        private GzipOutputStream(OutputStream out) throws IOException {
+            super(out, BUFFER_SIZE, true);
+        }
+
+        private Deflater deflater() {
+            return def;
+        }
+    }
+}
@@ -31,21 +31,28 @@
 
 package org.zenoss.app.metricservice.api.impl;
 
+import com.fasterxml.jackson.core.JsonEncoding;
+import com.fasterxml.jackson.core.JsonGenerator;
+import com.fasterxml.jackson.core.JsonParser;
+import com.fasterxml.jackson.core.JsonToken;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import com.fasterxml.jackson.databind.util.TokenBuffer;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 import org.zenoss.app.metricservice.api.model.MetricSpecification;
 import org.zenoss.app.metricservice.api.model.ReturnSet;
 import org.zenoss.app.metricservice.buckets.Buckets;
-import org.zenoss.app.metricservice.buckets.Value;
 
 import javax.ws.rs.WebApplicationException;
 import javax.ws.rs.core.Response;
 import java.io.IOException;
+import java.io.OutputStream;
 import java.io.Writer;
 import java.util.ArrayList;
+import java.util.Arrays;
 import java.util.Collection;
+import java.util.Collections;
 import java.util.List;
-import java.util.SortedSet;
 
 
 public class JacksonResultsWriter {
@@ -68,6 +75,57 @@ public class JacksonResultsWriter {
         return result;
     }
 
+    /**
+     * Writes the same JSON as serializing {@link #makeResults} with the given
+     * mapper, but writes each result as soon as it is built from the buckets
+     * and flushes it, without creating an object per data point.
+     *
+     * @param mapper the mapper the results are serialized with
+     * @param out    stream to write to, left open
+     */
+    public void writeResults(ObjectMapper mapper, OutputStream out, List<MetricSpecification> queries, Buckets<IHasShortcut> buckets,
+                             String id, String sourceId, long startTs, String startTimeConfig, long endTs,
+                             String endTimeConfig, ReturnSet returnset) throws IOException {
+        JsonGenerator jg = mapper.getFactory().createGenerator(out, JsonEncoding.UTF8);
+        jg.disable(JsonGenerator.Feature.AUTO_CLOSE_TARGET);
+
+        // Write the envelope the way the mapper would, holding back the closing brace
+        SeriesQueryResult envelope = makeResults(Collections.<MetricSpecification>emptyList(), buckets,
+                id, sourceId, startTs, startTimeConfig, endTs, endTimeConfig, returnset);
+        TokenBuffer buffer = new TokenBuffer(mapper, false);
+        mapper.writeValue(buffer, envelope);
+        JsonParser envelopeParser = buffer.asParser();
+        envelopeParser.nextToken();
+        jg.copyCurrentEvent(envelopeParser);
+        while (envelopeParser.nextToken() == JsonToken.FIELD_NAME) {
+            jg.copyCurrentStructure(envelopeParser);
+        }
+
+        // An empty result list is left out, the same as with NON_EMPTY inclusion
+        boolean started = false;
+        if (null != buckets) {
+            long[] timestamps = emittedTimestamps(buckets, startTs, endTs, returnset);
+            for (MetricSpecification query : queries) {
+                if (!query.getEmit()) {
+                    log.info("emit is false for metric {} - skipping.", query.getNameOrMetric());
+                    continue;
+                }
+                if (!started) {
+                    jg.writeArrayFieldStart("results");
+                    started = true;
+                }
+                QueryResult qr = getQueryResult(buckets, timestamps, query, true);
+                mapper.writeValue(jg, qr);
+                jg.flush();
+            }
+        }
+        if (started) {
+            jg.writeEndArray();
+        }
+        jg.writeEndObject();
+        jg.close();
+    }
+
     private Collection<QueryResult> makeDataPointResults(Collection<MetricSpecification> queries,
                                                          Buckets<IHasShortcut> buckets, long startTs, long endTs,
                                                          ReturnSet returnset) {
@@ -76,23 +134,47 @@ public class JacksonResultsWriter {
             log.info("buckets is null - returning.");
             return results;
         }
+        long[] timestamps = emittedTimestamps(buckets, startTs, endTs, returnset);
         for (MetricSpecification query : queries) {
             if (!query.getEmit()) {
                 log.info("emit is false for metric {} - skipping.", query.getNameOrMetric());
                 continue;
             }
-            QueryResult qr = getQueryResult(buckets, startTs, endTs, returnset, query);
+            QueryResult qr = getQueryResult(buckets, timestamps, query, false);
             results.add(qr);
         }
         log.debug("Returning collection with {} QueryResults.", results.size());
         return results;
     }
 
-    private QueryResult getQueryResult(Buckets<IHasShortcut> buckets, long startTs, long endTs, ReturnSet returnset, MetricSpecification query) {
+    /**
+     * Returns the ordered bucket timestamps the results are written for,
+     * computed once for all the metrics of a result
+     */
+    private static long[] emittedTimestamps(Buckets<IHasShortcut> buckets, long startTs, long endTs, ReturnSet returnset) {
+        long[] timestamps = buckets.getOrderedTimestamps();
+        if (returnset == ReturnSet.ALL) {
+            return timestamps;
+        }
+        int count = 0;
+        for (long bts : timestamps) {
+            if (bts >= startTs && bts <= endTs) {
+                timestamps[count++] = bts;
+            }
+        }
+        return Arrays.copyOf(timestamps, count);
+    }
+
+    private QueryResult getQueryResult(Buckets<IHasShortcut> buckets, long[] timestamps,
+                                       MetricSpecification query, boolean streaming) {
         QueryResult qr = new QueryResult();
         qr.setMetric(query.getNameOrMetric());
         qr.setTags(query.getTags());
-        qr.setDatapoints(makeDataPoints(buckets, startTs, endTs, returnset, query.getNameOrMetric()));
+        if (streaming) {
+            qr.setDatapoints(new DataPointSeriesList(makeDataPointSeries(buckets, timestamps, query.getNameOrMetric())));
+        } else {
+            qr.setDatapoints(makeDataPoints(buckets, timestamps, query.getNameOrMetric()));
+        }
         qr.setId(query.getId());
         qr.setQueryStatus(getQueryStatus(query, buckets));
 
@@ -105,28 +187,28 @@ public class JacksonResultsWriter {
         return result;
     }
 
-    private List<QueryResultDataPoint> makeDataPoints(Buckets<IHasShortcut> buckets, long startTs, long endTs,
-                                                      ReturnSet returnset, String metricShortcut) {
+    private List<QueryResultDataPoint> makeDataPoints(Buckets<IHasShortcut> buckets, long[] timestamps,
+                                                      String metricShortcut) {
         List<QueryResultDataPoint> dataPoints = new ArrayList<>();
-        SortedSet<Long> timestamps = buckets.getTimestamps();
         for (long bts : timestamps) {
-            if (returnset == ReturnSet.ALL || (bts >= startTs && bts <= endTs)) {
-                Buckets<IHasShortcut>.Bucket bucket = buckets.getBucket(bts);
-                if (null != bucket) {
-                    Value value = bucket.getValueByShortcut(metricShortcut);
-                    if (null != value) {
-                        if (!Double.isNaN(value.getValue())) {
-                            dataPoints.add(new QueryResultDataPoint(bts, value.getValue()));
-                        }
-                    } else {
-                        log.warn("No data point found for timestamp {}, metric {}", bts, metricShortcut);
-                    }
-                } else {
-                    log.warn("Unable to retrieve value for timestamp {}", bts);
-                }
+            double value = buckets.getValueByShortcut(metricShortcut, bts);
+            if (!Double.isNaN(value)) {
+                dataPoints.add(new QueryResultDataPoint(bts, value));
             }
         }
         log.debug("returning collection with {} QueryResultDataPoints.", dataPoints.size());
         return dataPoints;
     }
+
+    private DataPointSeries makeDataPointSeries(Buckets<IHasShortcut> buckets, long[] timestamps,
+                                                String metricShortcut) {
+        DataPointSeries dataPoints = new DataPointSeries();
+        for (long bts : timestamps) {
+            double value = buckets.getValueByShortcut(metricShortcut, bts);
+            if (!Double.isNaN(value)) {
+                dataPoints.add(bts, value);
+            }
+        }
+        return dataPoints;
+    }
 }
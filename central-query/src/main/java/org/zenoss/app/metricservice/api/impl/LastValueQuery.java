@@ -0,0 +1,173 @@
+/*
+ * ****************************************************************************
+ *
+ *  Copyright (C) Zenoss, Inc. 2026, all rights reserved.
+ *
+ *  This content is made available according to terms specified in
+ *  License.zenoss distributed with this file.
+ *
+ * ***************************************************************************
+ */
+package org.zenoss.app.metricservice.api.impl;
+
+import com.yammer.metrics.Metrics;
+import com.yammer.metrics.core.Gauge;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.zenoss.app.metricservice.api.model.Aggregator;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Answers queries for the last point in a range from OpenTSDB's
+ * /api/query/last, which reads the last point of each series instead of
+ * every point in the range.
+ * <p/>
+ * That is only the same answer as scanning the range when the sub-query
+ * picks a single stored series and returns its points as they were stored:
+ * without a rate, downsampling or filters, with literal tag values and an
+ * aggregator that gives the value of a lone series. Even then the query may
+ * match several series, or the last point may be outside the range; those
+ * sub-queries are answered with null, and the range has to be scanned.
+ */
+class LastValueQuery {
+
+    private static final Logger log = LoggerFactory.getLogger(LastValueQuery.class);
+
+    private static final long SECONDS_PER_HOUR = 3600;
+
+    private static final AtomicLong answered = new AtomicLong();
+    private static final AtomicLong scanned = new AtomicLong();
+
+    static {
+        Metrics.newGauge(LastValueQuery.class, "last-answered", new Gauge<Long>() {
+            @Override
+            public Long value() {
+                return answered.get();
+            }
+        });
+        Metrics.newGauge(LastValueQuery.class, "last-scanned", new Gauge<Long>() {
+            @Override
+            public Long value() {
+                return scanned.get();
+            }
+        });
+    }
+
+    private LastValueQuery() {
+    }
+
+    /**
+     * @return whether the last point of the sub-query can be asked for
+     */
+    static boolean accepts(OpenTSDBSubQuery subQuery) {
+        if (null == subQuery || null == subQuery.metric || subQuery.rate
+                || (null != subQuery.downsample && !subQuery.downsample.isEmpty())
+                || (null != subQuery.filters && !subQuery.filters.isEmpty())
+                || subQuery.aggregator == Aggregator.count || subQuery.aggregator == Aggregator.dev) {
+            return false;
+        }
+        if (null != subQuery.tags) {
+            for (String value : subQuery.tags.values()) {
+                if (null == value || value.contains("*") || value.contains("|")) {
+                    return false;
+                }
+            }
+        }
+        return true;
+    }
+
+    /**
+     * Asks for the last points of sub-queries that are all accepted
+     *
+     * @param client a client of OpenTSDB's /api/query/last
+     * @return for each sub-query, its series holding only its last point in
+     * the range, or null where the range has to be scanned
+     */
+    static CompletableFuture<List<OpenTSDBQueryResult>> queryAsync(OpenTSDBClient client, final List<OpenTSDBSubQuery> subQueries,
+                                                                   final long start, final long end) {
+        long now = System.currentTimeMillis() / 1000;
+        if (subQueries.isEmpty() || start > now) {
+            return CompletableFuture.completedFuture(unanswered(subQueries.size()));
+        }
+        OpenTSDBLastQuery query = new OpenTSDBLastQuery();
+        // The scan goes back from now, so it has to reach the start of the range
+        query.backScan = (int) Math.max(1, Math.min(Integer.MAX_VALUE, (now - start + SECONDS_PER_HOUR - 1) / SECONDS_PER_HOUR));
+        for (OpenTSDBSubQuery subQuery : subQueries) {
+            query.addSubQuery(subQuery.metric, subQuery.tags);
+        }
+        return client.lastAsync(query).exceptionally(e -> {
+            log.error("{} exception asking for last points: {}", e.getClass().getName(), e.getMessage());
+            return null;
+        }).thenApply(lastResults -> {
+            List<OpenTSDBQueryResult> results = new ArrayList<>(subQueries.size());
+            for (OpenTSDBSubQuery subQuery : subQueries) {
+                OpenTSDBQueryResult result = null == lastResults ? null : inRange(match(subQuery, lastResults), start, end);
+                (null == result ? scanned : answered).incrementAndGet();
+                results.add(result);
+            }
+            return results;
+        });
+    }
+
+    private static List<OpenTSDBQueryResult> unanswered(int size) {
+        scanned.addAndGet(size);
+        return new ArrayList<>(Collections.<OpenTSDBQueryResult>nCopies(size, null));
+    }
+
+    /**
+     * @return the last point of the only series the sub-query matches, or
+     * null if it matches none or several
+     */
+    private static OpenTSDBLastResult match(OpenTSDBSubQuery subQuery, OpenTSDBLastResult[] lastResults) {
+        OpenTSDBLastResult found = null;
+        for (OpenTSDBLastResult lastResult : lastResults) {
+            if (subQuery.metric.equals(lastResult.metric) && hasTags(lastResult.tags, subQuery.tags)) {
+                if (null != found) {
+                    return null;
+                }
+                found = lastResult;
+            }
+        }
+        return found;
+    }
+
+    private static boolean hasTags(Map<String, String> tags, Map<String, String> wanted) {
+        if (null == wanted || wanted.isEmpty()) {
+            return true;
+        }
+        return null != tags && tags.entrySet().containsAll(wanted.entrySet());
+    }
+
+    /**
+     * @return the series of the point as a range scan would have answered
+     * it, or null if it is not in the range
+     */
+    private static OpenTSDBQueryResult inRange(OpenTSDBLastResult lastResult, long start, long end) {
+        if (null == lastResult || null == lastResult.value) {
+            return null;
+        }
+        long timestamp = Math.floorDiv(lastResult.timestamp, 1000);
+        if (timestamp < start || timestamp > end) {
+            return null;
+        }
+        double value;
+        try {
+            value = Double.parseDouble(lastResult.value);
+        } catch (NumberFormatException e) {
+            return null;
+        }
+        OpenTSDBQueryResult result = new OpenTSDBQueryResult();
+        result.metric = lastResult.metric;
+        result.tags = lastResult.tags;
+        result.aggregateTags = new ArrayList<>();
+        result.addDataPoint(timestamp, value);
+        result.setStatus(new QueryStatus(QueryStatus.QueryStatusEnum.SUCCESS, ""));
+        return result;
+    }
+}
@@ -67,6 +67,11 @@ public class MetricKey implements IHasShortcut {
      */
     private Tags tags = null;
 
+    /**
+     * Cached hash code; keys do not change once built
+     */
+    private int hash = 0;
+
 
     /**
      * Metric accessor
@@ -122,10 +127,14 @@ public class MetricKey implements IHasShortcut {
 
     @Override
     public int hashCode() {
-        int result = name != null ? name.hashCode() : 0;
-        result = 31 * result + (metric != null ? metric.hashCode() : 0);
-        result = 31 * result + (tags != null ? tags.hashCode() : 0);
-        result = 31 * result + (id != null ? id.hashCode() : 0);
+        int result = hash;
+        if (result == 0) {
+            result = name != null ? name.hashCode() : 0;
+            result = 31 * result + (metric != null ? metric.hashCode() : 0);
+            result = 31 * result + (tags != null ? tags.hashCode() : 0);
+            result = 31 * result + (id != null ? id.hashCode() : 0);
+            hash = result;
+        }
         return result;
     }
 
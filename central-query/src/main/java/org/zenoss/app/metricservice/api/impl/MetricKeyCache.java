@@ -47,7 +47,7 @@ public class  MetricKeyCache {
     Set<MetricKey> keys = new HashSet<>();
 
     /**
-     * Map of a simple string name to the metric keys
+     * Map of a metric name to the metric keys for it
      */
     Map<String, List<MetricKey>> map = new HashMap<>();
 
@@ -62,31 +62,15 @@ public class  MetricKeyCache {
     public MetricKey put(MetricKey key) {
         keys.add(key);
 
-        String cacheKey = getCacheKey(key);
-
-        List<MetricKey> list = map.get(cacheKey);
+        List<MetricKey> list = map.get(key.getMetric());
         if (list == null) {
             list = new ArrayList<>();
-            map.put(cacheKey, list);
+            map.put(key.getMetric(), list);
         }
         list.add(key);
         return key;
     }
 
-    private String makeCacheKey(String metric,  String name, String id){
-        if (name == null){
-            name = "DEFAULT_NAME";
-        }
-        if (id == null){
-            id = "DEFAULT_ID";
-        }
-        return metric + "<>" + name + "<>" + id;
-
-    }
-    private String getCacheKey(MetricKey key) {
-        return makeCacheKey(key.getMetric(), key.getName(), key.getId());
-    }
-
     /**
      * Fetches a given metric key based on the metric name and tags. A key
      * matches if it has the correct metric name and if the keys tags map to the
@@ -99,10 +83,12 @@ public class  MetricKeyCache {
      * @return matching metric key or null.
      */
     public MetricKey get(String metric, String name, String id, Tags tags) {
-        String cacheKey = makeCacheKey(metric, name, id);
-        List<MetricKey> list = map.get(cacheKey);
+        List<MetricKey> list = map.get(metric);
         if (list != null) {
             for (MetricKey key : list) {
+                if (!Objects.equals(name, key.getName()) || !Objects.equals(id, key.getId())) {
+                    continue;
+                }
                 if (null != tags && tags.equals(key.getTags()) || key.getTags() == null || key.getTags().match(tags)) {
                     return key;
                 }
@@ -0,0 +1,145 @@
+/*
+ * ****************************************************************************
+ *
+ *  Copyright (C) Zenoss, Inc. 2026, all rights reserved.
+ *
+ *  This content is made available according to terms specified in
+ *  License.zenoss distributed with this file.
+ *
+ * ***************************************************************************
+ */
+package org.zenoss.app.metricservice.api.impl;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.zenoss.app.metricservice.api.impl.QueryStatus.QueryStatusEnum;
+import org.zenoss.app.metricservice.api.model.MetricSpecification;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.CompletableFuture;
+
+/**
+ * Specifications queried together, as the sub-queries of a single OpenTSDB
+ * request. OpenTSDB echoes each sub-query with its results, so results are
+ * handed back to their specifications by sub-query index.
+ * <p/>
+ * A specification the batch did not answer, because the request failed as a
+ * whole or OpenTSDB returned nothing for it, is queried again on its own, so
+ * it ends up with the same result or status it would have had unbatched.
+ */
+class MetricSpecBatch {
+    private static final Logger log = LoggerFactory.getLogger(MetricSpecBatch.class);
+
+    private final OpenTSDBClient client;
+    private final String start;
+    private final String end;
+    private final List<MetricSpecification> specs;
+    private final boolean ignoreRateOption;
+    private final long rateCutoffDate;
+
+    MetricSpecBatch(OpenTSDBClient client, String start, String end, List<MetricSpecification> specs, boolean ignoreRateOption, long rateCutoffDate) {
+        this.client = client;
+        this.start = start;
+        this.end = end;
+        this.specs = specs;
+        this.ignoreRateOption = ignoreRateOption;
+        this.rateCutoffDate = rateCutoffDate;
+    }
+
+    /**
+     * Groups the specifications of a request, which all share its start and
+     * end, into batches of at most maxSize in their original order. When
+     * rate options are ignored, OpenTSDBClient may split rate queries
+     * around the cutoff date and merge what comes back, which loses the
+     * sub-query indexes, so those are always queried on their own.
+     */
+    static List<List<MetricSpecification>> plan(List<MetricSpecification> specs, int maxSize, boolean ignoreRateOption) {
+        List<List<MetricSpecification>> batches = new ArrayList<>();
+        List<MetricSpecification> current = new ArrayList<>();
+        for (MetricSpecification spec : specs) {
+            if (ignoreRateOption && Boolean.TRUE.equals(spec.getRate())) {
+                batches.add(Collections.singletonList(spec));
+                continue;
+            }
+            if (current.size() >= Math.max(1, maxSize)) {
+                batches.add(current);
+                current = new ArrayList<>();
+            }
+            current.add(spec);
+        }
+        if (!current.isEmpty()) {
+            batches.add(current);
+        }
+        return batches;
+    }
+
+    List<MetricSpecification> getSpecs() {
+        return specs;
+    }
+
+    /**
+     * Queries the batch without waiting for OpenTSDB
+     *
+     * @return the future result of each specification, in order
+     */
+    List<CompletableFuture<OpenTSDBQueryResult>> callAsync() {
+        if (specs.size() == 1) {
+            return Collections.singletonList(single(specs.get(0)));
+        }
+        OpenTSDBQuery query = new OpenTSDBQuery();
+        query.start = this.start;
+        if (!Utils.NOW.equals(this.end)) {
+            query.end = this.end;
+        }
+        query.showQuery = true;
+        for (MetricSpecification spec : specs) {
+            query.addSubQuery(MetricSpecCallable.creatOTSDBSubQuery(spec));
+        }
+        CompletableFuture<Map<Integer, OpenTSDBQueryResult>> answered = client.queryAsync(query, ignoreRateOption, rateCutoffDate)
+                .thenApply(this::byIndex)
+                .exceptionally(e -> {
+                    log.warn("{} querying a batch of {} specifications, querying them one by one: {}", e.getClass().getName(), specs.size(), e.getMessage());
+                    return Collections.emptyMap();
+                });
+        List<CompletableFuture<OpenTSDBQueryResult>> futures = new ArrayList<>(specs.size());
+        for (int i = 0; i < specs.size(); i++) {
+            final int index = i;
+            final MetricSpecification spec = specs.get(i);
+            futures.add(answered.thenCompose(results -> {
+                OpenTSDBQueryResult result = results.get(index);
+                return null != result ? CompletableFuture.completedFuture(MetricSpecCallable.label(result, spec)) : single(spec);
+            }));
+        }
+        return futures;
+    }
+
+    private CompletableFuture<OpenTSDBQueryResult> single(MetricSpecification spec) {
+        return new MetricSpecCallable(client, start, end, spec, ignoreRateOption, rateCutoffDate).callAsync();
+    }
+
+    /**
+     * Takes the first result of each sub-query, as a query of one
+     * specification does
+     */
+    private Map<Integer, OpenTSDBQueryResult> byIndex(OpenTSDBQueryReturn queryReturn) {
+        if (queryReturn.getStatus().getStatus() != QueryStatusEnum.SUCCESS) {
+            log.info("Batch of {} specifications returned {}, querying them one by one", specs.size(), queryReturn.getStatus().getStatus());
+            return Collections.emptyMap();
+        }
+        Map<Integer, OpenTSDBQueryResult> results = new HashMap<>();
+        for (OpenTSDBQueryResult result : queryReturn.getResults()) {
+            if (null == result.subQueryIndex) {
+                log.warn("OpenTSDB did not return the sub-query of a result, querying {} specifications one by one", specs.size());
+                return Collections.emptyMap();
+            }
+            if (!results.containsKey(result.subQueryIndex)) {
+                results.put(result.subQueryIndex, result);
+            }
+        }
+        return results;
+    }
+}
@@ -30,13 +30,13 @@
  */
 package org.zenoss.app.metricservice.api.impl;
 
-import org.apache.http.impl.client.DefaultHttpClient;
 import org.zenoss.app.metricservice.api.impl.QueryStatus.QueryStatusEnum;
 import org.zenoss.app.metricservice.api.model.MetricSpecification;
 
 import java.util.List;
 import java.util.Map;
 import java.util.concurrent.Callable;
+import java.util.concurrent.CompletableFuture;
 
 class MetricSpecCallable implements Callable<OpenTSDBQueryResult> {
     private final MetricSpecification mSpec;
@@ -46,28 +46,47 @@ class MetricSpecCallable implements Callable<OpenTSDBQueryResult> {
     private final boolean ignoreRateOption;
     private long rateCutoffDate;
 
-    public MetricSpecCallable(DefaultHttpClient httpClient, String start, String end, MetricSpecification mSpec, String queryURL, boolean ignoreRateOption, long rateCutoffDate) {
+    public MetricSpecCallable(OpenTSDBClient client, String start, String end, MetricSpecification mSpec, boolean ignoreRateOption, long rateCutoffDate) {
         this.start = start;
         this.end = end;
         this.ignoreRateOption = ignoreRateOption;
-        client = new OpenTSDBClient(httpClient, queryURL);
+        this.client = client;
         this.mSpec = mSpec;
         this.rateCutoffDate = rateCutoffDate;
     }
 
     @Override
     public OpenTSDBQueryResult call() {
+        return callAsync().join();
+    }
+
+    /**
+     * Queries the series of the specification without waiting for OpenTSDB
+     */
+    public CompletableFuture<OpenTSDBQueryResult> callAsync() {
+        OpenTSDBQuery query = createQuery(this.start, this.end, this.mSpec);
+        return this.client.queryAsync(query, this.ignoreRateOption, this.rateCutoffDate)
+                .thenApply(queryResult -> toResult(query, queryResult, this.mSpec));
+    }
 
-        //convert spec to otsdbquery
+    /**
+     * Converts a specification to a query of its series alone
+     */
+    static OpenTSDBQuery createQuery(String start, String end, MetricSpecification mSpec) {
         OpenTSDBQuery query = new OpenTSDBQuery();
-        query.start = this.start;
-        if (!Utils.NOW.equals(this.end)) {
-            query.end = this.end;
+        query.start = start;
+        if (!Utils.NOW.equals(end)) {
+            query.end = end;
         }
 
         query.addSubQuery(creatOTSDBSubQuery(mSpec));
+        return query;
+    }
 
-        OpenTSDBQueryReturn queryResult = this.client.query(query, this.ignoreRateOption, this.rateCutoffDate);
+    /**
+     * Takes the result of a specification out of the answer to its query
+     */
+    static OpenTSDBQueryResult toResult(OpenTSDBQuery query, OpenTSDBQueryReturn queryResult, MetricSpecification mSpec) {
         OpenTSDBQueryResult result;
         if (queryResult.getStatus().getStatus() != QueryStatusEnum.SUCCESS) {
             result = new OpenTSDBQueryResult();
@@ -77,15 +96,22 @@ class MetricSpecCallable implements Callable<OpenTSDBQueryResult> {
         } else {
             result = queryResult.getResults().get(0);
         }
+        return label(result, mSpec);
+    }
+
+    /**
+     * Marks a result as the answer to a specification
+     */
+    static OpenTSDBQueryResult label(OpenTSDBQueryResult result, MetricSpecification mSpec) {
         if (result != null) {
-            result.metricSpecId = this.mSpec.getId();
-            result.metricSpecName = this.mSpec.getNameOrMetric();
+            result.metricSpecId = mSpec.getId();
+            result.metricSpecName = mSpec.getNameOrMetric();
         }
         return result;
     }
 
 
-    private static OpenTSDBSubQuery creatOTSDBSubQuery(MetricSpecification metricSpecification) {
+    static OpenTSDBSubQuery creatOTSDBSubQuery(MetricSpecification metricSpecification) {
         OpenTSDBSubQuery result = null;
         if (null != metricSpecification) {
             result = new OpenTSDBSubQuery();
@@ -3,6 +3,7 @@ package org.zenoss.app.metricservice.api.impl;
 import org.zenoss.app.metricservice.MetricServiceAppConfiguration;
 import org.zenoss.app.metricservice.api.model.MetricSpecification;
 import org.zenoss.app.metricservice.api.model.ReturnSet;
+import org.zenoss.app.metricservice.api.model.v2.Metric;
 import org.zenoss.app.metricservice.api.model.v2.MetricRequest;
 import org.zenoss.app.metricservice.api.model.v2.RenameRequest;
 
@@ -22,6 +23,13 @@ public interface MetricStorageAPI {
 
     String getSourceId();
 
+    /**
+     * Keeps recent points pushed to the service, if it keeps them
+     *
+     * @return how many of them were kept
+     */
+    int store(List<Metric> metrics);
+
     void renamePrefix(RenameRequest renameRequest, Writer writer);
     void renameWhole(RenameRequest renameRequest, Writer writer);
 }
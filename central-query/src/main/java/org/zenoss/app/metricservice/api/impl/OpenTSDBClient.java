@@ -10,120 +10,314 @@
  */
 package org.zenoss.app.metricservice.api.impl;
 
+import com.fasterxml.jackson.core.JsonProcessingException;
 import com.fasterxml.jackson.databind.ObjectMapper;
+import com.google.common.base.Throwables;
 import com.google.common.collect.Ordering;
-import org.apache.http.HttpEntity;
-import org.apache.http.HttpResponse;
-import org.apache.http.StatusLine;
-import org.apache.http.client.ClientProtocolException;
-import org.apache.http.client.methods.HttpGet;
-import org.apache.http.client.methods.HttpPost;
-import org.apache.http.entity.StringEntity;
-import org.apache.http.impl.client.DefaultHttpClient;
-import org.apache.http.protocol.BasicHttpContext;
-import org.apache.http.util.EntityUtils;
 import org.slf4j.LoggerFactory;
+import org.zenoss.app.metricservice.api.impl.AsyncHttpTransport.Answer;
 
 import javax.ws.rs.core.Response;
 import java.io.IOException;
-import java.io.UnsupportedEncodingException;
-import java.io.InputStream;
 import java.text.ParseException;
 import java.util.*;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
+import java.util.concurrent.Executor;
+import java.util.concurrent.ForkJoinPool;
 
 public class OpenTSDBClient {
     private static final org.slf4j.Logger log = LoggerFactory.getLogger(OpenTSDBClient.class);
 
-    private final DefaultHttpClient httpClient;
+    private final AsyncHttpTransport http;
     private final String providedURL;
 
+    /**
+     * Reads OpenTSDB's answers, off the threads of the transport
+     */
+    private final Executor executor;
+
+    /**
+     * Shares queries with identical ones in flight, if not null
+     */
+    private final QueryCoalescer coalescer;
+
+    /**
+     * Answers queries over a window ending now from their last result, if not null
+     */
+    private final SlidingWindowCache windows;
+
+    /**
+     * Splits queries over long ranges into chunks fetched in parallel, if not null
+     */
+    private final QueryRangeSplitter splitter;
+
+    /**
+     * Reads the tail of queries over a range ending now from pushed points, if not null
+     */
+    private final RecentTier recent;
+
     private static final ObjectMapper objectMapper = Utils.getObjectMapper();
 
-    public OpenTSDBClient(DefaultHttpClient httpClient, String url) {
-        this.httpClient = httpClient;
-        this.providedURL = url;
+    /**
+     * The message of the warning OpenTSDB's empty answers are returned with
+     */
+    static final String NO_DATA = "OpenTSDB query was successful, but no data was returned.";
+
+    private OpenTSDBClient(Builder builder) {
+        this.http = builder.http;
+        this.providedURL = builder.url;
+        this.executor = builder.executor;
+        this.coalescer = builder.coalescer;
+        this.windows = builder.windows;
+        this.splitter = builder.splitter;
+        this.recent = builder.recent;
     }
 
-    public SuggestResult suggest(OpenTSDBSuggest suggest) {
-        final BasicHttpContext context = new BasicHttpContext();
-        final HttpPost httpPost = new HttpPost(providedURL);
-        final String jsonQueryString = Utils.jsonStringFromObject(suggest);
-        StringEntity input;
-        try {
-            input = new StringEntity(jsonQueryString);
-        } catch (UnsupportedEncodingException e) {
-            log.error("UnsupportedEncodingException converting json string {} to StringEntity: {}", jsonQueryString, e.getMessage());
-            throw new IllegalArgumentException("Could not create StringEntity from query.", e);
+    /**
+     * @return a builder of clients of an OpenTSDB endpoint, which by default
+     * read answers on the common fork/join pool and send every query whole
+     */
+    public static Builder builder(AsyncHttpTransport http, String url) {
+        return new Builder(http, url);
+    }
+
+    /**
+     * Collects the optional parts of a client. The caches and the splitter
+     * are shared by the clients of the metric storage, which sets them.
+     */
+    public static final class Builder {
+        private final AsyncHttpTransport http;
+        private final String url;
+        private Executor executor = ForkJoinPool.commonPool();
+        private QueryCoalescer coalescer;
+        private SlidingWindowCache windows;
+        private QueryRangeSplitter splitter;
+        private RecentTier recent;
+
+        private Builder(AsyncHttpTransport http, String url) {
+            this.http = http;
+            this.url = url;
         }
-        input.setContentType("application/json");
-        httpPost.setEntity(input);
-        SuggestResult result = new SuggestResult();
-        try {
-            HttpResponse response = httpClient.execute(httpPost, context);
-            String json = EntityUtils.toString(response.getEntity());
-            result.suggestions = objectMapper.readValue(json, ArrayList.class);
-        } catch (IOException e) {
-            e.printStackTrace();
-        } finally {
-            httpPost.releaseConnection();
+
+        /**
+         * @param executor reads OpenTSDB's answers as they arrive. Reading
+         *                 waits for the content, so it must not be the
+         *                 transport's own threads, as with a direct executor.
+         */
+        public Builder executor(Executor executor) {
+            this.executor = executor;
+            return this;
         }
 
-        return result;
+        /**
+         * @param coalescer shares queries with identical ones in flight,
+         *                  possibly from other clients; null to always send them
+         */
+        Builder coalescer(QueryCoalescer coalescer) {
+            this.coalescer = coalescer;
+            return this;
+        }
+
+        /**
+         * @param windows answers queries over a window ending now from their
+         *                last result, possibly fetched by other clients; null
+         *                to always fetch the whole window
+         */
+        Builder windows(SlidingWindowCache windows) {
+            this.windows = windows;
+            return this;
+        }
+
+        /**
+         * @param splitter splits queries over long ranges into chunks fetched
+         *                 in parallel; null to send every query whole
+         */
+        Builder splitter(QueryRangeSplitter splitter) {
+            this.splitter = splitter;
+            return this;
+        }
+
+        /**
+         * @param recent reads the tail of queries over a range ending now from
+         *               pushed points; null to fetch all of it from OpenTSDB
+         */
+        Builder recent(RecentTier recent) {
+            this.recent = recent;
+            return this;
+        }
+
+        public OpenTSDBClient build() {
+            return new OpenTSDBClient(this);
+        }
+    }
+
+    public CompletableFuture<SuggestResult> suggestAsync(final OpenTSDBSuggest suggest) {
+        return http.post(providedURL, Utils.jsonStringFromObject(suggest)).handleAsync(this::readSuggest, executor);
+    }
+
+    public CompletableFuture<DropResult> dropCacheAsync(final String dropCacheUrl) {
+        return http.get(dropCacheUrl).handleAsync(this::readDropCache, executor);
+    }
+
+    public CompletableFuture<RenameResult> renameAsync(final OpenTSDBRename rename) {
+        return http.post(providedURL, Utils.jsonStringFromObject(rename))
+                .handleAsync((answer, failure) -> readRename(rename, answer, failure), executor);
+    }
+
+    /**
+     * Asks OpenTSDB's /api/query/last for the last points of series. The
+     * future holds null if they could not be read.
+     */
+    public CompletableFuture<OpenTSDBLastResult[]> lastAsync(final OpenTSDBLastQuery last) {
+        final String jsonQueryString = Utils.jsonStringFromObject(last);
+        log.trace("last query is {}", jsonQueryString);
+        return http.post(providedURL, jsonQueryString).handleAsync(this::readLast, executor);
+    }
+
+    /**
+     * Queries OpenTSDB, splitting rate queries around the rate cutoff as
+     * {@link #query(OpenTSDBQuery, boolean, long)} does. Failures are
+     * reported in the status of the result rather than by the future.
+     */
+    public CompletableFuture<OpenTSDBQueryReturn> queryAsync(final OpenTSDBQuery query, final boolean ignoreRateOption,
+                                                             final long rateCutoffDate) {
+        if (null != recent) {
+            CompletableFuture<OpenTSDBQueryReturn> joined = recent.queryAsync(query,
+                    part -> queryStored(part, ignoreRateOption, rateCutoffDate));
+            if (null != joined) {
+                return joined;
+            }
+        }
+        return queryStored(query, ignoreRateOption, rateCutoffDate);
+    }
+
+    private CompletableFuture<OpenTSDBQueryReturn> queryStored(final OpenTSDBQuery query, final boolean ignoreRateOption,
+                                                               final long rateCutoffDate) {
+        if (null != windows && SlidingWindowCache.accepts(query)) {
+            return windows.query(QueryCoalescer.key(providedURL, query, ignoreRateOption, rateCutoffDate), query,
+                    part -> fetch(part, ignoreRateOption, rateCutoffDate));
+        }
+        return fetch(query, ignoreRateOption, rateCutoffDate);
+    }
+
+    private CompletableFuture<OpenTSDBQueryReturn> fetch(final OpenTSDBQuery query, final boolean ignoreRateOption,
+                                                         final long rateCutoffDate) {
+        if (null != splitter) {
+            CompletableFuture<OpenTSDBQueryReturn> chunked = splitter.queryAsync(query, ignoreRateOption, rateCutoffDate,
+                    chunk -> send(chunk, ignoreRateOption, rateCutoffDate));
+            if (null != chunked) {
+                return chunked;
+            }
+        }
+        return send(query, ignoreRateOption, rateCutoffDate);
+    }
+
+    private CompletableFuture<OpenTSDBQueryReturn> send(final OpenTSDBQuery query, final boolean ignoreRateOption,
+                                                        final long rateCutoffDate) {
+        if (null != coalescer) {
+            return coalescer.query(QueryCoalescer.key(providedURL, query, ignoreRateOption, rateCutoffDate),
+                    () -> executeQuery(query, ignoreRateOption, rateCutoffDate));
+        }
+        return executeQuery(query, ignoreRateOption, rateCutoffDate);
+    }
+
+    public SuggestResult suggest(OpenTSDBSuggest suggest) {
+        return await(suggestAsync(suggest));
     }
 
     public DropResult dropCache(String dropCacheUrl) {
-        final BasicHttpContext context = new BasicHttpContext();
-        final HttpGet httpDrop = new HttpGet(dropCacheUrl);
-        final HttpResponse dropResponse;
+        return await(dropCacheAsync(dropCacheUrl));
+    }
+
+    public RenameResult rename(OpenTSDBRename rename) {
+        return await(renameAsync(rename));
+    }
+
+    public OpenTSDBQueryReturn query(OpenTSDBQuery query, boolean ignoreRateOption, long rateCutoffDate) {
+        return await(queryAsync(query, ignoreRateOption, rateCutoffDate));
+    }
+
+    /**
+     * Waits for a result, throwing what the exchange threw
+     */
+    private static <T> T await(CompletableFuture<T> future) {
         try {
-            dropResponse = httpClient.execute(httpDrop, context);
-            StatusLine status = dropResponse.getStatusLine();
-            DropResult result = new DropResult();
-            result.reasonPhrase = status.getReasonPhrase();
-            result.statusCode = status.getStatusCode();
-            log.debug("Dropping OpenTSDB cache.. %s, %i", status.getReasonPhrase(), status.getStatusCode());
+            return future.join();
+        } catch (CompletionException e) {
+            Throwables.throwIfUnchecked(e.getCause());
+            throw e;
+        }
+    }
+
+    private SuggestResult readSuggest(Answer answer, Throwable failure) {
+        SuggestResult result = new SuggestResult();
+        if (null != failure) {
+            log.error("{} executing suggest: {}", failure.getClass().getName(), failure.getMessage());
             return result;
+        }
+        try {
+            result.suggestions = objectMapper.readValue(answer.getContent(), ArrayList.class);
         } catch (IOException e) {
-            e.printStackTrace();
-        } finally {
-            httpDrop.releaseConnection();
+            log.error("IOException reading suggestions: {}", e.getMessage());
         }
-        return null;
+        return result;
     }
 
-    public RenameResult rename(OpenTSDBRename rename) {
-        final BasicHttpContext context = new BasicHttpContext();
-        final HttpPost httpPost = new HttpPost(providedURL);
-        final String jsonQueryString = Utils.jsonStringFromObject(rename);
-        StringEntity input;
-        try {
-            input = new StringEntity(jsonQueryString);
-        } catch (UnsupportedEncodingException e) {
-            log.error("UnsupportedEncodingException converting json string {} to StringEntity: {}", jsonQueryString, e.getMessage());
-            throw new IllegalArgumentException("Could not create StringEntity from query.", e);
+    private DropResult readDropCache(Answer answer, Throwable failure) {
+        if (null != failure) {
+            log.error("{} dropping OpenTSDB cache: {}", failure.getClass().getName(), failure.getMessage());
+            return null;
         }
-        input.setContentType("application/json");
-        httpPost.setEntity(input);
+        DropResult result = new DropResult();
+        result.reasonPhrase = answer.getReason();
+        result.statusCode = answer.getStatus();
+        log.debug("Dropping OpenTSDB cache.. {}, {}", answer.getReason(), answer.getStatus());
+        return result;
+    }
+
+    private RenameResult readRename(OpenTSDBRename rename, Answer answer, Throwable failure) {
         RenameResult result = new RenameResult();
         result.request = rename;
+        if (null != failure) {
+            log.error("{} executing rename: {}", failure.getClass().getName(), failure.getMessage());
+            return result;
+        }
         try {
-            HttpResponse response = httpClient.execute(httpPost, context);
-            StatusLine status = response.getStatusLine();
-            InputStream in = response.getEntity().getContent();
-            OpenTSDBRenameResult content = objectMapper.readValue(in, OpenTSDBRenameResult.class);
+            OpenTSDBRenameResult content = objectMapper.readValue(answer.getContent(), OpenTSDBRenameResult.class);
             result.reason = content.getError();
-            result.code = status.getStatusCode();
+            result.code = answer.getStatus();
         } catch (IOException e) {
-            e.printStackTrace();
-        } finally {
-            httpPost.releaseConnection();
+            log.error("IOException reading rename result: {}", e.getMessage());
         }
-
         return result;
     }
 
-    public OpenTSDBQueryReturn query(OpenTSDBQuery query, boolean ignoreRateOption, long rateCutoffDate) {
-        ArrayList<OpenTSDBQueryReturn> results = new ArrayList<>();
+    private OpenTSDBLastResult[] readLast(Answer answer, Throwable failure) {
+        if (null != failure) {
+            log.error("{} executing last query: {}", failure.getClass().getName(), failure.getMessage());
+            return null;
+        }
+        try {
+            if (answer.getStatus() != Response.Status.OK.getStatusCode() || !answer.hasContent()) {
+                log.info("Last query returned status {}. Reason: {}", answer.getStatus(), answer.getReason());
+                return null;
+            }
+            return objectMapper.readValue(answer.getContent(), OpenTSDBLastResult[].class);
+        } catch (IOException e) {
+            log.error("IOException executing and processing last query: {}", e.getMessage());
+            return null;
+        }
+    }
+
+    /**
+     * Sends a query, splitting its rate sub-queries at the rate cutoff when
+     * rate options are ignored. The parts are all sent at once and joined
+     * when every one has answered; the first failure, in the order the parts
+     * were split, fails the whole.
+     */
+    private CompletableFuture<OpenTSDBQueryReturn> executeQuery(OpenTSDBQuery query, boolean ignoreRateOption, long rateCutoffDate) {
+        final List<CompletableFuture<OpenTSDBQueryReturn>> rateParts = new ArrayList<>();
         log.debug("ignoreRateOption is {}", ignoreRateOption);
         log.debug("rateCutoffDate is {}", rateCutoffDate);
         if (ignoreRateOption) {
@@ -167,7 +361,6 @@ public class OpenTSDBClient {
                 //we have rate queries and they span the cutoff date
                 //create a new query, one for pre cutoff and one for post cutoff
                 //if original query still has sub queries (gauges) make that request as well
-                ArrayList<OpenTSDBQueryReturn> responses = new ArrayList<>(2);
                 for (OpenTSDBSubQuery q : cutoffQueries) {
                     OpenTSDBQuery preCutoffQ = new OpenTSDBQuery();
                     preCutoffQ.start = query.start;
@@ -178,13 +371,8 @@ public class OpenTSDBClient {
                         preCutoffQ.end = query.end;
                     }
                     preCutoffQ.addSubQuery(q);
-                    OpenTSDBQueryReturn preResult = this.query(preCutoffQ);
-                    if (preResult.getStatus().getStatus() == QueryStatus.QueryStatusEnum.ERROR) {
-                        return preResult;
-                    }
-                    results.add(preResult);
+                    rateParts.add(post(preCutoffQ));
                     if (spansCutoff) {
-                        OpenTSDBQueryReturn postResult = null;
                         OpenTSDBQuery postCutoff = new OpenTSDBQuery();
                         postCutoff.start = String.valueOf(rateCutoffDate);
                         postCutoff.end = query.end;
@@ -200,30 +388,48 @@ public class OpenTSDBClient {
                         postQ.tags = q.tags;
                         postQ.filters = q.filters;
                         postCutoff.addSubQuery(postQ);
-                        postResult = this.query(postCutoff);
-
-                        if (postResult.getStatus().getStatus() == QueryStatus.QueryStatusEnum.ERROR) {
-                            return postResult;
-                        }
-                        results.add(postResult);
+                        rateParts.add(post(postCutoff));
                     }
-                    if (results.size()>1) {
-                        OpenTSDBQueryReturn merged = this.mergeResults(results.toArray(new OpenTSDBQueryReturn[2]));
-                        results.clear();
-                        results.add(merged);
-                    }
-                    responses.clear();
                 }
             }
         }
-        if (!query.queries.isEmpty()) {
-            OpenTSDBQueryReturn result = this.query(query);
-            if (result.getStatus().getStatus() == QueryStatus.QueryStatusEnum.ERROR) {
-                return result;
-            }
-            results.add(result);
+        final CompletableFuture<OpenTSDBQueryReturn> gauges = query.queries.isEmpty() ? null : post(query);
+        List<CompletableFuture<OpenTSDBQueryReturn>> parts = new ArrayList<>(rateParts);
+        if (null != gauges) {
+            parts.add(gauges);
         }
-        return this.combine(results);
+        return CompletableFuture.allOf(parts.toArray(new CompletableFuture<?>[parts.size()])).thenApply(v -> {
+            ArrayList<OpenTSDBQueryReturn> results = new ArrayList<>();
+            for (CompletableFuture<OpenTSDBQueryReturn> part : rateParts) {
+                OpenTSDBQueryReturn result = part.join();
+                if (result.getStatus().getStatus() == QueryStatus.QueryStatusEnum.ERROR) {
+                    return result;
+                }
+                results.add(result);
+            }
+            if (results.size() > 1) {
+                OpenTSDBQueryReturn merged = mergeResults(results.toArray(new OpenTSDBQueryReturn[results.size()]));
+                results.clear();
+                results.add(merged);
+            }
+            if (null != gauges) {
+                OpenTSDBQueryReturn result = gauges.join();
+                if (result.getStatus().getStatus() == QueryStatus.QueryStatusEnum.ERROR) {
+                    return result;
+                }
+                results.add(result);
+            }
+            return this.combine(results);
+        });
+    }
+
+    /**
+     * Posts one query to OpenTSDB, reading the answer on the executor
+     */
+    private CompletableFuture<OpenTSDBQueryReturn> post(final OpenTSDBQuery query) {
+        final String jsonQueryString = Utils.jsonStringFromObject(query);
+        log.trace("query is {}", jsonQueryString);
+        return http.post(providedURL, jsonQueryString).handleAsync(this::readQuery, executor);
     }
 
     private OpenTSDBQueryReturn combine(Collection<OpenTSDBQueryReturn> results) {
@@ -239,85 +445,159 @@ public class OpenTSDBClient {
         return new OpenTSDBQueryReturn(finalResults, new QueryStatus(QueryStatus.QueryStatusEnum.SUCCESS, ""));
     }
 
-    private OpenTSDBQueryReturn mergeResults(OpenTSDBQueryReturn... result) {
+    private static OpenTSDBQueryReturn mergeResults(OpenTSDBQueryReturn... result) {
         //Join the results of one metric query that has been split,
-        // every query can return multiple results so make a key from the metricname and aggregated tags
-        Map<String, OpenTSDBQueryResult> results = new HashMap<>();
-//        OpenTSDBQueryReturn[] both = new OpenTSDBQueryReturn[]{preCutoff, postCutoff};
+        // every query can return multiple results so key them by metric name and tags
+        Map<String, Map<Tags, OpenTSDBQueryResult>> results = new LinkedHashMap<>();
+        List<OpenTSDBQueryResult> merged = new ArrayList<>();
         for (OpenTSDBQueryReturn input : result) {
             for (OpenTSDBQueryResult x : input.getResults()) {
-                TreeMap<String, String> tags = new TreeMap<>(x.tags);
-                String key = x.metric + tags;
-                if (!results.containsKey(key)) {
+                Map<Tags, OpenTSDBQueryResult> byTags = results.get(x.metric);
+                if (null == byTags) {
+                    byTags = new HashMap<>();
+                    results.put(x.metric, byTags);
+                }
+                Tags tags = Tags.fromOpenTsdbTags(x.tags);
+                OpenTSDBQueryResult existing = byTags.get(tags);
+                if (null == existing) {
+                    byTags.put(tags, x);
+                    merged.add(x);
+                } else {
+                    existing.getDataPoints().addAll(x.getDataPoints());
+                }
+            }
+        }
+        OpenTSDBQueryResult[] finalResults = merged.toArray(new OpenTSDBQueryResult[merged.size()]);
+        return new OpenTSDBQueryReturn(finalResults, new QueryStatus(QueryStatus.QueryStatusEnum.SUCCESS, ""));
+    }
+
+    /**
+     * Joins the answers to a query split into ranges of time, given in
+     * order. A result is matched to the sub-query it answers, by its index
+     * when OpenTSDB showed it and by its metric otherwise, and within that
+     * sub-query by the values of the tags it groups by. The other tags of an
+     * aggregated series are only those all its series share, which can
+     * differ from one range to the next, so the joined series keeps the tags
+     * every range agrees on and counts the rest as aggregated.
+     */
+    static OpenTSDBQueryReturn joinResults(List<OpenTSDBSubQuery> subQueries, OpenTSDBQueryReturn... parts) {
+        Map<List<Object>, OpenTSDBQueryResult> results = new HashMap<>();
+        List<OpenTSDBQueryResult> joined = new ArrayList<>();
+        for (OpenTSDBQueryReturn part : parts) {
+            for (OpenTSDBQueryResult x : part.getResults()) {
+                int index = subQueryIndex(subQueries, x);
+                Map<String, String> groups = new HashMap<>();
+                if (index >= 0) {
+                    for (String key : groupByKeys(subQueries.get(index))) {
+                        groups.put(key, null == x.tags ? null : x.tags.get(key));
+                    }
+                }
+                List<Object> key = Arrays.<Object>asList(index, index >= 0 ? null : x.metric, Tags.fromOpenTsdbTags(groups));
+                OpenTSDBQueryResult existing = results.get(key);
+                if (null == existing) {
                     results.put(key, x);
+                    joined.add(x);
                 } else {
-                    results.get(key).getDataPoints().putAll(x.getDataPoints());
+                    existing.getDataPoints().addAll(x.getDataPoints());
+                    keepCommonTags(existing, x);
                 }
             }
         }
-        OpenTSDBQueryResult[] finalResults = results.values().toArray(new OpenTSDBQueryResult[results.size()]);
+        OpenTSDBQueryResult[] finalResults = joined.toArray(new OpenTSDBQueryResult[joined.size()]);
         return new OpenTSDBQueryReturn(finalResults, new QueryStatus(QueryStatus.QueryStatusEnum.SUCCESS, ""));
     }
 
-    private OpenTSDBQueryReturn query(OpenTSDBQuery query) {
-        final BasicHttpContext context = new BasicHttpContext();
-        final HttpPost httpPost = new HttpPost(providedURL);
+    private static int subQueryIndex(List<OpenTSDBSubQuery> subQueries, OpenTSDBQueryResult result) {
+        if (null != result.subQueryIndex) {
+            return result.subQueryIndex;
+        }
+        if (subQueries.size() == 1) {
+            return 0;
+        }
+        for (int i = 0; i < subQueries.size(); i++) {
+            if (Objects.equals(subQueries.get(i).metric, result.metric)) {
+                return i;
+            }
+        }
+        return -1;
+    }
 
-        final String jsonQueryString = Utils.jsonStringFromObject(query);
-        log.trace("query is {}", jsonQueryString);
-        StringEntity input;
-        try {
-            input = new StringEntity(jsonQueryString);
-        } catch (UnsupportedEncodingException e) {
-            log.error("UnsupportedEncodingException converting json string {} to StringEntity: {}", jsonQueryString, e.getMessage());
-            throw new IllegalArgumentException("Could not create StringEntity from query.", e);
+    /**
+     * @return the tags whose values tell the series of a sub-query apart
+     */
+    private static Set<String> groupByKeys(OpenTSDBSubQuery subQuery) {
+        Set<String> keys = new HashSet<>();
+        if (null != subQuery.tags) {
+            keys.addAll(subQuery.tags.keySet());
+        }
+        if (null != subQuery.filters) {
+            for (OpenTSDBFilter filter : subQuery.filters) {
+                if (Boolean.TRUE.equals(filter.getGroupBy())) {
+                    keys.add(filter.getTagk());
+                }
+            }
         }
-        input.setContentType("application/json");
-        httpPost.setEntity(input);
+        return keys;
+    }
+
+    private static void keepCommonTags(OpenTSDBQueryResult joined, OpenTSDBQueryResult part) {
+        if (null == joined.tags) {
+            return;
+        }
+        Map<String, String> common = new HashMap<>();
+        List<String> aggregated = null == joined.aggregateTags ? new ArrayList<String>() : new ArrayList<>(joined.aggregateTags);
+        for (Map.Entry<String, String> tag : joined.tags.entrySet()) {
+            if (null != part.tags && Objects.equals(tag.getValue(), part.tags.get(tag.getKey()))) {
+                common.put(tag.getKey(), tag.getValue());
+            } else if (!aggregated.contains(tag.getKey())) {
+                aggregated.add(tag.getKey());
+            }
+        }
+        if (common.size() < joined.tags.size()) {
+            joined.tags = common;
+            joined.aggregateTags = aggregated;
+        }
+    }
 
+    private OpenTSDBQueryReturn readQuery(Answer answer, Throwable failure) {
         QueryStatus queryStatus = null;
-        HttpEntity entity = null;
         OpenTSDBQueryResult[] resultArray = new OpenTSDBQueryResult[]{};
+        if (null != failure) {
+            log.error("{} executing query: {}", failure.getClass().getName(), failure.getMessage());
+            return new OpenTSDBQueryReturn(resultArray, new QueryStatus(QueryStatus.QueryStatusEnum.ERROR,
+                    String.format("%s executing and processing query: %s", failure.getClass().getName(), failure.getMessage())));
+        }
         try {
-            HttpResponse response = httpClient.execute(httpPost, context);
-            StatusLine status = response.getStatusLine();
-            if (status.getStatusCode() != Response.Status.OK.getStatusCode()) {
-                String message = status.getReasonPhrase();
-                entity = response.getEntity();
-                if (null != entity) {
-                    String content = EntityUtils.toString(response.getEntity());
-                    OpenTSDBErrorResponse tsdbResponse = Utils.getObjectMapper().readValue(content, OpenTSDBErrorResponse.class);
-                    log.info("Response code {}, message: {}", tsdbResponse.error.code, tsdbResponse.error.message);
-                    log.debug("Response object: {}", Utils.jsonStringFromObject(tsdbResponse));
-                    message = tsdbResponse.error.message;
+            if (answer.getStatus() != Response.Status.OK.getStatusCode()) {
+                String message = answer.getReason();
+                if (answer.hasContent()) {
+                    OpenTSDBErrorResponse tsdbResponse = OpenTSDBResponseReader.readError(answer.getContent());
+                    if (null != tsdbResponse.error) {
+                        log.info("Response code {}, message: {}", tsdbResponse.error.code, tsdbResponse.error.message);
+                        log.debug("Response object: {}", Utils.jsonStringFromObject(tsdbResponse));
+                        message = tsdbResponse.error.message;
+                    }
                 } else {
-                    log.info("HTTP Execute returned status {}. Reason: {}", status.getStatusCode(), status.getReasonPhrase());
+                    log.info("HTTP Execute returned status {}. Reason: {}", answer.getStatus(), answer.getReason());
                 }
                 queryStatus = new QueryStatus(QueryStatus.QueryStatusEnum.ERROR, message);
             } else {
-                entity = response.getEntity();
-                String contentString = EntityUtils.toString(entity);
-                try {
-                    resultArray = Utils.getObjectMapper().readValue(contentString, OpenTSDBQueryResult[].class);
-                } catch (IOException e) {
-                    log.warn("Unable to parse HTTP response as OpenTSDBQueryResult.");
-                    queryStatus = new QueryStatus(QueryStatus.QueryStatusEnum.WARNING,
-                            String.format("Could not parse content as OpenTSDBQueryResult[]. Content: \"%s\"", contentString));
+                if (answer.hasContent()) {
+                    try {
+                        resultArray = OpenTSDBResponseReader.readResults(answer.getContent());
+                    } catch (JsonProcessingException e) {
+                        log.warn("Unable to parse HTTP response as OpenTSDBQueryResult.");
+                        queryStatus = new QueryStatus(QueryStatus.QueryStatusEnum.WARNING,
+                                String.format("Could not parse content as OpenTSDBQueryResult[]: %s", e.getOriginalMessage()));
+                    }
                 }
                 if (null != resultArray && resultArray.length > 0) {
                     queryStatus = new QueryStatus(QueryStatus.QueryStatusEnum.SUCCESS, "");
                 }
                 if (null == queryStatus) {
-                    queryStatus = new QueryStatus(QueryStatus.QueryStatusEnum.WARNING, "OpenTSDB query was successful, but no data was returned.");
+                    queryStatus = new QueryStatus(QueryStatus.QueryStatusEnum.WARNING, NO_DATA);
                 }
             }
-        } catch (ClientProtocolException e) {
-            log.error("ClientProtocolException executing and processing query: {}", e.getMessage());
-            if (log.isDebugEnabled()) {
-                log.debug("IOException stack trace: {}", e.getStackTrace());
-            }
-            queryStatus = new QueryStatus(QueryStatus.QueryStatusEnum.ERROR,
-                    String.format("%s executing and processing query: %s", e.getClass().getName(), e.getMessage()));
         } catch (IOException e) {
             log.error("IOException executing and processing query: {}", e.getMessage());
             if (log.isDebugEnabled()) {
@@ -325,13 +605,8 @@ public class OpenTSDBClient {
             }
             queryStatus = new QueryStatus(QueryStatus.QueryStatusEnum.ERROR,
                     String.format("%s executing and processing query: %s", e.getClass().getName(), e.getMessage()));
-        } finally {
-            EntityUtils.consumeQuietly(entity);
-            log.debug("releasing connection.");
-            httpPost.releaseConnection();
         }
 
         return new OpenTSDBQueryReturn(resultArray, queryStatus);
     }
 }
-
@@ -0,0 +1,74 @@
+/*
+ * ****************************************************************************
+ *
+ *  Copyright (C) Zenoss, Inc. 2026, all rights reserved.
+ *
+ *  This content is made available according to terms specified in
+ *  License.zenoss distributed with this file.
+ *
+ * ***************************************************************************
+ */
+package org.zenoss.app.metricservice.api.impl;
+
+import com.fasterxml.jackson.core.JsonParseException;
+import com.fasterxml.jackson.core.JsonParser;
+import com.fasterxml.jackson.core.JsonToken;
+import com.fasterxml.jackson.databind.DeserializationContext;
+import com.fasterxml.jackson.databind.JsonDeserializer;
+
+import java.io.IOException;
+
+/**
+ * Reads the OpenTSDB {@code "dps": {"<timestamp>": <value>, ...}} object
+ * directly into a {@link DataPointSeries} without boxing each point.
+ */
+public class OpenTSDBDatapointDeserializer extends JsonDeserializer<DataPointSeries> {
+
+    @Override
+    public DataPointSeries deserialize(JsonParser jp, DeserializationContext ctxt) throws IOException {
+        if (jp.getCurrentToken() != JsonToken.START_OBJECT) {
+            throw ctxt.mappingException("Expected an object of timestamp to value for datapoints");
+        }
+        return readDataPoints(jp, 0);
+    }
+
+    @Override
+    public DataPointSeries getNullValue(DeserializationContext ctxt) {
+        return new DataPointSeries();
+    }
+
+    /**
+     * Reads the datapoints object the parser is positioned at, leaving the
+     * parser on its closing token.
+     *
+     * @param expectedSize number of points to reserve space for up front
+     */
+    static DataPointSeries readDataPoints(JsonParser jp, int expectedSize) throws IOException {
+        DataPointSeries result = new DataPointSeries(expectedSize);
+        while (jp.nextToken() == JsonToken.FIELD_NAME) {
+            try {
+                long timestamp = Long.parseLong(jp.getCurrentName());
+                result.add(timestamp, readValue(jp));
+            } catch (NumberFormatException e) {
+                throw new JsonParseException(jp, String.format("Invalid datapoint %s: %s", jp.getCurrentName(), e.getMessage()), e);
+            }
+        }
+        result.trimToSize();
+        return result;
+    }
+
+    static double readValue(JsonParser jp) throws IOException {
+        JsonToken token = jp.nextToken();
+        switch (token) {
+            case VALUE_NUMBER_INT:
+            case VALUE_NUMBER_FLOAT:
+                return jp.getDoubleValue();
+            case VALUE_STRING:
+                return Double.parseDouble(jp.getText());
+            case VALUE_NULL:
+                return Double.NaN;
+            default:
+                throw new IOException(String.format("Unexpected token %s reading datapoint value", token));
+        }
+    }
+}
@@ -0,0 +1,34 @@
+/*
+ * ****************************************************************************
+ *
+ *  Copyright (C) Zenoss, Inc. 2026, all rights reserved.
+ *
+ *  This content is made available according to terms specified in
+ *  License.zenoss distributed with this file.
+ *
+ * ***************************************************************************
+ */
+package org.zenoss.app.metricservice.api.impl;
+
+import com.fasterxml.jackson.core.JsonGenerator;
+import com.fasterxml.jackson.databind.JsonSerializer;
+import com.fasterxml.jackson.databind.SerializerProvider;
+
+import java.io.IOException;
+
+/**
+ * Writes a {@link DataPointSeries} in the OpenTSDB
+ * {@code {"<timestamp>": <value>, ...}} form.
+ */
+public class OpenTSDBDatapointSerializer extends JsonSerializer<DataPointSeries> {
+
+    @Override
+    public void serialize(DataPointSeries value, JsonGenerator jgen, SerializerProvider provider) throws IOException {
+        jgen.writeStartObject();
+        for (int i = 0; i < value.size(); i++) {
+            jgen.writeFieldName(Long.toString(value.getTimestamp(i)));
+            jgen.writeNumber(value.getValue(i));
+        }
+        jgen.writeEndObject();
+    }
+}
@@ -0,0 +1,39 @@
+/*
+ * ****************************************************************************
+ *
+ *  Copyright (C) Zenoss, Inc. 2026, all rights reserved.
+ *
+ *  This content is made available according to terms specified in
+ *  License.zenoss distributed with this file.
+ *
+ * ***************************************************************************
+ */
+package org.zenoss.app.metricservice.api.impl;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * A request to OpenTSDB's /api/query/last for the last point of series
+ */
+public class OpenTSDBLastQuery {
+    public List<SubQuery> queries = new ArrayList<>();
+    public boolean resolveNames = true;
+    /**
+     * How many hours before now to scan for the last point
+     */
+    public int backScan = 0;
+
+    public static class SubQuery {
+        public String metric = null;
+        public Map<String, String> tags = null;
+    }
+
+    public void addSubQuery(String metric, Map<String, String> tags) {
+        SubQuery subQuery = new SubQuery();
+        subQuery.metric = metric;
+        subQuery.tags = tags;
+        queries.add(subQuery);
+    }
+}
@@ -0,0 +1,30 @@
+/*
+ * ****************************************************************************
+ *
+ *  Copyright (C) Zenoss, Inc. 2026, all rights reserved.
+ *
+ *  This content is made available according to terms specified in
+ *  License.zenoss distributed with this file.
+ *
+ * ***************************************************************************
+ */
+package org.zenoss.app.metricservice.api.impl;
+
+import java.util.Map;
+
+/**
+ * The last point of one series, as answered by OpenTSDB's /api/query/last
+ */
+public class OpenTSDBLastResult {
+    public String metric;
+    public Map<String, String> tags;
+    /**
+     * Milliseconds since the epoch
+     */
+    public long timestamp;
+    /**
+     * OpenTSDB sends the value as a string
+     */
+    public String value;
+    public String tsuid;
+}
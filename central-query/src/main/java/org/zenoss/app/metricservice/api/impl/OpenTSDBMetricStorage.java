@@ -32,11 +32,6 @@ package org.zenoss.app.metricservice.api.impl;
 
 import com.google.common.base.Optional;
 import com.google.common.util.concurrent.ThreadFactoryBuilder;
-import org.apache.http.client.params.ClientPNames;
-import org.apache.http.impl.client.DefaultHttpClient;
-import org.apache.http.impl.conn.PoolingClientConnectionManager;
-import org.apache.http.params.HttpConnectionParams;
-import org.apache.http.params.HttpParams;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 import org.springframework.beans.factory.annotation.Autowired;
@@ -52,17 +47,18 @@ import org.zenoss.app.metricservice.api.model.v2.*;
 
 import javax.annotation.PostConstruct;
 import javax.annotation.PreDestroy;
+import java.io.File;
 import java.io.IOException;
 import java.io.Writer;
+import java.text.ParseException;
 import java.util.ArrayList;
+import java.util.IdentityHashMap;
 import java.util.List;
 import java.util.Map;
-import java.util.concurrent.Callable;
-import java.util.concurrent.CancellationException;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.CompletableFuture;
 import java.util.concurrent.ExecutionException;
 import java.util.concurrent.ExecutorService;
-import java.util.concurrent.CompletionService;
-import java.util.concurrent.ExecutorCompletionService;
 import java.util.concurrent.Future;
 import java.util.concurrent.LinkedBlockingQueue;
 import java.util.concurrent.RejectedExecutionException;
@@ -85,28 +81,46 @@ public class OpenTSDBMetricStorage implements MetricStorageAPI {
 
     private static ExecutorService executorServiceInstance = null;
 
+    private static final QueryCoalescer coalescer = new QueryCoalescer();
+
+    /**
+     * Completed segments of past query results, if enabled
+     */
+    private ResultSegmentCache segmentCache = null;
+    private SegmentStore segmentStore = null;
+
+    /**
+     * Last results of queries over a window ending now, if enabled
+     */
+    private SlidingWindowCache slidingWindows = null;
+
+    /**
+     * Splits queries over long ranges into chunks, if enabled
+     */
+    private QueryRangeSplitter rangeSplitter = null;
+
+    /**
+     * The newest points pushed to the service, if enabled
+     */
+    private RecentTier recentTier = null;
+
     static final String SPACE_REPLACEMENT = "//-";
-    private DefaultHttpClient httpClient = null;
+    private AsyncHttpTransport transport = null;
 
     @Override
     public void renamePrefix(RenameRequest renameRequest, Writer writer) {
-        OpenTSDBClient renameClient =
-                new OpenTSDBClient(this.getHttpClient(), getOpenTSDBApiRenameUrl());
-        OpenTSDBClient suggestClient =
-                new OpenTSDBClient(this.getHttpClient(), getOpenTSDBApiSuggestUrl());
-        OpenTSDBClient dropCacheClient =
-            new OpenTSDBClient(this.getHttpClient(), getOpenTSDBApiDropCacheUrl());
-        OpenTSDBClient dropWriterCacheClient =
-            new OpenTSDBClient(this.getHttpClient(), getOpenTSDBApiDropWriterCacheUrl());
+        OpenTSDBClient renameClient = newClient(getOpenTSDBApiRenameUrl());
+        OpenTSDBClient suggestClient = newClient(getOpenTSDBApiSuggestUrl());
+        OpenTSDBClient dropCacheClient = newClient(getOpenTSDBApiDropCacheUrl());
+        OpenTSDBClient dropWriterCacheClient = newClient(getOpenTSDBApiDropWriterCacheUrl());
 
 
         final String oldPrefix = renameRequest.getOldName();
         final String newPrefix = renameRequest.getNewName();
         final String type = renameRequest.getType();
 
-        ExecutorService executorService = getExecutorService();
-        CompletionService<RenameResult> renameCompletionService =
-                new ExecutorCompletionService<>(executorService);
+        // Renames in the order they complete
+        final BlockingQueue<Future<RenameResult>> completedRenames = new LinkedBlockingQueue<>();
 
         OpenTSDBSuggest otsdbSuggestRequest = new OpenTSDBSuggest();
 
@@ -131,7 +145,8 @@ public class OpenTSDBMetricStorage implements MetricStorageAPI {
             }
 
             renameReq.name = replace;
-            renameCompletionService.submit(new RenameTask(renameClient, renameReq));
+            final CompletableFuture<RenameResult> rename = renameWithRetry(renameClient, renameReq, 0);
+            rename.whenComplete((result, e) -> completedRenames.add(rename));
         }
 
         // Process the result from each rename task.
@@ -139,7 +154,7 @@ public class OpenTSDBMetricStorage implements MetricStorageAPI {
         RenameLogMsg msg = new RenameLogMsg();
         for (int i = 1; i < nTasks + 1; i++) {
             try {
-                final Future<RenameResult> result = renameCompletionService.take();
+                final Future<RenameResult> result = completedRenames.take();
 
                 // Write the progress.
                 int percent = (int) ((float) i / nTasks * 100);
@@ -243,12 +258,9 @@ public class OpenTSDBMetricStorage implements MetricStorageAPI {
     @Override
     public void renameWhole(RenameRequest renameRequest, Writer writer) {
 
-        OpenTSDBClient renameClient =
-                new OpenTSDBClient(this.getHttpClient(), getOpenTSDBApiRenameUrl());
-        OpenTSDBClient dropCacheClient =
-            new OpenTSDBClient(this.getHttpClient(), getOpenTSDBApiDropCacheUrl());
-        OpenTSDBClient dropWriterCacheClient =
-            new OpenTSDBClient(this.getHttpClient(), getOpenTSDBApiDropWriterCacheUrl());
+        OpenTSDBClient renameClient = newClient(getOpenTSDBApiRenameUrl());
+        OpenTSDBClient dropCacheClient = newClient(getOpenTSDBApiDropCacheUrl());
+        OpenTSDBClient dropWriterCacheClient = newClient(getOpenTSDBApiDropWriterCacheUrl());
 
         final String type = renameRequest.getType();
         final String oldName = renameRequest.getOldName();
@@ -263,27 +275,21 @@ public class OpenTSDBMetricStorage implements MetricStorageAPI {
             otsdbRenameRequest.tagv = oldName;
         }
 
-        RenameResult renameResult = new RenameResult();
+        RenameResult renameResult = renameWithRetry(renameClient, otsdbRenameRequest, 0).join();
         RenameLogMsg msg = new RenameLogMsg();
-        for (int x = 0; x < RETRY_CT; x++) {
-            renameResult = renameClient.rename(otsdbRenameRequest);
-            if (renameResult.code == 200) {
-                msg.setType(RenameLogMsg.TYPE_INFO);
-                msg.setContent(String.format(
-                        "Renaming %s %s to %s completed.",
-                        type,
-                        oldName,
-                        newName
-                ));
-                log.info(msg.getContent());
-                try {
-                    writer.write(Utils.jsonStringFromObject(msg));
-                } catch (IOException e) {
-                    log.error("Error while handling IO after renaming in central query");
-                }
-                break;
-            } else if (renameResult.code < 500) {
-                break; // shouldn't retry on 400-level statuses
+        if (renameResult.code == 200) {
+            msg.setType(RenameLogMsg.TYPE_INFO);
+            msg.setContent(String.format(
+                    "Renaming %s %s to %s completed.",
+                    type,
+                    oldName,
+                    newName
+            ));
+            log.info(msg.getContent());
+            try {
+                writer.write(Utils.jsonStringFromObject(msg));
+            } catch (IOException e) {
+                log.error("Error while handling IO after renaming in central query");
             }
         }
 
@@ -335,28 +341,19 @@ public class OpenTSDBMetricStorage implements MetricStorageAPI {
         }
     }
 
-    class RenameTask implements Callable<RenameResult> {
-        private final OpenTSDBClient client;
-        private final OpenTSDBRename renameReq;
-
-        public RenameTask(OpenTSDBClient client, OpenTSDBRename renameReq) {
-            this.client = client;
-            this.renameReq = renameReq;
-        }
-
-        @Override
-        public RenameResult call() {
-            RenameResult renameResult = new RenameResult();
-            for (int x = 0; x < RETRY_CT; x++) {
-                renameResult = client.rename(renameReq);
-                if (renameResult.code == 200) {
-                    break;
-                } else if (renameResult.code < 500) {
-                    break; // shouldn't retry on 400-level statuses
-                }
+    /**
+     * Renames, retrying up to {@link #RETRY_CT} times when OpenTSDB fails
+     * with a 500-level status
+     */
+    private static CompletableFuture<RenameResult> renameWithRetry(final OpenTSDBClient client,
+                                                                   final OpenTSDBRename renameReq, final int attempt) {
+        return client.renameAsync(renameReq).thenCompose(renameResult -> {
+            // shouldn't retry on 400-level statuses
+            if (renameResult.code == 200 || renameResult.code < 500 || attempt + 1 >= RETRY_CT) {
+                return CompletableFuture.completedFuture(renameResult);
             }
-            return renameResult;
-        }
+            return renameWithRetry(client, renameReq, attempt + 1);
+        });
     }
 
     @Override
@@ -378,8 +375,15 @@ public class OpenTSDBMetricStorage implements MetricStorageAPI {
             otsdbQuery.addSubQuery(createOTSDBQuery(mq));
         }
 
-        OpenTSDBClient client = new OpenTSDBClient(this.getHttpClient(), getOpenTSDBApiQueryUrl());
-        OpenTSDBQueryReturn result = client.query(otsdbQuery, this.config.getMetricServiceConfig().isIgnoreRateOption(), this.config.getMetricServiceConfig().getRateOptionCutoffTs());
+        OpenTSDBQueryReturn result = null;
+        ReturnSet returnset = Optional.fromNullable(query.getReturnset()).or(config.getMetricServiceConfig().getDefaultReturnSet());
+        if (ReturnSet.LAST == returnset && config.getMetricServiceConfig().isLastQueryEnabled()) {
+            result = queryLast(otsdbQuery, startTime, endTime);
+        }
+        if (null == result) {
+            OpenTSDBClient client = newClient(getOpenTSDBApiQueryUrl());
+            result = client.query(otsdbQuery, this.config.getMetricServiceConfig().isIgnoreRateOption(), this.config.getMetricServiceConfig().getRateOptionCutoffTs());
+        }
         for (OpenTSDBQueryResult series : result.getResults()) {
             series.metric = series.metric.replace(SPACE_REPLACEMENT, " ");
         }
@@ -413,7 +417,7 @@ public class OpenTSDBMetricStorage implements MetricStorageAPI {
             metricSpecification.setDownsample(appliedDownsample);
         }
 
-        List<OpenTSDBQueryResult> responses = runQueries(startTime, endTime, queries);
+        List<OpenTSDBQueryResult> responses = runQueries(startTime, endTime, returnset, queries);
         for (OpenTSDBQueryResult result : responses) {
             result.metric = result.metric.replace(SPACE_REPLACEMENT, " ");
         }
@@ -425,6 +429,10 @@ public class OpenTSDBMetricStorage implements MetricStorageAPI {
         return String.format("%s/api/query", config.getMetricServiceConfig().getOpenTsdbUrl());
     }
 
+    private String getOpenTSDBApiQueryLastUrl() {
+        return String.format("%s/api/query/last", config.getMetricServiceConfig().getOpenTsdbUrl());
+    }
+
     private String getOpenTSDBApiSuggestUrl() {
         return String.format("%s/api/suggest", config.getMetricServiceConfig().getOpenTsdbUrl());
     }
@@ -496,6 +504,14 @@ public class OpenTSDBMetricStorage implements MetricStorageAPI {
         return SOURCE_ID;
     }
 
+    @Override
+    public int store(List<Metric> metrics) {
+        if (null == recentTier) {
+            return 0;
+        }
+        return recentTier.store(metrics);
+    }
+
     private static String parseAggregation(String v) {
         String result = "";
         int dashPosition = v.indexOf('-');
@@ -520,60 +536,215 @@ public class OpenTSDBMetricStorage implements MetricStorageAPI {
         return String.format("%ds-%s", newDuration, aggregation);
     }
 
-    private List<OpenTSDBQueryResult> runQueries(String start, String end, List<MetricSpecification> queries) {
-        List<Callable<OpenTSDBQueryResult>> callables = new ArrayList<>(queries.size());
-        DefaultHttpClient httpClient = getHttpClient();
-        for (MetricSpecification mSpec : queries) {
-            MetricSpecCallable callable = new MetricSpecCallable(httpClient, start, end, mSpec, getOpenTSDBApiQueryUrl(), this.config.getMetricServiceConfig().isIgnoreRateOption(), this.config.getMetricServiceConfig().getRateOptionCutoffTs());
-            callables.add(callable);
+    /**
+     * Queries every specification at once and waits for all of them. Only
+     * the exchanges with OpenTSDB take threads of the executor; the results
+     * are converted as each query completes. Up to maxSubQueriesPerRequest
+     * specifications are sent in each request. When only the last point is
+     * returned, it is asked for where that gives the same answer.
+     */
+    private List<OpenTSDBQueryResult> runQueries(String start, String end, ReturnSet returnset, List<MetricSpecification> queries) {
+        OpenTSDBClient client = newClient(getOpenTSDBApiQueryUrl());
+        MetricServiceConfig conf = this.config.getMetricServiceConfig();
+        Map<MetricSpecification, CompletableFuture<OpenTSDBQueryResult>> futures = new IdentityHashMap<>(queries.size());
+        try {
+            List<MetricSpecification> scanned = queries;
+            if (ReturnSet.LAST == returnset && conf.isLastQueryEnabled()) {
+                scanned = queryLast(client, start, end, queries, futures);
+            }
+            List<MetricSpecification> uncached = scanned;
+            if (null != segmentCache) {
+                uncached = new ArrayList<>(scanned.size());
+                for (MetricSpecification mSpec : scanned) {
+                    CompletableFuture<OpenTSDBQueryResult> future = segmentCache.queryAsync(client, getOpenTSDBApiQueryUrl(),
+                            start, end, mSpec, conf.isIgnoreRateOption(), conf.getRateOptionCutoffTs());
+                    if (null == future) {
+                        uncached.add(mSpec);
+                    } else {
+                        futures.put(mSpec, future.exceptionally(e -> {
+                            log.error("{} exception getting result from future: {}", e.getClass().getName(), e.getMessage());
+                            return null;
+                        }));
+                    }
+                }
+            }
+            List<List<MetricSpecification>> batches = MetricSpecBatch.plan(uncached, conf.getMaxSubQueriesPerRequest(), conf.isIgnoreRateOption());
+            log.debug("querying {} specifications in {} requests...", uncached.size(), batches.size());
+            for (List<MetricSpecification> specs : batches) {
+                MetricSpecBatch batch = new MetricSpecBatch(client, start, end, specs, conf.isIgnoreRateOption(), conf.getRateOptionCutoffTs());
+                List<CompletableFuture<OpenTSDBQueryResult>> batchFutures = batch.callAsync();
+                for (int i = 0; i < specs.size(); i++) {
+                    futures.put(specs.get(i), batchFutures.get(i).exceptionally(e -> {
+                        log.error("{} exception getting result from future: {}", e.getClass().getName(), e.getMessage());
+                        return null;
+                    }));
+                }
+            }
+        } catch (RejectedExecutionException e) {
+            log.error("Query execution was unsuccessful: {}", e.getMessage());
+            return new ArrayList<>();
         }
-        List<Future<OpenTSDBQueryResult>> futures = invokeCallables(callables);
+        CompletableFuture.allOf(futures.values().toArray(new CompletableFuture<?>[futures.size()])).join();
         log.debug("{} futures returned.", futures.size());
         List<OpenTSDBQueryResult> results = new ArrayList<>();
-        getResultsFromFutures(results, futures);
+        for (MetricSpecification mSpec : queries) {
+            OpenTSDBQueryResult result = futures.get(mSpec).join();
+            if (null != result) {
+                results.add(result);
+            }
+        }
         log.debug("{} results returned.", results.size());
         return results;
     }
 
-    private List<Future<OpenTSDBQueryResult>> invokeCallables(List<Callable<OpenTSDBQueryResult>> callables) {
-        ExecutorService executorService = getExecutorService();
-        List<Future<OpenTSDBQueryResult>> futures = new ArrayList<>();
+    /**
+     * Asks for the last points of the specifications that allow it, falling
+     * back to scanning the range of those whose last point is not answered
+     *
+     * @param futures receives the future result of each specification asked for
+     * @return the specifications whose range has to be scanned
+     */
+    private List<MetricSpecification> queryLast(final OpenTSDBClient client, final String start, final String end,
+                                                List<MetricSpecification> queries,
+                                                Map<MetricSpecification, CompletableFuture<OpenTSDBQueryResult>> futures) {
+        final MetricServiceConfig conf = this.config.getMetricServiceConfig();
+        long startTs;
+        long endTs;
         try {
-            log.debug("invoking {} callables...", callables.size());
-            futures = executorService.invokeAll(callables); // throws: InterruptedException (checked), NullPointerException/RejectedExecutionException (unchecked)
-        } catch (InterruptedException | NullPointerException | RejectedExecutionException e) {
-            log.error("Query execution was unsuccessful: {}", e.getMessage());
+            startTs = Utils.parseDate(start);
+            endTs = Utils.parseDate(end);
+        } catch (ParseException e) {
+            log.debug("Not asking for last points: {}", e.getMessage());
+            return queries;
         }
-        return futures;
-    }
-
-    private ExecutorService getExecutorService() {
-        return executorServiceInstance;
+        List<MetricSpecification> asked = new ArrayList<>();
+        List<OpenTSDBSubQuery> subQueries = new ArrayList<>();
+        List<MetricSpecification> scanned = new ArrayList<>();
+        for (MetricSpecification mSpec : queries) {
+            OpenTSDBSubQuery subQuery = MetricSpecCallable.creatOTSDBSubQuery(mSpec);
+            if (LastValueQuery.accepts(subQuery)) {
+                asked.add(mSpec);
+                subQueries.add(subQuery);
+            } else {
+                scanned.add(mSpec);
+            }
+        }
+        if (asked.isEmpty()) {
+            return queries;
+        }
+        CompletableFuture<List<OpenTSDBQueryResult>> last = LastValueQuery.queryAsync(newClient(getOpenTSDBApiQueryLastUrl()),
+                subQueries, startTs, endTs);
+        for (int i = 0; i < asked.size(); i++) {
+            final int index = i;
+            final MetricSpecification mSpec = asked.get(i);
+            futures.put(mSpec, last.thenCompose(results -> {
+                OpenTSDBQueryResult result = results.get(index);
+                if (null != result) {
+                    return CompletableFuture.completedFuture(MetricSpecCallable.label(result, mSpec));
+                }
+                return new MetricSpecCallable(client, start, end, mSpec, conf.isIgnoreRateOption(), conf.getRateOptionCutoffTs()).callAsync();
+            }).exceptionally(e -> {
+                log.error("{} exception getting result from future: {}", e.getClass().getName(), e.getMessage());
+                return null;
+            }));
+        }
+        return scanned;
     }
 
-    private void getResultsFromFutures(List<OpenTSDBQueryResult> results, List<Future<OpenTSDBQueryResult>> futures) {
-        for (Future<OpenTSDBQueryResult> future : futures) {
-            try {
-                OpenTSDBQueryResult result = future.get(); // Throws InterruptedException, ExecutionException (checked); CancellationException (unchecked)
-                results.add(result);
-            } catch (InterruptedException | ExecutionException | CancellationException e) {
-                // On exception, return an empty result, with the queryStatus set to indicate the problem.
-                OpenTSDBQueryResult result = new OpenTSDBQueryResult();
-                QueryStatus queryStatus = new QueryStatus(QueryStatus.QueryStatusEnum.ERROR, e.getMessage());
-                result.setStatus(queryStatus);
-                log.error("{} exception getting result from future: {}", e.getClass().getName(), e.getMessage());
+    /**
+     * Answers a query from the last points of its series, or returns null if
+     * any of them has to be scanned for
+     */
+    private OpenTSDBQueryReturn queryLast(OpenTSDBQuery query, String start, String end) {
+        for (OpenTSDBSubQuery subQuery : query.queries) {
+            if (!LastValueQuery.accepts(subQuery)) {
+                return null;
             }
         }
+        List<OpenTSDBQueryResult> results;
+        try {
+            results = LastValueQuery.queryAsync(newClient(getOpenTSDBApiQueryLastUrl()), query.queries,
+                    Utils.parseDate(start), Utils.parseDate(end)).join();
+        } catch (ParseException e) {
+            log.debug("Not asking for last points: {}", e.getMessage());
+            return null;
+        }
+        if (results.contains(null)) {
+            return null;
+        }
+        return new OpenTSDBQueryReturn(results.toArray(new OpenTSDBQueryResult[results.size()]),
+                new QueryStatus(QueryStatus.QueryStatusEnum.SUCCESS, ""));
     }
 
-    private DefaultHttpClient getHttpClient() {
-        return httpClient;
+    /**
+     * Returns a client whose answers are read on the executor and, if enabled,
+     * whose queries are shared with identical ones in flight, whose queries
+     * over a window ending now only fetch what changed, whose queries over
+     * long ranges are fetched in chunks and whose newest points are read from
+     * the ones pushed to the service
+     */
+    private OpenTSDBClient newClient(String url) {
+        boolean coalesce = config.getMetricServiceConfig().isCoalesceQueries();
+        return OpenTSDBClient.builder(getTransport(), url)
+                .executor(getExecutorService())
+                .coalescer(coalesce ? coalescer : null)
+                .windows(slidingWindows)
+                .splitter(rangeSplitter)
+                .recent(recentTier)
+                .build();
+    }
+
+    ExecutorService getExecutorService() {
+        return executorServiceInstance;
+    }
+
+    AsyncHttpTransport getTransport() {
+        return transport;
     }
 
     @PostConstruct
     public void startup() {
         log.debug("**************** PostConstruct method called. ***********");
-        makeHttpClient();
+        makeTransport();
+        MetricServiceConfig conf = config.getMetricServiceConfig();
+        if (conf.isResultCacheEnabled()) {
+            log.info("Caching completed {}s result segments in up to {} bytes.", conf.getResultCacheSegmentSeconds(), conf.getResultCacheMaxBytes());
+            SegmentStore store = null;
+            String directory = conf.getResultCacheDirectory();
+            if (null != directory && !directory.isEmpty()) {
+                try {
+                    store = new SegmentStore(new File(directory), conf.getResultCacheMaxDiskBytes());
+                } catch (IOException e) {
+                    log.warn("Unable to open result segments in {}, caching them in memory only: {}", directory, e.getMessage());
+                }
+            }
+            segmentCache = new ResultSegmentCache(conf.getResultCacheMaxBytes(), conf.getResultCacheSegmentSeconds(), conf.getResultCacheSettleSeconds(), store);
+            segmentStore = store;
+        }
+        if (conf.isSlidingWindowEnabled()) {
+            log.info("Keeping the last result of up to {} queries ending now for {}s.", conf.getSlidingWindowMaxQueries(), conf.getSlidingWindowTtlSeconds());
+            slidingWindows = new SlidingWindowCache(conf.getSlidingWindowMaxQueries(), conf.getSlidingWindowTtlSeconds(),
+                    conf.getSlidingWindowStaleSeconds(), conf.getSlidingWindowSettleSeconds());
+        }
+        if (conf.getQueryChunkSeconds() > 0) {
+            log.info("Querying ranges longer than {}s in chunks, up to {} at once.", conf.getQueryChunkSeconds(), conf.getQueryChunkParallelism());
+            rangeSplitter = new QueryRangeSplitter(conf.getQueryChunkSeconds(), conf.getQueryChunkParallelism());
+        }
+        if (conf.isRecentTierEnabled()) {
+            log.info("Keeping the newest {} pushed points of up to {} series.", conf.getRecentTierPointsPerSeries(), conf.getRecentTierMaxSeries());
+            recentTier = new RecentTier(conf.getRecentTierMaxSeries(), conf.getRecentTierPointsPerSeries(),
+                    conf.getRecentTierStaleSeconds(), conf.getRecentTierIdleSeconds());
+        }
+        if (conf.isConnectionBoundedExecutor()) {
+            // The transport bounds the requests in flight, and each answer is read on one thread
+            int connections = conf.getMaxTotalPoolConnections();
+            log.info("Setting up executor with up to {} threads and {} requests in flight.", connections, connections);
+            ThreadFactory namedThreadFactory = new ThreadFactoryBuilder().setNameFormat("TSDB-query-thread-%d").build();
+            ThreadPoolExecutor executor = new ThreadPoolExecutor(connections, connections, 60L, TimeUnit.SECONDS, new LinkedBlockingQueue<Runnable>(), namedThreadFactory);
+            executor.allowCoreThreadTimeOut(true);
+            executorServiceInstance = executor;
+            return;
+        }
         int executorThreadPoolMaxSize = config.getMetricServiceConfig().getExecutorThreadPoolMaxSize();
         int executorThreadPoolCoreSize = config.getMetricServiceConfig().getExecutorThreadPoolCoreSize();
         if (executorThreadPoolCoreSize > executorThreadPoolMaxSize) {
@@ -585,26 +756,36 @@ public class OpenTSDBMetricStorage implements MetricStorageAPI {
         executorServiceInstance = new ThreadPoolExecutor(executorThreadPoolCoreSize, executorThreadPoolMaxSize, 0L, TimeUnit.MILLISECONDS, new LinkedBlockingQueue<Runnable>(), namedThreadFactory);
     }
 
-    private void makeHttpClient() {
-        log.info("Creating new PoolingClientConnectionManager.");
+    private void makeTransport() {
         MetricServiceConfig conf = config.getMetricServiceConfig();
-        PoolingClientConnectionManager cm = new PoolingClientConnectionManager();
-        int maxTotalPoolConnections = conf.getMaxTotalPoolConnections();
-        int maxPoolConnectionsPerRoute = conf.getMaxPoolConnectionsPerRoute();
-        log.debug("Setting up pool with {} total connections and {} max connections per route.", maxTotalPoolConnections, maxPoolConnectionsPerRoute);
-        cm.setMaxTotal(maxTotalPoolConnections);
-        cm.setDefaultMaxPerRoute(maxPoolConnectionsPerRoute);
-        httpClient = new DefaultHttpClient(cm);
-        HttpParams httpParams = httpClient.getParams();
-        HttpConnectionParams.setSoTimeout(httpParams, conf.getHttpSocketTimeoutMs());
-        HttpConnectionParams.setConnectionTimeout(httpParams, conf.getConnectionTimeoutMs());
-        httpParams.setParameter(ClientPNames.CONN_MANAGER_TIMEOUT, new Long(conf.getConnectionManagerTimeoutMs()));
+        // Every request goes to the one OpenTSDB address
+        int connections = Math.min(conf.getMaxTotalPoolConnections(), conf.getMaxPoolConnectionsPerRoute());
+        log.info("Creating OpenTSDB transport with up to {} connections.", connections);
+        int maxInFlight = conf.isConnectionBoundedExecutor() ? conf.getMaxTotalPoolConnections() : 0;
+        transport = new AsyncHttpTransport(connections, maxInFlight, conf.getConnectionTimeoutMs(), conf.getHttpSocketTimeoutMs(),
+                conf.isRequestCompressedOpenTsdbResponses());
+        try {
+            transport.start();
+        } catch (Exception e) {
+            throw new IllegalStateException("Unable to start the OpenTSDB transport", e);
+        }
     }
 
     @PreDestroy
     public void shutdown() {
         log.debug("************* PreDestroy method called. ****************");
-        httpClient.getConnectionManager().shutdown();
-        httpClient = null;
+        transport.stop();
+        transport = null;
+        if (null != executorServiceInstance) {
+            executorServiceInstance.shutdown();
+        }
+        if (null != segmentStore) {
+            try {
+                segmentStore.close();
+            } catch (IOException e) {
+                log.warn("Unable to close result segments: {}", e.getMessage());
+            }
+            segmentStore = null;
+        }
     }
 }
@@ -32,14 +32,14 @@
 package org.zenoss.app.metricservice.api.impl;
 
 import com.fasterxml.jackson.annotation.JsonIgnore;
+import com.fasterxml.jackson.databind.annotation.JsonDeserialize;
+import com.fasterxml.jackson.databind.annotation.JsonSerialize;
 import com.google.common.base.MoreObjects;
 
 import java.util.ArrayList;
 import java.util.HashMap;
 import java.util.List;
 import java.util.Map;
-import java.util.SortedMap;
-import java.util.TreeMap;
 
 public class OpenTSDBQueryResult {
     public String metricSpecName;
@@ -47,11 +47,20 @@ public class OpenTSDBQueryResult {
 
     public List<String> aggregateTags;
 
-    public SortedMap<Long,Double> dps = new TreeMap<>();
+    @JsonSerialize(using = OpenTSDBDatapointSerializer.class)
+    @JsonDeserialize(using = OpenTSDBDatapointDeserializer.class)
+    public DataPointSeries dps = new DataPointSeries();
     public String metric;
     public Map<String, String> tags;
     public List<String> tsuids = new ArrayList<>();
 
+    /**
+     * Index of the sub-query the result answers, when the query asked
+     * OpenTSDB to show it
+     */
+    @JsonIgnore
+    public Integer subQueryIndex;
+
     public QueryStatus getStatus() {
         if (null == status) {
             status = new QueryStatus();
@@ -65,6 +74,33 @@ public class OpenTSDBQueryResult {
 
     private QueryStatus status;
 
+    /**
+     * @return a copy that shares nothing mutable with this result
+     */
+    public OpenTSDBQueryResult copy() {
+        DataPointSeries points = new DataPointSeries(getDataPoints().size());
+        points.addAll(getDataPoints());
+        return copyWith(points);
+    }
+
+    /**
+     * @return a copy that shares nothing mutable with this result, holding
+     * other points
+     */
+    public OpenTSDBQueryResult copyWith(DataPointSeries points) {
+        OpenTSDBQueryResult copy = new OpenTSDBQueryResult();
+        copy.metricSpecName = metricSpecName;
+        copy.metricSpecId = metricSpecId;
+        copy.aggregateTags = null == aggregateTags ? null : new ArrayList<>(aggregateTags);
+        copy.dps = points;
+        copy.metric = metric;
+        copy.tags = null == tags ? null : new HashMap<>(tags);
+        copy.tsuids = null == tsuids ? null : new ArrayList<>(tsuids);
+        copy.subQueryIndex = subQueryIndex;
+        copy.status = status;
+        return copy;
+    }
+
     public String debugString() {
         return MoreObjects.toStringHelper(getClass())
                 .add("aggregateTags", aggregateTags)
@@ -85,21 +121,18 @@ public class OpenTSDBQueryResult {
     }
 
     public void addDataPoint(long i, double pointValue) {
-        if (null == dps) {
-            dps = new TreeMap<>();
-        }
-        dps.put(i, pointValue);
+        getDataPoints().add(i, pointValue);
     }
 
     @JsonIgnore
-    public SortedMap<Long, Double> getDataPoints() {
+    public DataPointSeries getDataPoints() {
         if (null == dps) {
-            dps = new TreeMap<>();
+            dps = new DataPointSeries();
         }
         return dps;
     }
 
-    public void setDataPoints(SortedMap<Long, Double> dps) {
+    public void setDataPoints(DataPointSeries dps) {
         this.dps = dps;
     }
 }
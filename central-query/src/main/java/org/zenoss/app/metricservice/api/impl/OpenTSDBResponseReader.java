@@ -0,0 +1,235 @@
+/*
+ * ****************************************************************************
+ *
+ *  Copyright (C) Zenoss, Inc. 2026, all rights reserved.
+ *
+ *  This content is made available according to terms specified in
+ *  License.zenoss distributed with this file.
+ *
+ * ***************************************************************************
+ */
+package org.zenoss.app.metricservice.api.impl;
+
+import com.fasterxml.jackson.core.JsonFactory;
+import com.fasterxml.jackson.core.JsonParseException;
+import com.fasterxml.jackson.core.JsonParser;
+import com.fasterxml.jackson.core.JsonToken;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Decodes OpenTSDB /api/query response bodies token by token as they are
+ * read from the connection. Data points are written straight into
+ * {@link DataPointSeries} buffers, so neither the body text nor a token tree
+ * is ever held in memory.
+ * <p/>
+ * Fields that are not known are skipped, the same as the databind path with
+ * FAIL_ON_UNKNOWN_PROPERTIES disabled.
+ */
+public final class OpenTSDBResponseReader {
+
+    private static final JsonFactory jsonFactory = Utils.getObjectMapper().getFactory();
+
+    private OpenTSDBResponseReader() {
+    }
+
+    /**
+     * Reads a successful query response, a JSON array of results.
+     *
+     * @param in response body, not closed by this method
+     * @return the results, never null
+     * @throws JsonParseException if the content is not a query response
+     * @throws IOException        if the body cannot be read
+     */
+    public static OpenTSDBQueryResult[] readResults(InputStream in) throws IOException {
+        JsonParser jp = createParser(in);
+        try {
+            expect(jp, jp.nextToken(), JsonToken.START_ARRAY);
+            List<OpenTSDBQueryResult> results = new ArrayList<>();
+            // Series of one response usually cover the same range, so size
+            // each one like the last to avoid growing the buffers point by point
+            int expectedSize = 0;
+            JsonToken token;
+            while ((token = jp.nextToken()) != JsonToken.END_ARRAY) {
+                if (token == JsonToken.VALUE_NULL) {
+                    continue;
+                }
+                expect(jp, token, JsonToken.START_OBJECT);
+                OpenTSDBQueryResult result = readResult(jp, expectedSize);
+                expectedSize = result.getDataPoints().size();
+                results.add(result);
+            }
+            return results.toArray(new OpenTSDBQueryResult[results.size()]);
+        } finally {
+            jp.close();
+        }
+    }
+
+    /**
+     * Reads an error response, {@code {"error": {"code": ..., "message": ...}}}.
+     *
+     * @param in response body, not closed by this method
+     * @return the error response; its error is null if the body had none
+     * @throws JsonParseException if the content is not an error response
+     * @throws IOException        if the body cannot be read
+     */
+    public static OpenTSDBErrorResponse readError(InputStream in) throws IOException {
+        JsonParser jp = createParser(in);
+        try {
+            expect(jp, jp.nextToken(), JsonToken.START_OBJECT);
+            OpenTSDBErrorResponse response = new OpenTSDBErrorResponse();
+            while (jp.nextToken() == JsonToken.FIELD_NAME) {
+                String field = jp.getCurrentName();
+                JsonToken token = jp.nextToken();
+                if ("error".equals(field) && token == JsonToken.START_OBJECT) {
+                    response.error = readErrorContent(jp, response);
+                } else {
+                    jp.skipChildren();
+                }
+            }
+            return response;
+        } finally {
+            jp.close();
+        }
+    }
+
+    private static JsonParser createParser(InputStream in) throws IOException {
+        JsonParser jp = jsonFactory.createParser(in);
+        jp.disable(JsonParser.Feature.AUTO_CLOSE_SOURCE);
+        return jp;
+    }
+
+    private static OpenTSDBQueryResult readResult(JsonParser jp, int expectedSize) throws IOException {
+        OpenTSDBQueryResult result = new OpenTSDBQueryResult();
+        while (jp.nextToken() == JsonToken.FIELD_NAME) {
+            String field = jp.getCurrentName();
+            JsonToken token = jp.nextToken();
+            switch (field) {
+                case "metric":
+                    result.metric = readString(jp, token);
+                    break;
+                case "tags":
+                    result.tags = readStringMap(jp, token);
+                    break;
+                case "aggregateTags":
+                    result.aggregateTags = readStringList(jp, token);
+                    break;
+                case "tsuids":
+                    result.tsuids = readStringList(jp, token);
+                    break;
+                case "dps":
+                    if (token == JsonToken.VALUE_NULL) {
+                        result.dps = new DataPointSeries();
+                    } else {
+                        expect(jp, token, JsonToken.START_OBJECT);
+                        result.dps = OpenTSDBDatapointDeserializer.readDataPoints(jp, expectedSize);
+                    }
+                    break;
+                case "metricSpecName":
+                    result.metricSpecName = readString(jp, token);
+                    break;
+                case "metricSpecId":
+                    result.metricSpecId = readString(jp, token);
+                    break;
+                case "query":
+                    result.subQueryIndex = readSubQueryIndex(jp, token);
+                    break;
+                default:
+                    jp.skipChildren();
+            }
+        }
+        return result;
+    }
+
+    /**
+     * Reads the index out of the sub-query echoed with a result
+     */
+    private static Integer readSubQueryIndex(JsonParser jp, JsonToken token) throws IOException {
+        if (token != JsonToken.START_OBJECT) {
+            jp.skipChildren();
+            return null;
+        }
+        Integer index = null;
+        while (jp.nextToken() == JsonToken.FIELD_NAME) {
+            String field = jp.getCurrentName();
+            token = jp.nextToken();
+            if ("index".equals(field) && token == JsonToken.VALUE_NUMBER_INT) {
+                index = jp.getIntValue();
+            } else {
+                jp.skipChildren();
+            }
+        }
+        return index;
+    }
+
+    private static OpenTSDBErrorResponse.ResponseContent readErrorContent(JsonParser jp, OpenTSDBErrorResponse response) throws IOException {
+        OpenTSDBErrorResponse.ResponseContent content = response.new ResponseContent();
+        while (jp.nextToken() == JsonToken.FIELD_NAME) {
+            String field = jp.getCurrentName();
+            JsonToken token = jp.nextToken();
+            switch (field) {
+                case "code":
+                    content.code = jp.getValueAsLong();
+                    break;
+                case "message":
+                    content.message = readString(jp, token);
+                    break;
+                case "trace":
+                    content.trace = readString(jp, token);
+                    break;
+                case "details":
+                    content.details = readString(jp, token);
+                    break;
+                default:
+                    jp.skipChildren();
+            }
+        }
+        return content;
+    }
+
+    private static String readString(JsonParser jp, JsonToken token) throws IOException {
+        if (token == JsonToken.VALUE_NULL) {
+            return null;
+        }
+        if (null == token || !token.isScalarValue()) {
+            throw new JsonParseException(jp, String.format("Expected a string but found %s", token));
+        }
+        return jp.getText();
+    }
+
+    private static Map<String, String> readStringMap(JsonParser jp, JsonToken token) throws IOException {
+        if (token == JsonToken.VALUE_NULL) {
+            return null;
+        }
+        expect(jp, token, JsonToken.START_OBJECT);
+        Map<String, String> result = new HashMap<>();
+        while (jp.nextToken() == JsonToken.FIELD_NAME) {
+            String key = jp.getCurrentName();
+            result.put(key, readString(jp, jp.nextToken()));
+        }
+        return result;
+    }
+
+    private static List<String> readStringList(JsonParser jp, JsonToken token) throws IOException {
+        if (token == JsonToken.VALUE_NULL) {
+            return null;
+        }
+        expect(jp, token, JsonToken.START_ARRAY);
+        List<String> result = new ArrayList<>();
+        while ((token = jp.nextToken()) != JsonToken.END_ARRAY) {
+            result.add(readString(jp, token));
+        }
+        return result;
+    }
+
+    private static void expect(JsonParser jp, JsonToken actual, JsonToken expected) throws JsonParseException {
+        if (actual != expected) {
+            throw new JsonParseException(jp, String.format("Expected %s but found %s", expected, actual));
+        }
+    }
+}
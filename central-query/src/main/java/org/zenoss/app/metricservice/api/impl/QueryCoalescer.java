@@ -0,0 +1,183 @@
+/*
+ * ****************************************************************************
+ *
+ *  Copyright (C) Zenoss, Inc. 2026, all rights reserved.
+ *
+ *  This content is made available according to terms specified in
+ *  License.zenoss distributed with this file.
+ *
+ * ***************************************************************************
+ */
+package org.zenoss.app.metricservice.api.impl;
+
+import com.yammer.metrics.Metrics;
+import com.yammer.metrics.core.Gauge;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Map;
+import java.util.TreeMap;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.function.Supplier;
+
+/**
+ * Lets identical queries issued at the same time share one exchange with
+ * OpenTSDB: while a query is in flight, callers asking for the same thing
+ * wait for it instead of sending their own.
+ * <p/>
+ * Results are mutated further down, so when a query was shared every caller
+ * gets its own copy of the results; the results of a query nobody joined are
+ * handed over as they are.
+ */
+class QueryCoalescer {
+
+    private static final AtomicLong fetched = new AtomicLong();
+    private static final AtomicLong coalesced = new AtomicLong();
+
+    static {
+        Metrics.newGauge(QueryCoalescer.class, "backend-queries", new Gauge<Long>() {
+            @Override
+            public Long value() {
+                return fetched.get();
+            }
+        });
+        Metrics.newGauge(QueryCoalescer.class, "coalesced-queries", new Gauge<Long>() {
+            @Override
+            public Long value() {
+                return coalesced.get();
+            }
+        });
+        Metrics.newGauge(QueryCoalescer.class, "coalescing-ratio", new Gauge<Double>() {
+            @Override
+            public Double value() {
+                long joined = coalesced.get();
+                long total = joined + fetched.get();
+                return total == 0 ? 0.0 : (double) joined / total;
+            }
+        });
+    }
+
+    private final ConcurrentMap<String, Flight> flights = new ConcurrentHashMap<>();
+
+    /**
+     * Returns the result of the query in flight under the key, or starts it
+     *
+     * @param fetch starts the query when none is in flight
+     */
+    CompletableFuture<OpenTSDBQueryReturn> query(String key, Supplier<CompletableFuture<OpenTSDBQueryReturn>> fetch) {
+        final Flight created = new Flight();
+        final Flight flight = flights.compute(key, (k, existing) -> {
+            if (null == existing) {
+                return created;
+            }
+            existing.callers.incrementAndGet();
+            return existing;
+        });
+        if (flight == created) {
+            fetched.incrementAndGet();
+            try {
+                fetch.get().whenComplete((result, error) -> {
+                    // No one can join once the flight is gone, so the number of callers is final before anyone reads it
+                    flights.remove(key, created);
+                    if (null != error) {
+                        created.result.completeExceptionally(error);
+                    } else {
+                        created.result.complete(result);
+                    }
+                });
+            } catch (RuntimeException e) {
+                flights.remove(key, created);
+                created.result.completeExceptionally(e);
+            }
+        } else {
+            coalesced.incrementAndGet();
+        }
+        return flight.result.thenApply(result -> flight.callers.get() > 1 ? copy(result) : result);
+    }
+
+    /**
+     * Canonical form of a query: everything that can change its results, with
+     * tags, alternative tag values and filters sorted. Relative times are
+     * kept as they are, since they are resolved by OpenTSDB and queries only
+     * share results while both are in flight.
+     */
+    static String key(String url, OpenTSDBQuery query, boolean ignoreRateOption, long rateCutoffDate) {
+        StringBuilder key = new StringBuilder(url)
+                .append('|').append(query.start)
+                .append('|').append(query.end)
+                .append('|').append(query.msResolution)
+                .append('|').append(query.showTSUIDs)
+                .append('|').append(query.showQuery)
+                .append('|').append(query.noAnnotations)
+                .append('|').append(query.globalAnnotations)
+                .append('|').append(ignoreRateOption)
+                .append('|').append(rateCutoffDate);
+        if (null != query.queries) {
+            for (OpenTSDBSubQuery subQuery : query.queries) {
+                key.append("|{").append(subQuery.metric)
+                        .append(',').append(subQuery.aggregator)
+                        .append(',').append(subQuery.downsample)
+                        .append(',').append(subQuery.rate);
+                OpenTSDBRateOption options = subQuery.rateOptions;
+                if (null != options) {
+                    key.append(",rate(").append(options.counter)
+                            .append(',').append(options.counterMax)
+                            .append(',').append(options.resetValue)
+                            .append(',').append(options.dropResets).append(')');
+                }
+                if (null != subQuery.tags) {
+                    Map<String, String> tags = new TreeMap<>();
+                    for (Map.Entry<String, String> tag : subQuery.tags.entrySet()) {
+                        String[] values = null == tag.getValue() ? new String[0] : tag.getValue().split("\\|");
+                        Arrays.sort(values);
+                        tags.put(tag.getKey(), String.join("|", values));
+                    }
+                    key.append(",tags").append(tags);
+                }
+                if (null != subQuery.filters) {
+                    List<String> filters = new ArrayList<>(subQuery.filters.size());
+                    for (OpenTSDBFilter filter : subQuery.filters) {
+                        filters.add(filter.getType() + ':' + filter.getTagk() + '=' + filter.getFilter() + ':' + filter.getGroupBy());
+                    }
+                    filters.sort(null);
+                    key.append(",filters").append(filters);
+                }
+                key.append('}');
+            }
+        }
+        return key.toString();
+    }
+
+    private static OpenTSDBQueryReturn copy(OpenTSDBQueryReturn queryReturn) {
+        List<OpenTSDBQueryResult> results = queryReturn.getResults();
+        OpenTSDBQueryResult[] copies = new OpenTSDBQueryResult[results.size()];
+        for (int i = 0; i < copies.length; i++) {
+            copies[i] = results.get(i).copy();
+        }
+        return new OpenTSDBQueryReturn(copies, queryReturn.getStatus());
+    }
+
+    /**
+     * @return how many queries were sent to OpenTSDB
+     */
+    static long getFetched() {
+        return fetched.get();
+    }
+
+    /**
+     * @return how many queries waited for an identical one instead
+     */
+    static long getCoalesced() {
+        return coalesced.get();
+    }
+
+    private static final class Flight {
+        private final CompletableFuture<OpenTSDBQueryReturn> result = new CompletableFuture<>();
+        private final AtomicInteger callers = new AtomicInteger(1);
+    }
+}
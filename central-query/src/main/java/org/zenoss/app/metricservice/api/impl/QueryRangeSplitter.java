@@ -0,0 +1,231 @@
+/*
+ * ****************************************************************************
+ *
+ *  Copyright (C) Zenoss, Inc. 2026, all rights reserved.
+ *
+ *  This content is made available according to terms specified in
+ *  License.zenoss distributed with this file.
+ *
+ * ***************************************************************************
+ */
+package org.zenoss.app.metricservice.api.impl;
+
+import com.google.common.math.LongMath;
+import com.yammer.metrics.Metrics;
+import com.yammer.metrics.core.Gauge;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.zenoss.app.metricservice.api.impl.QueryStatus.QueryStatusEnum;
+
+import java.text.ParseException;
+import java.util.ArrayList;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Set;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.function.Function;
+
+/**
+ * Splits queries over long ranges into chunks of time fetched in parallel,
+ * so that no single OpenTSDB scan runs long enough to time out. Chunks are
+ * aligned to a multiple of every downsample interval of the query, so no
+ * bucket is ever split, and their series are joined back by the sub-query
+ * they answer with {@link OpenTSDBClient#joinResults}.
+ * <p/>
+ * When OpenTSDB aggregates series that lack a point where another has one,
+ * it interpolates between their points on either side, and a chunk has
+ * nothing beyond its edges to interpolate from. Near the edges of chunks the
+ * aggregate of such series can therefore differ from that of the whole range.
+ * <p/>
+ * A rate depends on the point before each chunk, so queries with a rate
+ * are only split where OpenTSDB is asked for stored rates: when rate
+ * options are ignored and the whole range is after the rate cutoff.
+ */
+class QueryRangeSplitter {
+    private static final Logger log = LoggerFactory.getLogger(QueryRangeSplitter.class);
+
+    private static final AtomicLong split = new AtomicLong();
+    private static final AtomicLong chunks = new AtomicLong();
+
+    static {
+        Metrics.newGauge(QueryRangeSplitter.class, "split-queries", new Gauge<Long>() {
+            @Override
+            public Long value() {
+                return split.get();
+            }
+        });
+        Metrics.newGauge(QueryRangeSplitter.class, "range-chunks", new Gauge<Long>() {
+            @Override
+            public Long value() {
+                return chunks.get();
+            }
+        });
+    }
+
+    private final long chunkSeconds;
+    private final int parallelism;
+
+    /**
+     * @param chunkSeconds the length of chunks, rounded up to a multiple of
+     *                     the downsample intervals of each query
+     * @param parallelism  the most chunks of one query fetched at once
+     */
+    QueryRangeSplitter(long chunkSeconds, int parallelism) {
+        this.chunkSeconds = Math.max(1, chunkSeconds);
+        this.parallelism = Math.max(1, parallelism);
+    }
+
+    /**
+     * Queries a range in chunks if it is longer than one
+     *
+     * @param fetch sends a query to OpenTSDB
+     * @return the future result, or null if the query should be sent whole
+     */
+    CompletableFuture<OpenTSDBQueryReturn> queryAsync(OpenTSDBQuery query, boolean ignoreRateOption, long rateCutoffDate,
+                                                      Function<OpenTSDBQuery, CompletableFuture<OpenTSDBQueryReturn>> fetch) {
+        if (null == query.queries || query.queries.isEmpty() || query.msResolution) {
+            return null;
+        }
+        long buckets = 1;
+        boolean rate = false;
+        Set<String> metrics = new HashSet<>();
+        for (OpenTSDBSubQuery subQuery : query.queries) {
+            if (!metrics.add(subQuery.metric)) {
+                // The series of sub-queries of one metric cannot be told apart when joined
+                return null;
+            }
+            rate |= subQuery.rate;
+            long interval = 1;
+            if (null != subQuery.downsample && !subQuery.downsample.isEmpty()) {
+                interval = Utils.parseDuration(subQuery.downsample);
+                if (interval <= 0) {
+                    // calendar, millisecond and whole range downsampling do not split into fixed buckets
+                    return null;
+                }
+            }
+            try {
+                buckets = LongMath.checkedMultiply(buckets / LongMath.gcd(buckets, interval), interval);
+            } catch (ArithmeticException e) {
+                return null;
+            }
+        }
+        long length = (chunkSeconds + buckets - 1) / buckets * buckets;
+        long startTs;
+        long endTs;
+        try {
+            startTs = Utils.parseDate(query.start);
+            endTs = null == query.end ? Utils.parseDate(Utils.NOW) : Utils.parseDate(query.end);
+            if (rate && !(ignoreRateOption && startTs >= Utils.parseDate(String.valueOf(rateCutoffDate)))) {
+                return null;
+            }
+        } catch (ParseException e) {
+            log.debug("Not splitting query from {} to {}: {}", query.start, query.end, e.getMessage());
+            return null;
+        }
+        if (endTs - startTs <= length) {
+            return null;
+        }
+        long first = -Math.floorDiv(-(startTs + 1), length) * length;
+        List<OpenTSDBQuery> parts = new ArrayList<>();
+        String partStart = query.start;
+        for (long boundary = first; boundary <= endTs; boundary += length) {
+            parts.add(chunk(query, partStart, String.valueOf(boundary - 1)));
+            partStart = String.valueOf(boundary);
+        }
+        parts.add(chunk(query, partStart, query.end));
+        split.incrementAndGet();
+        chunks.addAndGet(parts.size());
+        log.debug("Querying {} to {} in {} chunks of {}s.", query.start, query.end, parts.size(), length);
+        final List<CompletableFuture<OpenTSDBQueryReturn>> fetched = fetchAll(parts, fetch);
+        return CompletableFuture.allOf(fetched.toArray(new CompletableFuture<?>[fetched.size()]))
+                .thenApply(v -> join(query, fetched));
+    }
+
+    /**
+     * Copies a query for part of its range. Every chunk gets its own
+     * sub-queries, since the client rewrites rate sub-queries.
+     */
+    static OpenTSDBQuery chunk(OpenTSDBQuery query, String start, String end) {
+        OpenTSDBQuery chunk = new OpenTSDBQuery();
+        chunk.start = start;
+        chunk.end = end;
+        chunk.noAnnotations = query.noAnnotations;
+        chunk.globalAnnotations = query.globalAnnotations;
+        chunk.showTSUIDs = query.showTSUIDs;
+        chunk.showQuery = query.showQuery;
+        for (OpenTSDBSubQuery subQuery : query.queries) {
+            OpenTSDBSubQuery copy = new OpenTSDBSubQuery();
+            copy.aggregator = subQuery.aggregator;
+            copy.metric = subQuery.metric;
+            copy.rate = subQuery.rate;
+            copy.rateOptions = subQuery.rateOptions;
+            copy.downsample = subQuery.downsample;
+            copy.tags = subQuery.tags;
+            copy.filters = subQuery.filters;
+            chunk.addSubQuery(copy);
+        }
+        return chunk;
+    }
+
+    /**
+     * Fetches the chunks with at most {@link #parallelism} of them in flight
+     */
+    private List<CompletableFuture<OpenTSDBQueryReturn>> fetchAll(List<OpenTSDBQuery> parts,
+                                                                  Function<OpenTSDBQuery, CompletableFuture<OpenTSDBQueryReturn>> fetch) {
+        final List<CompletableFuture<OpenTSDBQueryReturn>> results = new ArrayList<>(parts.size());
+        for (int i = 0; i < parts.size(); i++) {
+            results.add(new CompletableFuture<OpenTSDBQueryReturn>());
+        }
+        final AtomicInteger next = new AtomicInteger();
+        for (int i = 0; i < Math.min(parallelism, parts.size()); i++) {
+            fetchNext(parts, results, next, fetch);
+        }
+        return results;
+    }
+
+    private static void fetchNext(final List<OpenTSDBQuery> parts, final List<CompletableFuture<OpenTSDBQueryReturn>> results,
+                                  final AtomicInteger next, final Function<OpenTSDBQuery, CompletableFuture<OpenTSDBQueryReturn>> fetch) {
+        final int index = next.getAndIncrement();
+        if (index >= parts.size()) {
+            return;
+        }
+        CompletableFuture<OpenTSDBQueryReturn> fetched;
+        try {
+            fetched = fetch.apply(parts.get(index));
+        } catch (RuntimeException e) {
+            fetched = new CompletableFuture<>();
+            fetched.completeExceptionally(e);
+        }
+        fetched.whenComplete((queryReturn, e) -> {
+            if (null != e) {
+                results.get(index).completeExceptionally(e);
+            } else {
+                results.get(index).complete(queryReturn);
+            }
+            fetchNext(parts, results, next, fetch);
+        });
+    }
+
+    /**
+     * Joins the chunks back into the series of the whole range, in order.
+     * The first failure fails the whole.
+     */
+    private static OpenTSDBQueryReturn join(OpenTSDBQuery query, List<CompletableFuture<OpenTSDBQueryReturn>> parts) {
+        OpenTSDBQueryReturn[] returns = new OpenTSDBQueryReturn[parts.size()];
+        boolean empty = true;
+        for (int i = 0; i < returns.length; i++) {
+            returns[i] = parts.get(i).join();
+            if (returns[i].getStatus().getStatus() == QueryStatusEnum.ERROR) {
+                return returns[i];
+            }
+            empty &= returns[i].getResults().isEmpty();
+        }
+        if (empty) {
+            return new OpenTSDBQueryReturn(new OpenTSDBQueryResult[0],
+                    new QueryStatus(QueryStatusEnum.WARNING, OpenTSDBClient.NO_DATA));
+        }
+        return OpenTSDBClient.joinResults(query.queries, returns);
+    }
+}
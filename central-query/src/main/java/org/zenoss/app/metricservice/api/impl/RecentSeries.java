@@ -0,0 +1,141 @@
+/*
+ * ****************************************************************************
+ *
+ *  Copyright (C) Zenoss, Inc. 2026, all rights reserved.
+ *
+ *  This content is made available according to terms specified in
+ *  License.zenoss distributed with this file.
+ *
+ * ***************************************************************************
+ */
+package org.zenoss.app.metricservice.api.impl;
+
+import java.util.concurrent.locks.StampedLock;
+
+/**
+ * The newest points of one series in a fixed ring of primitive arrays.
+ * <p/>
+ * Points are appended by one writer at a time; readers never block it, they
+ * copy the ring optimistically and copy again if a write raced them. The
+ * ring also knows its horizon, the time from which it holds every point of
+ * the series: the first point appended, moved forward past every point
+ * dropped because the ring was full or because it arrived out of order.
+ */
+final class RecentSeries {
+
+    private static final int OPTIMISTIC_READS = 3;
+
+    private final StampedLock lock = new StampedLock();
+    private final long[] timestamps;
+    private final double[] values;
+    private int head = 0;
+    private int size = 0;
+    private long horizon = Long.MAX_VALUE;
+    private volatile long newest = Long.MIN_VALUE;
+
+    /**
+     * @param capacity the most points kept
+     */
+    RecentSeries(int capacity) {
+        this.timestamps = new long[capacity];
+        this.values = new double[capacity];
+    }
+
+    /**
+     * Appends a point, in seconds
+     *
+     * @return whether the point was kept; a point not after the newest one
+     * is dropped, and the ring no longer holds every point before it
+     */
+    boolean add(long timestamp, double value) {
+        long stamp = lock.writeLock();
+        try {
+            if (0 == size) {
+                horizon = timestamp;
+            } else if (timestamp <= newest) {
+                horizon = Math.max(horizon, timestamp + 1);
+                return false;
+            }
+            if (size == timestamps.length) {
+                horizon = Math.max(horizon, timestamps[head] + 1);
+            } else {
+                size++;
+            }
+            timestamps[head] = timestamp;
+            values[head] = value;
+            head = (head + 1) % timestamps.length;
+            newest = timestamp;
+            return true;
+        } finally {
+            lock.unlockWrite(stamp);
+        }
+    }
+
+    /**
+     * @return the time of the newest point, or Long.MIN_VALUE if there is none
+     */
+    long newest() {
+        return newest;
+    }
+
+    /**
+     * Copies the points at or after a time, without waiting for the writer
+     */
+    View read(long from) {
+        long[] ts = new long[timestamps.length];
+        double[] vs = new double[values.length];
+        for (int attempt = 0; attempt < OPTIMISTIC_READS; attempt++) {
+            long stamp = lock.tryOptimisticRead();
+            if (0 != stamp) {
+                View view = copy(from, ts, vs);
+                if (lock.validate(stamp)) {
+                    return view;
+                }
+            }
+        }
+        long stamp = lock.readLock();
+        try {
+            return copy(from, ts, vs);
+        } finally {
+            lock.unlockRead(stamp);
+        }
+    }
+
+    /**
+     * Copies the ring into the arrays; under an optimistic read the copy
+     * may be inconsistent until it is validated
+     */
+    private View copy(long from, long[] ts, double[] vs) {
+        int n = Math.min(size, timestamps.length);
+        int first = (head - n + timestamps.length) % timestamps.length;
+        long since = horizon;
+        int count = 0;
+        for (int i = 0; i < n; i++) {
+            int slot = (first + i) % timestamps.length;
+            long timestamp = timestamps[slot];
+            if (timestamp >= from) {
+                ts[count] = timestamp;
+                vs[count] = values[slot];
+                count++;
+            }
+        }
+        return new View(since, ts, vs, count);
+    }
+
+    /**
+     * A consistent copy of the newest points of a series
+     */
+    static final class View {
+        final long horizon;
+        final long[] timestamps;
+        final double[] values;
+        final int size;
+
+        private View(long horizon, long[] timestamps, double[] values, int size) {
+            this.horizon = horizon;
+            this.timestamps = timestamps;
+            this.values = values;
+            this.size = size;
+        }
+    }
+}
@@ -0,0 +1,545 @@
+/*
+ * ****************************************************************************
+ *
+ *  Copyright (C) Zenoss, Inc. 2026, all rights reserved.
+ *
+ *  This content is made available according to terms specified in
+ *  License.zenoss distributed with this file.
+ *
+ * ***************************************************************************
+ */
+package org.zenoss.app.metricservice.api.impl;
+
+import com.google.common.math.LongMath;
+import com.yammer.metrics.Metrics;
+import com.yammer.metrics.core.Gauge;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.zenoss.app.metricservice.api.impl.QueryStatus.QueryStatusEnum;
+import org.zenoss.app.metricservice.api.model.Aggregator;
+import org.zenoss.app.metricservice.api.model.v2.Metric;
+
+import java.text.ParseException;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.function.Function;
+import java.util.function.LongSupplier;
+
+/**
+ * Keeps the newest points pushed to the service, in the metric-consumer's
+ * format, so that queries over a range ending now, or at any time the tier
+ * still holds, read their tail from memory. OpenTSDB is only asked for the
+ * points before the horizon of the series queried, the time from which the
+ * tier holds all of their points; if the tier holds the whole range OpenTSDB
+ * is not asked at all.
+ * <p/>
+ * The tier is only complete if every point written to OpenTSDB is also
+ * pushed to it; behind a load balancer, pushes must reach every replica,
+ * or each replica misses the series pushed to the others. It only answers
+ * from the points pushed since it started, or since it last went without a
+ * push for the staleness budget, and stops answering during such a gap. A
+ * range is only read wholly from memory once the tier has been live for
+ * all of it. Series that were dropped, to stay within the most series kept,
+ * move the horizon of their metric past their points.
+ * <p/>
+ * Only sub-queries of one series held by the tier, without a rate or filters
+ * and downsampled into fixed buckets by a simple aggregator, are answered;
+ * the stored part must then be that same series.
+ */
+class RecentTier {
+    private static final Logger log = LoggerFactory.getLogger(RecentTier.class);
+
+    /**
+     * Timestamps above this are in milliseconds, as OpenTSDB takes them
+     */
+    private static final long MAX_SECONDS = 9999999999L;
+
+    private static final long SWEEP_SECONDS = 60;
+
+    private static final AtomicLong pointsStored = new AtomicLong();
+    private static final AtomicLong pointsDropped = new AtomicLong();
+    private static final AtomicLong wholeAnswered = new AtomicLong();
+    private static final AtomicLong tailAnswered = new AtomicLong();
+
+    static {
+        Metrics.newGauge(RecentTier.class, "recent-points-stored", new Gauge<Long>() {
+            @Override
+            public Long value() {
+                return pointsStored.get();
+            }
+        });
+        Metrics.newGauge(RecentTier.class, "recent-points-dropped", new Gauge<Long>() {
+            @Override
+            public Long value() {
+                return pointsDropped.get();
+            }
+        });
+        Metrics.newGauge(RecentTier.class, "recent-whole-answered", new Gauge<Long>() {
+            @Override
+            public Long value() {
+                return wholeAnswered.get();
+            }
+        });
+        Metrics.newGauge(RecentTier.class, "recent-tail-answered", new Gauge<Long>() {
+            @Override
+            public Long value() {
+                return tailAnswered.get();
+            }
+        });
+    }
+
+    private final ConcurrentMap<String, MetricSeries> metrics = new ConcurrentHashMap<>();
+    private final AtomicInteger seriesCount = new AtomicInteger();
+    private final int maxSeries;
+    private final int pointsPerSeries;
+    private final long staleSeconds;
+    private final long idleSeconds;
+    private final LongSupplier clock;
+
+    private long lastSweep = Long.MIN_VALUE;
+    private volatile long liveSince = Long.MIN_VALUE;
+    private volatile long live = Long.MIN_VALUE;
+
+    /**
+     * @param maxSeries       the most series kept
+     * @param pointsPerSeries the most points kept of each series
+     * @param staleSeconds    how long nothing may be pushed before the tier
+     *                        stops answering
+     * @param idleSeconds     how long after its newest point a series may be
+     *                        dropped to make room for others
+     */
+    RecentTier(int maxSeries, int pointsPerSeries, long staleSeconds, long idleSeconds) {
+        this(maxSeries, pointsPerSeries, staleSeconds, idleSeconds, () -> System.currentTimeMillis() / 1000);
+    }
+
+    /**
+     * @param clock the current time in seconds
+     */
+    RecentTier(int maxSeries, int pointsPerSeries, long staleSeconds, long idleSeconds, LongSupplier clock) {
+        this.maxSeries = maxSeries;
+        this.pointsPerSeries = Math.max(1, pointsPerSeries);
+        this.staleSeconds = staleSeconds;
+        this.idleSeconds = idleSeconds;
+        this.clock = clock;
+    }
+
+    /**
+     * Keeps pushed points
+     *
+     * @return how many of them were kept
+     */
+    int store(List<Metric> points) {
+        long now = clock.getAsLong();
+        synchronized (this) {
+            if (stale(now)) {
+                // Points written before the first push, or during a gap, may not have been pushed
+                liveSince = now;
+            }
+            live = now;
+        }
+        int stored = 0;
+        for (Metric point : points) {
+            if (null == point || null == point.getMetric()) {
+                continue;
+            }
+            long timestamp = point.getTimestamp() > MAX_SECONDS ? point.getTimestamp() / 1000 : point.getTimestamp();
+            String name = point.getMetric().replace(" ", OpenTSDBMetricStorage.SPACE_REPLACEMENT);
+            MetricSeries metric = metrics.get(name);
+            if (null == metric) {
+                metric = new MetricSeries();
+                MetricSeries existing = metrics.putIfAbsent(name, metric);
+                if (null != existing) {
+                    metric = existing;
+                }
+            }
+            RecentSeries series = series(metric, tags(point.getTags()), timestamp, now);
+            if (null != series && series.add(timestamp, point.getValue())) {
+                stored++;
+            }
+        }
+        pointsStored.addAndGet(stored);
+        pointsDropped.addAndGet(points.size() - stored);
+        return stored;
+    }
+
+    private static Tags tags(Map<String, String> tags) {
+        Map<String, String> sanitized = new HashMap<>(tags.size());
+        for (Map.Entry<String, String> tag : tags.entrySet()) {
+            // as the metric-consumer sanitizes the tags it writes
+            sanitized.put(Tags.sanitizeKey(tag.getKey()), Tags.sanitizeValue(null == tag.getValue() ? "" : tag.getValue(), false));
+        }
+        return Tags.fromOpenTsdbTags(sanitized);
+    }
+
+    /**
+     * @return the ring of a series, or null if there is no room for it
+     */
+    private RecentSeries series(MetricSeries metric, Tags tags, long timestamp, long now) {
+        RecentSeries series = metric.series.get(tags);
+        if (null != series) {
+            return series;
+        }
+        if (seriesCount.get() >= maxSeries) {
+            sweep(now);
+        }
+        if (seriesCount.incrementAndGet() > maxSeries) {
+            seriesCount.decrementAndGet();
+            // OpenTSDB has this point, the tier does not
+            metric.passed(timestamp);
+            return null;
+        }
+        series = new RecentSeries(pointsPerSeries);
+        RecentSeries existing = metric.series.putIfAbsent(tags, series);
+        if (null != existing) {
+            seriesCount.decrementAndGet();
+            return existing;
+        }
+        return series;
+    }
+
+    /**
+     * Drops the series nothing was pushed to for a while, at most once a
+     * minute
+     */
+    private void sweep(long now) {
+        synchronized (this) {
+            if (now - lastSweep < SWEEP_SECONDS) {
+                return;
+            }
+            lastSweep = now;
+        }
+        int dropped = 0;
+        for (MetricSeries metric : metrics.values()) {
+            Iterator<RecentSeries> it = metric.series.values().iterator();
+            while (it.hasNext()) {
+                RecentSeries series = it.next();
+                long newest = series.newest();
+                if (newest < now - idleSeconds) {
+                    metric.passed(newest);
+                    it.remove();
+                    seriesCount.decrementAndGet();
+                    dropped++;
+                }
+            }
+        }
+        log.debug("Dropped {} idle series from the recent tier", dropped);
+    }
+
+    /**
+     * @return whether nothing has been pushed for the staleness budget
+     */
+    private boolean stale(long now) {
+        return Long.MIN_VALUE == live || now - live > staleSeconds;
+    }
+
+    /**
+     * Answers a query over a range reaching past the horizon of its series,
+     * reading the tail from memory
+     *
+     * @param fetch sends a query to OpenTSDB
+     * @return the future result, or null if the tier cannot answer it and
+     * the query should be sent as usual
+     */
+    CompletableFuture<OpenTSDBQueryReturn> queryAsync(final OpenTSDBQuery query,
+                                                      final Function<OpenTSDBQuery, CompletableFuture<OpenTSDBQueryReturn>> fetch) {
+        if (query.msResolution || null == query.queries || query.queries.isEmpty()) {
+            return null;
+        }
+        long now = clock.getAsLong();
+        if (stale(now)) {
+            return null;
+        }
+        long start;
+        long end = now;
+        try {
+            start = Utils.parseDate(query.start);
+            if (null != query.end && !Utils.NOW.equals(query.end.trim())) {
+                end = Utils.parseDate(query.end);
+            }
+        } catch (ParseException e) {
+            log.debug("Not reading the recent tier: {}", e.getMessage());
+            return null;
+        }
+        final Tail[] tails = new Tail[query.queries.size()];
+        Set<String> seen = new HashSet<>();
+        // Nothing is read from memory before the tier went live, so a range is
+        // only answered wholly from memory once the tier has been live for all of it
+        long horizon = liveSince;
+        long length = 1;
+        for (int i = 0; i < tails.length; i++) {
+            OpenTSDBSubQuery subQuery = query.queries.get(i);
+            if (!seen.add(subQuery.metric)) {
+                // the stored series of one metric could not be told apart
+                return null;
+            }
+            tails[i] = Tail.of(subQuery);
+            if (null == tails[i]) {
+                return null;
+            }
+            MetricSeries metric = metrics.get(subQuery.metric);
+            if (null == metric || !tails[i].find(metric, start)) {
+                return null;
+            }
+            horizon = Math.max(horizon, Math.max(metric.horizon, tails[i].view.horizon));
+            try {
+                length = LongMath.checkedMultiply(length / LongMath.gcd(length, tails[i].interval), tails[i].interval);
+            } catch (ArithmeticException e) {
+                return null;
+            }
+        }
+        if (horizon > end) {
+            return null;
+        }
+        // the first whole bucket of every sub-query held in memory
+        final long cut = -Math.floorDiv(-horizon, length) * length;
+        if (cut > end) {
+            return null;
+        }
+        for (Tail tail : tails) {
+            tail.downsample(Math.max(start, cut), end);
+        }
+        if (cut <= start) {
+            wholeAnswered.incrementAndGet();
+            return CompletableFuture.completedFuture(join(null, tails));
+        }
+        OpenTSDBQuery stored = QueryRangeSplitter.chunk(query, query.start, String.valueOf(cut - 1));
+        return fetch.apply(stored).thenCompose(result -> {
+            OpenTSDBQueryReturn joined = join(result, tails);
+            if (null == joined) {
+                log.debug("Stored series of {} are not the ones in the recent tier", query.queries.get(0).metric);
+                return fetch.apply(query);
+            }
+            tailAnswered.incrementAndGet();
+            return CompletableFuture.completedFuture(joined);
+        });
+    }
+
+    /**
+     * Appends the tails to the stored series
+     *
+     * @return the joined result, or null if the stored series are not the
+     * ones held in memory
+     */
+    private static OpenTSDBQueryReturn join(OpenTSDBQueryReturn stored, Tail[] tails) {
+        OpenTSDBQueryResult[] results = new OpenTSDBQueryResult[tails.length];
+        if (null != stored) {
+            if (stored.getStatus().getStatus() == QueryStatusEnum.ERROR) {
+                return stored;
+            }
+            for (OpenTSDBQueryResult result : stored.getResults()) {
+                int i = 0;
+                while (i < tails.length && !tails[i].metric.equals(result.metric)) {
+                    i++;
+                }
+                if (i == tails.length || null != results[i]
+                        || (null != result.aggregateTags && !result.aggregateTags.isEmpty())
+                        || !tails[i].tags.equals(Tags.fromOpenTsdbTags(result.tags))) {
+                    return null;
+                }
+                results[i] = result;
+            }
+        }
+        List<OpenTSDBQueryResult> joined = new ArrayList<>(tails.length);
+        for (int i = 0; i < tails.length; i++) {
+            if (null == results[i]) {
+                if (tails[i].points.isEmpty()) {
+                    continue;
+                }
+                results[i] = tails[i].result();
+            } else {
+                results[i].getDataPoints().addAll(tails[i].points);
+            }
+            joined.add(results[i]);
+        }
+        QueryStatus status = joined.isEmpty()
+                ? new QueryStatus(QueryStatusEnum.WARNING, "OpenTSDB query was successful, but no data was returned.")
+                : new QueryStatus(QueryStatusEnum.SUCCESS, "");
+        return new OpenTSDBQueryReturn(joined.toArray(new OpenTSDBQueryResult[joined.size()]), status);
+    }
+
+    /**
+     * The series of one metric, and the time after which the tier holds all
+     * of them
+     */
+    private static final class MetricSeries {
+        final ConcurrentMap<Tags, RecentSeries> series = new ConcurrentHashMap<>();
+        volatile long horizon = Long.MIN_VALUE;
+
+        synchronized void passed(long timestamp) {
+            horizon = Math.max(horizon, timestamp + 1);
+        }
+    }
+
+    /**
+     * The part of a sub-query answered from memory
+     */
+    private static final class Tail {
+        final String metric;
+        final Map<String, String> wanted;
+        final long interval;
+        final String function;
+        Tags tags;
+        RecentSeries.View view;
+        DataPointSeries points;
+
+        private Tail(OpenTSDBSubQuery subQuery, long interval, String function) {
+            this.metric = subQuery.metric;
+            this.wanted = subQuery.tags;
+            this.interval = interval;
+            this.function = function;
+        }
+
+        /**
+         * @return the tail of a sub-query whose stored series can be
+         * computed from the points of one series, or null
+         */
+        static Tail of(OpenTSDBSubQuery subQuery) {
+            if (null == subQuery.metric || subQuery.rate
+                    || (null != subQuery.filters && !subQuery.filters.isEmpty())
+                    || subQuery.aggregator == Aggregator.count || subQuery.aggregator == Aggregator.dev) {
+                return null;
+            }
+            if (null != subQuery.tags) {
+                for (String value : subQuery.tags.values()) {
+                    if (null == value || value.contains("*") || value.contains("|")) {
+                        return null;
+                    }
+                }
+            }
+            if (null == subQuery.downsample || subQuery.downsample.isEmpty()) {
+                return new Tail(subQuery, 1, null);
+            }
+            String[] parts = subQuery.downsample.split("-");
+            long interval = Utils.parseDuration(subQuery.downsample);
+            if (parts.length != 2 || interval <= 0) {
+                return null;
+            }
+            switch (parts[1]) {
+                case "avg":
+                case "sum":
+                case "zimsum":
+                case "min":
+                case "mimmin":
+                case "max":
+                case "mimmax":
+                case "count":
+                case "first":
+                case "last":
+                    return new Tail(subQuery, interval, parts[1]);
+                default:
+                    return null;
+            }
+        }
+
+        /**
+         * Finds the only series the sub-query matches and reads its points
+         *
+         * @return whether it matches exactly one series
+         */
+        boolean find(MetricSeries metric, long start) {
+            RecentSeries found = null;
+            for (Map.Entry<Tags, RecentSeries> entry : metric.series.entrySet()) {
+                if (matches(entry.getKey())) {
+                    if (null != found) {
+                        return false;
+                    }
+                    found = entry.getValue();
+                    tags = entry.getKey();
+                }
+            }
+            if (null == found) {
+                return false;
+            }
+            view = found.read(start);
+            return true;
+        }
+
+        private boolean matches(Tags series) {
+            if (null != wanted) {
+                for (Map.Entry<String, String> tag : wanted.entrySet()) {
+                    if (!tag.getValue().equals(series.get(tag.getKey()))) {
+                        return false;
+                    }
+                }
+            }
+            return true;
+        }
+
+        /**
+         * Downsamples the points in a range as OpenTSDB would
+         */
+        void downsample(long from, long to) {
+            points = new DataPointSeries();
+            long bucket = Long.MIN_VALUE;
+            double value = 0;
+            int count = 0;
+            for (int i = 0; i < view.size; i++) {
+                long timestamp = view.timestamps[i];
+                if (timestamp < from || timestamp > to) {
+                    continue;
+                }
+                double v = view.values[i];
+                if (null == function) {
+                    points.add(timestamp, v);
+                    continue;
+                }
+                long b = Math.floorDiv(timestamp, interval) * interval;
+                if (b != bucket) {
+                    if (count > 0) {
+                        points.add(bucket, "avg".equals(function) ? value / count : value);
+                    }
+                    bucket = b;
+                    count = 0;
+                }
+                value = 0 == count ? first(v) : next(value, v, count);
+                count++;
+            }
+            if (null != function && count > 0) {
+                points.add(bucket, "avg".equals(function) ? value / count : value);
+            }
+        }
+
+        private double first(double v) {
+            return "count".equals(function) ? 1 : v;
+        }
+
+        private double next(double value, double v, int count) {
+            switch (function) {
+                case "min":
+                case "mimmin":
+                    return Math.min(value, v);
+                case "max":
+                case "mimmax":
+                    return Math.max(value, v);
+                case "count":
+                    return count + 1;
+                case "first":
+                    return value;
+                case "last":
+                    return v;
+                default:
+                    return value + v;
+            }
+        }
+
+        OpenTSDBQueryResult result() {
+            OpenTSDBQueryResult result = new OpenTSDBQueryResult();
+            result.metric = metric;
+            result.tags = tags.toOpenTsdbTags();
+            result.aggregateTags = new ArrayList<>();
+            result.setDataPoints(points);
+            result.setStatus(new QueryStatus(QueryStatusEnum.SUCCESS, ""));
+            return result;
+        }
+    }
+}
@@ -0,0 +1,377 @@
+/*
+ * ****************************************************************************
+ *
+ *  Copyright (C) Zenoss, Inc. 2026, all rights reserved.
+ *
+ *  This content is made available according to terms specified in
+ *  License.zenoss distributed with this file.
+ *
+ * ***************************************************************************
+ */
+package org.zenoss.app.metricservice.api.impl;
+
+import com.google.common.cache.Cache;
+import com.google.common.cache.CacheBuilder;
+import com.google.common.cache.RemovalCause;
+import com.google.common.cache.RemovalListener;
+import com.google.common.cache.RemovalNotification;
+import com.google.common.cache.Weigher;
+import com.yammer.metrics.Metrics;
+import com.yammer.metrics.core.Gauge;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.zenoss.app.metricservice.api.impl.QueryStatus.QueryStatusEnum;
+import org.zenoss.app.metricservice.api.model.MetricSpecification;
+
+import java.text.ParseException;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Caches the series of a specification in time segments aligned to a
+ * multiple of its downsample interval. A segment that ended long enough ago
+ * no longer changes, so once fetched it is kept until evicted for room;
+ * only the segments missing from the cache, the partial segment at the
+ * start of the range and the open tail are queried. Segments missing in a
+ * row are queried together as one range and the answer split between them;
+ * a segment OpenTSDB has no data for is kept as well, and only failed
+ * queries are asked again.
+ * <p/>
+ * The series of the parts are joined by the sub-query they answer, since
+ * the tags OpenTSDB reports for an aggregated series can differ between
+ * parts.
+ * <p/>
+ * Every part is an ordinary query through {@link OpenTSDBClient}, which
+ * splits rate queries around the rate cutoff as it always has. When rate
+ * options are ignored, a rate query only has segments after the cutoff,
+ * where OpenTSDB is asked for the stored values without a rate; without
+ * ignoring rate options a rate query depends on the point before each
+ * segment and is never segmented.
+ * <p/>
+ * Segments missing from memory are looked up in a {@link SegmentStore} on
+ * disk, if there is one, before they are queried.
+ */
+class ResultSegmentCache {
+    private static final Logger log = LoggerFactory.getLogger(ResultSegmentCache.class);
+
+    private static final AtomicLong hits = new AtomicLong();
+    private static final AtomicLong misses = new AtomicLong();
+    private static final AtomicLong evictions = new AtomicLong();
+    private static final AtomicLong bytes = new AtomicLong();
+
+    static {
+        Metrics.newGauge(ResultSegmentCache.class, "segment-hits", new Gauge<Long>() {
+            @Override
+            public Long value() {
+                return hits.get();
+            }
+        });
+        Metrics.newGauge(ResultSegmentCache.class, "segment-misses", new Gauge<Long>() {
+            @Override
+            public Long value() {
+                return misses.get();
+            }
+        });
+        Metrics.newGauge(ResultSegmentCache.class, "segment-hit-ratio", new Gauge<Double>() {
+            @Override
+            public Double value() {
+                long hit = hits.get();
+                long total = hit + misses.get();
+                return total == 0 ? 0.0 : (double) hit / total;
+            }
+        });
+        Metrics.newGauge(ResultSegmentCache.class, "segment-evictions", new Gauge<Long>() {
+            @Override
+            public Long value() {
+                return evictions.get();
+            }
+        });
+        Metrics.newGauge(ResultSegmentCache.class, "segment-bytes", new Gauge<Long>() {
+            @Override
+            public Long value() {
+                return bytes.get();
+            }
+        });
+    }
+
+    private final Cache<String, List<OpenTSDBQueryResult>> segments;
+    private final SegmentStore store;
+    private final long segmentSeconds;
+    private final long settleSeconds;
+
+    /**
+     * @param maxBytes       the most memory, roughly, the segments may take
+     * @param segmentSeconds the length of segments, rounded up to a multiple
+     *                       of the downsample interval of each series
+     * @param settleSeconds  how long after it ends a segment stops changing
+     */
+    ResultSegmentCache(long maxBytes, long segmentSeconds, long settleSeconds) {
+        this(maxBytes, segmentSeconds, settleSeconds, null);
+    }
+
+    /**
+     * @param store keeps segments on disk behind the memory cache, if not null
+     */
+    ResultSegmentCache(long maxBytes, long segmentSeconds, long settleSeconds, SegmentStore store) {
+        this.store = store;
+        this.segmentSeconds = Math.max(1, segmentSeconds);
+        this.settleSeconds = Math.max(0, settleSeconds);
+        this.segments = CacheBuilder.newBuilder()
+                .maximumWeight(maxBytes)
+                .weigher(new Weigher<String, List<OpenTSDBQueryResult>>() {
+                    @Override
+                    public int weigh(String key, List<OpenTSDBQueryResult> value) {
+                        return weight(key, value);
+                    }
+                })
+                .removalListener(new RemovalListener<String, List<OpenTSDBQueryResult>>() {
+                    @Override
+                    public void onRemoval(RemovalNotification<String, List<OpenTSDBQueryResult>> notification) {
+                        bytes.addAndGet(-weight(notification.getKey(), notification.getValue()));
+                        if (notification.getCause() == RemovalCause.SIZE) {
+                            evictions.incrementAndGet();
+                        }
+                    }
+                })
+                .build();
+    }
+
+    /**
+     * Queries the series of a specification, taking the completed segments
+     * of its range from the cache
+     *
+     * @return the future result, or null if no part of the range can be
+     * cached and the specification should be queried as usual
+     */
+    CompletableFuture<OpenTSDBQueryResult> queryAsync(OpenTSDBClient client, String url, String start, String end,
+                                                      MetricSpecification mSpec, boolean ignoreRateOption, long rateCutoffDate) {
+        OpenTSDBSubQuery subQuery = MetricSpecCallable.creatOTSDBSubQuery(mSpec);
+        long interval = 1;
+        if (null != subQuery.downsample && !subQuery.downsample.isEmpty()) {
+            interval = Utils.parseDuration(subQuery.downsample);
+            if (interval <= 0) {
+                // calendar, millisecond and whole range downsampling do not split into fixed buckets
+                return null;
+            }
+        }
+        long startTs;
+        long endTs;
+        long floor = Long.MIN_VALUE;
+        try {
+            startTs = Utils.parseDate(start);
+            endTs = Utils.parseDate(end);
+            if (subQuery.rate) {
+                if (!ignoreRateOption) {
+                    return null;
+                }
+                floor = Utils.parseDate(String.valueOf(rateCutoffDate));
+            }
+        } catch (ParseException e) {
+            log.debug("Not caching segments of {}: {}", mSpec.getNameOrMetric(), e.getMessage());
+            return null;
+        }
+        long length = (segmentSeconds + interval - 1) / interval * interval;
+        long settled = System.currentTimeMillis() / 1000 - settleSeconds;
+        long first = -Math.floorDiv(-Math.max(startTs, floor), length) * length;
+        long last = Math.floorDiv(Math.min(endTs + 1, settled), length) * length;
+        if (first >= last) {
+            return null;
+        }
+
+        List<CompletableFuture<OpenTSDBQueryReturn>> parts = new ArrayList<>();
+        if (startTs < first) {
+            parts.add(client.queryAsync(query(start, String.valueOf(first - 1), mSpec), ignoreRateOption, rateCutoffDate));
+        }
+        long segment = first;
+        while (segment < last) {
+            String key = key(url, segment, length, mSpec, ignoreRateOption, rateCutoffDate);
+            List<OpenTSDBQueryResult> cached = lookup(key);
+            if (null != cached) {
+                parts.add(CompletableFuture.completedFuture(new OpenTSDBQueryReturn(copy(cached), status(cached))));
+                segment += length;
+                continue;
+            }
+            // The segments missing in a row are fetched as one range
+            List<String> keys = new ArrayList<>();
+            long runStart = segment;
+            do {
+                keys.add(key);
+                segment += length;
+                key = segment < last ? key(url, segment, length, mSpec, ignoreRateOption, rateCutoffDate) : null;
+            } while (null != key && !cached(key));
+            parts.add(fetch(client, runStart, length, keys, mSpec, ignoreRateOption, rateCutoffDate));
+        }
+        if (last <= endTs) {
+            parts.add(client.queryAsync(query(String.valueOf(last), end, mSpec), ignoreRateOption, rateCutoffDate));
+        }
+        final OpenTSDBQuery whole = MetricSpecCallable.createQuery(start, end, mSpec);
+        return CompletableFuture.allOf(parts.toArray(new CompletableFuture<?>[parts.size()]))
+                .thenApply(v -> MetricSpecCallable.toResult(whole, stitch(whole, parts), mSpec));
+    }
+
+    private static OpenTSDBQuery query(String start, String end, MetricSpecification mSpec) {
+        // Every part gets its own sub-query, since the client rewrites rate sub-queries
+        return MetricSpecCallable.createQuery(start, end, mSpec);
+    }
+
+    private static String key(String url, long segment, long length, MetricSpecification mSpec,
+                               boolean ignoreRateOption, long rateCutoffDate) {
+        return QueryCoalescer.key(url, query(String.valueOf(segment), String.valueOf(segment + length - 1), mSpec),
+                ignoreRateOption, rateCutoffDate);
+    }
+
+    /**
+     * @return whether a segment is in memory or on disk, without counting
+     * a hit or a miss
+     */
+    private boolean cached(String key) {
+        return null != segments.getIfPresent(key) || (null != store && store.contains(key));
+    }
+
+    /**
+     * @return the results of a segment, from memory or from disk, or null
+     */
+    private List<OpenTSDBQueryResult> lookup(String key) {
+        List<OpenTSDBQueryResult> cached = segments.getIfPresent(key);
+        if (null != cached) {
+            hits.incrementAndGet();
+            return cached;
+        }
+        misses.incrementAndGet();
+        if (null != store) {
+            List<OpenTSDBQueryResult> stored = store.get(key);
+            if (null != stored) {
+                cached = Collections.unmodifiableList(stored);
+                keep(key, cached);
+                return cached;
+            }
+        }
+        return null;
+    }
+
+    /**
+     * Fetches segments missing in a row with one query and keeps each of
+     * them, as long as OpenTSDB answered, even with nothing
+     */
+    private CompletableFuture<OpenTSDBQueryReturn> fetch(OpenTSDBClient client, final long runStart, final long length,
+                                                         final List<String> keys, MetricSpecification mSpec,
+                                                         boolean ignoreRateOption, long rateCutoffDate) {
+        for (int i = 1; i < keys.size(); i++) {
+            // The first was counted when it was looked up
+            misses.incrementAndGet();
+        }
+        OpenTSDBQuery query = query(String.valueOf(runStart), String.valueOf(runStart + keys.size() * length - 1), mSpec);
+        return client.queryAsync(query, ignoreRateOption, rateCutoffDate).thenApply(queryReturn -> {
+            if (answered(queryReturn.getStatus())) {
+                for (int i = 0; i < keys.size(); i++) {
+                    long segment = runStart + i * length;
+                    List<OpenTSDBQueryResult> kept = Collections.unmodifiableList(slice(queryReturn.getResults(), segment, segment + length - 1));
+                    keep(keys.get(i), kept);
+                    if (null != store) {
+                        store.put(keys.get(i), kept);
+                    }
+                }
+            }
+            return queryReturn;
+        });
+    }
+
+    /**
+     * @return whether OpenTSDB answered, with data or without; an answer that
+     * could not be parsed is fetched again
+     */
+    private static boolean answered(QueryStatus status) {
+        return status.getStatus() == QueryStatusEnum.SUCCESS
+                || (status.getStatus() == QueryStatusEnum.WARNING && OpenTSDBClient.NO_DATA.equals(status.getMessage()));
+    }
+
+    private static QueryStatus status(List<OpenTSDBQueryResult> results) {
+        return results.isEmpty() ? new QueryStatus(QueryStatusEnum.WARNING, OpenTSDBClient.NO_DATA) : new QueryStatus(QueryStatusEnum.SUCCESS, "");
+    }
+
+    /**
+     * @return copies of the series holding only their points in the closed
+     * range, leaving out series without any
+     */
+    private static List<OpenTSDBQueryResult> slice(List<OpenTSDBQueryResult> results, long start, long end) {
+        List<OpenTSDBQueryResult> sliced = new ArrayList<>(results.size());
+        for (OpenTSDBQueryResult result : results) {
+            DataPointSeries points = result.getDataPoints().slice(start, end);
+            if (!points.isEmpty()) {
+                sliced.add(result.copyWith(points));
+            }
+        }
+        return sliced;
+    }
+
+    private void keep(String key, List<OpenTSDBQueryResult> results) {
+        segments.put(key, results);
+        bytes.addAndGet(weight(key, results));
+    }
+
+    /**
+     * Joins the parts of a range back into the series of the whole range.
+     * The first failure fails the whole.
+     */
+    private static OpenTSDBQueryReturn stitch(OpenTSDBQuery whole, List<CompletableFuture<OpenTSDBQueryReturn>> parts) {
+        OpenTSDBQueryReturn[] returns = new OpenTSDBQueryReturn[parts.size()];
+        boolean empty = true;
+        for (int i = 0; i < returns.length; i++) {
+            returns[i] = parts.get(i).join();
+            if (returns[i].getStatus().getStatus() == QueryStatusEnum.ERROR) {
+                return returns[i];
+            }
+            empty &= returns[i].getResults().isEmpty();
+        }
+        if (empty) {
+            return new OpenTSDBQueryReturn(new OpenTSDBQueryResult[0], new QueryStatus(QueryStatusEnum.WARNING, OpenTSDBClient.NO_DATA));
+        }
+        return OpenTSDBClient.joinResults(whole.queries, returns);
+    }
+
+    private static OpenTSDBQueryResult[] copy(List<OpenTSDBQueryResult> results) {
+        OpenTSDBQueryResult[] copies = new OpenTSDBQueryResult[results.size()];
+        for (int i = 0; i < copies.length; i++) {
+            copies[i] = results.get(i).copy();
+        }
+        return copies;
+    }
+
+    /**
+     * Estimates the memory taken by a segment
+     */
+    private static int weight(String key, List<OpenTSDBQueryResult> results) {
+        long weight = 64 + 2L * key.length();
+        for (OpenTSDBQueryResult result : results) {
+            weight += 128 + 16L * result.getDataPoints().size();
+            if (null != result.metric) {
+                weight += 2L * result.metric.length();
+            }
+            if (null != result.tags) {
+                for (Map.Entry<String, String> tag : result.tags.entrySet()) {
+                    weight += 64 + 2L * (tag.getKey().length() + (null == tag.getValue() ? 0 : tag.getValue().length()));
+                }
+            }
+        }
+        return (int) Math.min(Integer.MAX_VALUE, weight);
+    }
+
+    /**
+     * @return how many segments were taken from the cache
+     */
+    static long getHits() {
+        return hits.get();
+    }
+
+    /**
+     * @return how many segments had to be queried
+     */
+    static long getMisses() {
+        return misses.get();
+    }
+}
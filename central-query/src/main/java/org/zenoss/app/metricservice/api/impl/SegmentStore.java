@@ -0,0 +1,586 @@
+/*
+ * ****************************************************************************
+ *
+ *  Copyright (C) Zenoss, Inc. 2026, all rights reserved.
+ *
+ *  This content is made available according to terms specified in
+ *  License.zenoss distributed with this file.
+ *
+ * ***************************************************************************
+ */
+package org.zenoss.app.metricservice.api.impl;
+
+import com.yammer.metrics.Metrics;
+import com.yammer.metrics.core.Gauge;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.Closeable;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.EOFException;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.StandardCopyOption;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.TreeMap;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Keeps result segments on disk, so that a restarted service starts with the
+ * segments it had already fetched. It sits behind {@link ResultSegmentCache}.
+ * <p/>
+ * Segments are appended to data files that roll over at a fixed size. The
+ * file being appended to is read with positional reads; a file is mapped
+ * into memory once, whole, when it is rolled over and no longer grows. The
+ * points of a series are stored as one block of timestamps followed by one
+ * block of values, so reading them back is a bulk copy into the arrays of a
+ * {@link DataPointSeries}. An index file lists where each key was written,
+ * in the order written.
+ * <p/>
+ * When the live segments take more than the allowed space, the least
+ * recently used ones are dropped and the files they leave mostly empty are
+ * compacted: their remaining segments are copied to the current file, the
+ * files deleted and the index rewritten.
+ * <p/>
+ * All methods are synchronized; the work they do is a lookup and a copy.
+ */
+class SegmentStore implements Closeable {
+    private static final Logger log = LoggerFactory.getLogger(SegmentStore.class);
+
+    private static final int MAGIC = 0x5345474d;
+    private static final String INDEX = "index";
+    private static final String DATA_PREFIX = "segments-";
+    private static final String DATA_SUFFIX = ".dat";
+    private static final long MAX_FILE_BYTES = 256L * 1024 * 1024;
+
+    private static final AtomicLong hits = new AtomicLong();
+    private static final AtomicLong misses = new AtomicLong();
+    private static final AtomicLong liveBytes = new AtomicLong();
+
+    static {
+        Metrics.newGauge(SegmentStore.class, "disk-segment-hits", new Gauge<Long>() {
+            @Override
+            public Long value() {
+                return hits.get();
+            }
+        });
+        Metrics.newGauge(SegmentStore.class, "disk-segment-misses", new Gauge<Long>() {
+            @Override
+            public Long value() {
+                return misses.get();
+            }
+        });
+        Metrics.newGauge(SegmentStore.class, "disk-segment-bytes", new Gauge<Long>() {
+            @Override
+            public Long value() {
+                return liveBytes.get();
+            }
+        });
+    }
+
+    private final File directory;
+    private final long maxBytes;
+    private final long maxFileBytes;
+
+    /**
+     * Where each key is stored, least recently used first
+     */
+    private final LinkedHashMap<String, Location> locations = new LinkedHashMap<>(16, 0.75f, true);
+    private final TreeMap<Integer, DataFile> files = new TreeMap<>();
+    private DataOutputStream index;
+    private DataFile current;
+    private long bytes = 0;
+
+    /**
+     * Opens the store in a directory, reading the index left by an earlier
+     * run. Entries the data files do not back are dropped.
+     *
+     * @param maxBytes the most space the live segments may take
+     */
+    SegmentStore(File directory, long maxBytes) throws IOException {
+        this.directory = directory;
+        this.maxBytes = maxBytes;
+        this.maxFileBytes = Math.max(1, Math.min(MAX_FILE_BYTES, maxBytes / 4));
+        if (!directory.isDirectory() && !directory.mkdirs()) {
+            throw new IOException("Cannot create segment directory " + directory);
+        }
+        File[] existing = directory.listFiles();
+        if (null != existing) {
+            for (File file : existing) {
+                String name = file.getName();
+                if (name.startsWith(DATA_PREFIX) && name.endsWith(DATA_SUFFIX)) {
+                    int id;
+                    try {
+                        id = Integer.parseInt(name.substring(DATA_PREFIX.length(), name.length() - DATA_SUFFIX.length()));
+                    } catch (NumberFormatException e) {
+                        log.warn("Ignoring {}, which is not a segment file", file);
+                        continue;
+                    }
+                    DataFile data = new DataFile(id, file);
+                    data.seal();
+                    files.put(id, data);
+                }
+            }
+        }
+        readIndex();
+        // Everything is rewritten so that the index holds exactly the live entries
+        writeIndex();
+        int next = files.isEmpty() ? 0 : files.lastKey() + 1;
+        current = new DataFile(next, dataFile(next));
+        files.put(next, current);
+        liveBytes.addAndGet(bytes);
+        log.info("Opened {} cached segments, {} bytes, in {}", locations.size(), bytes, directory);
+    }
+
+    /**
+     * @return copies of the results stored under the key, or null
+     */
+    synchronized List<OpenTSDBQueryResult> get(String key) {
+        Location location = locations.get(key);
+        if (null == location) {
+            misses.incrementAndGet();
+            return null;
+        }
+        try {
+            ByteBuffer record = files.get(location.file).read(location.offset, location.length);
+            List<OpenTSDBQueryResult> results = readRecord(record, key);
+            if (null != results) {
+                hits.incrementAndGet();
+                return results;
+            }
+            log.warn("Segment {} does not match its index entry, dropping it", key);
+        } catch (IOException | RuntimeException e) {
+            log.warn("Unable to read segment {}, dropping it: {}", key, e.getMessage());
+        }
+        remove(key);
+        misses.incrementAndGet();
+        return null;
+    }
+
+    /**
+     * @return whether results are stored under the key, without reading them
+     */
+    synchronized boolean contains(String key) {
+        return locations.containsKey(key);
+    }
+
+    /**
+     * Stores results under a key, replacing what was stored under it
+     */
+    synchronized void put(String key, List<OpenTSDBQueryResult> results) {
+        try {
+            ByteBuffer record = writeRecord(key, results);
+            if (current.length + record.remaining() > maxFileBytes && current.length > 0) {
+                roll();
+            }
+            long offset = current.append(record);
+            Location location = new Location(current.id, offset, record.limit());
+            index.writeUTF(key);
+            index.writeInt(location.file);
+            index.writeLong(location.offset);
+            index.writeInt(location.length);
+            index.flush();
+            remove(key);
+            locations.put(key, location);
+            current.live += location.length;
+            bytes += location.length;
+            liveBytes.addAndGet(location.length);
+            if (bytes > maxBytes) {
+                compact();
+            }
+        } catch (IOException e) {
+            log.warn("Unable to store segment {}: {}", key, e.getMessage());
+        }
+    }
+
+    /**
+     * @return how many segments are stored
+     */
+    synchronized int size() {
+        return locations.size();
+    }
+
+    @Override
+    public synchronized void close() throws IOException {
+        index.close();
+        for (DataFile file : files.values()) {
+            file.close();
+        }
+        liveBytes.addAndGet(-bytes);
+    }
+
+    private void remove(String key) {
+        Location old = locations.remove(key);
+        if (null != old) {
+            DataFile file = files.get(old.file);
+            if (null != file) {
+                file.live -= old.length;
+            }
+            bytes -= old.length;
+            liveBytes.addAndGet(-old.length);
+        }
+    }
+
+    private void roll() throws IOException {
+        current.flush();
+        current.seal();
+        int next = current.id + 1;
+        current = new DataFile(next, dataFile(next));
+        files.put(next, current);
+    }
+
+    /**
+     * Drops the least recently used segments down to three quarters of the
+     * allowed space, then copies what is left in files under half full to
+     * the current file and deletes them
+     */
+    private void compact() throws IOException {
+        Iterator<Map.Entry<String, Location>> lru = locations.entrySet().iterator();
+        while (bytes > maxBytes / 4 * 3 && lru.hasNext()) {
+            Location location = lru.next().getValue();
+            lru.remove();
+            files.get(location.file).live -= location.length;
+            bytes -= location.length;
+            liveBytes.addAndGet(-location.length);
+        }
+        roll();
+        List<DataFile> sparse = new ArrayList<>();
+        for (DataFile file : files.values()) {
+            if (file != current && file.live * 2 < file.length) {
+                sparse.add(file);
+            }
+        }
+        Map<Integer, DataFile> byId = new HashMap<>();
+        for (DataFile file : sparse) {
+            byId.put(file.id, file);
+        }
+        for (Map.Entry<String, Location> entry : locations.entrySet()) {
+            Location location = entry.getValue();
+            DataFile from = byId.get(location.file);
+            if (null != from) {
+                ByteBuffer record = from.read(location.offset, location.length);
+                if (current.length + location.length > maxFileBytes && current.length > 0) {
+                    roll();
+                }
+                long offset = current.append(record);
+                current.live += location.length;
+                entry.setValue(new Location(current.id, offset, location.length));
+            }
+        }
+        for (DataFile file : sparse) {
+            files.remove(file.id);
+            file.delete();
+        }
+        writeIndex();
+        log.debug("Compacted segment files, {} segments in {} bytes", locations.size(), bytes);
+    }
+
+    private void readIndex() throws IOException {
+        File file = new File(directory, INDEX);
+        if (!file.exists()) {
+            return;
+        }
+        try (DataInputStream in = new DataInputStream(new BufferedInputStream(new FileInputStream(file)))) {
+            while (true) {
+                String key;
+                Location location;
+                try {
+                    key = in.readUTF();
+                    location = new Location(in.readInt(), in.readLong(), in.readInt());
+                } catch (EOFException e) {
+                    // The last entry may have been cut short
+                    break;
+                }
+                DataFile data = files.get(location.file);
+                if (null == data || location.offset + location.length > data.length) {
+                    continue;
+                }
+                Location old = locations.put(key, location);
+                if (null != old) {
+                    files.get(old.file).live -= old.length;
+                    bytes -= old.length;
+                }
+                data.live += location.length;
+                bytes += location.length;
+            }
+        }
+    }
+
+    /**
+     * Replaces the index with one holding exactly the live entries, in
+     * least recently used order, and deletes data files nothing refers to
+     */
+    private void writeIndex() throws IOException {
+        if (null != index) {
+            index.close();
+        }
+        File file = new File(directory, INDEX);
+        File temporary = new File(directory, INDEX + ".tmp");
+        try (DataOutputStream out = new DataOutputStream(new BufferedOutputStream(new FileOutputStream(temporary)))) {
+            for (Map.Entry<String, Location> entry : locations.entrySet()) {
+                out.writeUTF(entry.getKey());
+                out.writeInt(entry.getValue().file);
+                out.writeLong(entry.getValue().offset);
+                out.writeInt(entry.getValue().length);
+            }
+        }
+        Files.move(temporary.toPath(), file.toPath(), StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+        for (Iterator<DataFile> it = files.values().iterator(); it.hasNext(); ) {
+            DataFile data = it.next();
+            if (data != current && data.live == 0) {
+                it.remove();
+                data.delete();
+            }
+        }
+        index = new DataOutputStream(new BufferedOutputStream(new FileOutputStream(file, true)));
+    }
+
+    private File dataFile(int id) {
+        return new File(directory, String.format("%s%06d%s", DATA_PREFIX, id, DATA_SUFFIX));
+    }
+
+    /**
+     * Lays out a record: magic, key, number of results, then each result
+     * with its points as a block of timestamps and a block of values
+     */
+    static ByteBuffer writeRecord(String key, List<OpenTSDBQueryResult> results) {
+        List<byte[]> strings = new ArrayList<>();
+        int size = 4 + 4;
+        size += sizeOf(key, strings);
+        for (OpenTSDBQueryResult result : results) {
+            size += sizeOf(result.metric, strings);
+            size += 4;
+            if (null != result.tags) {
+                for (Map.Entry<String, String> tag : result.tags.entrySet()) {
+                    size += sizeOf(tag.getKey(), strings) + sizeOf(tag.getValue(), strings);
+                }
+            }
+            size += 4;
+            if (null != result.aggregateTags) {
+                for (String tag : result.aggregateTags) {
+                    size += sizeOf(tag, strings);
+                }
+            }
+            size += 4 + 16 * result.getDataPoints().size();
+        }
+        ByteBuffer buffer = ByteBuffer.allocate(size);
+        Iterator<byte[]> encoded = strings.iterator();
+        buffer.putInt(MAGIC);
+        putString(buffer, encoded.next());
+        buffer.putInt(results.size());
+        for (OpenTSDBQueryResult result : results) {
+            putString(buffer, encoded.next());
+            buffer.putInt(null == result.tags ? -1 : result.tags.size());
+            if (null != result.tags) {
+                for (int i = 0; i < result.tags.size(); i++) {
+                    putString(buffer, encoded.next());
+                    putString(buffer, encoded.next());
+                }
+            }
+            buffer.putInt(null == result.aggregateTags ? -1 : result.aggregateTags.size());
+            if (null != result.aggregateTags) {
+                for (int i = 0; i < result.aggregateTags.size(); i++) {
+                    putString(buffer, encoded.next());
+                }
+            }
+            DataPointSeries dps = result.getDataPoints();
+            int points = dps.size();
+            buffer.putInt(points);
+            for (int i = 0; i < points; i++) {
+                buffer.putLong(dps.getTimestamp(i));
+            }
+            for (int i = 0; i < points; i++) {
+                buffer.putDouble(dps.getValue(i));
+            }
+        }
+        buffer.flip();
+        return buffer;
+    }
+
+    /**
+     * Reads a record laid out by {@link #writeRecord(String, List)}
+     *
+     * @return the results, or null if the record is not stored under the key
+     */
+    static List<OpenTSDBQueryResult> readRecord(ByteBuffer buffer, String key) {
+        if (buffer.getInt() != MAGIC || !key.equals(getString(buffer))) {
+            return null;
+        }
+        // A series takes at least 16 bytes: the lengths of its metric, tags, aggregate tags and points
+        int count = checkCount(buffer, buffer.getInt(), 16);
+        List<OpenTSDBQueryResult> results = new ArrayList<>(count);
+        for (int r = 0; r < count; r++) {
+            OpenTSDBQueryResult result = new OpenTSDBQueryResult();
+            result.metric = getString(buffer);
+            int tags = checkCount(buffer, buffer.getInt(), 8);
+            if (tags >= 0) {
+                result.tags = new HashMap<>();
+                for (int i = 0; i < tags; i++) {
+                    result.tags.put(getString(buffer), getString(buffer));
+                }
+            }
+            int aggregateTags = checkCount(buffer, buffer.getInt(), 4);
+            if (aggregateTags >= 0) {
+                result.aggregateTags = new ArrayList<>(aggregateTags);
+                for (int i = 0; i < aggregateTags; i++) {
+                    result.aggregateTags.add(getString(buffer));
+                }
+            }
+            int points = Math.max(0, checkCount(buffer, buffer.getInt(), 16));
+            long[] timestamps = new long[points];
+            double[] values = new double[points];
+            buffer.asLongBuffer().get(timestamps);
+            buffer.position(buffer.position() + 8 * points);
+            buffer.asDoubleBuffer().get(values);
+            buffer.position(buffer.position() + 8 * points);
+            result.setDataPoints(DataPointSeries.fromArrays(timestamps, values));
+            results.add(result);
+        }
+        return results;
+    }
+
+    /**
+     * Checks a count read from a record against the bytes left in it, so that
+     * a corrupt count fails the read instead of allocating for it
+     *
+     * @param minBytes the fewest bytes each counted item takes
+     * @return the count, which is negative for a missing collection
+     */
+    private static int checkCount(ByteBuffer buffer, int count, int minBytes) {
+        if (count > buffer.remaining() / minBytes) {
+            throw new IllegalStateException("Corrupt segment record: " + count + " items in " + buffer.remaining() + " bytes");
+        }
+        return count;
+    }
+
+    private static int sizeOf(String value, List<byte[]> strings) {
+        byte[] bytes = null == value ? null : value.getBytes(StandardCharsets.UTF_8);
+        strings.add(bytes);
+        return 4 + (null == bytes ? 0 : bytes.length);
+    }
+
+    private static void putString(ByteBuffer buffer, byte[] bytes) {
+        if (null == bytes) {
+            buffer.putInt(-1);
+        } else {
+            buffer.putInt(bytes.length);
+            buffer.put(bytes);
+        }
+    }
+
+    private static String getString(ByteBuffer buffer) {
+        int length = checkCount(buffer, buffer.getInt(), 1);
+        if (length < 0) {
+            return null;
+        }
+        byte[] bytes = new byte[length];
+        buffer.get(bytes);
+        return new String(bytes, StandardCharsets.UTF_8);
+    }
+
+    private static final class Location {
+        private final int file;
+        private final long offset;
+        private final int length;
+
+        private Location(int file, long offset, int length) {
+            this.file = file;
+            this.offset = offset;
+            this.length = length;
+        }
+    }
+
+    /**
+     * A data file, appended to through its channel. While it is appended to
+     * it is read through the channel; once sealed it is mapped once, whole.
+     */
+    private static final class DataFile {
+        private final int id;
+        private final File file;
+        private RandomAccessFile access;
+        private MappedByteBuffer mapped;
+        private boolean sealed = false;
+        private long length;
+        private long live = 0;
+
+        private DataFile(int id, File file) throws IOException {
+            this.id = id;
+            this.file = file;
+            this.access = new RandomAccessFile(file, "rw");
+            this.length = access.length();
+        }
+
+        private long append(ByteBuffer record) throws IOException {
+            long offset = length;
+            FileChannel channel = access.getChannel();
+            ByteBuffer source = record.duplicate();
+            while (source.hasRemaining()) {
+                length += channel.write(source, length);
+            }
+            return offset;
+        }
+
+        /**
+         * Marks the file as no longer appended to, so that it can be mapped
+         */
+        private void seal() {
+            sealed = true;
+        }
+
+        private ByteBuffer read(long offset, int size) throws IOException {
+            if (offset < 0 || size < 0 || offset + size > length) {
+                throw new EOFException("Segment at " + offset + " runs past the end of " + file);
+            }
+            if (!sealed) {
+                ByteBuffer record = ByteBuffer.allocate(size);
+                FileChannel channel = access.getChannel();
+                while (record.hasRemaining()) {
+                    if (channel.read(record, offset + record.position()) < 0) {
+                        throw new EOFException("Segment at " + offset + " runs past the end of " + file);
+                    }
+                }
+                record.flip();
+                return record;
+            }
+            if (null == mapped) {
+                mapped = access.getChannel().map(FileChannel.MapMode.READ_ONLY, 0, length);
+            }
+            ByteBuffer record = mapped.duplicate();
+            record.position((int) offset);
+            record.limit((int) offset + size);
+            return record.slice();
+        }
+
+        private void flush() throws IOException {
+            access.getChannel().force(false);
+        }
+
+        private void close() throws IOException {
+            mapped = null;
+            access.close();
+        }
+
+        private void delete() throws IOException {
+            close();
+            if (!file.delete()) {
+                log.warn("Unable to delete segment file {}", file);
+            }
+        }
+    }
+}
@@ -0,0 +1,330 @@
+/*
+ * ****************************************************************************
+ *
+ *  Copyright (C) Zenoss, Inc. 2026, all rights reserved.
+ *
+ *  This content is made available according to terms specified in
+ *  License.zenoss distributed with this file.
+ *
+ * ***************************************************************************
+ */
+package org.zenoss.app.metricservice.api.impl;
+
+import com.google.common.cache.Cache;
+import com.google.common.cache.CacheBuilder;
+import com.yammer.metrics.Metrics;
+import com.yammer.metrics.core.Gauge;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.zenoss.app.metricservice.api.impl.QueryStatus.QueryStatusEnum;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicReference;
+import java.util.function.Function;
+import java.util.function.LongSupplier;
+import java.util.function.Supplier;
+
+/**
+ * Keeps the last result of queries over a window ending now, such as
+ * {@code start=1h-ago}, so that polling them again only fetches what changed.
+ * The next poll queries the points since shortly before the previous one,
+ * drops the points that have left the window and appends the new ones.
+ * <p/>
+ * A result younger than the staleness budget is served as it is, slid to
+ * the current window, while the refresh runs in the background. Concurrent
+ * refreshes of a window share one fetch, and a window nobody polled for the
+ * time to live is forgotten.
+ * <p/>
+ * Only queries of one series without a rate are kept: a rate depends on the
+ * point before the ones fetched, and the series of several sub-queries
+ * cannot be told apart once merged.
+ */
+class SlidingWindowCache {
+    private static final Logger log = LoggerFactory.getLogger(SlidingWindowCache.class);
+
+    private static final String AGO = "-ago";
+
+    private static final AtomicLong fullFetches = new AtomicLong();
+    private static final AtomicLong deltaFetches = new AtomicLong();
+    private static final AtomicLong staleServed = new AtomicLong();
+
+    static {
+        Metrics.newGauge(SlidingWindowCache.class, "window-full-fetches", new Gauge<Long>() {
+            @Override
+            public Long value() {
+                return fullFetches.get();
+            }
+        });
+        Metrics.newGauge(SlidingWindowCache.class, "window-delta-fetches", new Gauge<Long>() {
+            @Override
+            public Long value() {
+                return deltaFetches.get();
+            }
+        });
+        Metrics.newGauge(SlidingWindowCache.class, "window-stale-served", new Gauge<Long>() {
+            @Override
+            public Long value() {
+                return staleServed.get();
+            }
+        });
+    }
+
+    private final Cache<String, Window> windows;
+    private final long staleSeconds;
+    private final long settleSeconds;
+    private final LongSupplier clock;
+
+    /**
+     * @param maxWindows    the most queries kept at once
+     * @param ttlSeconds    how long a window nobody polls is kept
+     * @param staleSeconds  how old a result may be and still be served while
+     *                      it is refreshed in the background
+     * @param settleSeconds how far before the previous poll points may still
+     *                      change, and are fetched again
+     */
+    SlidingWindowCache(long maxWindows, long ttlSeconds, long staleSeconds, long settleSeconds) {
+        this(maxWindows, ttlSeconds, staleSeconds, settleSeconds, () -> System.currentTimeMillis() / 1000);
+    }
+
+    /**
+     * @param clock the current time in seconds
+     */
+    SlidingWindowCache(long maxWindows, long ttlSeconds, long staleSeconds, long settleSeconds, LongSupplier clock) {
+        this.windows = CacheBuilder.newBuilder()
+                .maximumSize(maxWindows)
+                .expireAfterAccess(ttlSeconds, TimeUnit.SECONDS)
+                .build();
+        this.staleSeconds = staleSeconds;
+        this.settleSeconds = Math.max(0, settleSeconds);
+        this.clock = clock;
+    }
+
+    /**
+     * @return whether the query is over a window ending now that can be kept
+     */
+    static boolean accepts(OpenTSDBQuery query) {
+        if (null == query.start || !query.start.trim().endsWith(AGO)
+                || (null != query.end && !Utils.NOW.equals(query.end.trim()))
+                || query.msResolution || null == query.queries || query.queries.size() != 1) {
+            return false;
+        }
+        OpenTSDBSubQuery subQuery = query.queries.get(0);
+        return !subQuery.rate && windowSeconds(query) > 0 && interval(subQuery) > 0;
+    }
+
+    /**
+     * Answers a query over a window ending now from its last result
+     *
+     * @param key   the canonical form of the query
+     * @param fetch sends a query to OpenTSDB
+     */
+    CompletableFuture<OpenTSDBQueryReturn> query(String key, OpenTSDBQuery query,
+                                                 Function<OpenTSDBQuery, CompletableFuture<OpenTSDBQueryReturn>> fetch) {
+        final long now = clock.getAsLong();
+        final long windowStart = now - windowSeconds(query);
+        final Window window;
+        synchronized (windows) {
+            Window existing = windows.getIfPresent(key);
+            if (null == existing) {
+                existing = new Window(query.queries.get(0), interval(query.queries.get(0)));
+                windows.put(key, existing);
+            }
+            window = existing;
+        }
+        Snapshot snapshot = window.snapshot;
+        if (null == snapshot) {
+            return window.refresh(() -> {
+                fullFetches.incrementAndGet();
+                return fetch.apply(query).thenApply(queryReturn -> window.keep(queryReturn, now));
+            }).thenApply(kept -> kept.serve(windowStart, window.step));
+        }
+        if (now - snapshot.asOf <= staleSeconds) {
+            staleServed.incrementAndGet();
+            window.refresh(() -> slide(window, snapshot, now, windowStart, fetch)).whenComplete((kept, e) -> {
+                if (null != e) {
+                    log.warn("Unable to refresh the window of {}: {}", key, e.getMessage());
+                }
+            });
+            return CompletableFuture.completedFuture(snapshot.serve(windowStart, window.step));
+        }
+        return window.refresh(() -> slide(window, snapshot, now, windowStart, fetch))
+                .thenApply(kept -> kept.serve(windowStart, window.step));
+    }
+
+    /**
+     * Brings a window up to date by fetching the points that may have changed
+     * since it was last fetched and the partial bucket at its new start
+     */
+    private CompletableFuture<Snapshot> slide(final Window window, final Snapshot snapshot, final long now, final long windowStart,
+                                              Function<OpenTSDBQuery, CompletableFuture<OpenTSDBQueryReturn>> fetch) {
+        final long step = window.step;
+        final long from = Math.floorDiv(snapshot.asOf - settleSeconds, step) * step;
+        final long firstBucket = -Math.floorDiv(-windowStart, step) * step;
+        final List<CompletableFuture<OpenTSDBQueryReturn>> parts = new ArrayList<>(2);
+        if (from <= firstBucket) {
+            // Nothing kept is still in the window
+            fullFetches.incrementAndGet();
+            parts.add(fetch.apply(window.query(String.valueOf(windowStart), null)));
+        } else {
+            deltaFetches.incrementAndGet();
+            if (firstBucket > windowStart) {
+                parts.add(fetch.apply(window.query(String.valueOf(windowStart), String.valueOf(firstBucket - 1))));
+            }
+            parts.add(fetch.apply(window.query(String.valueOf(from), null)));
+        }
+        return CompletableFuture.allOf(parts.toArray(new CompletableFuture<?>[parts.size()])).thenApply(v -> {
+            OpenTSDBQueryReturn[] returns = new OpenTSDBQueryReturn[parts.size() + 1];
+            // The points kept go first, since the merged series are those of the first part they appear in
+            returns[0] = new OpenTSDBQueryReturn(snapshot.slice(firstBucket, from - 1), new QueryStatus(QueryStatusEnum.SUCCESS, ""));
+            for (int i = 0; i < parts.size(); i++) {
+                returns[i + 1] = parts.get(i).join();
+                if (returns[i + 1].getStatus().getStatus() == QueryStatusEnum.ERROR) {
+                    return window.keep(returns[i + 1], now);
+                }
+            }
+            return window.keep(OpenTSDBClient.joinResults(Collections.singletonList(window.subQuery), returns), now);
+        });
+    }
+
+    /**
+     * @return the length of the window of a query
+     */
+    private static long windowSeconds(OpenTSDBQuery query) {
+        String start = query.start.trim();
+        return Utils.parseDuration(start.substring(0, start.length() - AGO.length()));
+    }
+
+    /**
+     * @return the downsample interval, 1 for raw points, or 0 if the buckets
+     * are not of a fixed length
+     */
+    private static long interval(OpenTSDBSubQuery subQuery) {
+        if (null == subQuery.downsample || subQuery.downsample.isEmpty()) {
+            return 1;
+        }
+        return Math.max(0, Utils.parseDuration(subQuery.downsample));
+    }
+
+    private static final class Window {
+        private final OpenTSDBSubQuery subQuery;
+        private final long step;
+        private volatile Snapshot snapshot;
+        private final AtomicReference<CompletableFuture<Snapshot>> refreshing = new AtomicReference<>();
+
+        private Window(OpenTSDBSubQuery subQuery, long step) {
+            this.subQuery = subQuery;
+            this.step = step;
+        }
+
+        private OpenTSDBQuery query(String start, String end) {
+            OpenTSDBQuery query = new OpenTSDBQuery();
+            query.start = start;
+            query.end = end;
+            query.addSubQuery(subQuery);
+            return query;
+        }
+
+        /**
+         * Joins the refresh in flight, or starts one
+         */
+        private CompletableFuture<Snapshot> refresh(Supplier<CompletableFuture<Snapshot>> start) {
+            final CompletableFuture<Snapshot> created = new CompletableFuture<>();
+            while (!refreshing.compareAndSet(null, created)) {
+                CompletableFuture<Snapshot> existing = refreshing.get();
+                if (null != existing) {
+                    return existing;
+                }
+            }
+            try {
+                start.get().whenComplete((kept, e) -> {
+                    refreshing.set(null);
+                    if (null != e) {
+                        created.completeExceptionally(e);
+                    } else {
+                        created.complete(kept);
+                    }
+                });
+            } catch (RuntimeException e) {
+                refreshing.set(null);
+                created.completeExceptionally(e);
+            }
+            return created;
+        }
+
+        /**
+         * Keeps a successful result as the window as of a time. Any other is
+         * answered as it is and the window keeps what it had, since an empty
+         * answer may also be a failure to parse one.
+         */
+        private Snapshot keep(OpenTSDBQueryReturn queryReturn, long asOf) {
+            if (queryReturn.getStatus().getStatus() != QueryStatusEnum.SUCCESS) {
+                return new Snapshot(queryReturn.getResults(), queryReturn.getStatus(), Long.MIN_VALUE);
+            }
+            List<OpenTSDBQueryResult> kept = new ArrayList<>(queryReturn.getResults().size());
+            for (OpenTSDBQueryResult result : queryReturn.getResults()) {
+                if (!result.getDataPoints().isEmpty()) {
+                    kept.add(result.copy());
+                }
+            }
+            Snapshot taken = new Snapshot(kept, queryReturn.getStatus(), asOf);
+            snapshot = taken;
+            return taken;
+        }
+    }
+
+    /**
+     * The series of a window as of a time; never changed once taken
+     */
+    private static final class Snapshot {
+        private final List<OpenTSDBQueryResult> results;
+        private final QueryStatus status;
+        private final long asOf;
+
+        private Snapshot(List<OpenTSDBQueryResult> results, QueryStatus status, long asOf) {
+            this.results = results;
+            this.status = status;
+            this.asOf = asOf;
+        }
+
+        /**
+         * @return copies of the series holding only their points in the
+         * closed range, leaving out series without any
+         */
+        private OpenTSDBQueryResult[] slice(long start, long end) {
+            List<OpenTSDBQueryResult> sliced = new ArrayList<>(results.size());
+            for (OpenTSDBQueryResult result : results) {
+                DataPointSeries points = result.getDataPoints().slice(start, end);
+                if (!points.isEmpty()) {
+                    sliced.add(result.copyWith(points));
+                }
+            }
+            return sliced.toArray(new OpenTSDBQueryResult[sliced.size()]);
+        }
+
+        /**
+         * Answers with copies of the series in the window starting at a time,
+         * from the bucket the start falls in
+         */
+        private OpenTSDBQueryReturn serve(long windowStart, long step) {
+            if (asOf == Long.MIN_VALUE) {
+                // An answer that was not kept, for each of the callers that waited for it
+                OpenTSDBQueryResult[] copies = new OpenTSDBQueryResult[results.size()];
+                for (int i = 0; i < copies.length; i++) {
+                    copies[i] = results.get(i).copy();
+                }
+                return new OpenTSDBQueryReturn(copies, status);
+            }
+            OpenTSDBQueryResult[] served = slice(Math.floorDiv(windowStart, step) * step, Long.MAX_VALUE);
+            if (served.length == 0) {
+                return new OpenTSDBQueryReturn(served,
+                        new QueryStatus(QueryStatusEnum.WARNING, OpenTSDBClient.NO_DATA));
+            }
+            return new OpenTSDBQueryReturn(served, new QueryStatus(QueryStatusEnum.SUCCESS, ""));
+        }
+    }
+}
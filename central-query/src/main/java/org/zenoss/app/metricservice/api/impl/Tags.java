@@ -31,28 +31,52 @@
 
 package org.zenoss.app.metricservice.api.impl;
 
+import com.fasterxml.jackson.annotation.JsonIgnore;
+import com.google.common.collect.Interner;
+import com.google.common.collect.Interners;
+
+import java.util.Arrays;
 import java.util.HashMap;
 import java.util.List;
 import java.util.Map;
 import java.util.Map.Entry;
+import java.util.TreeMap;
 import java.util.regex.Pattern;
 
 /**
  * A comparable and matchable representation of metric tags
+ * <p/>
+ * Instances are immutable and canonical: tag names and values are interned
+ * and kept as arrays sorted by name, equal tag sets share one instance, and
+ * a 64 bit fingerprint of the content is computed once, so that hashing and
+ * comparing tags is cheap even with a high number of distinct series.
  *
  * @author Zenoss
  */
-public class Tags {
+public final class Tags {
+
+    private static final Interner<String> STRINGS = Interners.newWeakInterner();
+    private static final Interner<Tags> INSTANCES = Interners.newWeakInterner();
+    private static final String[] NONE = new String[0];
+
+    public static final Tags EMPTY = INSTANCES.intern(new Tags(NONE, NONE));
 
     /**
-     * Maps a tag name to its values.
+     * Tag names, sorted
      */
-    private final Map<String, String> tags = new HashMap<>();
+    private final String[] keys;
 
-    /*
-     * Constructor
+    /**
+     * Tag values, in the order of their names
      */
-    public Tags() {
+    private final String[] values;
+
+    private final long fingerprint;
+
+    private Tags(String[] keys, String[] values) {
+        this.keys = keys;
+        this.values = values;
+        this.fingerprint = fingerprint(keys, values);
     }
 
 
@@ -82,16 +106,16 @@ public class Tags {
      * @return tag representation
      */
     public static Tags fromValue(String value) {
-        Tags tags = new Tags();
+        Map<String, String> tags = new TreeMap<>();
         int eq;
 
         for (String term : value.split(" ")) {
             eq = term.indexOf('=');
             if (eq != -1) {
-                tags.tags.put(term.substring(0, eq), term.substring(eq + 1));
+                tags.put(term.substring(0, eq), term.substring(eq + 1));
             }
         }
-        return tags;
+        return fromSortedMap(tags);
     }
 
     /**
@@ -101,7 +125,10 @@ public class Tags {
      * @return Tags representation.
      */
     public static Tags fromValue(Map<String, List<String>> tags) {
-        Tags result = new Tags();
+        if (null == tags || tags.isEmpty()) {
+            return EMPTY;
+        }
+        Map<String, String> result = new TreeMap<>();
         StringBuilder buf = new StringBuilder();
         boolean pipe;
         for (Entry<String, List<String>> entry : tags.entrySet()) {
@@ -115,17 +142,88 @@ public class Tags {
                 }
                 buf.append(sanitizeValue(value, false));
             }
-            result.tags.put(sanitizeKey(entry.getKey()), buf.toString());
+            result.put(sanitizeKey(entry.getKey()), buf.toString());
         }
-        return result;
+        return fromSortedMap(result);
     }
 
+    /**
+     * Constructs a Tags representation of the tags of an OpenTSDB series.
+     * This is done for every series returned, so it avoids building an
+     * intermediate map.
+     *
+     * @param tags tag names to values, may be null
+     * @return the canonical instance for the tags
+     */
     public static Tags fromOpenTsdbTags(Map<String, String> tags) {
-        Tags result = new Tags();
-        if (null != tags) {
-            result.tags.putAll(tags);
+        if (null == tags || tags.isEmpty()) {
+            return EMPTY;
+        }
+        String[] keys = new String[tags.size()];
+        String[] values = new String[keys.length];
+        int n = 0;
+        for (Entry<String, String> entry : tags.entrySet()) {
+            // Insertion sort; series carry a handful of tags at most
+            String key = entry.getKey();
+            int i = n++;
+            while (i > 0 && keys[i - 1].compareTo(key) > 0) {
+                keys[i] = keys[i - 1];
+                values[i] = values[i - 1];
+                i--;
+            }
+            keys[i] = key;
+            values[i] = entry.getValue();
+        }
+        return intern(keys, values);
+    }
+
+    private static Tags fromSortedMap(Map<String, String> tags) {
+        if (tags.isEmpty()) {
+            return EMPTY;
+        }
+        String[] keys = new String[tags.size()];
+        String[] values = new String[keys.length];
+        int i = 0;
+        for (Entry<String, String> entry : tags.entrySet()) {
+            keys[i] = entry.getKey();
+            values[i++] = entry.getValue();
+        }
+        return intern(keys, values);
+    }
+
+    private static Tags intern(String[] keys, String[] values) {
+        for (int i = 0; i < keys.length; i++) {
+            keys[i] = STRINGS.intern(keys[i]);
+            values[i] = STRINGS.intern(null == values[i] ? "" : values[i]);
+        }
+        return INSTANCES.intern(new Tags(keys, values));
+    }
+
+    /**
+     * 64 bit FNV-1a over the names and values, followed by the MurmurHash3
+     * finalizer so that the low bits used by hash tables are well mixed.
+     */
+    private static long fingerprint(String[] keys, String[] values) {
+        long hash = 0xcbf29ce484222325L;
+        for (int i = 0; i < keys.length; i++) {
+            hash = fnv(hash, keys[i]);
+            hash = (hash ^ '=') * 0x100000001b3L;
+            hash = fnv(hash, values[i]);
+            hash = (hash ^ ' ') * 0x100000001b3L;
         }
-        return result;
+        hash ^= hash >>> 33;
+        hash *= 0xff51afd7ed558ccdL;
+        hash ^= hash >>> 33;
+        hash *= 0xc4ceb9fe1a85ec53L;
+        hash ^= hash >>> 33;
+        return hash;
+    }
+
+    private static long fnv(long hash, String value) {
+        for (int i = 0; i < value.length(); i++) {
+            hash = (hash ^ value.charAt(i)) * 0x100000001b3L;
+        }
+        return hash;
     }
 
     /*
@@ -136,16 +234,13 @@ public class Tags {
     public String toString() {
         StringBuilder buf = new StringBuilder();
         buf.append('{');
-        boolean comma = false;
-        for (Entry<String, String> entry : tags.entrySet()) {
-            if (comma) {
+        for (int i = 0; i < keys.length; i++) {
+            if (i > 0) {
                 buf.append(',');
-            } else {
-                comma = true;
             }
-            buf.append(entry.getKey());
+            buf.append(keys[i]);
             buf.append('=');
-            buf.append(entry.getValue());
+            buf.append(values[i]);
         }
         buf.append('}');
         return buf.toString();
@@ -157,7 +252,35 @@ public class Tags {
      * @return
      */
     public int size() {
-        return tags.size();
+        return keys.length;
+    }
+
+    /**
+     * @return the value of the named tag, or null if there is no such tag
+     */
+    public String get(String key) {
+        int index = Arrays.binarySearch(keys, key);
+        return index >= 0 ? values[index] : null;
+    }
+
+    /**
+     * @return the tag names and values, as OpenTSDB returns them for a series
+     */
+    public Map<String, String> toOpenTsdbTags() {
+        Map<String, String> tags = new HashMap<>(keys.length * 2);
+        for (int i = 0; i < keys.length; i++) {
+            tags.put(keys[i], values[i]);
+        }
+        return tags;
+    }
+
+    /**
+     * Returns a 64 bit hash of the tag names and values. Equal tags have
+     * equal fingerprints; different tags almost never do.
+     */
+    @JsonIgnore
+    public long getFingerprint() {
+        return fingerprint;
     }
 
     @Override
@@ -167,14 +290,14 @@ public class Tags {
 
         Tags otherTags = (Tags) other;
 
-        if (tags != null ? !tags.equals(otherTags.tags) : otherTags.tags != null) return false;
-
-        return true;
+        return fingerprint == otherTags.fingerprint
+                && Arrays.equals(keys, otherTags.keys)
+                && Arrays.equals(values, otherTags.values);
     }
 
     @Override
     public int hashCode() {
-        return tags != null ? tags.hashCode() : 0;
+        return (int) (fingerprint ^ (fingerprint >>> 32));
     }
 
     /**
@@ -187,22 +310,27 @@ public class Tags {
      * @return true if they match, else false
      */
     public boolean match(Tags other) {
-        if (other == null || this.tags.size() > other.tags.size()) {
+        if (other == null || this.keys.length > other.keys.length) {
             return false;
         }
 
         String btv, thisValue, otherValue;
-        for (Entry<String, String> entry : tags.entrySet()) {
+        // Both sets of names are sorted, so walk them together
+        int j = 0;
+        for (int i = 0; i < keys.length; i++) {
             /*
              * If the key is not in the "other" then done. Other may have more
              * but should contain all from "this"
              */
-            if (!other.tags.containsKey(entry.getKey())) {
+            while (j < other.keys.length && other.keys[j].compareTo(keys[i]) < 0) {
+                j++;
+            }
+            if (j == other.keys.length || !other.keys[j].equals(keys[i])) {
                 return false;
             }
 
-            thisValue = entry.getValue();
-            otherValue = other.tags.get(entry.getKey());
+            thisValue = values[i];
+            otherValue = other.values[j];
             btv = '|' + thisValue + '|';
 
             /*
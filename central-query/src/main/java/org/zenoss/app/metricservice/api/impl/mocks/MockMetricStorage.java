@@ -40,6 +40,7 @@ import org.zenoss.app.metricservice.MetricServiceAppConfiguration;
 import org.zenoss.app.metricservice.api.impl.*;
 import org.zenoss.app.metricservice.api.model.MetricSpecification;
 import org.zenoss.app.metricservice.api.model.ReturnSet;
+import org.zenoss.app.metricservice.api.model.v2.Metric;
 import org.zenoss.app.metricservice.api.model.v2.MetricRequest;
 import org.zenoss.app.metricservice.api.model.v2.RenameRequest;
 
@@ -204,6 +205,11 @@ public class MockMetricStorage implements MetricStorageAPI {
         return SOURCE_ID;
     }
 
+    @Override
+    public int store(List<Metric> metrics) {
+        return 0;
+    }
+
     @Override
     public void renamePrefix(RenameRequest renameRequest, Writer writer) {
     }
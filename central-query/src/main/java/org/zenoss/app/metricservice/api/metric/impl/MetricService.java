@@ -43,24 +43,27 @@ import org.springframework.context.annotation.Configuration;
 import org.zenoss.app.annotations.API;
 import org.zenoss.app.metricservice.MetricServiceAppConfiguration;
 import org.zenoss.app.metricservice.api.MetricServiceAPI;
+import org.zenoss.app.metricservice.api.configs.MetricServiceConfig;
 import org.zenoss.app.metricservice.api.impl.*;
 import org.zenoss.app.metricservice.api.model.MetricSpecification;
 import org.zenoss.app.metricservice.api.model.ReturnSet;
 import org.zenoss.app.metricservice.buckets.Buckets;
 import org.zenoss.app.metricservice.calculators.BadExpressionException;
+import org.zenoss.app.metricservice.calculators.MetricCalculatorFactory;
 
 import javax.ws.rs.WebApplicationException;
 import javax.ws.rs.core.Response;
 import javax.ws.rs.core.MediaType;
+import javax.ws.rs.core.StreamingOutput;
 import java.io.IOException;
+import java.io.OutputStream;
 import java.text.ParseException;
 import java.util.ArrayList;
 import java.util.HashMap;
 import java.util.LinkedList;
 import java.util.List;
 import java.util.Map;
-import java.util.SortedMap;
-import java.util.TreeMap;
+import java.util.concurrent.ForkJoinPool;
 
 
 @API
@@ -124,8 +127,12 @@ public class MetricService implements MetricServiceAPI {
     }
 
     private static Response makeCORS(Response.ResponseBuilder responseBuilder, String returnMethod) {
+        return makeCORS(responseBuilder, returnMethod, MediaType.APPLICATION_JSON);
+    }
+
+    private static Response makeCORS(Response.ResponseBuilder responseBuilder, String returnMethod, String type) {
         Response.ResponseBuilder rb = responseBuilder //Response.ok()
-                .type(MediaType.APPLICATION_JSON)
+                .type(type)
                 .header("Access-Control-Allow-Origin", "*")
                 .header("Access-Control-Allow-Methods", "POST, OPTIONS");
 
@@ -137,13 +144,17 @@ public class MetricService implements MetricServiceAPI {
 
 
     public SeriesQueryResult executeQuery(Optional<String> id, Optional<String> start, Optional<String> end, Optional<ReturnSet> returnset, Optional<Boolean> series, Optional<String> downsample, double downsampleMultiplier, Optional<Map<String, List<String>>> tags, List<MetricSpecification> metrics) {
+        return newWorker(id, start, end, returnset, series, downsample, downsampleMultiplier, tags, metrics).run();
+    }
+
+    private MetricServiceWorker newWorker(Optional<String> id, Optional<String> start, Optional<String> end, Optional<ReturnSet> returnset, Optional<Boolean> series, Optional<String> downsample, double downsampleMultiplier, Optional<Map<String, List<String>>> tags, List<MetricSpecification> metrics) {
         log.debug("Thread {}: entering MetricService.query()", Thread.currentThread().getId());
         //series should always be true.
         if (!series.or(this.config.getMetricServiceConfig().getDefaultSeries())) {
             UnsupportedOperationException e = new UnsupportedOperationException("Series is no longer supported.");
             throw new WebApplicationException(e, Response.Status.BAD_REQUEST);
         }
-        MetricServiceWorker worker = new MetricServiceWorker(id.or(NOT_SPECIFIED),
+        return new MetricServiceWorker(id.or(NOT_SPECIFIED),
                         start.or(config.getMetricServiceConfig().getDefaultStartTime()),
                         end.or(config.getMetricServiceConfig().getDefaultEndTime()),
                         returnset.or(config.getMetricServiceConfig().getDefaultReturnSet()),
@@ -151,7 +162,6 @@ public class MetricService implements MetricServiceAPI {
                         downsample.orNull(), downsampleMultiplier,
                         tags.orNull(),
                         metrics);
-        return worker.run();
     }
 
     @Override
@@ -159,6 +169,24 @@ public class MetricService implements MetricServiceAPI {
                           Optional<ReturnSet> returnset, Optional<Boolean> series, Optional<String> downsample,
                           double downsampleMultiplier, Optional<Map<String, List<String>>> tags,
                           List<MetricSpecification> metrics) {
+        return query(id, start, end, returnset, series, downsample, downsampleMultiplier, tags, metrics, ResultEncoding.JSON);
+    }
+
+    @Override
+    public Response query(Optional<String> id, Optional<String> start, Optional<String> end,
+                          Optional<ReturnSet> returnset, Optional<Boolean> series, Optional<String> downsample,
+                          double downsampleMultiplier, Optional<Map<String, List<String>>> tags,
+                          List<MetricSpecification> metrics, ResultEncoding encoding) {
+        if (encoding.isBinary()) {
+            // There is no provider for the binary encodings, so they are always written by the worker
+            StreamingOutput output = newWorker(id, start, end, returnset, series, downsample, downsampleMultiplier, tags, metrics)
+                    .stream(encoding.getObjectMapper());
+            return makeCORS(Response.ok().entity(output), MediaType.APPLICATION_JSON, encoding.getMediaType());
+        }
+        if (config.getMetricServiceConfig().isStreamResults()) {
+            StreamingOutput output = newWorker(id, start, end, returnset, series, downsample, downsampleMultiplier, tags, metrics).stream(objectMapper);
+            return makeCORS(Response.ok().entity(output), MediaType.APPLICATION_JSON);
+        }
         SeriesQueryResult queryResult = executeQuery(id, start, end, returnset, series, downsample, downsampleMultiplier, tags, metrics);
         return makeCORS(Response.ok().entity(queryResult), MediaType.APPLICATION_JSON);
     }
@@ -203,6 +231,29 @@ public class MetricService implements MetricServiceAPI {
         }
 
         public SeriesQueryResult run() {
+            return jacksonResultsWriter.makeResults(queries, process(),
+                    id, api.getSourceId(), start, startTime, end, endTime, returnset);
+        }
+
+        /**
+         * Runs the query up front, so that failures are still reported as error
+         * responses, and returns output that writes the results from the
+         * buckets as they are serialized.
+         *
+         * @param mapper mapper for the encoding to write
+         */
+        public StreamingOutput stream(final ObjectMapper mapper) {
+            final Buckets<IHasShortcut> buckets = process();
+            return new StreamingOutput() {
+                @Override
+                public void write(OutputStream output) throws IOException {
+                    jacksonResultsWriter.writeResults(mapper, output, queries, buckets,
+                            id, api.getSourceId(), start, startTime, end, endTime, returnset);
+                }
+            };
+        }
+
+        private Buckets<IHasShortcut> process() {
             validateParameters();
             // Validate the input parameters. Throw exception if any are bad.
 
@@ -252,9 +303,8 @@ public class MetricService implements MetricServiceAPI {
                 bucketSize = Utils.parseDuration(downsample);
                 log.debug("Downsample was {}: setting bucketSize to {}.", downsample, bucketSize);
             }
-            SeriesQueryResult result;
             try {
-                result = makeResults(otsdbResponse, bucketSize);
+                return processResults(otsdbResponse, bucketSize);
             } catch (ClassNotFoundException e) {
                 throw new WebApplicationException(
                         Utils.getErrorResponse(id,
@@ -268,7 +318,6 @@ public class MetricService implements MetricServiceAPI {
                                 String.format("Unable to write results: %s", e.getMessage()),
                                 e.getMessage()));
             }
-            return result;
         }
 
         private int getStatusFromWebApplicationException(WebApplicationException wae) {
@@ -301,28 +350,24 @@ public class MetricService implements MetricServiceAPI {
         }
 
         private void replaceSeriesDataPointsWithLastInRangeDataPoint(OpenTSDBQueryResult series, long startTimeStamp, long endTimeStamp) {
-            long currentPointTimeStamp;
-            SortedMap<Long, Double> dataPointSingleton = new TreeMap<>();
-            Map.Entry<Long, Double> lastDataPoint = null;
-            for (Map.Entry<Long, Double> dataPoint : series.getDataPoints().entrySet()) {
-                currentPointTimeStamp = dataPoint.getKey();
-                if (currentPointTimeStamp < startTimeStamp || currentPointTimeStamp > endTimeStamp) {
-                    continue;
-                }
-                if (null == lastDataPoint || currentPointTimeStamp > lastDataPoint.getKey()) {
-                    lastDataPoint = dataPoint;
-                }
-            }
-            if (null != lastDataPoint) {
-                dataPointSingleton.put(lastDataPoint.getKey(), lastDataPoint.getValue());
+            DataPointSeries dataPoints = series.getDataPoints();
+            DataPointSeries dataPointSingleton = new DataPointSeries(1);
+            int last = dataPoints.floorIndex(endTimeStamp);
+            if (last >= 0 && dataPoints.getTimestamp(last) >= startTimeStamp) {
+                dataPointSingleton.add(dataPoints.getTimestamp(last), dataPoints.getValue(last));
             }
             series.setDataPoints(dataPointSingleton);
         }
 
-        private SeriesQueryResult makeResults(Iterable<OpenTSDBQueryResult> results, long bucketSize)
+        private Buckets<IHasShortcut> processResults(Iterable<OpenTSDBQueryResult> results, long bucketSize)
                 throws ClassNotFoundException, BadExpressionException {
             log.debug("processing results");
-            ResultProcessor processor = new DefaultResultProcessor(results, queries, bucketSize);
+            DefaultResultProcessor processor = new DefaultResultProcessor(results, queries, bucketSize, start, end);
+            MetricServiceConfig metricServiceConfig = config.getMetricServiceConfig();
+            if (metricServiceConfig.isParallelResultProcessing()) {
+                processor.setParallelism(ForkJoinPool.commonPool(),
+                        metricServiceConfig.getParallelMinDataPoints(), metricServiceConfig.getParallelMinPartitionRows());
+            }
             Buckets<IHasShortcut> buckets;
             try {
                 buckets = processor.processResults();
@@ -330,8 +375,7 @@ public class MetricService implements MetricServiceAPI {
                 throw new WebApplicationException(e);
             }
             log.debug("results processed.");
-            return jacksonResultsWriter.makeResults(queries, buckets,
-                    id, api.getSourceId(), start, startTime, end, endTime, returnset);
+            return buckets;
         }
 
         private void validateParameters()  {
@@ -369,10 +413,28 @@ public class MetricService implements MetricServiceAPI {
             }
             for (MetricSpecification query : queries) {
                 query.validateWithErrorHandling(errors);
+                validateExpressionWithErrorHandling(query, errors);
                 query.mergeTags(this.tags);
             }
         }
 
+        private void validateExpressionWithErrorHandling(MetricSpecification query, List<Object> errors) {
+            String expr = Strings.nullToEmpty(query.getExpression()).trim();
+            if (expr.isEmpty()) {
+                return;
+            }
+            try {
+                MetricCalculatorFactory.newInstance(expr).validate();
+            } catch (ClassNotFoundException e) {
+                // Reported when the results are processed
+                log.debug("No calculator for expression {}", expr);
+            } catch (BadExpressionException e) {
+                String cause = null == e.getCause() ? e.getMessage() : e.getCause().getMessage();
+                log.error("Invalid expression '{}': {}", expr, cause);
+                errors.add(Utils.makeError(e.getMessage(), cause, query.getNameOrMetric()));
+            }
+        }
+
         private long parseTimeWithErrorHandling(String timeString, String timeTypeDescription, List<Object> errors) {
             long result = -1;
             try {
@@ -39,8 +39,10 @@ import org.apache.shiro.subject.Subject;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 import org.springframework.beans.factory.annotation.Autowired;
-import org.zenoss.app.AppConfiguration;
+import org.zenoss.app.metricservice.MetricServiceAppConfiguration;
 import org.zenoss.app.metricservice.api.MetricServiceAPI;
+import org.zenoss.app.metricservice.api.impl.HttpCompression;
+import org.zenoss.app.metricservice.api.impl.ResultEncoding;
 import org.zenoss.app.metricservice.api.impl.Utils;
 import org.zenoss.app.metricservice.api.model.PerformanceQuery;
 import org.zenoss.app.metricservice.api.model.ReturnSet;
@@ -54,9 +56,18 @@ import javax.ws.rs.OPTIONS;
 import javax.ws.rs.POST;
 import javax.ws.rs.Path;
 import javax.ws.rs.Produces;
+import javax.ws.rs.WebApplicationException;
+import javax.ws.rs.core.Context;
+import javax.ws.rs.core.HttpHeaders;
 import javax.ws.rs.core.MediaType;
 import javax.ws.rs.core.Response;
+import javax.ws.rs.ext.MessageBodyReader;
+import javax.ws.rs.ext.Providers;
+import java.io.IOException;
+import java.io.InputStream;
+import java.lang.annotation.Annotation;
 import java.util.List;
+import java.util.zip.ZipException;
 import java.util.Map;
 
 /**
@@ -70,7 +81,7 @@ public class MetricResources {
     private static final Logger log = LoggerFactory.getLogger(MetricResources.class);
 
     @Autowired
-    AppConfiguration configuration;
+    MetricServiceAppConfiguration configuration;
 
     @Autowired
     ZappSecurity security;
@@ -81,7 +92,7 @@ public class MetricResources {
     public MetricResources() {
     }
 
-    public MetricResources(AppConfiguration configuration, ZappSecurity security, MetricServiceAPI api) {
+    public MetricResources(MetricServiceAppConfiguration configuration, ZappSecurity security, MetricServiceAPI api) {
         log.info("MetricResources constructor starting...");
         this.configuration = configuration;
         this.security = security;
@@ -91,7 +102,15 @@ public class MetricResources {
     @POST
     @Timed
     @Consumes(MediaType.APPLICATION_JSON)
-    public Response query(PerformanceQuery query) {
+    @Produces({MediaType.APPLICATION_JSON, ResultEncoding.APPLICATION_SMILE, ResultEncoding.APPLICATION_CBOR})
+    public Response query(InputStream body, @Context HttpHeaders headers, @Context Providers providers) throws IOException {
+        PerformanceQuery query;
+        try {
+            query = readQuery(body, headers, providers);
+        } catch (ZipException e) {
+            return Utils.getErrorResponse(null, Response.Status.BAD_REQUEST.getStatusCode(),
+                    String.format("Unable to decompress query request: %s", e.getMessage()), "Bad Request");
+        }
         log.debug("Thread {}: Entered NewMetricResources.query with single param (POST). REQUEST: {}", Thread.currentThread().getId(), Utils.jsonStringFromObject(query));
         if (query == null) {
             return Utils.getErrorResponse(null, Response.Status.BAD_REQUEST.getStatusCode(),
@@ -105,7 +124,30 @@ public class MetricResources {
         Optional<String> downsample = Optional.fromNullable(query.getDownsample());
         double downsampleMultiplier = query.getDownsampleMultiplier();
         Optional<Map<String, List<String>>> tags = getTags( query.getTags());
-        return api.query(id, start, end, returnset, series, downsample, downsampleMultiplier, tags, query.getMetrics());
+        ResultEncoding encoding = ResultEncoding.fromAcceptableMediaTypes(headers.getAcceptableMediaTypes());
+        Response response = api.query(id, start, end, returnset, series, downsample, downsampleMultiplier, tags, query.getMetrics(), encoding);
+        return HttpCompression.compress(response, headers, providers, configuration.getMetricServiceConfig());
+    }
+
+    /**
+     * Reads the query with the JSON provider, after undoing any
+     * Content-Encoding of the body that the container has not undone.
+     *
+     * @throws WebApplicationException with 415 Unsupported Media Type if no
+     *                                 provider reads the content type
+     */
+    private PerformanceQuery readQuery(InputStream body, HttpHeaders headers, Providers providers) throws IOException {
+        MediaType type = null == headers.getMediaType() ? MediaType.APPLICATION_JSON_TYPE : headers.getMediaType();
+        Annotation[] annotations = new Annotation[0];
+        MessageBodyReader<PerformanceQuery> reader = providers.getMessageBodyReader(PerformanceQuery.class, PerformanceQuery.class,
+                annotations, type);
+        if (null == reader) {
+            throw new WebApplicationException(Utils.getErrorResponse(null, Response.Status.UNSUPPORTED_MEDIA_TYPE.getStatusCode(),
+                    String.format("Content-Type %s is not supported", type), "Unsupported Content-Type"));
+        }
+        InputStream in = HttpCompression.decode(body, headers.getRequestHeaders().getFirst(HttpHeaders.CONTENT_ENCODING),
+                configuration.getMetricServiceConfig(), configuration.getHttpConfiguration().getGzipConfiguration().isEnabled());
+        return reader.readFrom(PerformanceQuery.class, PerformanceQuery.class, annotations, type, headers.getRequestHeaders(), in);
     }
 
     @OPTIONS
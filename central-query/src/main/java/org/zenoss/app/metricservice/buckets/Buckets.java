@@ -60,7 +60,7 @@ public class Buckets<P extends IHasShortcut> {
     /**
      * Set of buckets indexed by time in seconds
      */
-    private final Map<Long, Buckets<P>.Bucket> bucketList = new TreeMap<>();
+    private final TreeMap<Long, MapBucket> bucketList = new TreeMap<>();
 
     /**
      * Specifies the size of each bucket in seconds
@@ -70,7 +70,7 @@ public class Buckets<P extends IHasShortcut> {
     private Map<String, QueryStatus> queryStatuses = new HashMap<>();
 
     public Map<Long, Bucket> getBucketList() {
-        return bucketList;
+        return Collections.<Long, Bucket>unmodifiableMap(bucketList);
     }
 
     public void addQueryStatus(P key, QueryStatus status) {
@@ -93,7 +93,34 @@ public class Buckets<P extends IHasShortcut> {
      * 
      * @author Zenoss
      */
-    public final class Bucket {
+    public abstract class Bucket {
+
+        /**
+         * Returns a value based on primary key lookup
+         * 
+         * @param key
+         *            primary key
+         * @return the value associated with the primary key or null
+         */
+        public abstract Value getValue(final P key);
+
+        /**
+         * Returns a value based on the shortcut key lookup
+         * 
+         * @param shortcut
+         *            shortcut key
+         * @return the value associated with the shortcut key or null
+         */
+        public abstract Value getValueByShortcut(String shortcut);
+
+        public abstract boolean hasValue(P key);
+    }
+
+    /**
+     * Bucket that keeps its values in hash maps keyed by primary key and
+     * shortcut.
+     */
+    private final class MapBucket extends Bucket {
 
         /**
          * Map from the primary key to the values within a bucket
@@ -115,7 +142,7 @@ public class Buckets<P extends IHasShortcut> {
          * @param value
          *            value to add
          */
-        private final void add(final P primaryKey,final double value) {
+        private void add(final P primaryKey,final double value) {
 
             Value holder = getOrCreateValue(primaryKey);
 
@@ -123,24 +150,13 @@ public class Buckets<P extends IHasShortcut> {
             holder.add(value);
         }
 
-        /**
-         * Returns a value based on primary key lookup
-         * 
-         * @param key
-         *            primary key
-         * @return the value associated with the primary key or null
-         */
-        public final Value getValue(final P key) {
+        @Override
+        public Value getValue(final P key) {
             return getOrCreateValue(key);
         }
 
-        private final Value getOrCreateValue(final P primaryKey) {
-            if (null == primaryKey) {
-                throw new IllegalArgumentException("primary Key cannot be null.");
-            }
-            if (null == primaryKey.getShortcut()) {
-                throw new IllegalArgumentException("shortcut cannot be null.");
-            }
+        private Value getOrCreateValue(final P primaryKey) {
+            checkKey(primaryKey);
 
             // Fetch existing value, if it exists
             Value value = values.get(primaryKey);
@@ -154,17 +170,9 @@ public class Buckets<P extends IHasShortcut> {
             return value;
         }
 
-        /**
-         * Returns a value based on the shortcut key lookup
-         * 
-         * @param shortcut
-         *            shortcut key
-         * @return the value associated with the shortcut key or null
-         */
-        public final Value getValueByShortcut(String shortcut) {
-            if (null == shortcut) {
-                throw new IllegalArgumentException("shortcut cannot be null.");
-            }
+        @Override
+        public Value getValueByShortcut(String shortcut) {
+            checkShortcut(shortcut);
             Value result = valuesByName.get(shortcut);
             if (null == result) {
                 result = new Value();
@@ -172,6 +180,7 @@ public class Buckets<P extends IHasShortcut> {
             return result;
         }
 
+        @Override
         public boolean hasValue(P key) {
             Value value = values.get(key);
             return (value != null && value.getCount() > 0l);
@@ -217,12 +226,12 @@ public class Buckets<P extends IHasShortcut> {
      * @param value
      *            value to add
      */
-    public final void add(final P primaryKey, final long timestamp, final double value) {
+    public void add(final P primaryKey, final long timestamp, final double value) {
         long ts = getBucketTimestamp(timestamp);
         // Get existing or create new bucket for this timestamp
-        Bucket b = bucketList.get(ts);
+        MapBucket b = bucketList.get(ts);
         if (b == null) {
-            b = new Bucket();
+            b = new MapBucket();
             bucketList.put(ts, b);
         }
 
@@ -230,6 +239,32 @@ public class Buckets<P extends IHasShortcut> {
         b.add(primaryKey, value);
     }
 
+    /**
+     * Add the sum and count of several values falling in the same bucket at
+     * once. Adding to a value that was empty gives the same result as adding
+     * each value, in the order they were summed, with
+     * {@link #add(IHasShortcut, long, double)}.
+     *
+     * @param primaryKey
+     *            primary key for the values
+     * @param timestamp
+     *            timestamp of the values (will be rounded based on
+     *            secondsPerBucket size)
+     * @param sum
+     *            sum of the values
+     * @param count
+     *            number of values
+     */
+    public void add(final P primaryKey, final long timestamp, final double sum, final long count) {
+        long ts = getBucketTimestamp(timestamp);
+        MapBucket b = bucketList.get(ts);
+        if (b == null) {
+            b = new MapBucket();
+            bucketList.put(ts, b);
+        }
+        b.getOrCreateValue(primaryKey).add(sum, count);
+    }
+
     /**
      * Add an value to the buckets. If the bucket already has an interpolated value, update it.
      *
@@ -241,13 +276,13 @@ public class Buckets<P extends IHasShortcut> {
      * @param value
      *            value to add
      */
-    public final void addInterpolated(final P primaryKey, final long timestamp, final double value) {
+    public void addInterpolated(final P primaryKey, final long timestamp, final double value) {
         long ts = getBucketTimestamp(timestamp);
 
         // Get existing or create new bucket for this timestamp
-        Bucket b = bucketList.get(ts);
+        MapBucket b = bucketList.get(ts);
         if (b == null) {
-            b = new Bucket();
+            b = new MapBucket();
             bucketList.put(ts, b);
         }
         // Add the value
@@ -260,27 +295,97 @@ public class Buckets<P extends IHasShortcut> {
      * 
      * @return bucket of the given timestamp (that will be downsampled) or null
      */
-    public final Buckets<P>.Bucket getBucket(long timestamp) {
+    public Buckets<P>.Bucket getBucket(long timestamp) {
         long bucketTimestamp = getBucketTimestamp(timestamp);
         return bucketList.get(bucketTimestamp);
     }
 
-    private long getBucketTimestamp(long timestamp) {
+    /**
+     * Returns true if the bucket for the given timestamp holds at least one
+     * real (not interpolated) value for the key.
+     *
+     * @param key       primary key
+     * @param timestamp timestamp (will be downsampled)
+     * @return whether a value exists
+     */
+    public boolean hasValue(P key, long timestamp) {
+        Bucket bucket = getBucket(timestamp);
+        return null != bucket && bucket.hasValue(key);
+    }
+
+    /**
+     * Returns the value for a key in the bucket for the given timestamp
+     * without creating any intermediate objects.
+     *
+     * @param key       primary key
+     * @param timestamp timestamp (will be downsampled)
+     * @return the averaged (or interpolated) value, or NaN if there is none
+     */
+    public double getValue(P key, long timestamp) {
+        checkKey(key);
+        MapBucket bucket = bucketList.get(getBucketTimestamp(timestamp));
+        if (null == bucket) {
+            return Double.NaN;
+        }
+        Value value = bucket.values.get(key);
+        return null == value ? Double.NaN : value.getValue();
+    }
+
+    /**
+     * Returns the value for a shortcut in the bucket for the given timestamp
+     * without creating any intermediate objects.
+     *
+     * @param shortcut  shortcut key
+     * @param timestamp timestamp (will be downsampled)
+     * @return the averaged (or interpolated) value, or NaN if there is none
+     */
+    public double getValueByShortcut(String shortcut, long timestamp) {
+        checkShortcut(shortcut);
+        MapBucket bucket = bucketList.get(getBucketTimestamp(timestamp));
+        if (null == bucket) {
+            return Double.NaN;
+        }
+        Value value = bucket.valuesByName.get(shortcut);
+        return null == value ? Double.NaN : value.getValue();
+    }
+
+    /**
+     * Returns the timestamp of the bucket a timestamp falls in
+     *
+     * @param timestamp timestamp in seconds
+     * @return the downsampled timestamp
+     */
+    public final long getBucketTimestamp(long timestamp) {
         return (timestamp / secondsPerBucket) * secondsPerBucket;
     }
 
     /**
      * Returns a sorted copy of the timestamps for the buckets. The timestamps
-     * returned are the downsampled values. To get the correct timestamp these
-     * values should be multiplied by the secondsPerBucket value.
+     * returned are the downsampled values.
      * 
      * @return sorted list of downsampled time values
      */
-    public final SortedSet<Long> getTimestamps() {
+    public SortedSet<Long> getTimestamps() {
         SortedSet<Long> result = new TreeSet<>(bucketList.keySet());
         return result;
     }
 
+    /**
+     * Returns the timestamps for the buckets in ascending order as a primitive
+     * array. Preferred over {@link #getTimestamps()} when iterating, as it
+     * does not box every timestamp.
+     *
+     * @return ascending downsampled time values
+     */
+    public long[] getOrderedTimestamps() {
+        long[] result = new long[bucketList.size()];
+        int i = 0;
+        for (Long timestamp : bucketList.keySet()) {
+            result[i++] = timestamp;
+        }
+        return result;
+    }
+
     /**
      * Returns the secondsPerBucket value
      * 
@@ -297,18 +402,39 @@ public class Buckets<P extends IHasShortcut> {
      * @param ps: printstream instance to use for the dump
      */
     public final void dump(PrintStream ps) {
-        List<Long> keys = new ArrayList<>(bucketList.keySet());
-        Collections.sort(keys);
-
-        for (long k : keys) {
-            ps.format("BUCKET: %d (%d) (%s)%n", k, k * secondsPerBucket, new Date(k * secondsPerBucket * 1000));
-            for (P key : bucketList.get(k).values.keySet()) {
-                Value value = bucketList.get(k).values.get(key);
-                ps.format("    %-40s : %10.2f (%10.2f / %d)%n", key.toString(),
-                        value.getValue(),
-                        value.getSum(),
-                        value.getCount());
-            }
+        for (long timestamp : getOrderedTimestamps()) {
+            dumpBucket(ps, timestamp);
+        }
+    }
+
+    protected void dumpBucket(PrintStream ps, long timestamp) {
+        dumpBucketHeader(ps, timestamp);
+        for (Map.Entry<P, Value> value : bucketList.get(timestamp).values.entrySet()) {
+            dumpValue(ps, value.getKey(), value.getValue());
+        }
+    }
+
+    protected final void dumpBucketHeader(PrintStream ps, long timestamp) {
+        ps.format("BUCKET: %d (%d) (%s)%n", timestamp, timestamp * secondsPerBucket, new Date(timestamp * secondsPerBucket * 1000));
+    }
+
+    protected final void dumpValue(PrintStream ps, P key, Value value) {
+        ps.format("    %-40s : %10.2f (%10.2f / %d)%n", key.toString(),
+                value.getValue(),
+                value.getSum(),
+                value.getCount());
+    }
+
+    protected static void checkKey(IHasShortcut primaryKey) {
+        if (null == primaryKey) {
+            throw new IllegalArgumentException("primary Key cannot be null.");
+        }
+        checkShortcut(primaryKey.getShortcut());
+    }
+
+    protected static void checkShortcut(String shortcut) {
+        if (null == shortcut) {
+            throw new IllegalArgumentException("shortcut cannot be null.");
         }
     }
 }
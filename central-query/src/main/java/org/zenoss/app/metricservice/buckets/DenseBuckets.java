@@ -0,0 +1,382 @@
+/*
+ * ****************************************************************************
+ *
+ *  Copyright (C) Zenoss, Inc. 2026, all rights reserved.
+ *
+ *  This content is made available according to terms specified in
+ *  License.zenoss distributed with this file.
+ *
+ * ***************************************************************************
+ */
+package org.zenoss.app.metricservice.buckets;
+
+import org.zenoss.app.metricservice.api.impl.IHasShortcut;
+
+import java.io.PrintStream;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.SortedSet;
+import java.util.TreeMap;
+
+/**
+ * Buckets for a bounded time range. Each bucket in the range is addressed
+ * directly by {@code (timestamp - start) / secondsPerBucket} and every series
+ * keeps its sums and counts in primitive columns, so adding and reading a
+ * value costs an array access instead of tree and hash lookups plus a
+ * {@link Value} per point.
+ * <p/>
+ * Values that fall outside of the range (OpenTSDB may return points on either
+ * side of it) are kept in the regular sparse buckets, so the contents are
+ * always the same as those of {@link Buckets} fed with the same values.
+ *
+ * @param <P> primary key type
+ */
+public class DenseBuckets<P extends IHasShortcut> extends Buckets<P> {
+
+    /**
+     * Largest number of buckets a range may span to be held densely; one
+     * week at one minute resolution fits.
+     */
+    public static final int MAX_DENSE_BUCKETS = 20160;
+
+    /**
+     * Smallest share of the buckets of the range a series is expected to
+     * fill for its columns, 12 bytes per bucket whether filled or not, to
+     * take less memory than the sparse buckets' {@link Value} and map entry
+     * per filled bucket.
+     */
+    public static final double MIN_FILL_RATIO = 0.25;
+
+    private final long firstTimestamp;
+    private final long lastTimestamp;
+    private final int bucketCount;
+
+    /**
+     * Whether anything was added to the bucket at each index
+     */
+    private final boolean[] occupied;
+    private int occupiedCount = 0;
+
+    private final Map<P, Column> columns = new HashMap<>();
+    private final Map<String, Column> columnsByShortcut = new HashMap<>();
+
+    /**
+     * @param secondsPerBucket the number of seconds per each bucket
+     * @param start            start of the range in seconds
+     * @param end              end of the range in seconds
+     * @throws IllegalArgumentException if the range is not supported, see
+     *                                  {@link #isSupported(long, long, long)}
+     */
+    public DenseBuckets(long secondsPerBucket, long start, long end) {
+        super(secondsPerBucket);
+        if (!isSupported(secondsPerBucket, start, end)) {
+            throw new IllegalArgumentException(String.format(
+                    "Range [%d, %d] with %d seconds per bucket cannot be held in dense buckets.", start, end, secondsPerBucket));
+        }
+        firstTimestamp = getBucketTimestamp(start);
+        lastTimestamp = getBucketTimestamp(end);
+        bucketCount = (int) ((lastTimestamp - firstTimestamp) / secondsPerBucket) + 1;
+        occupied = new boolean[bucketCount];
+    }
+
+    /**
+     * Returns true if the given range is bounded and spans no more than
+     * {@link #MAX_DENSE_BUCKETS} buckets.
+     */
+    public static boolean isSupported(long secondsPerBucket, long start, long end) {
+        if (secondsPerBucket <= 0 || start < 0 || end < start) {
+            return false;
+        }
+        return (end / secondsPerBucket) - (start / secondsPerBucket) < MAX_DENSE_BUCKETS;
+    }
+
+    /**
+     * Returns true if the range is supported, downsampled to more than one
+     * second per bucket, and the series are expected to fill at least
+     * {@link #MIN_FILL_RATIO} of its buckets on average. Points without a
+     * downsample interval are as sparse as they were stored, so those are
+     * always kept in the sparse buckets.
+     *
+     * @param seriesCount    the number of series to be added
+     * @param dataPointCount the number of points in those series
+     */
+    public static boolean isWorthwhile(long secondsPerBucket, long start, long end, int seriesCount, long dataPointCount) {
+        if (secondsPerBucket <= 1 || seriesCount <= 0 || !isSupported(secondsPerBucket, start, end)) {
+            return false;
+        }
+        long bucketCount = (end / secondsPerBucket) - (start / secondsPerBucket) + 1;
+        return dataPointCount >= MIN_FILL_RATIO * bucketCount * seriesCount;
+    }
+
+    @Override
+    public void add(P primaryKey, long timestamp, double value) {
+        int index = indexOf(timestamp);
+        if (index < 0) {
+            super.add(primaryKey, timestamp, value);
+            return;
+        }
+        Column column = getOrCreateColumn(primaryKey);
+        column.sum[index] += value;
+        column.count[index]++;
+        markOccupied(index);
+    }
+
+    @Override
+    public void add(P primaryKey, long timestamp, double sum, long count) {
+        int index = indexOf(timestamp);
+        if (index < 0) {
+            super.add(primaryKey, timestamp, sum, count);
+            return;
+        }
+        Column column = getOrCreateColumn(primaryKey);
+        column.sum[index] += sum;
+        column.count[index] += count;
+        markOccupied(index);
+    }
+
+    @Override
+    public void addInterpolated(P primaryKey, long timestamp, double value) {
+        int index = indexOf(timestamp);
+        if (index < 0) {
+            super.addInterpolated(primaryKey, timestamp, value);
+            return;
+        }
+        getOrCreateColumn(primaryKey).setInterpolated(index, value);
+        markOccupied(index);
+    }
+
+    @Override
+    public Buckets<P>.Bucket getBucket(long timestamp) {
+        int index = indexOf(timestamp);
+        if (index < 0) {
+            return super.getBucket(timestamp);
+        }
+        return occupied[index] ? new ColumnBucket(index) : null;
+    }
+
+    @Override
+    public boolean hasValue(P key, long timestamp) {
+        int index = indexOf(timestamp);
+        if (index < 0) {
+            return super.hasValue(key, timestamp);
+        }
+        Column column = columns.get(key);
+        return null != column && column.count[index] > 0;
+    }
+
+    @Override
+    public double getValue(P key, long timestamp) {
+        int index = indexOf(timestamp);
+        if (index < 0) {
+            return super.getValue(key, timestamp);
+        }
+        checkKey(key);
+        Column column = columns.get(key);
+        return null == column ? Double.NaN : column.getValue(index);
+    }
+
+    @Override
+    public double getValueByShortcut(String shortcut, long timestamp) {
+        int index = indexOf(timestamp);
+        if (index < 0) {
+            return super.getValueByShortcut(shortcut, timestamp);
+        }
+        checkShortcut(shortcut);
+        Column column = findByShortcut(shortcut, index);
+        return null == column ? Double.NaN : column.getValue(index);
+    }
+
+    @Override
+    public Map<Long, Bucket> getBucketList() {
+        Map<Long, Bucket> result = new TreeMap<>(super.getBucketList());
+        for (int i = 0; i < bucketCount; i++) {
+            if (occupied[i]) {
+                result.put(timestampOf(i), new ColumnBucket(i));
+            }
+        }
+        return Collections.unmodifiableMap(result);
+    }
+
+    @Override
+    public SortedSet<Long> getTimestamps() {
+        SortedSet<Long> result = super.getTimestamps();
+        for (int i = 0; i < bucketCount; i++) {
+            if (occupied[i]) {
+                result.add(timestampOf(i));
+            }
+        }
+        return result;
+    }
+
+    @Override
+    public long[] getOrderedTimestamps() {
+        long[] outside = super.getOrderedTimestamps();
+        long[] result = new long[outside.length + occupiedCount];
+        int n = 0;
+        int o = 0;
+        // Sparse timestamps before the range, the range itself, then those after it
+        while (o < outside.length && outside[o] < firstTimestamp) {
+            result[n++] = outside[o++];
+        }
+        for (int i = 0; i < bucketCount; i++) {
+            if (occupied[i]) {
+                result[n++] = timestampOf(i);
+            }
+        }
+        while (o < outside.length) {
+            result[n++] = outside[o++];
+        }
+        return result;
+    }
+
+    @Override
+    protected void dumpBucket(PrintStream ps, long timestamp) {
+        int index = indexOf(timestamp);
+        if (index < 0) {
+            super.dumpBucket(ps, timestamp);
+            return;
+        }
+        dumpBucketHeader(ps, timestamp);
+        for (Map.Entry<P, Column> entry : columns.entrySet()) {
+            if (entry.getValue().hasEntry(index)) {
+                dumpValue(ps, entry.getKey(), entry.getValue().toValue(index));
+            }
+        }
+    }
+
+    /**
+     * @return the index of the bucket holding the timestamp, or -1 if it is
+     * outside of the range
+     */
+    private int indexOf(long timestamp) {
+        long bucketTimestamp = getBucketTimestamp(timestamp);
+        if (bucketTimestamp < firstTimestamp || bucketTimestamp > lastTimestamp) {
+            return -1;
+        }
+        return (int) ((bucketTimestamp - firstTimestamp) / getSecondsPerBucket());
+    }
+
+    private long timestampOf(int index) {
+        return firstTimestamp + index * getSecondsPerBucket();
+    }
+
+    private void markOccupied(int index) {
+        if (!occupied[index]) {
+            occupied[index] = true;
+            occupiedCount++;
+        }
+    }
+
+    private Column getOrCreateColumn(P primaryKey) {
+        checkKey(primaryKey);
+        Column column = columns.get(primaryKey);
+        if (null == column) {
+            column = new Column(bucketCount, columnsByShortcut.get(primaryKey.getShortcut()));
+            columns.put(primaryKey, column);
+            columnsByShortcut.put(primaryKey.getShortcut(), column);
+        }
+        return column;
+    }
+
+    /**
+     * Finds the most recently created column for the shortcut that has an
+     * entry at the index, the same one the sparse buckets would find.
+     */
+    private Column findByShortcut(String shortcut, int index) {
+        for (Column column = columnsByShortcut.get(shortcut); null != column; column = column.previousWithShortcut) {
+            if (column.hasEntry(index)) {
+                return column;
+            }
+        }
+        return null;
+    }
+
+    /**
+     * The values of one series over the range. Interpolation columns are
+     * only allocated for series that are interpolated.
+     */
+    private static final class Column {
+        private final double[] sum;
+        private final int[] count;
+        private double[] interpolated;
+        private boolean[] hasInterpolated;
+
+        /**
+         * Earlier column registered under the same shortcut, if any
+         */
+        private final Column previousWithShortcut;
+
+        private Column(int size, Column previousWithShortcut) {
+            this.sum = new double[size];
+            this.count = new int[size];
+            this.previousWithShortcut = previousWithShortcut;
+        }
+
+        private void setInterpolated(int index, double value) {
+            if (null == interpolated) {
+                interpolated = new double[sum.length];
+                hasInterpolated = new boolean[sum.length];
+            }
+            interpolated[index] = value;
+            hasInterpolated[index] = true;
+        }
+
+        private boolean isInterpolated(int index) {
+            return null != hasInterpolated && hasInterpolated[index];
+        }
+
+        private boolean hasEntry(int index) {
+            return count[index] > 0 || isInterpolated(index);
+        }
+
+        /**
+         * Same as {@link Value#getValue()}
+         */
+        private double getValue(int index) {
+            if (count[index] != 0) {
+                return sum[index] / (double) count[index];
+            }
+            if (isInterpolated(index)) {
+                return interpolated[index];
+            }
+            return Double.NaN;
+        }
+
+        private Value toValue(int index) {
+            boolean isInterpolated = isInterpolated(index);
+            return new Value(sum[index], count[index], isInterpolated ? interpolated[index] : 0.0, isInterpolated);
+        }
+    }
+
+    /**
+     * View of one bucket of the range
+     */
+    private final class ColumnBucket extends Bucket {
+        private final int index;
+
+        private ColumnBucket(int index) {
+            this.index = index;
+        }
+
+        @Override
+        public Value getValue(P key) {
+            checkKey(key);
+            Column column = columns.get(key);
+            return null == column ? new Value() : column.toValue(index);
+        }
+
+        @Override
+        public Value getValueByShortcut(String shortcut) {
+            checkShortcut(shortcut);
+            Column column = findByShortcut(shortcut, index);
+            return null == column ? new Value() : column.toValue(index);
+        }
+
+        @Override
+        public boolean hasValue(P key) {
+            Column column = columns.get(key);
+            return null != column && column.count[index] > 0;
+        }
+    }
+}
@@ -0,0 +1,54 @@
+/*
+ * ****************************************************************************
+ *
+ *  Copyright (C) Zenoss, Inc. 2026, all rights reserved.
+ *
+ *  This content is made available according to terms specified in
+ *  License.zenoss distributed with this file.
+ *
+ * ***************************************************************************
+ */
+package org.zenoss.app.metricservice.buckets;
+
+import org.zenoss.app.metricservice.api.impl.IHasShortcut;
+
+import java.util.Arrays;
+
+/**
+ * The interpolated values of one series, computed without modifying the
+ * buckets so that several series can be interpolated concurrently.
+ */
+public final class InterpolatedSeries {
+    private final IHasShortcut key;
+    private long[] timestamps = new long[16];
+    private double[] values = new double[16];
+    private int size = 0;
+
+    public InterpolatedSeries(IHasShortcut key) {
+        this.key = key;
+    }
+
+    void add(long timestamp, double value) {
+        if (size == timestamps.length) {
+            timestamps = Arrays.copyOf(timestamps, size * 2);
+            values = Arrays.copyOf(values, size * 2);
+        }
+        timestamps[size] = timestamp;
+        values[size] = value;
+        size++;
+    }
+
+    public int size() {
+        return size;
+    }
+
+    /**
+     * Adds the values to the buckets with
+     * {@link Buckets#addInterpolated(IHasShortcut, long, double)}
+     */
+    public void applyTo(Buckets<IHasShortcut> buckets) {
+        for (int i = 0; i < size; i++) {
+            buckets.addInterpolated(key, timestamps[i], values[i]);
+        }
+    }
+}
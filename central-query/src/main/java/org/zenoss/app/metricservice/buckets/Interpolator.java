@@ -52,4 +52,15 @@ public interface Interpolator {
      * @see Buckets
      */
     public void interpolate(Buckets<IHasShortcut> buckets, Collection<IHasShortcut> keys);
+
+    /**
+     * Computes the interpolated values of a single series without modifying the Buckets structure, so that any
+     * number of series can be computed concurrently while nothing else modifies it. Applying the result has the
+     * same effect as interpolate() for that series.
+     *
+     * @param buckets - the data to be interpolated.
+     * @param key - the series to interpolate.
+     * @return the interpolated values, to be applied with InterpolatedSeries.applyTo().
+     */
+    public InterpolatedSeries interpolateSeries(Buckets<IHasShortcut> buckets, IHasShortcut key);
 }
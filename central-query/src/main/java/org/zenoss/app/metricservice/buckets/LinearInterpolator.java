@@ -56,21 +56,28 @@ public class LinearInterpolator implements Interpolator {
          */
 
         for (IHasShortcut key : keys) {
-            accumulators.add(new SeriesInterpolatingAccumulator(buckets, key));
+            accumulators.add(new SeriesInterpolatingAccumulator(buckets, key, null));
         }
 
-        //Go through the buckets (which should be in timestamp order) and look at each one
-        Map<Long, Buckets<IHasShortcut>.Bucket> bucketList = buckets.getBucketList();
-        for (Map.Entry<Long, Buckets<IHasShortcut>.Bucket> bucketEntry : bucketList.entrySet()) {
-            Buckets<IHasShortcut>.Bucket bucket = bucketEntry.getValue();
-            Long timestamp = bucketEntry.getKey();
+        //Go through the buckets in timestamp order and look at each one
+        for (long timestamp : buckets.getOrderedTimestamps()) {
             // for each series we're interpolating, let the accumulator decide what needs to be done for this point
             for (SeriesInterpolatingAccumulator accumulator : accumulators) {
-                accumulator.accumulate(timestamp, bucket);
+                accumulator.accumulate(timestamp);
             }
         }
     }
 
+    @Override
+    public InterpolatedSeries interpolateSeries(Buckets<IHasShortcut> buckets, IHasShortcut key) {
+        InterpolatedSeries result = new InterpolatedSeries(key);
+        SeriesInterpolatingAccumulator accumulator = new SeriesInterpolatingAccumulator(buckets, key, result);
+        for (long timestamp : buckets.getOrderedTimestamps()) {
+            accumulator.accumulate(timestamp);
+        }
+        return result;
+    }
+
     /**
      * This class keeps track of what we've seen for a particular series.
      * The accumulate method is designed to be called on datapoints in order.
@@ -78,13 +85,21 @@ public class LinearInterpolator implements Interpolator {
     static class SeriesInterpolatingAccumulator {
         private final IHasShortcut key;
         private final Buckets<IHasShortcut> buckets;
-        private Long timestampForLastBucketWithValue = null;
-        private Buckets<IHasShortcut>.Bucket lastBucketWithValue = null;
+        private boolean seenValue = false;
+        private long timestampForLastBucketWithValue;
+        private double lastValue;
         private final List<Long> timestampsNeedingInterpolation = new ArrayList<>();
 
-        private SeriesInterpolatingAccumulator(Buckets<IHasShortcut> buckets, IHasShortcut key) {
+        /**
+         * Where interpolated values are collected instead of being added to
+         * the buckets, if given
+         */
+        private final InterpolatedSeries collected;
+
+        private SeriesInterpolatingAccumulator(Buckets<IHasShortcut> buckets, IHasShortcut key, InterpolatedSeries collected) {
             this.key = key;
             this.buckets = buckets;
+            this.collected = collected;
         }
 
         /**
@@ -94,42 +109,47 @@ public class LinearInterpolator implements Interpolator {
          * any pending interpolation is done (if a point has previously been encountered for the series), and the
          * 'last endountered' point is updated to the new one.
          *
-         * @param timestamp  The timestamp associated with the bucket being passed in
-         * @param bucket The bucket that goes with the timestamp. It may or may not have a value for the series.
+         * @param timestamp  The timestamp of the bucket being visited. It may or may not have a value for the series.
          */
-        public void accumulate(Long timestamp, Buckets<IHasShortcut>.Bucket bucket) {
-            if (!bucket.hasValue(key)) {
+        public void accumulate(long timestamp) {
+            if (!buckets.hasValue(key, timestamp)) {
                 // no value - if we haven't seen any values yet, keep going.
-                if (null != lastBucketWithValue) {
+                if (seenValue) {
                     // we have seen a value before, so add this one to the list of pending values.
                     timestampsNeedingInterpolation.add(timestamp);
                 }
             } else {
+                double value = buckets.getValue(key, timestamp);
                 // Found a value. Interpolate if we can
-                if (null != lastBucketWithValue && timestampsNeedingInterpolation.size() > 0) {
+                if (seenValue && timestampsNeedingInterpolation.size() > 0) {
                     // there are pending values, so interpolate
-                    interpolateValues(timestamp, bucket);
+                    interpolateValues(timestamp, value);
                 }
                 // update last values
-                lastBucketWithValue = bucket;
+                seenValue = true;
+                lastValue = value;
                 timestampForLastBucketWithValue = timestamp;
             }
         }
 
-        private void interpolateValues(Long timestamp, Buckets<IHasShortcut>.Bucket bucket) {
+        private void interpolateValues(long timestamp, double value) {
             // if (x0, y0) is first point and (x1, y1) is last, and interpolated point is (x,y)
             // the formula looks like this:
             // y = y0 + ((x-x0) (y1-y0) / (x1 - x0)) , or y = y0 + (x-x0) * deltaY / deltaX
             long x0 = timestampForLastBucketWithValue;
             long x1 = timestamp;
-            double y0 = lastBucketWithValue.getValue(key).getValue();
-            double y1 = bucket.getValue(key).getValue();
+            double y0 = lastValue;
+            double y1 = value;
             long deltaX = x1 - x0;
             double deltaY = y1 - y0;
 
             for (long x : timestampsNeedingInterpolation) {
                 double y = y0 + ((x - x0) * deltaY / deltaX);
-                buckets.addInterpolated(key, x, y);
+                if (null == collected) {
+                    buckets.addInterpolated(key, x, y);
+                } else {
+                    collected.add(x, y);
+                }
             }
             timestampsNeedingInterpolation.clear();
         }
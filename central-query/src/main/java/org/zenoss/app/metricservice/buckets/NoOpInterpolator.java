@@ -38,4 +38,9 @@ public class NoOpInterpolator implements Interpolator {
     public void interpolate(Buckets<IHasShortcut> buckets, Collection<IHasShortcut> keys) {
         // intentional no-op.
     }
+
+    @Override
+    public InterpolatedSeries interpolateSeries(Buckets<IHasShortcut> buckets, IHasShortcut key) {
+        return new InterpolatedSeries(key);
+    }
 }
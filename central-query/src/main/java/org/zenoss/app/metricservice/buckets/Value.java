@@ -52,6 +52,20 @@ public final class Value {
 
     private boolean hasInterpolated = false;
 
+    public Value() {
+    }
+
+    /**
+     * Creates a value holding the given state. Used to hand out values for
+     * buckets that keep their state in columns rather than in value objects.
+     */
+    Value(double sum, long count, double interpolated, boolean hasInterpolated) {
+        this.sum = sum;
+        this.count = count;
+        this.interpolated = interpolated;
+        this.hasInterpolated = hasInterpolated;
+    }
+
     /**
      * The average of the values added into the value
      * 
@@ -96,6 +110,19 @@ public final class Value {
         count++;
     }
 
+    /**
+     * Add the sum and count of several numbers at once
+     *
+     * @param sum
+     *            the sum of the numbers
+     * @param count
+     *            how many numbers were summed
+     */
+    public final void add(final double sum, final long count) {
+        this.sum += sum;
+        this.count += count;
+    }
+
     /**
      * Add an interpolated value to the object.
      *
@@ -66,6 +66,17 @@ public abstract class BaseMetricCalculator implements MetricCalculator {
         return expression;
     }
 
+    /*
+     * (non-Javadoc)
+     * 
+     * @see
+     * org.zenoss.app.metricservice.calculators.MetricCalculator#validate()
+     */
+    @Override
+    public void validate() throws BadExpressionException {
+        // Nothing can be checked without a language specific implementation
+    }
+
     /**
      * @return the referenceProvider
      */
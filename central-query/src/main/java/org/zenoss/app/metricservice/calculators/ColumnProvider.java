@@ -0,0 +1,24 @@
+/*
+* © Zenoss, Inc. 2026, all rights reserved.
+*  Use is subject to terms as shown in the License.zenoss file.
+*/
+
+package org.zenoss.app.metricservice.calculators;
+
+/**
+ * Supplies the values of references for a whole series at once, the column
+ * counterpart of {@link ReferenceProvider} and {@link Closure}.
+ */
+public interface ColumnProvider {
+
+    /**
+     * Returns the values of a reference, one per row being evaluated. The
+     * calculator does not modify the array.
+     *
+     * @param name the reference
+     * @return at least as many values as there are rows
+     * @throws UnknownReferenceException if the reference is not known for
+     *                                   the series
+     */
+    double[] lookup(String name) throws UnknownReferenceException;
+}
@@ -30,9 +30,20 @@
  */
 package org.zenoss.app.metricservice.calculators;
 
+import org.zenoss.app.metricservice.buckets.Value;
+
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.Set;
+
 /**
  * Interface to be implemented by all expression calculators. This interfaces
  * defines the methods required to execute expressions on performance metrics.
+ * <p/>
+ * The methods evaluating whole series have defaults, so that calculators
+ * written against the per-value methods alone still load; they are then
+ * evaluated a value at a time.
  */
 public interface MetricCalculator {
 
@@ -54,6 +65,38 @@ public interface MetricCalculator {
      */
     String getExpression();
 
+    /**
+     * Checks the stored expression once, before it is evaluated for every
+     * value, as far as that is possible without the values.
+     * 
+     * @throws BadExpressionException
+     *             if the expression can never be evaluated on its own
+     */
+    default void validate() throws BadExpressionException {
+    }
+
+    /**
+     * Returns the names the stored expression references, which must be
+     * calculated first if they are calculated values themselves.
+     * 
+     * @return the referenced names; none by default, so the calculation is
+     *         not ordered after others
+     */
+    default Set<String> getReferences() {
+        return Collections.emptySet();
+    }
+
+    /**
+     * Announces the subexpressions of the stored expression to the columns
+     * shared by the calculations of a request, before any of them is
+     * evaluated with {@link #evaluate(int, ColumnProvider)}.
+     * 
+     * @param shared
+     *            the columns shared by the calculations of the request
+     */
+    default void prepare(SharedColumns shared) {
+    }
+
     /**
      * Evaluate the given expression using the given value as an initial value
      * into that expression. i.e. in the case of an RPN evaluator the value
@@ -104,4 +147,59 @@ public interface MetricCalculator {
     public double evaluate(Closure closure) throws UnknownReferenceException, BadExpressionException;
 
     public double evaluate() throws UnknownReferenceException, BadExpressionException;
+
+    /**
+     * Evaluate the saved expression for every row of a series at once. The
+     * references are looked up once as whole columns, rather than for every
+     * value.
+     * 
+     * @param rows
+     *            the number of values to calculate
+     * @param columns
+     *            the values of the references, which may be
+     *            {@link SharedColumns}
+     * @return the result for every row. By default every row is evaluated
+     *         on its own with {@link #evaluate(Closure)}, through a closure
+     *         over the columns; a row whose references cannot be resolved is
+     *         NaN.
+     */
+    default double[] evaluate(int rows, final ColumnProvider columns)
+            throws UnknownReferenceException, BadExpressionException {
+        final double[] time = columns.lookup("time");
+        final Map<String, double[]> lookedUp = new HashMap<>();
+        double[] result = new double[rows];
+        for (int i = 0; i < rows; i++) {
+            final int row = i;
+            Closure closure = new Closure() {
+                @Override
+                public long getTimeStamp() {
+                    return (long) time[row];
+                }
+
+                @Override
+                public Value getValueByShortcut(String name) {
+                    Value value = new Value();
+                    try {
+                        double[] column = lookedUp.get(name);
+                        if (null == column) {
+                            column = columns.lookup(name);
+                            lookedUp.put(name, column);
+                        }
+                        if (!Double.isNaN(column[row])) {
+                            value.add(column[row]);
+                        }
+                    } catch (UnknownReferenceException e) {
+                        return null;
+                    }
+                    return value;
+                }
+            };
+            try {
+                result[i] = evaluate(closure);
+            } catch (UnknownReferenceException e) {
+                result[i] = Double.NaN;
+            }
+        }
+        return result;
+    }
 }
@@ -33,6 +33,9 @@ package org.zenoss.app.metricservice.calculators;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+
 /**
  * Factory class to dynamically create instances of metric expression evaluation
  * engines based on a simplified URI specification. The URI specification is
@@ -59,6 +62,11 @@ public class MetricCalculatorFactory {
     public static final String CALCULATOR_PATH_PROPERTY = "org.zenoss.app.metricservice.calculator.path";
     public static final String DEFAULT_CALCULATOR_PATH = "org.zenoss.app.metricservice.calculators";
 
+    /**
+     * Implementation classes found, by search path and language
+     */
+    private static final ConcurrentMap<String, Class<? extends MetricCalculator>> classes = new ConcurrentHashMap<>();
+
     /**
      * Constructs an expression evaluator calculator based on the expression
      * given as the parameter.
@@ -76,13 +84,38 @@ public class MetricCalculatorFactory {
         throws ClassNotFoundException {
 
         String[] terms = expr.split(":", 2);
-        String[] paths = System.getProperty(CALCULATOR_PATH_PROPERTY,
-            DEFAULT_CALCULATOR_PATH).split(":");
+        String path = System.getProperty(CALCULATOR_PATH_PROPERTY,
+            DEFAULT_CALCULATOR_PATH);
+
+        // Reuse the class found for the language on the same search path
+        String key = path + '|' + terms[0];
+        MetricCalculator calc = null;
+        Class<? extends MetricCalculator> clazz = classes.get(key);
+        if (null != clazz) {
+            try {
+                calc = clazz.newInstance();
+            } catch (InstantiationException | IllegalAccessException e) {
+                log.debug("Cached expression evaluation implementation '{}' could not be instantiated.", clazz.getName(), e);
+                classes.remove(key, clazz);
+            }
+        }
+        if (null == calc) {
+            calc = find(path.split(":"), terms[0]);
+            classes.put(key, calc.getClass());
+        }
+        if (terms.length > 1) {
+            calc.setExpression(terms[1]);
+        }
+        return calc;
+    }
+
+    private static MetricCalculator find(String[] paths, String language)
+        throws ClassNotFoundException {
 
         // If we are in debug mode, log the search path
         if (log.isDebugEnabled()) {
             StringBuilder buf = new StringBuilder("Search for '");
-            buf.append(terms[0]);
+            buf.append(language);
             buf.append('.');
             buf.append("Calculator");
             buf.append("' in ");
@@ -105,7 +138,7 @@ public class MetricCalculatorFactory {
             classname.setLength(0);
             classname.append(path);
             classname.append('.');
-            classname.append(terms[0]);
+            classname.append(language);
             classname.append('.');
             classname.append("Calculator");
             try {
@@ -113,12 +146,9 @@ public class MetricCalculatorFactory {
                     classname.toString())
                     .asSubclass(MetricCalculator.class);
                 calc = clazz.newInstance();
-                if (terms.length > 1) {
-                    calc.setExpression(terms[1]);
-                }
                 log.debug(
                     "Found class '{}' to evaluate expressions of type '{}'",
-                    classname, terms[0]);
+                    classname, language);
                 return calc;
             } catch (InstantiationException | IllegalAccessException | ClassNotFoundException e) {
                 log.debug(
@@ -131,6 +161,6 @@ public class MetricCalculatorFactory {
         throw new ClassNotFoundException(
             String.format(
                 "Unable to find a class that implements the expression evaluation for type '%s'",
-                terms[0]));
+                language));
     }
 }
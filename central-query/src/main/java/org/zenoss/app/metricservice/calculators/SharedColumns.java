@@ -0,0 +1,125 @@
+/*
+* © Zenoss, Inc. 2026, all rights reserved.
+*  Use is subject to terms as shown in the License.zenoss file.
+*/
+
+package org.zenoss.app.metricservice.calculators;
+
+import java.util.Collection;
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.Map;
+
+/**
+ * Columns shared by the calculations of one request: every reference is
+ * looked up once, and the intermediate results of subexpressions that more
+ * than one calculation starts with are computed once.
+ * <p/>
+ * Calculators first announce their subexpressions through
+ * {@link MetricCalculator#prepare(SharedColumns)}; only those announced more
+ * than once are kept. Subexpressions are identified by keys chosen by the
+ * calculator, equal for subexpressions that compute the same thing. When the values of a reference change, because a
+ * calculated value was stored under its name, {@link #invalidate(String)}
+ * drops everything computed from it.
+ * <p/>
+ * Instances are used by one thread at a time.
+ */
+public class SharedColumns implements ColumnProvider {
+
+    private final ColumnProvider columns;
+    private final Map<String, double[]> lookedUp = new HashMap<>();
+    private final Map<Object, Integer> expected = new HashMap<>();
+    private final Map<Object, Result> results = new HashMap<>();
+    private long reused = 0;
+
+    public SharedColumns(ColumnProvider columns) {
+        this.columns = columns;
+    }
+
+    @Override
+    public double[] lookup(String name) throws UnknownReferenceException {
+        double[] column = lookedUp.get(name);
+        if (null == column) {
+            column = columns.lookup(name);
+            lookedUp.put(name, column);
+        }
+        return column;
+    }
+
+    /**
+     * Announces that a calculation will compute the subexpression
+     */
+    public void expect(Object subexpression) {
+        Integer count = expected.get(subexpression);
+        expected.put(subexpression, null == count ? 1 : count + 1);
+    }
+
+    /**
+     * @return whether more than one calculation computes the subexpression
+     */
+    public boolean isShared(Object subexpression) {
+        Integer count = expected.get(subexpression);
+        return null != count && count > 1;
+    }
+
+    /**
+     * Returns the intermediate result of a subexpression computed by an
+     * earlier calculation. The columns must not be modified.
+     *
+     * @return the result, or null if it has not been computed
+     */
+    public double[][] getResult(Object subexpression) {
+        Result result = results.get(subexpression);
+        if (null == result) {
+            return null;
+        }
+        reused++;
+        return result.columns;
+    }
+
+    /**
+     * @return whether the intermediate result of a subexpression is kept
+     */
+    public boolean hasResult(Object subexpression) {
+        return results.containsKey(subexpression);
+    }
+
+    /**
+     * Keeps the intermediate result of a shared subexpression
+     *
+     * @param columns    the result, which must not be modified afterwards
+     * @param references the references the result was computed from
+     */
+    public void putResult(Object subexpression, double[][] columns, Collection<String> references) {
+        results.put(subexpression, new Result(columns, references));
+    }
+
+    /**
+     * Drops the column of a reference and all results computed from it
+     */
+    public void invalidate(String name) {
+        lookedUp.remove(name);
+        for (Iterator<Result> it = results.values().iterator(); it.hasNext(); ) {
+            if (it.next().references.contains(name)) {
+                it.remove();
+            }
+        }
+    }
+
+    /**
+     * @return how many times a calculation reused an intermediate result
+     */
+    public long getReused() {
+        return reused;
+    }
+
+    private static final class Result {
+        private final double[][] columns;
+        private final Collection<String> references;
+
+        private Result(double[][] columns, Collection<String> references) {
+            this.columns = columns;
+            this.references = references;
+        }
+    }
+}
@@ -36,12 +36,15 @@ import org.slf4j.LoggerFactory;
 import org.zenoss.app.metricservice.calculators.BadExpressionException;
 import org.zenoss.app.metricservice.calculators.BaseMetricCalculator;
 import org.zenoss.app.metricservice.calculators.Closure;
+import org.zenoss.app.metricservice.calculators.ColumnProvider;
+import org.zenoss.app.metricservice.calculators.SharedColumns;
 import org.zenoss.app.metricservice.calculators.UnknownReferenceException;
 
 import java.util.ArrayList;
 import java.util.Arrays;
-import java.util.Date;
+import java.util.HashSet;
 import java.util.List;
+import java.util.Set;
 
 /**
  * A RPN expression metric calculator.
@@ -49,10 +52,27 @@ import java.util.List;
 public class Calculator extends BaseMetricCalculator {
 
     private static final Logger log = LoggerFactory.getLogger(Calculator.class);
+
+    /**
+     * System property with the number of compiled expressions to keep
+     */
+    public static final String PROGRAM_CACHE_SIZE_PROPERTY = "org.zenoss.app.metricservice.calculator.rpn.cacheSize";
+    public static final int DEFAULT_PROGRAM_CACHE_SIZE = 1024;
     /**
      * Maintains the stack used for RPN evaluation
      */
-    private List<Double> stack = new ArrayList<>();
+    private double[] stack = new double[16];
+    private int size = 0;
+
+    /**
+     * The most recently compiled expression
+     */
+    private Program program;
+
+    /**
+     * Column stack for evaluating whole series, created when first needed
+     */
+    private ColumnEvaluator columnEvaluator;
 
     /**
      * push the given value on to the top of the evaluation stack
@@ -60,8 +80,11 @@ public class Calculator extends BaseMetricCalculator {
      * @param value
      *            value to push onto the stack
      */
-    public void push(Double value) {
-        stack.add(value);
+    public void push(double value) {
+        if (size == stack.length) {
+            stack = Arrays.copyOf(stack, size * 2);
+        }
+        stack[size++] = value;
     }
 
     /**
@@ -69,8 +92,11 @@ public class Calculator extends BaseMetricCalculator {
      * 
      * @return the top entry of the evaluation stack
      */
-    public Double pop() {
-        return stack.remove(stack.size() - 1);
+    public double pop() {
+        if (size == 0) {
+            throw new IndexOutOfBoundsException("The stack is empty");
+        }
+        return stack[--size];
     }
 
     /**
@@ -78,8 +104,11 @@ public class Calculator extends BaseMetricCalculator {
      * 
      * @return the top entry of the evaluation stack
      */
-    public Double peek() {
-        return stack.get(stack.size() - 1);
+    public double peek() {
+        if (size == 0) {
+            throw new IndexOutOfBoundsException("The stack is empty");
+        }
+        return stack[size - 1];
     }
 
     /**
@@ -89,7 +118,7 @@ public class Calculator extends BaseMetricCalculator {
      * side and the second is considered the left hand side.
      */
     public void lt() {
-        Double r = pop(), l = pop();
+        double r = pop(), l = pop();
         push((double) (l < r ? 1 : 0));
     }
 
@@ -100,7 +129,7 @@ public class Calculator extends BaseMetricCalculator {
      * right hand side and the second is considered the left hand side.
      */
     public void le() {
-        Double r = pop(), l = pop();
+        double r = pop(), l = pop();
         push((double) (l <= r ? 1 : 0));
     }
 
@@ -111,7 +140,7 @@ public class Calculator extends BaseMetricCalculator {
      * side and the second is considered the left hand side.
      */
     public void gt() {
-        Double r = pop(), l = pop();
+        double r = pop(), l = pop();
         push((double) (l > r ? 1 : 0));
     }
 
@@ -122,7 +151,7 @@ public class Calculator extends BaseMetricCalculator {
      * the right hand side and the second is considered the left hand side.
      */
     public void ge() {
-        Double r = pop(), l = pop();
+        double r = pop(), l = pop();
         push((double) (l >= r ? 1 : 0));
     }
 
@@ -133,7 +162,7 @@ public class Calculator extends BaseMetricCalculator {
      * side and the second is considered the left hand side.
      */
     public void eq() {
-        push((double) (pop().equals(pop()) ? 1 : 0));
+        push((double) (same(pop(), pop()) ? 1 : 0));
     }
 
     /**
@@ -143,7 +172,15 @@ public class Calculator extends BaseMetricCalculator {
      * side and the second is considered the left hand side.
      */
     public void ne() {
-        push((double) (!pop().equals(pop()) ? 1 : 0));
+        push((double) (!same(pop(), pop()) ? 1 : 0));
+    }
+
+    /**
+     * Compares the way {@link Double#equals(Object)} does, so NaN equals NaN
+     * and 0.0 does not equal -0.0
+     */
+    private static boolean same(double a, double b) {
+        return Double.doubleToLongBits(a) == Double.doubleToLongBits(b);
     }
 
     /**
@@ -169,7 +206,7 @@ public class Calculator extends BaseMetricCalculator {
      *    Example: A,B,C,IF should be read as if (A) then (B) else (C)
      */
     public void ifte() {
-        Double c = pop(), b = pop(), a = pop();
+        double c = pop(), b = pop(), a = pop();
         push(a != 0.0 ? b : c);
     }
 
@@ -196,9 +233,9 @@ public class Calculator extends BaseMetricCalculator {
      * range it is pushed back on the stack.
      */
     public void limit() {
-        Double b1 = pop(), b2 = pop(), val = pop();
-        Double lower = Math.min(b1, b2);
-        Double upper = Math.max(b1, b2);
+        double b1 = pop(), b2 = pop(), val = pop();
+        double lower = Math.min(b1, b2);
+        double upper = Math.max(b1, b2);
 
         if (val < lower || val > upper) {
             push(Double.NaN);
@@ -222,7 +259,7 @@ public class Calculator extends BaseMetricCalculator {
      * value of 0 in the addition.
      */
     public void addnan() {
-        Double r = pop(), l = pop();
+        double r = pop(), l = pop();
         if (Double.isNaN(r) && Double.isNaN(l)) {
             push(Double.NaN);
         } else if (Double.isNaN(r)) {
@@ -239,7 +276,7 @@ public class Calculator extends BaseMetricCalculator {
      * second and pushes the result back on the stack.
      */
     public void subtract() {
-        Double r = pop(), l = pop();
+        double r = pop(), l = pop();
         push(l - r);
     }
 
@@ -256,7 +293,7 @@ public class Calculator extends BaseMetricCalculator {
      * pushes the result onto the stack.
      */
     public void divide() {
-        Double r = pop(), l = pop();
+        double r = pop(), l = pop();
         push(l / r);
     }
 
@@ -265,7 +302,7 @@ public class Calculator extends BaseMetricCalculator {
      * first and pushes the result onto the stack.
      */
     public void modulo() {
-        Double r = pop(), l = pop();
+        double r = pop(), l = pop();
         push(l % r);
     }
 
@@ -312,7 +349,7 @@ public class Calculator extends BaseMetricCalculator {
      * calculation is done in radians.
      */
     public void atan2() {
-        Double x = pop(), y = pop();
+        double x = pop(), y = pop();
         push(Math.atan2(y, x));
     }
 
@@ -386,15 +423,8 @@ public class Calculator extends BaseMetricCalculator {
      * back on the stack in ascending order.
      */
     public void sort() {
-        int count = (int) Math.floor(pop());
-        double[] list = new double[count];
-        for (int i = 0; i < count; ++i) {
-            list[i] = pop();
-        }
-        Arrays.sort(list);
-        for (int i = 0; i < count; ++i) {
-            push(list[i]);
-        }
+        int count = count();
+        Arrays.sort(stack, size - count, size);
     }
 
     /**
@@ -403,14 +433,23 @@ public class Calculator extends BaseMetricCalculator {
      * stack in reverse order.
      */
     public void rev() {
-        int count = (int) Math.floor(pop());
-        double[] list = new double[count];
-        for (int i = 0; i < count; ++i) {
-            list[i] = pop();
+        int count = count();
+        for (int i = size - count, j = size - 1; i < j; i++, j--) {
+            double swap = stack[i];
+            stack[i] = stack[j];
+            stack[j] = swap;
         }
-        for (int i = 0; i < count; ++i) {
-            push(list[i]);
+    }
+
+    /**
+     * Pops the count of a sort or rev, which operate on the values in place
+     */
+    private int count() {
+        int count = (int) Math.floor(pop());
+        if (count < 0 || count > size) {
+            throw new IndexOutOfBoundsException(String.format("Cannot take %d values from a stack of %d", count, size));
         }
+        return count;
     }
 
     /**
@@ -461,14 +500,14 @@ public class Calculator extends BaseMetricCalculator {
      * the stack.
      */
     public void now() {
-        push(Math.floor(new Date().getTime() / 1000l));
+        push(Math.floor(System.currentTimeMillis() / 1000l));
     }
 
     /**
      * Swaps the first two values on the stack.
      */
     public void exchange() {
-        Double a = pop(), b = pop();
+        double a = pop(), b = pop();
         push(a);
         push(b);
     }
@@ -479,8 +518,10 @@ public class Calculator extends BaseMetricCalculator {
      * @return a copy of the current stack.
      */
     public List<Double> getStack() {
-        List<Double> copy = new ArrayList<>();
-        copy.addAll(stack);
+        List<Double> copy = new ArrayList<>(size);
+        for (int i = 0; i < size; i++) {
+            copy.add(stack[i]);
+        }
         return copy;
     }
 
@@ -488,7 +529,58 @@ public class Calculator extends BaseMetricCalculator {
      * Clears the current stack.
      */
     public void clear() {
-        stack.clear();
+        size = 0;
+    }
+
+    @Override
+    public Set<String> getReferences() {
+        Set<String> result = new HashSet<>();
+        if (null != getExpression()) {
+            Program compiled = compile(getExpression());
+            for (int slot = 0; slot < compiled.referenceCount(); slot++) {
+                result.add(compiled.referenceName(slot));
+            }
+        }
+        return result;
+    }
+
+    /**
+     * Announces every prefix of the saved expression, so that prefixes
+     * common to several expressions are evaluated once. Expressions using
+     * sort, rev or avg are evaluated a row at a time and do not take part.
+     */
+    @Override
+    public void prepare(SharedColumns shared) {
+        if (null == getExpression()) {
+            return;
+        }
+        Program compiled = compile(getExpression());
+        if (!compiled.hasCountedOperators()) {
+            for (int pc = 0; pc < compiled.length(); pc++) {
+                shared.expect(compiled.prefix(pc));
+            }
+        }
+    }
+
+    /**
+     * Compiles the expression up front, so that evaluating it does not parse
+     * it again.
+     */
+    @Override
+    public void setExpression(String newExpression) {
+        super.setExpression(newExpression);
+        program = null == newExpression ? null : Program.compile(newExpression);
+    }
+
+    /**
+     * Checks that the saved expression does not run out of values when
+     * evaluated on its own.
+     */
+    @Override
+    public void validate() throws RPNException {
+        if (null != getExpression()) {
+            compile(getExpression()).verify(0);
+        }
     }
 
     /*
@@ -502,7 +594,7 @@ public class Calculator extends BaseMetricCalculator {
     public double evaluate(String expression, Closure closure)
             throws UnknownReferenceException, BadExpressionException {
         clear();
-        return doEvaluate(expression, closure);
+        return run(compile(expression), closure);
     }
 
     /*
@@ -517,7 +609,7 @@ public class Calculator extends BaseMetricCalculator {
             throws UnknownReferenceException, BadExpressionException {
         clear();
         push(value);
-        return doEvaluate(getExpression(), closure);
+        return run(compile(getExpression()), closure);
     }
 
     /*
@@ -530,7 +622,7 @@ public class Calculator extends BaseMetricCalculator {
     @Override
     public double evaluate(Closure closure) throws UnknownReferenceException, BadExpressionException {
         clear();
-        return doEvaluate(getExpression(), closure);
+        return run(compile(getExpression()), closure);
     }
 
     /*
@@ -545,7 +637,7 @@ public class Calculator extends BaseMetricCalculator {
             throws UnknownReferenceException, RPNException {
         clear();
         push(value);
-        return doEvaluate(expression, closure);
+        return run(compile(expression), closure);
     }
 
     private void pushReference(String reference, Closure closure)
@@ -559,236 +651,213 @@ public class Calculator extends BaseMetricCalculator {
     }
 
     /**
-     * Evaluates the given expression based on the current state of the stack.
-     * The expression is assumed to be a comma separated list of terms in a
-     * format similar to that leveraged by RRDTool's RPN evaluation.
+     * Returns the compiled form of the expression, reusing the last one
+     * compiled when it is the same.
+     */
+    private Program compile(String expression) {
+        Program compiled = program;
+        if (null == compiled || !compiled.getExpression().equals(expression)) {
+            compiled = Program.compile(expression);
+            program = compiled;
+        }
+        return compiled;
+    }
+
+    /**
+     * Runs a compiled expression based on the current state of the stack.
+     */
+    private double run(Program program, Closure closure)
+            throws UnknownReferenceException, RPNException {
+        return run(program, closure, null, 0);
+    }
+
+    /**
+     * Runs a compiled expression based on the current state of the stack,
+     * taking the values of references either from the closure or, if given,
+     * from a row of the reference columns.
      * 
-     * @param expression
-     *            expression to evaluate
+     * @param program
+     *            the compiled expression to run
      * @return the value on the top of the stack at the end of the evaluation,
      *         the value is not removed from the stack.
      */
-    private double doEvaluate(String expression, Closure closure)
+    private double run(Program program, Closure closure, References references, int row)
             throws UnknownReferenceException, RPNException {
-        String[] terms = expression.split(",");
-        String term;
-        String ref;
+        if (size + program.maxGrowth() > stack.length) {
+            stack = Arrays.copyOf(stack, size + program.maxGrowth());
+        }
         try {
-            for (String term1 : terms) {
-                term = (ref = term1.trim()).toLowerCase();
-                if (term.length() == 0) {
-                    continue;
-                }
-                switch (term.charAt(0)) {
-                    case '+':
-                        if (term.length() == 1) {
-                            add();
-                        } else {
-                            try {
-                                push(Double.valueOf(term));
-                            } catch (NumberFormatException e) {
-                                log.debug("Term {} did not parse as number, treating as reference.", term);
-                                pushReference(ref, closure);
-                            }
-                        }
+            for (int pc = 0, length = program.length(); pc < length; pc++) {
+                switch (program.op(pc)) {
+                    case Program.CONSTANT:
+                        push(program.constant(pc));
                         break;
-                    case '-':
-                        if (term.length() == 1) {
-                            subtract();
+                    case Program.REFERENCE:
+                        if (null == references) {
+                            pushReference(program.reference(pc), closure);
                         } else {
-                            try {
-                                push(Double.valueOf(term));
-                            } catch (NumberFormatException e) {
-                                log.debug("Term {} did not parse as number, treating as reference.", term);
-                                pushReference(ref, closure);
-                            }
+                            push(references.column(pc)[row]);
                         }
                         break;
-                    case '/':
-                        if (term.length() == 1) {
-                            divide();
-                        } else {
-                            pushReference(ref, closure);
-                        }
+                    case Program.ADD:
+                        add();
                         break;
-                    case '*':
-                        if (term.length() == 1) {
-                            multiply();
-                        } else {
-                            pushReference(ref, closure);
-                        }
+                    case Program.SUBTRACT:
+                        subtract();
                         break;
-                    case '%':
-                        if (term.length() == 1) {
-                            modulo();
-                        } else {
-                            pushReference(ref, closure);
-                        }
+                    case Program.MULTIPLY:
+                        multiply();
                         break;
-                    case 'a':
-                        if ("avg".equals(term)) {
-                            avg();
-                        } else if ("abs".equals(term)) {
-                            abs();
-                        } else if ("atan".equals(term)) {
-                            atan();
-                        } else if ("atan2".equals(term)) {
-                            atan2();
-                        } else if ("addnan".equals(term)) {
-                            addnan();
-                        } else {
-                            pushReference(ref, closure);
-                        }
+                    case Program.DIVIDE:
+                        divide();
                         break;
-                    case 'c':
-                        if ("cos".equals(term)) {
-                            cos();
-                        } else if ("ceil".equals(term)) {
-                            ceil();
-                        } else {
-                            pushReference(ref, closure);
-                        }
+                    case Program.MODULO:
+                        modulo();
                         break;
-                    case 'd':
-                        if ("dup".equals(term)) {
-                            duplicate();
-                        } else if ("deg2rad".equals(term)) {
-                            deg2rad();
-                        } else {
-                            pushReference(ref, closure);
-                        }
+                    case Program.AVG:
+                        avg();
                         break;
-                    case 'e':
-                        if ("exc".equals(term)) {
-                            exchange();
-                        } else if ("exp".equals(term)) {
-                            exp();
-                        } else if ("eq".equals(term)) {
-                            eq();
-                        } else {
-                            pushReference(ref, closure);
-                        }
+                    case Program.ABS:
+                        abs();
                         break;
-                    case 'f':
-                        if ("floor".equals(term)) {
-                            floor();
-                        } else {
-                            pushReference(ref, closure);
-                        }
+                    case Program.ATAN:
+                        atan();
                         break;
-                    case 'g':
-                        if ("gt".equals(term)) {
-                            gt();
-                        } else if ("ge".equals(term)) {
-                            ge();
-                        } else {
-                            pushReference(ref, closure);
-                        }
+                    case Program.ATAN2:
+                        atan2();
                         break;
-                    case 'i':
-                        if ("if".equals(term)) {
-                            ifte();
-                        } else if ("isinf".equals(term)) {
-                            isInfinity();
-                        } else if ("isunkn".equals(term)) {
-                            isInfinity();
-                        } else if ("inf".equals(term)) {
-                            infinity();
-                        } else {
-                            pushReference(ref, closure);
-                        }
+                    case Program.ADDNAN:
+                        addnan();
                         break;
-                    case 'l':
-                        if ("limit".equals(term)) {
-                            limit();
-                        } else if ("log".equals(term)) {
-                            log();
-                        } else if ("lt".equals(term)) {
-                            lt();
-                        } else if ("le".equals(term)) {
-                            le();
-                        } else {
-                            pushReference(ref, closure);
-                        }
+                    case Program.COS:
+                        cos();
                         break;
-                    case 'm':
-                        if ("min".equals(term)) {
-                            min();
-                        } else if ("max".equals(term)) {
-                            max();
-                        } else {
-                            pushReference(ref, closure);
-                        }
+                    case Program.CEIL:
+                        ceil();
                         break;
-                    case 'n':
-                        if ("neginf".equals(term)) {
-                            negInfinity();
-                        } else if ("now".equals(term)) {
-                            now();
-                        } else if ("ne".equals(term)) {
-                            ne();
-                        } else {
-                            pushReference(ref, closure);
-                        }
+                    case Program.DUP:
+                        duplicate();
                         break;
-                    case 'r':
-                        if ("rev".equals(term)) {
-                            rev();
-                        } else if ("rad2deg".equals(term)) {
-                            rad2deg();
-                        } else {
-                            pushReference(ref, closure);
-                        }
+                    case Program.DEG2RAD:
+                        deg2rad();
                         break;
-                    case 's':
-                        if ("sqrt".equals(term)) {
-                            sqrt();
-                        } else if ("sort".equals(term)) {
-                            sort();
-                        } else if ("sin".equals(term)) {
-                            sin();
-                        } else {
-                            pushReference(ref, closure);
-                        }
+                    case Program.EXC:
+                        exchange();
                         break;
-                    case 't':
-                        if ("tan".equals(term)) {
-                            tan();
-                        } else {
-                            pushReference(ref, closure);
-                        }
+                    case Program.EXP:
+                        exp();
                         break;
-                    case 'u':
-                        if ("unkn".equals(term)) {
-                            unknown();
-                        } else if ("un".equals(term)) {
-                            isUnknown();
-                        } else {
-                            pushReference(ref, closure);
-                        }
+                    case Program.EQ:
+                        eq();
                         break;
-                    default:
-                        if (Character.isDigit(term.charAt(0))) {
-                            try {
-                                push(Double.valueOf(term));
-                            } catch (NumberFormatException e) {
-                                log.debug("Term {} did not parse as number, treating as reference.", term);
-                                pushReference(ref, closure);
-                            }
-                        }
-                        if (Character.isLetter(term.charAt(0))) {
-                            pushReference(ref, closure);
-                        }
+                    case Program.FLOOR:
+                        floor();
+                        break;
+                    case Program.GT:
+                        gt();
+                        break;
+                    case Program.GE:
+                        ge();
+                        break;
+                    case Program.IF:
+                        ifte();
+                        break;
+                    case Program.ISINF:
+                        isInfinity();
+                        break;
+                    case Program.INF:
+                        infinity();
+                        break;
+                    case Program.LIMIT:
+                        limit();
+                        break;
+                    case Program.LOG:
+                        log();
+                        break;
+                    case Program.LT:
+                        lt();
+                        break;
+                    case Program.LE:
+                        le();
+                        break;
+                    case Program.MIN:
+                        min();
+                        break;
+                    case Program.MAX:
+                        max();
+                        break;
+                    case Program.NEGINF:
+                        negInfinity();
+                        break;
+                    case Program.NOW:
+                        now();
+                        break;
+                    case Program.NE:
+                        ne();
+                        break;
+                    case Program.REV:
+                        rev();
+                        break;
+                    case Program.RAD2DEG:
+                        rad2deg();
                         break;
+                    case Program.SQRT:
+                        sqrt();
+                        break;
+                    case Program.SORT:
+                        sort();
+                        break;
+                    case Program.SIN:
+                        sin();
+                        break;
+                    case Program.TAN:
+                        tan();
+                        break;
+                    case Program.UNKN:
+                        unknown();
+                        break;
+                    case Program.UN:
+                        isUnknown();
+                        break;
+                    default:
+                        throw new IllegalStateException("Unknown opcode " + program.op(pc));
                 }
             }
         } catch (IndexOutOfBoundsException e) {
-            log.error(String.format("Unable to apply expression %s", expression));
-            throw new RPNException(expression, e);
+            log.error(String.format("Unable to apply expression %s", program.getExpression()));
+            throw new RPNException(program.getExpression(), e);
         }
         return peek();
     }
 
+    /**
+     * Evaluates the saved expression for all rows at once. Expressions using
+     * sort, rev or avg, whose stack depth depends on the values, are still
+     * run one row at a time, but without looking up references per row.
+     */
+    @Override
+    public double[] evaluate(int rows, ColumnProvider columns)
+            throws UnknownReferenceException, BadExpressionException {
+        Program compiled = compile(getExpression());
+        if (rows == 0) {
+            return new double[0];
+        }
+        References references = new References(compiled, columns, rows);
+        if (!compiled.hasCountedOperators()) {
+            if (null == columnEvaluator) {
+                columnEvaluator = new ColumnEvaluator();
+            }
+            return columnEvaluator.evaluate(compiled, rows, references,
+                    columns instanceof SharedColumns ? (SharedColumns) columns : null);
+        }
+        double[] result = new double[rows];
+        for (int row = 0; row < rows; row++) {
+            clear();
+            result[row] = run(compiled, null, references, row);
+        }
+        return result;
+    }
+
     /*
      * (non-Javadoc)
      * 
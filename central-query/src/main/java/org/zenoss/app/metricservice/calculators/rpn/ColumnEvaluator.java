@@ -0,0 +1,315 @@
+/*
+* © Zenoss, Inc. 2026, all rights reserved.
+*  Use is subject to terms as shown in the License.zenoss file.
+*/
+
+package org.zenoss.app.metricservice.calculators.rpn;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.zenoss.app.metricservice.calculators.SharedColumns;
+import org.zenoss.app.metricservice.calculators.UnknownReferenceException;
+
+import java.util.Arrays;
+
+/**
+ * Runs a program over whole columns: every instruction is applied to all
+ * rows in one simple counted loop over primitive arrays before moving on to
+ * the next, which the JIT compiles to tight, mostly vectorized code.
+ * <p/>
+ * Only programs whose stack depth does not depend on the values can run this
+ * way, i.e. those without sort, rev or avg. Each operator computes exactly
+ * what the matching method of {@link Calculator} does for a single value.
+ */
+final class ColumnEvaluator {
+
+    private static final Logger log = LoggerFactory.getLogger(ColumnEvaluator.class);
+
+    /**
+     * The stack of columns. Every slot owns its array, which is reused from
+     * one evaluation to the next.
+     */
+    private double[][] stack = new double[0][];
+    private int capacity = 0;
+
+    /**
+     * @param shared the columns shared with other calculations, if any. The
+     *               evaluation resumes from the longest shared prefix
+     *               computed before, and keeps the shared prefixes it
+     *               computes itself.
+     */
+    double[] evaluate(Program program, int rows, References references, SharedColumns shared)
+            throws UnknownReferenceException, RPNException {
+        reserve(Math.max(1, program.maxGrowth()), rows);
+        double[][] stack = this.stack;
+        int sp = 0;
+        int start = 0;
+        if (null != shared) {
+            for (int pc = program.length() - 1; pc >= 0; pc--) {
+                double[][] result = shared.getResult(program.prefix(pc));
+                if (null != result) {
+                    for (sp = 0; sp < result.length; sp++) {
+                        System.arraycopy(result[sp], 0, stack[sp], 0, rows);
+                    }
+                    start = pc + 1;
+                    break;
+                }
+            }
+        }
+        for (int pc = start, length = program.length(); pc < length; pc++) {
+            if (sp < program.pops(pc)) {
+                log.error(String.format("Unable to apply expression %s", program.getExpression()));
+                throw new RPNException(program.getExpression(), new IndexOutOfBoundsException(
+                        String.format("Term %d of the expression needs more values than are on the stack", pc + 1)));
+            }
+            double[] r = sp > 0 ? stack[sp - 1] : null;
+            double[] l = sp > 1 ? stack[sp - 2] : null;
+            switch (program.op(pc)) {
+                case Program.CONSTANT:
+                    Arrays.fill(stack[sp++], 0, rows, program.constant(pc));
+                    break;
+                case Program.REFERENCE:
+                    System.arraycopy(references.column(pc), 0, stack[sp++], 0, rows);
+                    break;
+                case Program.INF:
+                    Arrays.fill(stack[sp++], 0, rows, Double.POSITIVE_INFINITY);
+                    break;
+                case Program.NEGINF:
+                    Arrays.fill(stack[sp++], 0, rows, Double.NEGATIVE_INFINITY);
+                    break;
+                case Program.UNKN:
+                    Arrays.fill(stack[sp++], 0, rows, Double.NaN);
+                    break;
+                case Program.NOW:
+                    Arrays.fill(stack[sp++], 0, rows, Math.floor(System.currentTimeMillis() / 1000l));
+                    break;
+                case Program.DUP:
+                    System.arraycopy(r, 0, stack[sp++], 0, rows);
+                    break;
+                case Program.EXC:
+                    stack[sp - 1] = l;
+                    stack[sp - 2] = r;
+                    break;
+                case Program.ADD:
+                    for (int i = 0; i < rows; i++) {
+                        l[i] = r[i] + l[i];
+                    }
+                    sp--;
+                    break;
+                case Program.SUBTRACT:
+                    for (int i = 0; i < rows; i++) {
+                        l[i] = l[i] - r[i];
+                    }
+                    sp--;
+                    break;
+                case Program.MULTIPLY:
+                    for (int i = 0; i < rows; i++) {
+                        l[i] = r[i] * l[i];
+                    }
+                    sp--;
+                    break;
+                case Program.DIVIDE:
+                    for (int i = 0; i < rows; i++) {
+                        l[i] = l[i] / r[i];
+                    }
+                    sp--;
+                    break;
+                case Program.MODULO:
+                    for (int i = 0; i < rows; i++) {
+                        l[i] = l[i] % r[i];
+                    }
+                    sp--;
+                    break;
+                case Program.ADDNAN:
+                    for (int i = 0; i < rows; i++) {
+                        double a = l[i], b = r[i];
+                        if (Double.isNaN(b) && Double.isNaN(a)) {
+                            l[i] = Double.NaN;
+                        } else if (Double.isNaN(b)) {
+                            l[i] = a + 0.0;
+                        } else if (Double.isNaN(a)) {
+                            l[i] = 0.0 + b;
+                        } else {
+                            l[i] = a + b;
+                        }
+                    }
+                    sp--;
+                    break;
+                case Program.MIN:
+                    for (int i = 0; i < rows; i++) {
+                        l[i] = Math.min(r[i], l[i]);
+                    }
+                    sp--;
+                    break;
+                case Program.MAX:
+                    for (int i = 0; i < rows; i++) {
+                        l[i] = Math.max(r[i], l[i]);
+                    }
+                    sp--;
+                    break;
+                case Program.ATAN2:
+                    for (int i = 0; i < rows; i++) {
+                        l[i] = Math.atan2(l[i], r[i]);
+                    }
+                    sp--;
+                    break;
+                case Program.LT:
+                    for (int i = 0; i < rows; i++) {
+                        l[i] = l[i] < r[i] ? 1 : 0;
+                    }
+                    sp--;
+                    break;
+                case Program.LE:
+                    for (int i = 0; i < rows; i++) {
+                        l[i] = l[i] <= r[i] ? 1 : 0;
+                    }
+                    sp--;
+                    break;
+                case Program.GT:
+                    for (int i = 0; i < rows; i++) {
+                        l[i] = l[i] > r[i] ? 1 : 0;
+                    }
+                    sp--;
+                    break;
+                case Program.GE:
+                    for (int i = 0; i < rows; i++) {
+                        l[i] = l[i] >= r[i] ? 1 : 0;
+                    }
+                    sp--;
+                    break;
+                case Program.EQ:
+                    for (int i = 0; i < rows; i++) {
+                        l[i] = Double.doubleToLongBits(r[i]) == Double.doubleToLongBits(l[i]) ? 1 : 0;
+                    }
+                    sp--;
+                    break;
+                case Program.NE:
+                    for (int i = 0; i < rows; i++) {
+                        l[i] = Double.doubleToLongBits(r[i]) != Double.doubleToLongBits(l[i]) ? 1 : 0;
+                    }
+                    sp--;
+                    break;
+                case Program.IF: {
+                    double[] a = stack[sp - 3];
+                    for (int i = 0; i < rows; i++) {
+                        a[i] = a[i] != 0.0 ? l[i] : r[i];
+                    }
+                    sp -= 2;
+                    break;
+                }
+                case Program.LIMIT: {
+                    double[] value = stack[sp - 3];
+                    for (int i = 0; i < rows; i++) {
+                        double lower = Math.min(r[i], l[i]);
+                        double upper = Math.max(r[i], l[i]);
+                        if (value[i] < lower || value[i] > upper) {
+                            value[i] = Double.NaN;
+                        }
+                    }
+                    sp -= 2;
+                    break;
+                }
+                case Program.ISINF:
+                    for (int i = 0; i < rows; i++) {
+                        r[i] = Double.isInfinite(r[i]) ? 1 : 0;
+                    }
+                    break;
+                case Program.UN:
+                    for (int i = 0; i < rows; i++) {
+                        r[i] = Double.isNaN(r[i]) ? 1 : 0;
+                    }
+                    break;
+                case Program.ABS:
+                    for (int i = 0; i < rows; i++) {
+                        r[i] = Math.abs(r[i]);
+                    }
+                    break;
+                case Program.FLOOR:
+                    for (int i = 0; i < rows; i++) {
+                        r[i] = Math.floor(r[i]);
+                    }
+                    break;
+                case Program.CEIL:
+                    for (int i = 0; i < rows; i++) {
+                        r[i] = Math.ceil(r[i]);
+                    }
+                    break;
+                case Program.SQRT:
+                    for (int i = 0; i < rows; i++) {
+                        r[i] = Math.sqrt(r[i]);
+                    }
+                    break;
+                case Program.DEG2RAD:
+                    for (int i = 0; i < rows; i++) {
+                        r[i] = r[i] * Math.PI / 180.0;
+                    }
+                    break;
+                case Program.RAD2DEG:
+                    for (int i = 0; i < rows; i++) {
+                        r[i] = r[i] * 180.0 / Math.PI;
+                    }
+                    break;
+                case Program.LOG:
+                    for (int i = 0; i < rows; i++) {
+                        r[i] = Math.log(r[i]);
+                    }
+                    break;
+                case Program.EXP:
+                    for (int i = 0; i < rows; i++) {
+                        r[i] = Math.exp(r[i]);
+                    }
+                    break;
+                case Program.SIN:
+                    for (int i = 0; i < rows; i++) {
+                        r[i] = Math.sin(r[i]);
+                    }
+                    break;
+                case Program.COS:
+                    for (int i = 0; i < rows; i++) {
+                        r[i] = Math.cos(r[i]);
+                    }
+                    break;
+                case Program.TAN:
+                    for (int i = 0; i < rows; i++) {
+                        r[i] = Math.tan(r[i]);
+                    }
+                    break;
+                case Program.ATAN:
+                    for (int i = 0; i < rows; i++) {
+                        r[i] = Math.atan(r[i]);
+                    }
+                    break;
+                default:
+                    throw new IllegalStateException("Operator " + program.op(pc) + " cannot be applied to columns");
+            }
+            if (null != shared && shared.isShared(program.prefix(pc)) && !shared.hasResult(program.prefix(pc))) {
+                double[][] result = new double[sp][];
+                for (int i = 0; i < sp; i++) {
+                    result[i] = Arrays.copyOf(stack[i], rows);
+                }
+                shared.putResult(program.prefix(pc), result, program.referencesUpTo(pc));
+            }
+        }
+        if (sp == 0) {
+            throw new IndexOutOfBoundsException("The stack is empty");
+        }
+        return Arrays.copyOf(stack[sp - 1], rows);
+    }
+
+    /**
+     * Makes sure there are enough slots of enough rows
+     */
+    private void reserve(int depth, int rows) {
+        if (rows > capacity) {
+            stack = new double[0][];
+            capacity = rows;
+        }
+        if (depth > stack.length) {
+            int old = stack.length;
+            stack = Arrays.copyOf(stack, depth);
+            for (int i = old; i < depth; i++) {
+                stack[i] = new double[capacity];
+            }
+        }
+    }
+}
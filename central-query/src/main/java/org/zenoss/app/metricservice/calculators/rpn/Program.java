@@ -0,0 +1,489 @@
+/*
+* © Zenoss, Inc. 2026, all rights reserved.
+*  Use is subject to terms as shown in the License.zenoss file.
+*/
+
+package org.zenoss.app.metricservice.calculators.rpn;
+
+import com.google.common.cache.Cache;
+import com.google.common.cache.CacheBuilder;
+import com.yammer.metrics.Metrics;
+import com.yammer.metrics.core.Gauge;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Set;
+
+/**
+ * An RPN expression compiled to a flat list of instructions. Numeric
+ * literals are parsed and operator names resolved once, so evaluating the
+ * program for every datapoint does no string handling at all.
+ * <p/>
+ * Terms are classified exactly as {@link Calculator} always has: operators
+ * are matched case insensitively, terms that parse as numbers are constants,
+ * anything else starting with a letter, a digit or an operator character is
+ * a reference looked up when the program runs, and other terms are ignored.
+ */
+final class Program {
+
+    private static final Logger log = LoggerFactory.getLogger(Program.class);
+
+    static final byte CONSTANT = 0;
+    static final byte REFERENCE = 1;
+    static final byte ADD = 2;
+    static final byte SUBTRACT = 3;
+    static final byte MULTIPLY = 4;
+    static final byte DIVIDE = 5;
+    static final byte MODULO = 6;
+    static final byte AVG = 7;
+    static final byte ABS = 8;
+    static final byte ATAN = 9;
+    static final byte ATAN2 = 10;
+    static final byte ADDNAN = 11;
+    static final byte COS = 12;
+    static final byte CEIL = 13;
+    static final byte DUP = 14;
+    static final byte DEG2RAD = 15;
+    static final byte EXC = 16;
+    static final byte EXP = 17;
+    static final byte EQ = 18;
+    static final byte FLOOR = 19;
+    static final byte GT = 20;
+    static final byte GE = 21;
+    static final byte IF = 22;
+    static final byte ISINF = 23;
+    static final byte INF = 24;
+    static final byte LIMIT = 25;
+    static final byte LOG = 26;
+    static final byte LT = 27;
+    static final byte LE = 28;
+    static final byte MIN = 29;
+    static final byte MAX = 30;
+    static final byte NEGINF = 31;
+    static final byte NOW = 32;
+    static final byte NE = 33;
+    static final byte REV = 34;
+    static final byte RAD2DEG = 35;
+    static final byte SQRT = 36;
+    static final byte SORT = 37;
+    static final byte SIN = 38;
+    static final byte TAN = 39;
+    static final byte UNKN = 40;
+    static final byte UN = 41;
+
+    /**
+     * Stack effect of each opcode: values popped and values pushed. The
+     * counted operators pop their count first and then a number of values
+     * only known when the program runs.
+     */
+    private static final int[] POPS = {
+            0, 0, 2, 2, 2, 2, 2, 1, 1, 1, 2, 2, 1, 1, 1, 1, 2, 1, 2, 1, 2,
+            2, 3, 1, 0, 3, 1, 2, 2, 2, 2, 0, 0, 2, 1, 1, 1, 1, 1, 1, 0, 1};
+    private static final int[] PUSHES = {
+            1, 1, 1, 1, 1, 1, 1, 1, 1, 1, 1, 1, 1, 1, 2, 1, 2, 1, 1, 1, 1,
+            1, 1, 1, 1, 1, 1, 1, 1, 1, 1, 1, 1, 1, 0, 1, 1, 0, 1, 1, 1, 1};
+
+    private final String expression;
+    private final byte[] code;
+    private final double[] constants;
+    private final String[] references;
+    private final int maxGrowth;
+    private final boolean counted;
+
+    /**
+     * Distinct references, and the index into them of each reference term
+     */
+    private final String[] names;
+    private final int[] slots;
+
+    /**
+     * Hash of the instructions up to and including each one, the same for
+     * programs that compute the same thing however the expressions were
+     * spelled
+     */
+    private final long[] prefixHashes;
+
+    private Program(String expression, byte[] code, double[] constants, String[] references) {
+        this.expression = expression;
+        this.code = code;
+        this.constants = constants;
+        this.references = references;
+        int growth = 0;
+        boolean hasCounted = false;
+        List<String> distinct = new ArrayList<>();
+        this.slots = new int[code.length];
+        for (int pc = 0; pc < code.length; pc++) {
+            byte op = code[pc];
+            growth += Math.max(0, PUSHES[op] - POPS[op]);
+            hasCounted |= op == SORT || op == REV || op == AVG;
+            if (op == REFERENCE) {
+                int slot = distinct.indexOf(references[pc]);
+                if (slot < 0) {
+                    slot = distinct.size();
+                    distinct.add(references[pc]);
+                }
+                slots[pc] = slot;
+            }
+        }
+        this.maxGrowth = growth;
+        this.counted = hasCounted;
+        this.names = distinct.toArray(new String[distinct.size()]);
+
+        this.prefixHashes = new long[code.length];
+        long hash = 0;
+        for (int pc = 0; pc < code.length; pc++) {
+            hash = (hash ^ code[pc]) * 0x100000001b3L;
+            if (code[pc] == CONSTANT) {
+                hash = (hash ^ Double.doubleToLongBits(constants[pc])) * 0x100000001b3L;
+            } else if (code[pc] == REFERENCE) {
+                hash = (hash ^ references[pc].hashCode()) * 0x100000001b3L;
+            }
+            prefixHashes[pc] = hash;
+        }
+    }
+
+    /**
+     * Compiled programs by expression. Programs are immutable, so every
+     * calculator evaluating an expression, in any series or request, shares
+     * one.
+     */
+    private static final Cache<String, Program> CACHE = CacheBuilder.newBuilder()
+            .maximumSize(Integer.getInteger(Calculator.PROGRAM_CACHE_SIZE_PROPERTY, Calculator.DEFAULT_PROGRAM_CACHE_SIZE))
+            .recordStats()
+            .build();
+
+    static {
+        Metrics.newGauge(Calculator.class, "program-cache-hits", new Gauge<Long>() {
+            @Override
+            public Long value() {
+                return CACHE.stats().hitCount();
+            }
+        });
+        Metrics.newGauge(Calculator.class, "program-cache-misses", new Gauge<Long>() {
+            @Override
+            public Long value() {
+                return CACHE.stats().missCount();
+            }
+        });
+        Metrics.newGauge(Calculator.class, "program-cache-evictions", new Gauge<Long>() {
+            @Override
+            public Long value() {
+                return CACHE.stats().evictionCount();
+            }
+        });
+        Metrics.newGauge(Calculator.class, "program-cache-size", new Gauge<Long>() {
+            @Override
+            public Long value() {
+                return CACHE.size();
+            }
+        });
+    }
+
+    /**
+     * Returns the compiled form of a comma separated list of terms in a
+     * format similar to that leveraged by RRDTool's RPN evaluation, compiling
+     * it only if it is not cached.
+     */
+    static Program compile(String expression) {
+        Program program = CACHE.getIfPresent(expression);
+        if (null == program) {
+            program = parse(expression);
+            CACHE.put(expression, program);
+        }
+        return program;
+    }
+
+    private static Program parse(String expression) {
+        String[] terms = expression.split(",");
+        byte[] code = new byte[terms.length];
+        double[] constants = new double[terms.length];
+        String[] references = new String[terms.length];
+        int length = 0;
+        for (String term1 : terms) {
+            String ref = term1.trim();
+            String term = ref.toLowerCase();
+            if (term.isEmpty()) {
+                continue;
+            }
+            byte op = operator(term);
+            if (op < 0) {
+                char first = term.charAt(0);
+                if (first == '+' || first == '-' || Character.isDigit(first)) {
+                    try {
+                        constants[length] = Double.valueOf(term);
+                        op = CONSTANT;
+                    } catch (NumberFormatException e) {
+                        log.debug("Term {} did not parse as number, treating as reference.", term);
+                        op = REFERENCE;
+                    }
+                } else if (first == '/' || first == '*' || first == '%' || Character.isLetter(first)) {
+                    op = REFERENCE;
+                } else {
+                    continue;
+                }
+                if (op == REFERENCE) {
+                    references[length] = ref;
+                }
+            }
+            code[length++] = op;
+        }
+        return new Program(expression,
+                Arrays.copyOf(code, length), Arrays.copyOf(constants, length), Arrays.copyOf(references, length));
+    }
+
+    private static byte operator(String term) {
+        switch (term) {
+            case "+":
+                return ADD;
+            case "-":
+                return SUBTRACT;
+            case "*":
+                return MULTIPLY;
+            case "/":
+                return DIVIDE;
+            case "%":
+                return MODULO;
+            case "avg":
+                return AVG;
+            case "abs":
+                return ABS;
+            case "atan":
+                return ATAN;
+            case "atan2":
+                return ATAN2;
+            case "addnan":
+                return ADDNAN;
+            case "cos":
+                return COS;
+            case "ceil":
+                return CEIL;
+            case "dup":
+                return DUP;
+            case "deg2rad":
+                return DEG2RAD;
+            case "exc":
+                return EXC;
+            case "exp":
+                return EXP;
+            case "eq":
+                return EQ;
+            case "floor":
+                return FLOOR;
+            case "gt":
+                return GT;
+            case "ge":
+                return GE;
+            case "if":
+                return IF;
+            case "isinf":
+            // isunkn has always tested for infinity
+            case "isunkn":
+                return ISINF;
+            case "inf":
+                return INF;
+            case "limit":
+                return LIMIT;
+            case "log":
+                return LOG;
+            case "lt":
+                return LT;
+            case "le":
+                return LE;
+            case "min":
+                return MIN;
+            case "max":
+                return MAX;
+            case "neginf":
+                return NEGINF;
+            case "now":
+                return NOW;
+            case "ne":
+                return NE;
+            case "rev":
+                return REV;
+            case "rad2deg":
+                return RAD2DEG;
+            case "sqrt":
+                return SQRT;
+            case "sort":
+                return SORT;
+            case "sin":
+                return SIN;
+            case "tan":
+                return TAN;
+            case "unkn":
+                return UNKN;
+            case "un":
+                return UN;
+            default:
+                return -1;
+        }
+    }
+
+    /**
+     * Checks that the program cannot run out of values when started with the
+     * given number of values on the stack. Once a counted operator (sort, rev
+     * or avg) has run the depth depends on the data, so only the operators
+     * before it can be checked.
+     *
+     * @throws RPNException if the program always fails
+     */
+    void verify(int initialDepth) throws RPNException {
+        int depth = initialDepth;
+        for (int pc = 0; pc < code.length; pc++) {
+            byte op = code[pc];
+            depth -= POPS[op];
+            if (depth < 0) {
+                throw new RPNException(expression, new IndexOutOfBoundsException(
+                        String.format("Term %d of the expression needs more values than are on the stack", pc + 1)));
+            }
+            if (op == SORT || op == REV || op == AVG) {
+                return;
+            }
+            depth += PUSHES[op];
+        }
+        if (depth == 0) {
+            throw new RPNException(expression, new IndexOutOfBoundsException("The expression leaves no value on the stack"));
+        }
+    }
+
+    String getExpression() {
+        return expression;
+    }
+
+    int length() {
+        return code.length;
+    }
+
+    byte op(int pc) {
+        return code[pc];
+    }
+
+    double constant(int pc) {
+        return constants[pc];
+    }
+
+    String reference(int pc) {
+        return references[pc];
+    }
+
+    /**
+     * Number of values the operator at pc takes from the stack, not counting
+     * the values counted by sort, rev and avg
+     */
+    int pops(int pc) {
+        return POPS[code[pc]];
+    }
+
+    /**
+     * Index of the reference at pc among {@link #referenceCount()} distinct
+     * references
+     */
+    int slot(int pc) {
+        return slots[pc];
+    }
+
+    /**
+     * @return a key of the instructions up to and including the one at pc,
+     * equal to the keys of the same instructions in other programs. Keys are
+     * hashed as the program is compiled; the instructions themselves are only
+     * compared when the hashes match.
+     */
+    Object prefix(int pc) {
+        return new Prefix(this, pc);
+    }
+
+    private boolean samePrefix(Program other, int pc) {
+        if (this == other) {
+            return true;
+        }
+        for (int i = pc; i >= 0; i--) {
+            if (code[i] != other.code[i]) {
+                return false;
+            }
+            if (code[i] == CONSTANT && Double.compare(constants[i], other.constants[i]) != 0) {
+                return false;
+            }
+            if (code[i] == REFERENCE && !references[i].equals(other.references[i])) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    private static final class Prefix {
+        private final Program program;
+        private final int pc;
+
+        private Prefix(Program program, int pc) {
+            this.program = program;
+            this.pc = pc;
+        }
+
+        @Override
+        public boolean equals(Object o) {
+            if (this == o) {
+                return true;
+            }
+            if (!(o instanceof Prefix)) {
+                return false;
+            }
+            Prefix other = (Prefix) o;
+            return pc == other.pc
+                    && program.prefixHashes[pc] == other.program.prefixHashes[pc]
+                    && program.samePrefix(other.program, pc);
+        }
+
+        @Override
+        public int hashCode() {
+            long hash = program.prefixHashes[pc];
+            return (int) (hash ^ (hash >>> 32));
+        }
+
+        @Override
+        public String toString() {
+            return program.expression + " up to " + pc;
+        }
+    }
+
+    /**
+     * The references made by the instructions up to and including the one
+     * at pc
+     */
+    Set<String> referencesUpTo(int pc) {
+        Set<String> result = new HashSet<>();
+        for (int i = 0; i <= pc; i++) {
+            if (code[i] == REFERENCE) {
+                result.add(references[i]);
+            }
+        }
+        return result;
+    }
+
+    int referenceCount() {
+        return names.length;
+    }
+
+    String referenceName(int slot) {
+        return names[slot];
+    }
+
+    /**
+     * Whether the program uses sort, rev or avg, whose stack effect depends
+     * on the values
+     */
+    boolean hasCountedOperators() {
+        return counted;
+    }
+
+    /**
+     * The most the program can grow the stack by
+     */
+    int maxGrowth() {
+        return maxGrowth;
+    }
+}
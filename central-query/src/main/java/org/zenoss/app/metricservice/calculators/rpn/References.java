@@ -0,0 +1,45 @@
+/*
+* © Zenoss, Inc. 2026, all rights reserved.
+*  Use is subject to terms as shown in the License.zenoss file.
+*/
+
+package org.zenoss.app.metricservice.calculators.rpn;
+
+import org.zenoss.app.metricservice.calculators.ColumnProvider;
+import org.zenoss.app.metricservice.calculators.UnknownReferenceException;
+
+/**
+ * The columns of the references of a program, each looked up the first time
+ * the program reaches it, so that errors surface in the same order as when
+ * evaluating one value at a time.
+ */
+final class References {
+    private final Program program;
+    private final ColumnProvider provider;
+    private final int rows;
+    private final double[][] columns;
+
+    References(Program program, ColumnProvider provider, int rows) {
+        this.program = program;
+        this.provider = provider;
+        this.rows = rows;
+        this.columns = new double[program.referenceCount()][];
+    }
+
+    /**
+     * Returns the column of the reference at pc
+     */
+    double[] column(int pc) throws UnknownReferenceException {
+        int slot = program.slot(pc);
+        double[] column = columns[slot];
+        if (null == column) {
+            column = provider.lookup(program.referenceName(slot));
+            if (column.length < rows) {
+                throw new IllegalStateException(String.format("Reference %s has %d values for %d rows",
+                        program.referenceName(slot), column.length, rows));
+            }
+            columns[slot] = column;
+        }
+        return column;
+    }
+}
@@ -0,0 +1,27 @@
+/*
+ * ****************************************************************************
+ *
+ *  Copyright (C) Zenoss, Inc. 2026, all rights reserved.
+ *
+ *  This content is made available according to terms specified in
+ *  License.zenoss distributed with this file.
+ *
+ * ***************************************************************************
+ */
+package org.zenoss.app.metricservice.v2;
+
+import org.zenoss.app.metricservice.api.impl.DataPointSeries;
+import org.zenoss.app.metricservice.api.impl.QueryStatus;
+
+import java.util.Map;
+
+/**
+ * Receives the series and statuses of a v2 query as each backend query
+ * completes.
+ */
+public interface QueryResultCollector {
+
+    QueryResultCollector addSeries(String metricName, DataPointSeries datapoints, Map<String, String> tags);
+
+    void setStatus(QueryStatus status);
+}
@@ -10,15 +10,31 @@
  */
 package org.zenoss.app.metricservice.v2;
 
+import org.zenoss.app.metricservice.api.model.v2.Metric;
 import org.zenoss.app.metricservice.api.model.v2.MetricRequest;
 import org.zenoss.app.metricservice.api.model.v2.QueryResult;
 import org.zenoss.app.metricservice.api.model.v2.RenameRequest;
 
 import java.io.Writer;
+import java.util.List;
 
 public interface QueryService {
 
     QueryResult query(MetricRequest query);
 
+    /**
+     * Runs the query, handing each series to the collector as soon as it is
+     * available.
+     */
+    void query(MetricRequest query, QueryResultCollector collector);
+
     void rename(RenameRequest renameRequest, Writer writer);
+
+    /**
+     * Keeps recent points pushed to the service, so that queries of the
+     * newest minutes can be answered without OpenTSDB
+     *
+     * @return how many of them were kept
+     */
+    int store(List<Metric> metrics);
 }
@@ -10,22 +10,24 @@
  */
 package org.zenoss.app.metricservice.v2.impl;
 
+import org.zenoss.app.metricservice.api.impl.DataPointSeries;
 import org.zenoss.app.metricservice.api.impl.QueryStatus;
 import org.zenoss.app.metricservice.api.model.v2.QueryResult;
 import org.zenoss.app.metricservice.api.model.v2.QueryResult.Series;
+import org.zenoss.app.metricservice.v2.QueryResultCollector;
 
 import java.util.ArrayList;
 import java.util.List;
 import java.util.Map;
-import java.util.SortedMap;
 
-public final class QueryResultBuilder {
+public final class QueryResultBuilder implements QueryResultCollector {
 
 
     private List<Series> seriesList = new ArrayList<>();
     private List<QueryStatus> statuses = new ArrayList<>();
 
-    public QueryResultBuilder addSeries(String metricName, SortedMap<Long, Double> datapoints, Map<String, String> tags) {
+    @Override
+    public QueryResultBuilder addSeries(String metricName, DataPointSeries datapoints, Map<String, String> tags) {
 
         if (datapoints == null) {
             throw new IllegalArgumentException("datapoints cannot be null");
@@ -58,6 +60,7 @@ public final class QueryResultBuilder {
         return qr;
     }
 
+    @Override
     public void setStatus(QueryStatus status) {
         if (status == null) {
             throw new IllegalArgumentException("statuses cannot be null");
@@ -30,8 +30,8 @@ import org.zenoss.app.metricservice.api.impl.QueryStatus.QueryStatusEnum;
 import org.zenoss.app.metricservice.api.model.ReturnSet;
 import org.zenoss.app.metricservice.api.model.v2.*;
 import org.zenoss.app.metricservice.api.model.v2.QueryResult;
-import org.zenoss.app.metricservice.buckets.Value;
 import org.zenoss.app.metricservice.calculators.*;
+import org.zenoss.app.metricservice.v2.QueryResultCollector;
 import org.zenoss.app.metricservice.v2.QueryService;
 
 import javax.annotation.Nullable;
@@ -41,12 +41,8 @@ import java.util.ArrayList;
 import java.util.Arrays;
 import java.util.Collection;
 import java.util.Collections;
-import java.util.Iterator;
 import java.util.List;
-import java.util.Map;
 import java.util.Map.Entry;
-import java.util.SortedMap;
-import java.util.TreeMap;
 import java.io.Writer;
 import java.io.IOException;
 
@@ -63,6 +59,13 @@ public class QueryServiceImpl implements QueryService {
 
     @Override
     public QueryResult query(final MetricRequest query) {
+        QueryResultBuilder qrb = new QueryResultBuilder();
+        query(query, qrb);
+        return qrb.build();
+    }
+
+    @Override
+    public void query(final MetricRequest query, final QueryResultCollector qrb) {
         log.debug("Thread {}: entering MetricService.query()", Thread.currentThread().getId());
 
         //metrics that have calculation expression
@@ -77,7 +80,6 @@ public class QueryServiceImpl implements QueryService {
                 expressionQueries.add(metricQuery);
             }
         }
-        QueryResultBuilder qrb = new QueryResultBuilder();
         Iterable<OpenTSDBQueryResult> metrics = null;
         if (!simpleQueries.isEmpty()) {
             for (MetricQuery mq : simpleQueries) {
@@ -99,24 +101,35 @@ public class QueryServiceImpl implements QueryService {
             }).asMap();
 
             for (Entry<String, Collection<MetricQuery>> specs : grouped.entrySet()) {
+                // compile and check the expression once, before fetching anything
+                MetricCalculator calc = newCalculator(specs.getKey());
+                try {
+                    calc.validate();
+                } catch (BadExpressionException e) {
+                    qrb.setStatus(errorStatus(e));
+                    continue;
+                }
                 OpenTSDBQueryReturn otsdbResults = getOpenTSDBQueryResults(specs.getValue(), query);
                 //TODO: check result and throw exception?
                 //APPLY RPN here
                 try {
-                    applyRPN(specs, otsdbResults.getResults());
+                    applyRPN(calc, otsdbResults.getResults());
                     for (OpenTSDBQueryResult m : otsdbResults.getResults()) {
                         qrb.addSeries(m.metric, m.getDataPoints(), m.tags);
                     }
                     qrb.setStatus(otsdbResults.getStatus());
                 } catch (UnknownReferenceException | BadExpressionException e) {
-                    QueryStatus status = new QueryStatus();
-                    status.setMessage(e.getMessage());
-                    status.setStatus(QueryStatusEnum.ERROR);
-                    qrb.setStatus(status);
+                    qrb.setStatus(errorStatus(e));
                 }
             }
         }
-        return qrb.build();
+    }
+
+    private static QueryStatus errorStatus(Exception e) {
+        QueryStatus status = new QueryStatus();
+        status.setMessage(e.getMessage());
+        status.setStatus(QueryStatusEnum.ERROR);
+        return status;
     }
 
     @Override
@@ -129,6 +142,11 @@ public class QueryServiceImpl implements QueryService {
         }
     }
 
+    @Override
+    public int store(List<Metric> metrics) {
+        return metricStorage.store(metrics);
+    }
+
     private OpenTSDBQueryReturn getOpenTSDBQueryResults(Collection<MetricQuery> metricQueries, MetricRequest query) {
         MetricRequest newQuery = new MetricRequest();
         newQuery.setStart(query.getStart());
@@ -161,58 +179,45 @@ public class QueryServiceImpl implements QueryService {
         return results;
     }
 
-    private void applyRPN(Entry<String, Collection<MetricQuery>> specs, Iterable<OpenTSDBQueryResult> result) throws UnknownReferenceException, BadExpressionException {
-        for (final OpenTSDBQueryResult r : result) {
-            MetricCalculator calc;
-            try {
-                calc = MetricCalculatorFactory.newInstance(specs.getKey());
-                calc.setReferenceProvider(new ReferenceProvider() {
-                    @Override
-                    public double lookup(String name, Closure closure) throws UnknownReferenceException {
-                        if (null == closure) {
-                            throw new NullPointerException("null closure passed to lookup() method.");
-                        }
-                        /**
-                         * If they are looking for special values like "time" then give them
-                         * that.
-                         */
-                        if ("time".equalsIgnoreCase(name)) {
-                            return closure.getTimeStamp();
-                        }
+    private MetricCalculator newCalculator(String expression) {
+        try {
+            return MetricCalculatorFactory.newInstance(expression);
+        } catch (ClassNotFoundException e) {
+            throw new WebApplicationException(new Exception("calculator not found for " + expression));
+        }
+    }
 
-                        /**
-                         * Check for metrics or values in the bucket
-                         */
-                        Value v = closure.getValueByShortcut(name);
-                        if (v == null) {
-                            throw new UnknownReferenceException(name);
+    private void applyRPN(MetricCalculator calc, Iterable<OpenTSDBQueryResult> result) throws UnknownReferenceException, BadExpressionException {
+        for (final OpenTSDBQueryResult r : result) {
+            final DataPointSeries dataPoints = r.getDataPoints();
+            double[] values = calc.evaluate(dataPoints.size(), new ColumnProvider() {
+                @Override
+                public double[] lookup(String name) throws UnknownReferenceException {
+                    double[] column = new double[dataPoints.size()];
+                    /**
+                     * If they are looking for special values like "time" then give them
+                     * that.
+                     */
+                    if ("time".equalsIgnoreCase(name)) {
+                        for (int i = 0; i < column.length; i++) {
+                            column[i] = dataPoints.getTimestamp(i);
                         }
-                        return v.getValue();
+                        return column;
                     }
-                });
-            } catch (ClassNotFoundException e) {
-                throw new WebApplicationException(new Exception("calculator not found for " + specs.getKey()));
-            }
-            for (final Entry<Long, Double> dp : r.getDataPoints().entrySet()) {
-                double newVal = calc.evaluate(new Closure() {
-                    @Override
-                    public long getTimeStamp() {
-                        return dp.getKey();
+                    // the only other reference is the series itself
+                    if (!r.metric.equals(name)) {
+                        throw new UnknownReferenceException(name);
                     }
-
-                    @Override
-                    public Value getValueByShortcut(String name) {
-                        if (!r.metric.equals(name)) {
-                            return null;
-                        }
-                        Value val = new Value();
-                        val.add(dp.getValue());
-                        return val;
+                    for (int i = 0; i < column.length; i++) {
+                        column[i] = dataPoints.getValue(i);
                     }
-                });
-                log.debug("metric {}, tags {}, timestamp {}, original {} new val {}", r.metric, r.tags, dp.getKey(), dp.getValue(), newVal);
-                r.getDataPoints().put(dp.getKey(), newVal);
+                    return column;
+                }
+            });
+            for (int i = 0; i < values.length; i++) {
+                dataPoints.setValue(i, values[i]);
             }
+            log.debug("metric {}, tags {}, {} values calculated", r.metric, r.tags, values.length);
         }
     }
 
@@ -230,17 +235,12 @@ public class QueryServiceImpl implements QueryService {
 
     private void filterExactReturnSet(long startTimestamp, long endTimestamp, OpenTSDBQueryResult series) {
         log.debug("Applying exact filter. start {}; end {}", startTimestamp, endTimestamp);
-        long currentPointTimeStamp;
-        SortedMap<Long, Double> filteredDataPoints = new TreeMap<>();
-        Iterator<Entry<Long, Double>> iter = series.getDataPoints().entrySet().iterator();
-        while(iter.hasNext()){
-            Entry<Long, Double> datapoint = iter.next();
-            currentPointTimeStamp = datapoint.getKey();
-            if (currentPointTimeStamp < startTimestamp || currentPointTimeStamp > endTimestamp) {
-                log.debug("filtering datapoint {}: start{}, end{}", datapoint, startTimestamp, endTimestamp);
-                iter.remove();
-            }
+        DataPointSeries dataPoints = series.getDataPoints();
+        if (dataPoints.isEmpty()
+                || (dataPoints.firstTimestamp() >= startTimestamp && dataPoints.lastTimestamp() <= endTimestamp)) {
+            return;
         }
+        series.setDataPoints(dataPoints.slice(startTimestamp, endTimestamp));
     }
 
     private void filterLastReturnSet(long startTimestamp, long endTimestamp, OpenTSDBQueryResult series) {
@@ -249,20 +249,11 @@ public class QueryServiceImpl implements QueryService {
             return;
         }
         log.debug("Applying last filter.");
-        long currentPointTimeStamp;
-        SortedMap<Long, Double> dataPointSingleton = new TreeMap<>();
-        Map.Entry<Long, Double> lastDataPoint = null;
-        for (Map.Entry<Long, Double> dataPoint : series.getDataPoints().entrySet()) {
-            currentPointTimeStamp = dataPoint.getKey();
-            if (currentPointTimeStamp < startTimestamp || currentPointTimeStamp > endTimestamp) {
-                continue;
-            }
-            if (null == lastDataPoint || currentPointTimeStamp > lastDataPoint.getKey()) {
-                lastDataPoint = dataPoint;
-            }
-        }
-        if (null != lastDataPoint) {
-            dataPointSingleton.put(lastDataPoint.getKey(), lastDataPoint.getValue());
+        DataPointSeries dataPoints = series.getDataPoints();
+        DataPointSeries dataPointSingleton = new DataPointSeries(1);
+        int last = dataPoints.floorIndex(endTimestamp);
+        if (last >= 0 && dataPoints.getTimestamp(last) >= startTimestamp) {
+            dataPointSingleton.add(dataPoints.getTimestamp(last), dataPoints.getValue(last));
         }
         series.setDataPoints(dataPointSingleton);
     }
@@ -0,0 +1,115 @@
+/*
+ * ****************************************************************************
+ *
+ *  Copyright (C) Zenoss, Inc. 2026, all rights reserved.
+ *
+ *  This content is made available according to terms specified in
+ *  License.zenoss distributed with this file.
+ *
+ * ***************************************************************************
+ */
+package org.zenoss.app.metricservice.v2.impl;
+
+import com.fasterxml.jackson.core.JsonEncoding;
+import com.fasterxml.jackson.core.JsonGenerator;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import org.zenoss.app.metricservice.api.impl.DataPointSeries;
+import org.zenoss.app.metricservice.api.impl.QueryStatus;
+import org.zenoss.app.metricservice.api.model.v2.QueryResult.Series;
+import org.zenoss.app.metricservice.v2.QueryResultCollector;
+
+import java.io.IOException;
+import java.io.OutputStream;
+import java.io.UncheckedIOException;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Writes a v2 {@link org.zenoss.app.metricservice.api.model.v2.QueryResult}
+ * to a stream one series at a time. Each series is flushed as soon as it is
+ * added and is not referenced afterwards; the statuses are written when the
+ * result is finished. The output is the same as serializing the result that
+ * {@link QueryResultBuilder} would build.
+ */
+public final class StreamingQueryResultWriter implements QueryResultCollector {
+
+    private final ObjectMapper mapper;
+    private final JsonGenerator jg;
+    private final List<QueryStatus> statuses = new ArrayList<>();
+    private boolean started = false;
+
+    public StreamingQueryResultWriter(ObjectMapper mapper, OutputStream out) throws IOException {
+        this.mapper = mapper;
+        this.jg = mapper.getFactory().createGenerator(out, JsonEncoding.UTF8);
+        this.jg.disable(JsonGenerator.Feature.AUTO_CLOSE_TARGET);
+    }
+
+    /**
+     * @throws UncheckedIOException if the series cannot be written
+     */
+    @Override
+    public StreamingQueryResultWriter addSeries(String metricName, DataPointSeries datapoints, Map<String, String> tags) {
+        if (datapoints == null) {
+            throw new IllegalArgumentException("datapoints cannot be null");
+        }
+        if (tags == null) {
+            throw new IllegalArgumentException("tags cannot be null");
+        }
+        if (metricName == null || metricName.isEmpty()) {
+            throw new IllegalArgumentException("metric name cannot be null or empty");
+        }
+
+        Series series = new Series();
+        series.setMetric(metricName);
+        series.setTags(tags);
+        series.setDatapoints(datapoints);
+        try {
+            start();
+            mapper.writeValue(jg, series);
+            jg.flush();
+        } catch (IOException e) {
+            throw new UncheckedIOException(e);
+        }
+        return this;
+    }
+
+    @Override
+    public void setStatus(QueryStatus status) {
+        if (status == null) {
+            throw new IllegalArgumentException("statuses cannot be null");
+        }
+        statuses.add(status);
+    }
+
+    /**
+     * @return true once anything has been written to the stream
+     */
+    public boolean isStarted() {
+        return started;
+    }
+
+    /**
+     * Writes the statuses and ends the result. The stream is flushed but
+     * not closed.
+     */
+    public void finish() throws IOException {
+        if (statuses.isEmpty()) {
+            throw new IllegalArgumentException("statuses cannot be empty");
+        }
+        start();
+        jg.writeEndArray();
+        jg.writeFieldName("statuses");
+        mapper.writeValue(jg, statuses);
+        jg.writeEndObject();
+        jg.close();
+    }
+
+    private void start() throws IOException {
+        if (!started) {
+            started = true;
+            jg.writeStartObject();
+            jg.writeArrayFieldStart("series");
+        }
+    }
+}
@@ -11,6 +11,7 @@
 
 package org.zenoss.app.metricservice.v2.remote;
 
+import com.fasterxml.jackson.databind.ObjectMapper;
 import com.google.common.collect.Lists;
 import com.google.common.collect.Maps;
 import com.yammer.metrics.annotation.Timed;
@@ -20,21 +21,28 @@ import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 import org.springframework.beans.factory.annotation.Autowired;
 
-import org.zenoss.app.AppConfiguration;
+import org.zenoss.app.metricservice.MetricServiceAppConfiguration;
+import org.zenoss.app.metricservice.api.impl.HttpCompression;
 import org.zenoss.app.metricservice.api.impl.QueryStatus;
+import org.zenoss.app.metricservice.api.impl.ResultEncoding;
 import org.zenoss.app.metricservice.api.impl.Utils;
 import org.zenoss.app.metricservice.api.model.v2.*;
 import org.zenoss.app.metricservice.v2.QueryService;
 import org.zenoss.app.metricservice.v2.impl.QueryResultBuilder;
+import org.zenoss.app.metricservice.v2.impl.StreamingQueryResultWriter;
 import org.zenoss.app.security.ZenossTenant;
 import org.zenoss.app.zauthbundle.ZappSecurity;
 import org.zenoss.dropwizardspring.annotations.Resource;
 
 import javax.validation.Valid;
 import javax.ws.rs.*;
+import javax.ws.rs.core.Context;
+import javax.ws.rs.core.HttpHeaders;
 import javax.ws.rs.core.MediaType;
 import javax.ws.rs.core.Response;
 import javax.ws.rs.core.StreamingOutput;
+import javax.ws.rs.ext.Providers;
+import java.util.Collections;
 import java.util.List;
 import java.util.Map;
 import java.io.OutputStream;
@@ -51,7 +59,7 @@ public class Resources {
     private static final Logger log = LoggerFactory.getLogger(Resources.class);
 
     @Autowired
-    AppConfiguration configuration;
+    MetricServiceAppConfiguration configuration;
 
     @Autowired
     ZappSecurity security;
@@ -66,13 +74,30 @@ public class Resources {
     @Path("/query")
     @Timed
     @Consumes(MediaType.APPLICATION_JSON)
-    @Produces(MediaType.APPLICATION_JSON)
-    public QueryResult query(@Valid MetricRequest metricRequest) {
+    @Produces({MediaType.APPLICATION_JSON, ResultEncoding.APPLICATION_SMILE, ResultEncoding.APPLICATION_CBOR})
+    public Response query(@Valid final MetricRequest metricRequest, @Context HttpHeaders headers,
+                          @Context Providers providers) throws IOException {
+        Response response = queryResponse(metricRequest, headers);
+        return HttpCompression.compress(response, headers, providers, configuration.getMetricServiceConfig());
+    }
+
+    private Response queryResponse(final MetricRequest metricRequest, HttpHeaders headers) {
 
         for (MetricQuery mq : metricRequest.getQueries()) {
             Map<String, List<String>> tags = addTenantId(mq.getTags());
             mq.setTags(tags);
         }
+        final ResultEncoding encoding = ResultEncoding.fromAcceptableMediaTypes(headers.getAcceptableMediaTypes());
+        final ObjectMapper mapper = encoding.isBinary() ? encoding.getObjectMapper() : Utils.getObjectMapper();
+        if (configuration.getMetricServiceConfig().isStreamResults()) {
+            StreamingOutput stream = new StreamingOutput() {
+                @Override
+                public void write(OutputStream out) throws IOException, WebApplicationException {
+                    streamQuery(metricRequest, mapper, out);
+                }
+            };
+            return Response.ok(stream, encoding.getMediaType()).header("X-Accel-Buffering", "no").build();
+        }
         QueryResult result = null;
 //        result = api.query(metricRequest);
 
@@ -89,7 +114,44 @@ public class Resources {
             log.error("Exception caught handling request", e);
             throw new WebApplicationException(e);
         }
-        return result;
+        if (encoding.isBinary()) {
+            final QueryResult binaryResult = result;
+            StreamingOutput stream = new StreamingOutput() {
+                @Override
+                public void write(OutputStream out) throws IOException, WebApplicationException {
+                    mapper.writeValue(out, binaryResult);
+                }
+            };
+            return Response.ok(stream, encoding.getMediaType()).build();
+        }
+        return Response.ok(result).build();
+    }
+
+    /**
+     * Runs the query writing each series as soon as it is available. Failures
+     * before the first series still produce an error response; once series
+     * have been sent they are reported as an error status at the end.
+     */
+    void streamQuery(MetricRequest metricRequest, ObjectMapper mapper, OutputStream out) throws IOException {
+        StreamingQueryResultWriter writer = new StreamingQueryResultWriter(mapper, out);
+        try {
+            api.query(metricRequest, writer);
+        } catch (java.lang.RuntimeException e) {
+            log.error("Exception caught handling request", e);
+            if (!writer.isStarted()) {
+                throw new WebApplicationException(e);
+            }
+            QueryStatus status = new QueryStatus();
+            status.setMessage(String.format("(FROM Resources.query): %s Exception: %s", e.getClass(), e.getMessage()));
+            status.setStatus(QueryStatus.QueryStatusEnum.ERROR);
+            writer.setStatus(status);
+        }
+        try {
+            writer.finish();
+        } catch (IllegalArgumentException e) {
+            log.error("Exception caught handling request", e);
+            throw new WebApplicationException(e);
+        }
     }
 
     /**
@@ -122,6 +184,32 @@ public class Resources {
         return  Response.ok(stream).header("X-Accel-Buffering","no").build();
     }
 
+    /**
+     * This method handles requests sent to the store endpoint, which keeps
+     * recent points, in the metric-consumer's format, so that queries of the
+     * newest minutes can be answered without OpenTSDB. It is only available
+     * when the recent tier is enabled.
+     * @param storeRequest The points pushed.
+     * @return Response How many of the points were kept.
+     */
+    @POST
+    @Path("/store")
+    @Timed
+    @Consumes(MediaType.APPLICATION_JSON)
+    @Produces(MediaType.APPLICATION_JSON)
+    public Response store(@Valid final StoreRequest storeRequest) {
+        if (!configuration.getMetricServiceConfig().isRecentTierEnabled()) {
+            return Response.status(Response.Status.NOT_FOUND).build();
+        }
+        if (configuration.isAuthEnabled()) {
+            String tenantId = getTenantId();
+            for (Metric metric : storeRequest.getMetrics()) {
+                metric.getTags().put("zenoss_tenant_id", tenantId);
+            }
+        }
+        int stored = api.store(storeRequest.getMetrics());
+        return Response.ok(Collections.singletonMap("stored", stored)).build();
+    }
 
     String getTenantId() {
         Subject subject = security.getSubject();
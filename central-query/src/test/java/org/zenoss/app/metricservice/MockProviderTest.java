@@ -59,6 +59,8 @@ public class MockProviderTest extends ProviderTestBase {
         public MetricServiceAppConfiguration getQueryAppConfiguration() {
             MetricServiceAppConfiguration config = new MetricServiceAppConfiguration();
             config.setAuthEnabled(false);
+            // Unlike Jetty, the in-memory container does not inflate gzip requests
+            config.getHttpConfiguration().getGzipConfiguration().setEnabled(false);
             return config;
         }
     }
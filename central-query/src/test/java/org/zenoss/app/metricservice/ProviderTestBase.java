@@ -43,6 +43,8 @@ import org.junit.Test;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 import org.springframework.beans.factory.annotation.Autowired;
+import org.zenoss.app.metricservice.api.impl.ResultEncoding;
+import org.zenoss.app.metricservice.api.impl.SeriesQueryResult;
 import org.zenoss.app.metricservice.api.impl.Utils;
 import org.zenoss.app.metricservice.api.metric.remote.MetricResources;
 import org.zenoss.app.metricservice.api.model.MetricSpecification;
@@ -50,12 +52,17 @@ import org.zenoss.app.metricservice.api.model.PerformanceQuery;
 import org.zenoss.app.metricservice.api.model.ReturnSet;
 
 import javax.ws.rs.WebApplicationException;
+import javax.ws.rs.core.HttpHeaders;
 import javax.ws.rs.core.MediaType;
+import java.io.ByteArrayOutputStream;
 import java.io.InputStreamReader;
+import java.io.OutputStream;
 import java.io.UnsupportedEncodingException;
 import java.net.URLEncoder;
 import java.text.SimpleDateFormat;
 import java.util.*;
+import java.util.zip.DeflaterOutputStream;
+import java.util.zip.GZIPOutputStream;
 
 /**
  * @author David Bainbridge <dbainbridge@zenoss.com>
@@ -466,4 +473,60 @@ public abstract class ProviderTestBase extends ResourceTest {
             "avg:laLoadInt1{tag1=value,tag2=value}",
             "sum:laLoadInt5{tag1=value,tag2=value}" });
     }
+
+    @Test
+    public void queryTestBinaryEncodingsMatchJson() throws Exception {
+        PerformanceQuery request = makeRequestObject(Optional.of("my-client-id"), Optional.of("1437520000"),
+            Optional.of("1437523600"), Optional.of(ReturnSet.EXACT), Optional.of(true),
+            new String[] { "avg:laLoadInt1", "sum:laLoadInt5{tag1=value}" });
+        WebResource wr = client().resource(PERFORMANCE_QUERY_URL);
+        ClientResponse response = wr.type(MediaType.APPLICATION_JSON_TYPE).post(ClientResponse.class, request);
+        Assert.assertEquals("Invalid response code", 200, response.getStatus());
+        SeriesQueryResult expected = Utils.getObjectMapper().readValue(response.getEntity(String.class), SeriesQueryResult.class);
+        Assert.assertEquals(2, expected.getResults().size());
+
+        for (ResultEncoding encoding : new ResultEncoding[] { ResultEncoding.SMILE, ResultEncoding.CBOR,
+            ResultEncoding.SMILE_GORILLA, ResultEncoding.CBOR_GORILLA }) {
+            response = wr.type(MediaType.APPLICATION_JSON_TYPE).accept(encoding.getMediaType())
+                .post(ClientResponse.class, request);
+            Assert.assertEquals("Invalid response code", 200, response.getStatus());
+            Assert.assertEquals(MediaType.valueOf(encoding.getMediaType()), response.getType());
+            SeriesQueryResult actual = encoding.getObjectMapper().readValue(response.getEntity(byte[].class), SeriesQueryResult.class);
+            Assert.assertEquals(expected.getClientId(), actual.getClientId());
+            Assert.assertEquals(expected.getStartTimeActual(), actual.getStartTimeActual());
+            Assert.assertEquals(expected.getEndTimeActual(), actual.getEndTimeActual());
+            Assert.assertEquals(new ArrayList<>(expected.getResults()), new ArrayList<>(actual.getResults()));
+        }
+    }
+
+    @Test
+    public void queryTestCompressedRequest() throws Exception {
+        PerformanceQuery request = makeRequestObject(Optional.of("my-client-id"), Optional.of("1437520000"),
+            Optional.of("1437523600"), Optional.of(ReturnSet.EXACT), Optional.of(true),
+            new String[] { "avg:laLoadInt1", "sum:laLoadInt5{tag1=value}" });
+        WebResource wr = client().resource(PERFORMANCE_QUERY_URL);
+        ClientResponse response = wr.type(MediaType.APPLICATION_JSON_TYPE).post(ClientResponse.class, request);
+        Assert.assertEquals("Invalid response code", 200, response.getStatus());
+        SeriesQueryResult expected = Utils.getObjectMapper().readValue(response.getEntity(String.class), SeriesQueryResult.class);
+
+        byte[] json = Utils.jsonStringFromObject(request).getBytes("UTF-8");
+        for (String coding : new String[] { "gzip", "deflate" }) {
+            ByteArrayOutputStream body = new ByteArrayOutputStream();
+            try (OutputStream out = "gzip".equals(coding) ? new GZIPOutputStream(body) : new DeflaterOutputStream(body)) {
+                out.write(json);
+            }
+            response = wr.type(MediaType.APPLICATION_JSON_TYPE).header(HttpHeaders.CONTENT_ENCODING, coding)
+                .post(ClientResponse.class, body.toByteArray());
+            Assert.assertEquals("Invalid response code", 200, response.getStatus());
+            SeriesQueryResult actual = Utils.getObjectMapper().readValue(response.getEntity(String.class), SeriesQueryResult.class);
+            Assert.assertEquals(new ArrayList<>(expected.getResults()), new ArrayList<>(actual.getResults()));
+        }
+
+        response = wr.type(MediaType.APPLICATION_JSON_TYPE).header(HttpHeaders.CONTENT_ENCODING, "br")
+            .post(ClientResponse.class, json);
+        Assert.assertEquals(415, response.getStatus());
+        response = wr.type(MediaType.APPLICATION_JSON_TYPE).header(HttpHeaders.CONTENT_ENCODING, "gzip")
+            .post(ClientResponse.class, json);
+        Assert.assertEquals(400, response.getStatus());
+    }
 }
@@ -31,15 +31,23 @@
 
 package org.zenoss.app.metricservice;
 
+import com.yammer.metrics.Metrics;
+import com.yammer.metrics.core.Gauge;
+import com.yammer.metrics.core.MetricName;
 import org.junit.Assert;
 import org.junit.Before;
 import org.junit.Test;
 import org.zenoss.app.metricservice.calculators.*;
+import org.zenoss.app.metricservice.buckets.Value;
 import org.zenoss.app.metricservice.calculators.rpn.Calculator;
+import org.zenoss.app.metricservice.calculators.rpn.RPNException;
 
 import java.util.Date;
 import java.util.List;
+import java.util.Random;
+
 import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.when;
 /**
  * @author david
  * 
@@ -515,4 +523,341 @@ public class RpnTest {
         Assert.assertEquals("A reference beginning with a digit should work",6.0, calc.evaluate("53 this is a test,ref2,*"), 0.0);
     }
 
+    @Test
+    public void savedExpressionIsReusedAcrossValues() throws ClassNotFoundException, UnknownReferenceException, BadExpressionException {
+        MetricCalculator calc = new MetricCalculatorFactory().newInstance("rpn:8,*,dup,100,le,exc,100,if");
+        for (int value = 0; value < 20; value++) {
+            Assert.assertEquals(value * 8 > 100 ? 100.0 : value * 8.0, calc.evaluate((double) value), 0.0);
+        }
+        Assert.assertEquals(4.0, calc.evaluate(1.0, "3,+"), 0.0);
+        Assert.assertEquals(16.0, calc.evaluate(2.0), 0.0);
+    }
+
+    @Test
+    public void equalityComparesLikeDouble() throws ClassNotFoundException, UnknownReferenceException, BadExpressionException {
+        MetricCalculator calc = new MetricCalculatorFactory().newInstance("rpn");
+        Assert.assertEquals(1.0, calc.evaluate("unkn,unkn,eq"), 0.0);
+        Assert.assertEquals(0.0, calc.evaluate("unkn,unkn,ne"), 0.0);
+        Assert.assertEquals(1.0, calc.evaluate("2,2.0,eq"), 0.0);
+        Assert.assertEquals(1.0, calc.evaluate("0,-0,ne"), 0.0);
+    }
+
+    @Test
+    public void unknownCharactersAreIgnored() throws ClassNotFoundException, UnknownReferenceException, BadExpressionException {
+        MetricCalculator calc = new MetricCalculatorFactory().newInstance("rpn");
+        Assert.assertEquals(5.0, calc.evaluate("2, ,.5,_x,3,+"), 0.0);
+        Assert.assertEquals(2.0, calc.evaluate("1,2,3,3,avg"), 0.0);
+    }
+
+    @Test
+    public void stackUnderflowIsABadExpression() throws ClassNotFoundException, UnknownReferenceException {
+        MetricCalculator calc = new MetricCalculatorFactory().newInstance("rpn");
+        for (String expression : new String[]{"1,+", "dup", "1,2,if", "1,2,3,sort", "-1,rev"}) {
+            try {
+                calc.evaluate(expression);
+                Assert.fail("Expected " + expression + " to run out of values");
+            } catch (BadExpressionException e) {
+                // expected
+            }
+        }
+    }
+
+    @Test
+    public void validateRejectsExpressionsThatAlwaysFail() throws ClassNotFoundException {
+        for (String expression : new String[]{"rpn:+", "rpn:1,+", "rpn:x,2,3,limit,+", "rpn:"}) {
+            try {
+                new MetricCalculatorFactory().newInstance(expression).validate();
+                Assert.fail("Expected " + expression + " to be rejected");
+            } catch (BadExpressionException e) {
+                // expected
+            }
+        }
+        for (String expression : new String[]{"rpn:x,8,*", "rpn:x,dup,exc,-", "rpn:x,y,z,3,sort,+,+", "rpn:1,2,3,3,avg"}) {
+            try {
+                new MetricCalculatorFactory().newInstance(expression).validate();
+            } catch (BadExpressionException e) {
+                Assert.fail("Expected " + expression + " to be accepted: " + e.getMessage());
+            }
+        }
+    }
+
+    private static final String[] COLUMN_EXPRESSIONS = {
+            "x,8,*", "x,1024,/,1024,/", "x,y,+,2,/", "x,y,-,abs", "x,y,%", "x,y,addnan", "x,y,min,y,x,max,-",
+            "x,y,atan2,rad2deg,deg2rad", "x,y,lt,x,y,le,+,x,y,gt,+,x,y,ge,+", "x,y,eq,x,y,ne,-",
+            "x,0,y,if", "x,0,100,limit", "x,un,x,isinf,+", "x,sqrt,floor,x,ceil,+", "x,log,exp",
+            "x,sin,x,cos,+,x,tan,+,x,atan,+", "x,dup,*,y,exc,-", "unkn,inf,neginf,x,3,avg",
+            "x,y,time,3,sort,-,-", "x,y,2,rev,/", "time,x,+"};
+
+    @Test
+    public void columnsMatchRowByRow() throws ClassNotFoundException, UnknownReferenceException, BadExpressionException {
+        Random random = new Random(11);
+        final int rows = 500;
+        final double[] x = new double[rows];
+        final double[] y = new double[rows];
+        final double[] time = new double[rows];
+        double[] special = {Double.NaN, Double.POSITIVE_INFINITY, Double.NEGATIVE_INFINITY, 0.0, -0.0, 1.0};
+        for (int i = 0; i < rows; i++) {
+            x[i] = random.nextInt(10) == 0 ? special[random.nextInt(special.length)] : random.nextGaussian() * 100;
+            y[i] = random.nextInt(10) == 0 ? special[random.nextInt(special.length)] : random.nextInt(200) - 100;
+            time[i] = 1437520800 + i * 300;
+        }
+        final ColumnProvider columns = new ColumnProvider() {
+            @Override
+            public double[] lookup(String name) throws UnknownReferenceException {
+                switch (name) {
+                    case "x":
+                        return x;
+                    case "y":
+                        return y;
+                    case "time":
+                        return time;
+                    default:
+                        throw new UnknownReferenceException(name);
+                }
+            }
+        };
+        for (String expression : COLUMN_EXPRESSIONS) {
+            MetricCalculator calc = new MetricCalculatorFactory().newInstance("rpn:" + expression);
+            calc.setReferenceProvider(new ReferenceProvider() {
+                @Override
+                public double lookup(String name, Closure closure) throws UnknownReferenceException {
+                    return columns.lookup(name)[(int) closure.getTimeStamp()];
+                }
+            });
+            double[] result = calc.evaluate(rows, columns);
+            Assert.assertEquals(rows, result.length);
+            for (int i = 0; i < rows; i++) {
+                Closure closure = mock(Closure.class);
+                when(closure.getTimeStamp()).thenReturn((long) i);
+                Assert.assertEquals(expression + " at row " + i, calc.evaluate(closure), result[i], 0.0);
+            }
+        }
+    }
+
+    @Test
+    public void columnsReportErrorsLikeRows() throws ClassNotFoundException, BadExpressionException {
+        ColumnProvider columns = new ColumnProvider() {
+            @Override
+            public double[] lookup(String name) throws UnknownReferenceException {
+                throw new UnknownReferenceException(name);
+            }
+        };
+        MetricCalculator calc = new MetricCalculatorFactory().newInstance("rpn:1,+");
+        try {
+            calc.evaluate(3, columns);
+            Assert.fail("Expected the expression to run out of values");
+        } catch (RPNException | UnknownReferenceException e) {
+            Assert.assertTrue(e instanceof RPNException);
+        }
+        calc = new MetricCalculatorFactory().newInstance("rpn:x,+");
+        try {
+            calc.evaluate(3, columns);
+            Assert.fail("Expected the reference to be unknown");
+        } catch (RPNException | UnknownReferenceException e) {
+            Assert.assertTrue(e instanceof UnknownReferenceException);
+        }
+        try {
+            Assert.assertEquals(0, calc.evaluate(0, columns).length);
+        } catch (UnknownReferenceException e) {
+            Assert.fail("Nothing should be looked up for no rows");
+        }
+    }
+
+    /**
+     * Converts a week of five minute values a value at a time and a column
+     * at a time, and checks both give the same values.
+     */
+    @Test
+    public void testColumnMatchesValueAtATime() throws ClassNotFoundException, UnknownReferenceException, BadExpressionException {
+        final int rows = 2016;
+        final double[] values = new double[rows];
+        for (int i = 0; i < rows; i++) {
+            values[i] = i * 1000.0;
+        }
+        MetricCalculator calc = new MetricCalculatorFactory().newInstance("rpn:x,8,*,1024,/,1024,/");
+        calc.setReferenceProvider(new ReferenceProvider() {
+            @Override
+            public double lookup(String name, Closure closure) {
+                return values[(int) closure.getTimeStamp()];
+            }
+        });
+        ColumnProvider columns = new ColumnProvider() {
+            @Override
+            public double[] lookup(String name) {
+                return values;
+            }
+        };
+        final long[] row = new long[1];
+        Closure closure = new Closure() {
+            @Override
+            public long getTimeStamp() {
+                return row[0];
+            }
+
+            @Override
+            public Value getValueByShortcut(String name) {
+                return null;
+            }
+        };
+        double[] column = calc.evaluate(rows, columns);
+        Assert.assertEquals(rows, column.length);
+        for (row[0] = 0; row[0] < rows; row[0]++) {
+            Assert.assertEquals(calc.evaluate(closure), column[(int) row[0]], 0.0);
+        }
+    }
+
+    @Test
+    public void compiledExpressionsAreShared() throws ClassNotFoundException, UnknownReferenceException, BadExpressionException {
+        String expression = "rpn:" + System.nanoTime() + ",2,*";
+        long hits = cacheGauge("program-cache-hits");
+        long misses = cacheGauge("program-cache-misses");
+        MetricCalculator first = new MetricCalculatorFactory().newInstance(expression);
+        MetricCalculator second = new MetricCalculatorFactory().newInstance(expression);
+        Assert.assertNotSame(first, second);
+        Assert.assertEquals(first.evaluate(), second.evaluate(), 0.0);
+        Assert.assertEquals(misses + 1, cacheGauge("program-cache-misses"));
+        Assert.assertTrue(cacheGauge("program-cache-hits") > hits);
+    }
+
+    @Test
+    public void sharedSubexpressionsMatchSeparateEvaluation() throws ClassNotFoundException, UnknownReferenceException, BadExpressionException {
+        final int rows = 100;
+        final double[] octets = new double[rows];
+        for (int i = 0; i < rows; i++) {
+            octets[i] = i * 1000.0;
+        }
+        ColumnProvider columns = new ColumnProvider() {
+            @Override
+            public double[] lookup(String name) throws UnknownReferenceException {
+                if ("ifInOctets".equals(name)) {
+                    return octets;
+                }
+                throw new UnknownReferenceException(name);
+            }
+        };
+        String[] expressions = {"rpn:ifInOctets,8,*", "rpn:ifInOctets, 8.0, *,1000000,/", "rpn:ifInOctets,8,*,dup,+"};
+        SharedColumns shared = new SharedColumns(columns);
+        MetricCalculator[] calcs = new MetricCalculator[expressions.length];
+        for (int i = 0; i < expressions.length; i++) {
+            calcs[i] = new MetricCalculatorFactory().newInstance(expressions[i]);
+            calcs[i].prepare(shared);
+        }
+        for (int i = 0; i < expressions.length; i++) {
+            Assert.assertArrayEquals(expressions[i], calcs[i].evaluate(rows, columns), calcs[i].evaluate(rows, shared), 0.0);
+        }
+        Assert.assertEquals(2, shared.getReused());
+    }
+
+    @Test
+    public void invalidatedReferencesAreLookedUpAgain() throws ClassNotFoundException, UnknownReferenceException, BadExpressionException {
+        final double[][] values = {{1, 2, 3}};
+        ColumnProvider columns = new ColumnProvider() {
+            @Override
+            public double[] lookup(String name) throws UnknownReferenceException {
+                return values[0].clone();
+            }
+        };
+        SharedColumns shared = new SharedColumns(columns);
+        MetricCalculator first = new MetricCalculatorFactory().newInstance("rpn:x,2,*");
+        MetricCalculator second = new MetricCalculatorFactory().newInstance("rpn:x,2,*,1,+");
+        first.prepare(shared);
+        second.prepare(shared);
+        Assert.assertArrayEquals(new double[]{2, 4, 6}, first.evaluate(3, shared), 0.0);
+        values[0] = new double[]{10, 20, 30};
+        shared.invalidate("x");
+        Assert.assertArrayEquals(new double[]{21, 41, 61}, second.evaluate(3, shared), 0.0);
+        Assert.assertEquals(0, shared.getReused());
+    }
+
+    @Test
+    public void onlyIdenticalPrefixesAreShared() throws ClassNotFoundException, UnknownReferenceException, BadExpressionException {
+        ColumnProvider columns = new ColumnProvider() {
+            @Override
+            public double[] lookup(String name) throws UnknownReferenceException {
+                return new double[]{1, 2, 3};
+            }
+        };
+        SharedColumns shared = new SharedColumns(columns);
+        MetricCalculator first = new MetricCalculatorFactory().newInstance("rpn:x,2,*,y,+");
+        MetricCalculator second = new MetricCalculatorFactory().newInstance("rpn:x,3,*,y,+");
+        first.prepare(shared);
+        second.prepare(shared);
+        Assert.assertArrayEquals(new double[]{3, 6, 9}, first.evaluate(3, shared), 0.0);
+        Assert.assertArrayEquals(new double[]{4, 8, 12}, second.evaluate(3, shared), 0.0);
+        Assert.assertEquals("only x should be reused", 1, shared.getReused());
+    }
+
+    @Test
+    public void perValueCalculatorsAreEvaluatedByRow() throws UnknownReferenceException, BadExpressionException {
+        MetricCalculator calc = new BaseMetricCalculator() {
+            @Override
+            public double evaluate(double value, String expression, Closure closure) throws UnknownReferenceException {
+                return getReferenceProvider().lookup("a", closure) * 2 + closure.getTimeStamp();
+            }
+
+            @Override
+            public double evaluate(double value, String expression) throws UnknownReferenceException {
+                throw new UnknownReferenceException("a");
+            }
+
+            @Override
+            public double evaluate(String expression, Closure closure) throws UnknownReferenceException {
+                return evaluate(0, expression, closure);
+            }
+
+            @Override
+            public double evaluate(String expression) throws UnknownReferenceException {
+                throw new UnknownReferenceException("a");
+            }
+
+            @Override
+            public double evaluate(double value, Closure closure) throws UnknownReferenceException {
+                return evaluate(value, getExpression(), closure);
+            }
+
+            @Override
+            public double evaluate(double value) throws UnknownReferenceException {
+                throw new UnknownReferenceException("a");
+            }
+
+            @Override
+            public double evaluate(Closure closure) throws UnknownReferenceException {
+                return evaluate(0, getExpression(), closure);
+            }
+
+            @Override
+            public double evaluate() throws UnknownReferenceException {
+                throw new UnknownReferenceException("a");
+            }
+        };
+        calc.setReferenceProvider(new ReferenceProvider() {
+            @Override
+            public double lookup(String name, Closure closure) throws UnknownReferenceException {
+                Value value = closure.getValueByShortcut(name);
+                if (null == value || value.getCount() == 0) {
+                    throw new UnknownReferenceException(name);
+                }
+                return value.getValue();
+            }
+        });
+        ColumnProvider columns = new ColumnProvider() {
+            @Override
+            public double[] lookup(String name) throws UnknownReferenceException {
+                if ("time".equals(name)) {
+                    return new double[]{10, 20, 30};
+                }
+                if ("a".equals(name)) {
+                    return new double[]{1, Double.NaN, 3};
+                }
+                throw new UnknownReferenceException(name);
+            }
+        };
+        Assert.assertTrue(calc.getReferences().isEmpty());
+        Assert.assertArrayEquals(new double[]{12, Double.NaN, 36}, calc.evaluate(3, columns), 0.0);
+    }
+
+    private static long cacheGauge(String name) {
+        Gauge<?> gauge = (Gauge<?>) Metrics.defaultRegistry().allMetrics().get(new MetricName(Calculator.class, name));
+        return ((Number) gauge.value()).longValue();
+    }
 }
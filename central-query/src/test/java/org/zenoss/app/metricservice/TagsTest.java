@@ -224,4 +224,37 @@ public class TagsTest {
                 s.equals("{tag2=value3|value4,tag1=value1|value2}")
                         || s.equals("{tag1=value1|value2,tag2=value3|value4}"));
     }
+
+    @Test
+    public void equalTagsAreOneInstance() {
+        Map<String, String> openTsdbTags = new HashMap<>();
+        openTsdbTags.put("tag2", "value2");
+        openTsdbTags.put("tag1", "value1");
+        Tags tags1 = Tags.fromValue("tag2=value2 tag1=value1");
+        Tags tags2 = Tags.fromOpenTsdbTags(openTsdbTags);
+        Assert.assertSame("canonical instance", tags1, tags2);
+        Assert.assertEquals("fingerprint", tags1.getFingerprint(), tags2.getFingerprint());
+        Assert.assertEquals("{tag1=value1,tag2=value2}", tags2.toString());
+        Assert.assertSame("empty", Tags.EMPTY, Tags.fromOpenTsdbTags(null));
+        Assert.assertSame("empty", Tags.EMPTY, Tags.fromValue(new HashMap<String, List<String>>()));
+    }
+
+    @Test
+    public void fingerprintDistinguishesTags() {
+        Tags tags1 = Tags.fromValue("tag1=value1 tag2=value2");
+        Assert.assertNotEquals(tags1.getFingerprint(), Tags.fromValue("tag1=value1 tag2=value3").getFingerprint());
+        // Moving characters between name and value changes the fingerprint
+        Assert.assertNotEquals(Tags.fromValue("ab=c").getFingerprint(), Tags.fromValue("a=bc").getFingerprint());
+        Assert.assertNotEquals(Tags.fromValue("a=b c=d").getFingerprint(), Tags.fromValue("a=b").getFingerprint());
+        Assert.assertEquals("value2", tags1.get("tag2"));
+        Assert.assertNull(tags1.get("tag3"));
+    }
+
+    @Test
+    public void matchSkipsExtraTags() {
+        Tags pattern = Tags.fromValue("b=* d=x|y");
+        Assert.assertTrue(pattern.match(Tags.fromValue("a=1 b=2 c=3 d=y e=5")));
+        Assert.assertFalse(pattern.match(Tags.fromValue("a=1 b=2 c=3 d=z e=5")));
+        Assert.assertFalse(pattern.match(Tags.fromValue("a=1 c=3 d=y e=5")));
+    }
 }
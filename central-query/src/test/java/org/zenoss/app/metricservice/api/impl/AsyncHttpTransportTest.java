@@ -0,0 +1,163 @@
+/*
+ * ****************************************************************************
+ *
+ *  Copyright (C) Zenoss, Inc. 2026, all rights reserved.
+ *
+ *  This content is made available according to terms specified in
+ *  License.zenoss distributed with this file.
+ *
+ * ***************************************************************************
+ */
+package org.zenoss.app.metricservice.api.impl;
+
+import com.github.tomakehurst.wiremock.WireMockServer;
+import com.github.tomakehurst.wiremock.client.WireMock;
+import org.junit.AfterClass;
+import org.junit.BeforeClass;
+import org.junit.Test;
+
+import java.io.ByteArrayOutputStream;
+import java.io.InputStream;
+import java.net.ServerSocket;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.CompletableFuture;
+import java.util.zip.GZIPOutputStream;
+
+import static com.github.tomakehurst.wiremock.client.WireMock.aResponse;
+import static com.github.tomakehurst.wiremock.client.WireMock.get;
+import static com.github.tomakehurst.wiremock.client.WireMock.post;
+import static com.github.tomakehurst.wiremock.client.WireMock.urlEqualTo;
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+public class AsyncHttpTransportTest {
+
+    private static final int RESPONSE_DELAY_MS = 200;
+
+    private static final byte[] LARGE = new byte[4 * 1024 * 1024];
+
+    private static WireMockServer server;
+    private static String url;
+    private static String base;
+
+    @BeforeClass
+    public static void startStub() throws Exception {
+        int port;
+        try (ServerSocket socket = new ServerSocket(0)) {
+            port = socket.getLocalPort();
+        }
+        server = new WireMockServer(port);
+        server.start();
+        WireMock stub = new WireMock("localhost", port);
+        stub.register(post(urlEqualTo("/api/query"))
+                .willReturn(aResponse().withStatus(200).withBody("[]").withFixedDelay(RESPONSE_DELAY_MS)));
+        for (int i = 0; i < LARGE.length; i++) {
+            LARGE[i] = (byte) ('a' + i % 26);
+        }
+        ByteArrayOutputStream gzipped = new ByteArrayOutputStream();
+        try (GZIPOutputStream out = new GZIPOutputStream(gzipped)) {
+            out.write(LARGE);
+        }
+        stub.register(get(urlEqualTo("/large")).willReturn(aResponse().withStatus(200).withBody(LARGE)));
+        stub.register(get(urlEqualTo("/gzipped"))
+                .willReturn(aResponse().withStatus(200).withHeader("Content-Encoding", "gzip").withBody(gzipped.toByteArray())));
+        stub.register(get(urlEqualTo("/empty")).willReturn(aResponse().withStatus(204)));
+        base = "http://localhost:" + port;
+        url = base + "/api/query";
+    }
+
+    @AfterClass
+    public static void stopStub() {
+        if (null != server) {
+            server.stop();
+        }
+    }
+
+    @Test
+    public void testContentIsReadAsItArrives() throws Exception {
+        AsyncHttpTransport transport = new AsyncHttpTransport(2, 5000, 5000L, true);
+        transport.start();
+        try {
+            assertArrayEquals(LARGE, readAll(transport.get(base + "/large").get()));
+            assertArrayEquals(LARGE, readAll(transport.get(base + "/gzipped").get()));
+            assertFalse(transport.get(base + "/empty").get().hasContent());
+        } finally {
+            transport.stop();
+        }
+    }
+
+    private static byte[] readAll(AsyncHttpTransport.Answer answer) throws Exception {
+        assertEquals(200, answer.getStatus());
+        ByteArrayOutputStream content = new ByteArrayOutputStream();
+        byte[] buffer = new byte[8192];
+        try (InputStream in = answer.getContent()) {
+            for (int n = in.read(buffer); n >= 0; n = in.read(buffer)) {
+                content.write(buffer, 0, n);
+            }
+        }
+        return content.toByteArray();
+    }
+
+    @Test
+    public void testRequestsInFlightAreBounded() throws Exception {
+        AsyncHttpTransport transport = new AsyncHttpTransport(6, 2, 5000, 5000L, false);
+        transport.start();
+        try {
+            long started = System.nanoTime();
+            List<CompletableFuture<AsyncHttpTransport.Answer>> answers = new ArrayList<>();
+            for (int i = 0; i < 6; i++) {
+                answers.add(transport.post(url, "{}"));
+            }
+            for (CompletableFuture<AsyncHttpTransport.Answer> answer : answers) {
+                assertEquals(200, answer.get().getStatus());
+            }
+            long elapsedMs = (System.nanoTime() - started) / 1_000_000;
+            assertTrue(String.format("6 requests, 2 at a time, took %d ms", elapsedMs), elapsedMs >= 3 * RESPONSE_DELAY_MS);
+        } finally {
+            transport.stop();
+        }
+    }
+
+    @Test
+    public void testCancelledRequestsGiveBackNoPermit() throws Exception {
+        AsyncHttpTransport transport = new AsyncHttpTransport(6, 1, 5000, 5000L, false);
+        transport.start();
+        try {
+            long started = System.nanoTime();
+            CompletableFuture<AsyncHttpTransport.Answer> first = transport.post(url, "{}");
+            transport.post(url, "{}").cancel(false);
+            CompletableFuture<AsyncHttpTransport.Answer> second = transport.post(url, "{}");
+            CompletableFuture<AsyncHttpTransport.Answer> third = transport.post(url, "{}");
+            assertEquals(200, first.get().getStatus());
+            assertEquals(200, second.get().getStatus());
+            assertEquals(200, third.get().getStatus());
+            long elapsedMs = (System.nanoTime() - started) / 1_000_000;
+            assertTrue(String.format("3 requests, 1 at a time, took %d ms", elapsedMs), elapsedMs >= 3 * RESPONSE_DELAY_MS);
+        } finally {
+            transport.stop();
+        }
+    }
+
+    @Test
+    public void testRequestsAreSentOverEveryConnection() throws Exception {
+        AsyncHttpTransport transport = new AsyncHttpTransport(6, 5000, 5000L, false);
+        transport.start();
+        try {
+            long started = System.nanoTime();
+            List<CompletableFuture<AsyncHttpTransport.Answer>> answers = new ArrayList<>();
+            for (int i = 0; i < 6; i++) {
+                answers.add(transport.post(url, "{}"));
+            }
+            for (CompletableFuture<AsyncHttpTransport.Answer> answer : answers) {
+                assertEquals(200, answer.get().getStatus());
+            }
+            long elapsedMs = (System.nanoTime() - started) / 1_000_000;
+            assertTrue(String.format("6 requests over 6 connections took %d ms", elapsedMs), elapsedMs < 3 * RESPONSE_DELAY_MS);
+        } finally {
+            transport.stop();
+        }
+    }
+}
@@ -35,8 +35,11 @@ import org.junit.Test;
 import org.zenoss.app.metricservice.api.model.InterpolatorType;
 import org.zenoss.app.metricservice.api.model.MetricSpecification;
 import org.zenoss.app.metricservice.buckets.Buckets;
+import org.zenoss.app.metricservice.buckets.DenseBuckets;
 import org.zenoss.app.metricservice.buckets.Value;
 import org.zenoss.app.metricservice.calculators.Closure;
+import org.zenoss.app.metricservice.calculators.MetricCalculator;
+import org.zenoss.app.metricservice.calculators.MetricCalculatorFactory;
 import org.zenoss.app.metricservice.testutil.ConstantSeriesGenerator;
 import org.zenoss.app.metricservice.testutil.DataReaderGenerator;
 import org.zenoss.app.metricservice.testutil.SeriesGenerator;
@@ -44,10 +47,15 @@ import org.zenoss.app.metricservice.testutil.YEqualsXSeriesGenerator;
 
 import java.util.ArrayList;
 import java.util.Collection;
+import java.util.Collections;
 import java.util.List;
+import java.util.concurrent.ForkJoinPool;
 
+import static org.junit.Assert.assertArrayEquals;
 import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
 import static org.junit.Assert.assertNotNull;
+import static org.junit.Assert.assertTrue;
 import static org.mockito.Mockito.mock;
 import static org.mockito.Mockito.when;
 
@@ -132,6 +140,132 @@ public class DefaultResultProcessorTest {
         }
     }
 
+    @Test
+    public void testProcessResultsWithBoundedRangeMatchesUnboundedRange() throws Exception {
+        List<MetricSpecification> queries = makeQueries();
+        Buckets<IHasShortcut> sparse = new DefaultResultProcessor(makeYEqualsXResults(), queries, BUCKET_SIZE).processResults();
+        // Narrower than the data, so some points fall on either side of the range
+        Buckets<IHasShortcut> dense = new DefaultResultProcessor(makeYEqualsXResults(), queries, BUCKET_SIZE,
+                START_TIME + DAILY_STEP, END_TIME - DAILY_STEP).processResults();
+        assertTrue("A bounded range should be processed into dense buckets.", dense instanceof DenseBuckets);
+        assertArrayEquals("Bounded and unbounded processing should produce the same buckets.",
+                sparse.getOrderedTimestamps(), dense.getOrderedTimestamps());
+        for (long timestamp : sparse.getOrderedTimestamps()) {
+            for (MetricSpecification query : queries) {
+                String nameOrMetric = query.getNameOrMetric();
+                assertEquals(String.format("Value of series %s at timestamp %d not correct.", nameOrMetric, timestamp),
+                        sparse.getValueByShortcut(nameOrMetric, timestamp), dense.getValueByShortcut(nameOrMetric, timestamp), EPSILON);
+            }
+        }
+    }
+
+    @Test
+    public void testProcessResultsWithoutDownsampleUsesSparseBuckets() throws Exception {
+        Buckets<IHasShortcut> buckets = new DefaultResultProcessor(makeYEqualsXResults(), makeQueries(), 1,
+                START_TIME, START_TIME + 3600).processResults();
+        assertFalse("Points that are not downsampled should stay sparse.", buckets instanceof DenseBuckets);
+    }
+
+    @Test
+    public void testProcessResultsWithFewPointsUsesSparseBuckets() throws Exception {
+        DataReaderGenerator generator = new DataReaderGenerator();
+        generator.addSeries(MetricSpecification.fromString("dailyMetric"), new YEqualsXSeriesGenerator(), START_TIME, END_TIME, DAILY_STEP);
+        List<MetricSpecification> queries = Collections.singletonList(MetricSpecification.fromString("dailyMetric"));
+        Buckets<IHasShortcut> buckets = new DefaultResultProcessor(generator.getResults(), queries, BUCKET_SIZE,
+                START_TIME, END_TIME).processResults();
+        assertFalse("A series filling few buckets should stay sparse.", buckets instanceof DenseBuckets);
+        assertEquals(15, buckets.getOrderedTimestamps().length);
+    }
+
+    @Test
+    public void testCalculatedValuesReferencingLaterCalculatedValues() throws Exception {
+        List<MetricSpecification> queries = makeQueries();
+        MetricSpecification doubled = new MetricSpecification();
+        doubled.setName("Doubled");
+        doubled.setExpression("rpn:" + CALCULATED_VALUE_SERIES_NAME + ",2,*");
+        queries.add(0, doubled);
+        Buckets<IHasShortcut> results = new DefaultResultProcessor(makeResults(), queries, BUCKET_SIZE).processResults();
+        for (long timestamp : results.getOrderedTimestamps()) {
+            assertEquals(String.format("Value of series Doubled at timestamp %d not correct.", timestamp),
+                    2 * (CONST_VALUE + CONST_VALUE), results.getValueByShortcut("Doubled", timestamp), EPSILON);
+        }
+    }
+
+    @Test
+    public void testParallelProcessingMatchesSequentialProcessing() throws Exception {
+        List<MetricSpecification> queries = makeQueries();
+        MetricSpecification ratio = new MetricSpecification();
+        ratio.setName("Ratio");
+        ratio.setExpression("rpn:hourlyMetric,dailyMetric,/,100,*");
+        queries.add(ratio);
+        ForkJoinPool pool = new ForkJoinPool(4);
+        try {
+            for (long end : new long[]{-1, END_TIME}) {
+                Buckets<IHasShortcut> sequential = new DefaultResultProcessor(makeYEqualsXResults(), queries, BUCKET_SIZE,
+                        START_TIME, end).processResults();
+                DefaultResultProcessor victim = new DefaultResultProcessor(makeYEqualsXResults(), queries, BUCKET_SIZE,
+                        START_TIME, end);
+                victim.setParallelism(pool, 1, 1);
+                Buckets<IHasShortcut> parallel = victim.processResults();
+                assertArrayEquals("Parallel and sequential processing should produce the same buckets.",
+                        sequential.getOrderedTimestamps(), parallel.getOrderedTimestamps());
+                for (long timestamp : sequential.getOrderedTimestamps()) {
+                    for (MetricSpecification query : queries) {
+                        String nameOrMetric = query.getNameOrMetric();
+                        assertEquals(String.format("Value of series %s at timestamp %d not correct.", nameOrMetric, timestamp),
+                                sequential.getValueByShortcut(nameOrMetric, timestamp), parallel.getValueByShortcut(nameOrMetric, timestamp), 0.0);
+                    }
+                }
+            }
+        } finally {
+            pool.shutdown();
+        }
+    }
+
+    @Test
+    public void testMissingReferencesMatchPerRowEvaluation() throws Exception {
+        List<MetricSpecification> queries = new ArrayList<>();
+        queries.add(MetricSpecification.fromString("hourlyMetric"));
+        queries.add(MetricSpecification.fromString("dailyMetric"));
+        String[] expressions = {"rpn:dailyMetric,un,0,dailyMetric,if", "rpn:hourlyMetric,dailyMetric,addnan", "rpn:missingMetric,un"};
+        for (int i = 0; i < expressions.length; i++) {
+            MetricSpecification calculated = new MetricSpecification();
+            calculated.setName("Calculated" + i);
+            calculated.setExpression(expressions[i]);
+            queries.add(calculated);
+        }
+        DefaultResultProcessor victim = new DefaultResultProcessor(makeResults(), queries, BUCKET_SIZE);
+        Buckets<IHasShortcut> results = victim.processResults();
+        long[] timestamps = results.getOrderedTimestamps();
+        assertEquals("every bucket should be kept", (END_TIME - START_TIME) / HOURLY_STEP + 1, timestamps.length);
+        for (long timestamp : timestamps) {
+            Buckets<IHasShortcut>.Bucket bucket = results.getBucket(timestamp);
+            boolean daily = bucket.getValueByShortcut("dailyMetric").getCount() > 0;
+            for (int i = 0; i < expressions.length; i++) {
+                MetricCalculator calculator = new MetricCalculatorFactory().newInstance(expressions[i]);
+                calculator.setReferenceProvider(victim);
+                final Buckets<IHasShortcut>.Bucket row = bucket;
+                final long ts = timestamp;
+                double perRow = calculator.evaluate(new Closure() {
+                    @Override
+                    public long getTimeStamp() {
+                        return ts;
+                    }
+
+                    @Override
+                    public Value getValueByShortcut(String name) {
+                        return row.getValueByShortcut(name);
+                    }
+                });
+                assertEquals(String.format("Calculated%d at %d", i, timestamp), perRow,
+                        results.getValueByShortcut("Calculated" + i, timestamp), 0.0);
+            }
+            assertEquals(daily ? CONST_VALUE : 0.0, results.getValueByShortcut("Calculated0", timestamp), 0.0);
+            assertEquals(daily ? 2 * CONST_VALUE : CONST_VALUE, results.getValueByShortcut("Calculated1", timestamp), 0.0);
+            assertEquals(1.0, results.getValueByShortcut("Calculated2", timestamp), 0.0);
+        }
+    }
+
     private Collection<OpenTSDBQueryResult> makeResults() {
         DataReaderGenerator generator = new DataReaderGenerator();
         SeriesGenerator dataGen = new ConstantSeriesGenerator(CONST_VALUE);
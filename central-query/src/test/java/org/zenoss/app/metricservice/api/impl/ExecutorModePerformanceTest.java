@@ -0,0 +1,175 @@
+/*
+ * ****************************************************************************
+ *
+ *  Copyright (C) Zenoss, Inc. 2026, all rights reserved.
+ *
+ *  This content is made available according to terms specified in
+ *  License.zenoss distributed with this file.
+ *
+ * ***************************************************************************
+ */
+package org.zenoss.app.metricservice.api.impl;
+
+import com.github.tomakehurst.wiremock.WireMockServer;
+import com.github.tomakehurst.wiremock.client.WireMock;
+import org.junit.AfterClass;
+import org.junit.BeforeClass;
+import org.junit.Ignore;
+import org.junit.Test;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.zenoss.app.metricservice.MetricServiceAppConfiguration;
+import org.zenoss.app.metricservice.api.configs.MetricServiceConfig;
+import org.zenoss.app.metricservice.api.model.MetricSpecification;
+
+import java.io.IOException;
+import java.lang.management.ManagementFactory;
+import java.lang.management.ThreadMXBean;
+import java.net.ServerSocket;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import static com.github.tomakehurst.wiremock.client.WireMock.aResponse;
+import static com.github.tomakehurst.wiremock.client.WireMock.post;
+import static com.github.tomakehurst.wiremock.client.WireMock.urlEqualTo;
+import static org.junit.Assert.assertEquals;
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.when;
+
+/**
+ * Compares the executor thread pool with the connection bounded executor
+ * when fetching many specifications at once from a stub OpenTSDB that
+ * answers every query after a fixed delay. The numbers of concurrent fetches
+ * are given by {@code executor.benchmark.fetches}, a comma separated list,
+ * 1000 by default; use 1000,5000,20000 for the full comparison. The runs are
+ * logged; their timings depend on the machine, so it is only run by hand.
+ */
+@Ignore("benchmark; run by hand")
+public class ExecutorModePerformanceTest {
+    private static final Logger log = LoggerFactory.getLogger(ExecutorModePerformanceTest.class);
+
+    private static final int RESPONSE_DELAY_MS = 5;
+    private static final int CONNECTIONS = 50;
+    private static final String RESPONSE = "[{\"metric\":\"laLoadInt1\",\"tags\":{\"host\":\"a\"},\"aggregateTags\":[],\"dps\":{\"1437520683\":1.0}}]";
+
+    private static WireMockServer server;
+
+    @BeforeClass
+    public static void startStub() throws IOException {
+        int port;
+        try (ServerSocket socket = new ServerSocket(0)) {
+            port = socket.getLocalPort();
+        }
+        server = new WireMockServer(port);
+        server.start();
+        new WireMock("localhost", port).register(post(urlEqualTo("/api/query"))
+                .willReturn(aResponse().withStatus(200).withBody(RESPONSE).withFixedDelay(RESPONSE_DELAY_MS)));
+    }
+
+    @AfterClass
+    public static void stopStub() {
+        if (null != server) {
+            server.stop();
+        }
+    }
+
+    @Test
+    public void compareExecutors() throws Exception {
+        String[] sizes = System.getProperty("executor.benchmark.fetches", "1000").split(",");
+        for (String size : sizes) {
+            int fetches = Integer.parseInt(size.trim());
+            Run pooled = measure(false, fetches);
+            Run bounded = measure(true, fetches);
+
+            log.info("{} concurrent fetches, {} connections, {} ms per response", fetches, CONNECTIONS, RESPONSE_DELAY_MS);
+            log.info("  Thread pool:        {}", pooled);
+            log.info("  Connection bounded: {}", bounded);
+
+            assertEquals(fetches, pooled.succeeded);
+            assertEquals(fetches, bounded.succeeded);
+        }
+    }
+
+    private static Run measure(boolean connectionBounded, int fetches) {
+        MetricServiceConfig conf = new MetricServiceConfig();
+        conf.setOpenTsdbUrl("http://localhost:" + server.port());
+        conf.setMaxTotalPoolConnections(CONNECTIONS);
+        conf.setMaxPoolConnectionsPerRoute(CONNECTIONS);
+        conf.setConnectionBoundedExecutor(connectionBounded);
+        MetricServiceAppConfiguration configuration = mock(MetricServiceAppConfiguration.class);
+        when(configuration.getMetricServiceConfig()).thenReturn(conf);
+        OpenTSDBMetricStorage storage = new OpenTSDBMetricStorage();
+        storage.config = configuration;
+        storage.startup();
+        try {
+            OpenTSDBClient client = OpenTSDBClient.builder(storage.getTransport(), conf.getOpenTsdbUrl() + "/api/query")
+                    .executor(storage.getExecutorService())
+                    .build();
+            ThreadMXBean threads = ManagementFactory.getThreadMXBean();
+            threads.resetPeakThreadCount();
+            long heapBefore = usedHeap();
+
+            final long[] latencies = new long[fetches];
+            final AtomicInteger succeeded = new AtomicInteger();
+            List<CompletableFuture<?>> futures = new ArrayList<>(fetches);
+            long started = System.nanoTime();
+            for (int i = 0; i < fetches; i++) {
+                MetricSpecification spec = MetricSpecification.fromString("laLoadInt1");
+                final int index = i;
+                final long submitted = System.nanoTime();
+                futures.add(new MetricSpecCallable(client, "1h-ago", "now", spec, false, 0).callAsync()
+                        .whenComplete((result, error) -> {
+                            latencies[index] = System.nanoTime() - submitted;
+                            if (null == error && null != result) {
+                                succeeded.incrementAndGet();
+                            }
+                        }));
+            }
+            long heapInFlight = usedHeap() - heapBefore;
+            CompletableFuture.allOf(futures.toArray(new CompletableFuture<?>[futures.size()])).handle((v, e) -> null).join();
+            long millis = (System.nanoTime() - started) / 1000000;
+
+            Arrays.sort(latencies);
+            int largestPool = ((ThreadPoolExecutor) storage.getExecutorService()).getLargestPoolSize();
+            return new Run(millis, latencies[fetches / 2] / 1000000, latencies[(int) (fetches * 0.99)] / 1000000,
+                    threads.getPeakThreadCount(), largestPool, heapInFlight, succeeded.get());
+        } finally {
+            storage.shutdown();
+        }
+    }
+
+    private static long usedHeap() {
+        Runtime runtime = Runtime.getRuntime();
+        return runtime.totalMemory() - runtime.freeMemory();
+    }
+
+    private static class Run {
+        private final long millis;
+        private final long p50;
+        private final long p99;
+        private final int peakThreads;
+        private final int largestPool;
+        private final long heapInFlight;
+        private final int succeeded;
+
+        private Run(long millis, long p50, long p99, int peakThreads, int largestPool, long heapInFlight, int succeeded) {
+            this.millis = millis;
+            this.p50 = p50;
+            this.p99 = p99;
+            this.peakThreads = peakThreads;
+            this.largestPool = largestPool;
+            this.heapInFlight = heapInFlight;
+            this.succeeded = succeeded;
+        }
+
+        @Override
+        public String toString() {
+            return String.format("%6d ms total, p50 %5d ms, p99 %5d ms, %4d peak JVM threads, %4d executor threads, %5d KB heap in flight",
+                    millis, p50, p99, peakThreads, largestPool, heapInFlight >> 10);
+        }
+    }
+}
@@ -0,0 +1,174 @@
+/*
+ * ****************************************************************************
+ *
+ *  Copyright (C) Zenoss, Inc. 2026, all rights reserved.
+ *
+ *  This content is made available according to terms specified in
+ *  License.zenoss distributed with this file.
+ *
+ * ***************************************************************************
+ */
+package org.zenoss.app.metricservice.api.impl;
+
+import com.fasterxml.jackson.jaxrs.json.JacksonJsonProvider;
+import com.google.common.io.ByteStreams;
+import org.junit.Assert;
+import org.junit.Test;
+import org.zenoss.app.metricservice.api.configs.MetricServiceConfig;
+
+import javax.ws.rs.WebApplicationException;
+import javax.ws.rs.core.HttpHeaders;
+import javax.ws.rs.core.MediaType;
+import javax.ws.rs.core.Response;
+import javax.ws.rs.core.StreamingOutput;
+import javax.ws.rs.ext.MessageBodyWriter;
+import javax.ws.rs.ext.Providers;
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.lang.annotation.Annotation;
+import java.lang.reflect.Type;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+import java.util.zip.GZIPInputStream;
+import java.util.zip.GZIPOutputStream;
+
+import static org.mockito.ArgumentMatchers.any;
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.when;
+
+public class HttpCompressionTest {
+
+    @Test
+    public void testNegotiate() {
+        Assert.assertNull(HttpCompression.negotiate(null));
+        Assert.assertNull(HttpCompression.negotiate(Collections.<String>emptyList()));
+        Assert.assertNull(HttpCompression.negotiate(Arrays.asList("identity")));
+        Assert.assertEquals("gzip", HttpCompression.negotiate(Arrays.asList("gzip, deflate")));
+        Assert.assertEquals("gzip", HttpCompression.negotiate(Arrays.asList("deflate", "gzip")));
+        Assert.assertEquals("gzip", HttpCompression.negotiate(Arrays.asList("x-gzip")));
+        Assert.assertEquals("deflate", HttpCompression.negotiate(Arrays.asList("gzip;q=0.5, deflate")));
+        Assert.assertEquals("deflate", HttpCompression.negotiate(Arrays.asList("gzip;q=0,deflate;q=0.1")));
+        Assert.assertEquals("gzip", HttpCompression.negotiate(Arrays.asList("*")));
+        Assert.assertEquals("deflate", HttpCompression.negotiate(Arrays.asList("gzip;q=0, *")));
+        Assert.assertNull(HttpCompression.negotiate(Arrays.asList("*;q=0")));
+    }
+
+    @Test
+    public void testDecode() throws IOException {
+        MetricServiceConfig config = new MetricServiceConfig();
+        byte[] body = "{\"metrics\":[]}".getBytes("UTF-8");
+        ByteArrayOutputStream gzip = new ByteArrayOutputStream();
+        try (GZIPOutputStream out = new GZIPOutputStream(gzip)) {
+            out.write(body);
+        }
+
+        Assert.assertArrayEquals(body, ByteStreams.toByteArray(HttpCompression.decode(new ByteArrayInputStream(body), null, config, false)));
+        Assert.assertArrayEquals(body, ByteStreams.toByteArray(HttpCompression.decode(new ByteArrayInputStream(body), "identity", config, false)));
+        Assert.assertArrayEquals(body, ByteStreams.toByteArray(
+                HttpCompression.decode(new ByteArrayInputStream(gzip.toByteArray()), "GZIP", config, false)));
+        // Already inflated by the container, which leaves the header
+        Assert.assertArrayEquals(body, ByteStreams.toByteArray(HttpCompression.decode(new ByteArrayInputStream(body), "gzip", config, true)));
+        Assert.assertArrayEquals(body, ByteStreams.toByteArray(
+                HttpCompression.decode(new ByteArrayInputStream(gzip.toByteArray()), "x-gzip", config, true)));
+
+        config.setAcceptCompressedRequests(false);
+        try {
+            HttpCompression.decode(new ByteArrayInputStream(gzip.toByteArray()), "gzip", config, false);
+            Assert.fail("Compressed requests should be rejected when not accepted");
+        } catch (WebApplicationException e) {
+            Assert.assertEquals(415, e.getResponse().getStatus());
+        }
+    }
+
+    @Test
+    public void testStreamedResponseIsCompressedLazily() throws IOException {
+        MetricServiceConfig config = new MetricServiceConfig();
+        config.setCompressResponses(true);
+        HttpHeaders headers = mock(HttpHeaders.class);
+        when(headers.getRequestHeader(HttpHeaders.ACCEPT_ENCODING)).thenReturn(Arrays.asList("gzip"));
+
+        StreamingOutput failing = new StreamingOutput() {
+            @Override
+            public void write(OutputStream output) throws IOException, WebApplicationException {
+                throw new WebApplicationException(Response.Status.BAD_REQUEST);
+            }
+        };
+        Response response = HttpCompression.compress(Response.ok(failing).build(), headers, null, config);
+        Assert.assertEquals("gzip", response.getMetadata().getFirst(HttpHeaders.CONTENT_ENCODING));
+        ByteArrayOutputStream out = new ByteArrayOutputStream();
+        try {
+            ((StreamingOutput) response.getEntity()).write(out);
+            Assert.fail("Expected the failure of the wrapped output");
+        } catch (WebApplicationException e) {
+            // Nothing may be written, so that the failure can still become an error response
+            Assert.assertEquals(0, out.size());
+        }
+
+        StreamingOutput output = new StreamingOutput() {
+            @Override
+            public void write(OutputStream output) throws IOException, WebApplicationException {
+                output.write("first".getBytes("UTF-8"));
+                output.flush();
+                output.write("second".getBytes("UTF-8"));
+            }
+        };
+        response = HttpCompression.compress(Response.ok(output).build(), headers, null, config);
+        out = new ByteArrayOutputStream();
+        ((StreamingOutput) response.getEntity()).write(out);
+        Assert.assertEquals("firstsecond",
+                new String(ByteStreams.toByteArray(new GZIPInputStream(new ByteArrayInputStream(out.toByteArray()))), "UTF-8"));
+    }
+
+    @Test
+    @SuppressWarnings("unchecked")
+    public void testEntityIsCompressedFromTheThreshold() throws IOException {
+        MetricServiceConfig config = new MetricServiceConfig();
+        config.setCompressResponses(true);
+        HttpHeaders headers = mock(HttpHeaders.class);
+        when(headers.getRequestHeader(HttpHeaders.ACCEPT_ENCODING)).thenReturn(Arrays.asList("gzip"));
+        Providers providers = mock(Providers.class);
+        JacksonJsonProvider json = new JacksonJsonProvider(Utils.getObjectMapper());
+        when(providers.getMessageBodyWriter(any(Class.class), any(Type.class), any(Annotation[].class), any(MediaType.class)))
+                .thenReturn((MessageBodyWriter) json);
+        List<Long> entity = new ArrayList<>();
+        for (long i = 0; i < 100000; i++) {
+            entity.add(i);
+        }
+        String expected = Utils.getObjectMapper().writeValueAsString(entity);
+
+        config.setCompressionThresholdBytes(expected.length() + 1);
+        Response response = HttpCompression.compress(Response.ok(entity).build(), headers, providers, config);
+        Assert.assertNull(response.getMetadata().getFirst(HttpHeaders.CONTENT_ENCODING));
+        Assert.assertEquals(expected, new String((byte[]) response.getEntity(), "UTF-8"));
+
+        config.setCompressionThresholdBytes(expected.length());
+        response = HttpCompression.compress(Response.ok(entity).build(), headers, providers, config);
+        Assert.assertEquals("gzip", response.getMetadata().getFirst(HttpHeaders.CONTENT_ENCODING));
+        ByteArrayOutputStream out = new ByteArrayOutputStream();
+        ((StreamingOutput) response.getEntity()).write(out);
+        Assert.assertEquals(expected,
+                new String(ByteStreams.toByteArray(new GZIPInputStream(new ByteArrayInputStream(out.toByteArray()))), "UTF-8"));
+    }
+
+    @Test
+    public void testDisabledOrNotAccepted() throws IOException {
+        MetricServiceConfig config = new MetricServiceConfig();
+        HttpHeaders headers = mock(HttpHeaders.class);
+        when(headers.getRequestHeader(HttpHeaders.ACCEPT_ENCODING)).thenReturn(Arrays.asList("gzip"));
+        Response response = Response.ok("result").build();
+        Assert.assertSame(response, HttpCompression.compress(response, headers, null, config));
+
+        config.setCompressResponses(true);
+        Response error = Response.status(Response.Status.BAD_REQUEST).entity("error").build();
+        Assert.assertSame(error, HttpCompression.compress(error, headers, null, config));
+
+        when(headers.getRequestHeader(HttpHeaders.ACCEPT_ENCODING)).thenReturn(null);
+        Response plain = HttpCompression.compress(response, headers, null, config);
+        Assert.assertEquals("result", plain.getEntity());
+        Assert.assertNull(plain.getMetadata().getFirst(HttpHeaders.CONTENT_ENCODING));
+    }
+}
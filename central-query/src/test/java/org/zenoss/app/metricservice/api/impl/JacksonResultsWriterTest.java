@@ -35,6 +35,7 @@ package org.zenoss.app.metricservice.api.impl;
 import com.fasterxml.jackson.databind.ObjectMapper;
 import org.junit.Assert;
 import org.junit.Test;
+import org.zenoss.app.metricservice.api.metric.impl.MetricService;
 import org.zenoss.app.metricservice.api.model.MetricSpecification;
 import org.zenoss.app.metricservice.api.model.ReturnSet;
 import org.zenoss.app.metricservice.buckets.BucketTestUtilities;
@@ -42,6 +43,7 @@ import org.zenoss.app.metricservice.buckets.Buckets;
 import org.zenoss.app.metricservice.testutil.ConstantSeriesGenerator;
 import org.zenoss.app.metricservice.testutil.SeriesGenerator;
 
+import java.io.ByteArrayOutputStream;
 import java.io.IOException;
 import java.util.ArrayList;
 import java.util.Collection;
@@ -101,6 +103,43 @@ public class JacksonResultsWriterTest {
         Assert.assertEquals("results mismatch in query results", expectedResults, ar);
     }
 
+    @Test
+    public void testWriteResultsMatchesMakeResults() throws IOException {
+        List<MetricSpecification> queries = makeTestQueries(new String[] {
+                "avg:laLoadInt1{tag1=*,tag2=*}",
+                "sum:laLoadInt5{tag1=*,tag2=*}",
+                "avg:laLoadInt15{tag1=*,tag2=*}" });
+        Buckets<IHasShortcut> buckets = makeTestBuckets(queries.subList(0, 2), new ConstantSeriesGenerator(10.0),
+                DATA_START_TIMESTAMP, DATA_END_TIMESTAMP, DATA_TIMESTAMP_STEP);
+        assertWriteResultsMatchesMakeResults(queries, buckets, ReturnSet.ALL);
+        assertWriteResultsMatchesMakeResults(queries, buckets, ReturnSet.LAST);
+        assertWriteResultsMatchesMakeResults(queries, null, ReturnSet.ALL);
+        assertWriteResultsMatchesMakeResults(queries, new Buckets<IHasShortcut>(), ReturnSet.ALL);
+
+        queries.get(1).setEmit(false);
+        assertWriteResultsMatchesMakeResults(queries, buckets, ReturnSet.ALL);
+        for (MetricSpecification query : queries) {
+            query.setEmit(false);
+        }
+        assertWriteResultsMatchesMakeResults(queries, buckets, ReturnSet.ALL);
+    }
+
+    private void assertWriteResultsMatchesMakeResults(List<MetricSpecification> queries, Buckets<IHasShortcut> buckets,
+                                                      ReturnSet returnset) throws IOException {
+        JacksonResultsWriter victim = new JacksonResultsWriter();
+        ObjectMapper mapper = new MetricService().objectMapper;
+        String startTimeConfig = Long.toString(DATA_START_TIMESTAMP);
+        String endTimeConfig = Long.toString(DATA_END_TIMESTAMP);
+
+        String expected = mapper.writeValueAsString(victim.makeResults(queries, buckets, TESTID, TEST_SOURCE_ID,
+                DATA_START_TIMESTAMP, startTimeConfig, DATA_END_TIMESTAMP, endTimeConfig, returnset));
+        ByteArrayOutputStream out = new ByteArrayOutputStream();
+        victim.writeResults(mapper, out, queries, buckets, TESTID, TEST_SOURCE_ID,
+                DATA_START_TIMESTAMP, startTimeConfig, DATA_END_TIMESTAMP, endTimeConfig, returnset);
+
+        Assert.assertEquals("streamed results should match serialized results", expected, out.toString("UTF-8"));
+    }
+
     private Buckets<IHasShortcut> makeTestBuckets(List<MetricSpecification> queries, SeriesGenerator generator, long startTimestamp, long endTimestamp, long step) {
         Buckets<IHasShortcut> result = new Buckets<>();
         for (MetricSpecification query : queries) {
@@ -0,0 +1,259 @@
+/*
+ * ****************************************************************************
+ *
+ *  Copyright (C) Zenoss, Inc. 2026, all rights reserved.
+ *
+ *  This content is made available according to terms specified in
+ *  License.zenoss distributed with this file.
+ *
+ * ***************************************************************************
+ */
+package org.zenoss.app.metricservice.api.impl;
+
+import com.github.tomakehurst.wiremock.WireMockServer;
+import com.github.tomakehurst.wiremock.client.WireMock;
+import org.junit.AfterClass;
+import org.junit.BeforeClass;
+import org.junit.Test;
+import org.zenoss.app.metricservice.MetricServiceAppConfiguration;
+import org.zenoss.app.metricservice.api.configs.MetricServiceConfig;
+import org.zenoss.app.metricservice.api.model.MetricSpecification;
+import org.zenoss.app.metricservice.api.model.ReturnSet;
+import org.zenoss.app.metricservice.api.model.v2.MetricQuery;
+import org.zenoss.app.metricservice.api.model.v2.MetricRequest;
+
+import java.io.IOException;
+import java.net.ServerSocket;
+import java.util.Collections;
+import java.util.List;
+
+import static com.github.tomakehurst.wiremock.client.WireMock.aResponse;
+import static com.github.tomakehurst.wiremock.client.WireMock.containing;
+import static com.github.tomakehurst.wiremock.client.WireMock.post;
+import static com.github.tomakehurst.wiremock.client.WireMock.postRequestedFor;
+import static com.github.tomakehurst.wiremock.client.WireMock.urlEqualTo;
+import static org.junit.Assert.assertEquals;
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.when;
+
+public class LastValueQueryTest {
+
+    private static final long NOW = System.currentTimeMillis() / 1000;
+
+    private static WireMockServer server;
+    private static WireMock stub;
+
+    @BeforeClass
+    public static void startStub() throws IOException {
+        int port;
+        try (ServerSocket socket = new ServerSocket(0)) {
+            port = socket.getLocalPort();
+        }
+        server = new WireMockServer(port);
+        server.start();
+        stub = new WireMock("localhost", port);
+    }
+
+    @AfterClass
+    public static void stopStub() {
+        if (null != server) {
+            server.stop();
+        }
+    }
+
+    @Test
+    public void testLastPointIsTheLastPointOfTheRange() {
+        scan("answered", "{\"host\":\"a\"}");
+        last("answered", "{\"host\":\"a\"}");
+        String start = String.valueOf(NOW - 3600);
+        String end = String.valueOf(NOW);
+
+        OpenTSDBQueryReturn scanned = query(false, request("answered", start, end));
+        filterLast(scanned, NOW - 3600, NOW);
+        int scans = scans("answered");
+        OpenTSDBQueryReturn asked = query(true, request("answered", start, end));
+
+        assertEquals("the range should not be scanned", scans, scans("answered"));
+        assertEquals(QueryStatus.QueryStatusEnum.SUCCESS, asked.getStatus().getStatus());
+        assertSameSeries(scanned, asked);
+        assertEquals(1, asked.getResults().get(0).getDataPoints().size());
+        assertEquals(NOW - 100, asked.getResults().get(0).getDataPoints().getTimestamp(0));
+        assertEquals(3.0, asked.getResults().get(0).getDataPoints().getValue(0), 0.0);
+    }
+
+    @Test
+    public void testSpecificationsAreAnsweredFromTheLastPoint() throws IOException {
+        scan("specified", "{\"host\":\"a\"}");
+        last("specified", "{\"host\":\"a\"}");
+        String start = String.valueOf(NOW - 3600);
+        String end = String.valueOf(NOW);
+        MetricSpecification spec = MetricSpecification.fromString("specified");
+        spec.setId("last");
+
+        int scans = scans("specified");
+        List<OpenTSDBQueryResult> results = response(true, start, end, spec);
+
+        assertEquals("the range should not be scanned", scans, scans("specified"));
+        assertEquals(1, results.size());
+        assertEquals("last", results.get(0).metricSpecId);
+        assertEquals(NOW - 100, results.get(0).getDataPoints().getTimestamp(0));
+    }
+
+    @Test
+    public void testLastPointAfterTheRangeIsScannedFor() {
+        scan("ended", "{\"host\":\"a\"}");
+        last("ended", "{\"host\":\"a\"}");
+        MetricRequest request = request("ended", String.valueOf(NOW - 3600), String.valueOf(NOW - 150));
+
+        int scans = scans("ended");
+        OpenTSDBQueryReturn asked = query(true, request);
+
+        assertEquals(scans + 1, scans("ended"));
+        assertSameSeries(query(false, request), asked);
+    }
+
+    @Test
+    public void testSeveralSeriesAreScannedFor() {
+        scan("several", "{\"host\":\"a\"}");
+        stub.register(post(urlEqualTo("/api/query/last"))
+                .withRequestBody(containing("\"metric\":\"several\""))
+                .willReturn(aResponse().withStatus(200).withBody(String.format(
+                        "[%s,%s]", point("several", "{\"host\":\"a\"}", NOW - 100), point("several", "{\"host\":\"b\"}", NOW - 50)))));
+        MetricRequest request = request("several", String.valueOf(NOW - 3600), String.valueOf(NOW));
+        request.getQueries().get(0).setTags(Collections.<String, List<String>>emptyMap());
+
+        int scans = scans("several");
+        OpenTSDBQueryReturn asked = query(true, request);
+
+        assertEquals(scans + 1, scans("several"));
+        assertSameSeries(query(false, request), asked);
+    }
+
+    @Test
+    public void testFailedLastQueryIsScannedFor() {
+        scan("failed", "{\"host\":\"a\"}");
+        stub.register(post(urlEqualTo("/api/query/last"))
+                .withRequestBody(containing("\"metric\":\"failed\""))
+                .willReturn(aResponse().withStatus(500).withBody("{\"error\":{\"code\":500,\"message\":\"failed\"}}")));
+        MetricRequest request = request("failed", String.valueOf(NOW - 3600), String.valueOf(NOW));
+
+        int scans = scans("failed");
+        OpenTSDBQueryReturn asked = query(true, request);
+
+        assertEquals(scans + 1, scans("failed"));
+        assertSameSeries(query(false, request), asked);
+    }
+
+    @Test
+    public void testOnlyStoredPointsAreAskedFor() {
+        OpenTSDBSubQuery subQuery = new OpenTSDBSubQuery();
+        subQuery.metric = "laLoadInt1";
+        subQuery.addTag("host", "a");
+        assertEquals(true, LastValueQuery.accepts(subQuery));
+
+        subQuery.downsample = "5m-avg";
+        assertEquals("downsampled", false, LastValueQuery.accepts(subQuery));
+        subQuery.downsample = null;
+        subQuery.rate = true;
+        assertEquals("rates", false, LastValueQuery.accepts(subQuery));
+        subQuery.rate = false;
+        subQuery.addTag("instance", "*");
+        assertEquals("wildcards", false, LastValueQuery.accepts(subQuery));
+    }
+
+    private static MetricRequest request(String metric, String start, String end) {
+        MetricQuery query = new MetricQuery();
+        query.setMetric(metric);
+        query.setTags(Collections.singletonMap("host", Collections.singletonList("a")));
+        MetricRequest request = new MetricRequest();
+        request.setStart(start);
+        request.setEnd(end);
+        request.setReturnset(ReturnSet.LAST);
+        request.setQueries(Collections.singletonList(query));
+        return request;
+    }
+
+    private static OpenTSDBQueryReturn query(boolean lastQueryEnabled, MetricRequest request) {
+        OpenTSDBMetricStorage storage = storage(lastQueryEnabled);
+        try {
+            return storage.query(request);
+        } finally {
+            storage.shutdown();
+        }
+    }
+
+    private static List<OpenTSDBQueryResult> response(boolean lastQueryEnabled, String start, String end,
+                                                      MetricSpecification spec) throws IOException {
+        OpenTSDBMetricStorage storage = storage(lastQueryEnabled);
+        try {
+            return storage.getResponse(storage.config, "id", start, end, ReturnSet.LAST, null, 0,
+                    null, Collections.singletonList(spec));
+        } finally {
+            storage.shutdown();
+        }
+    }
+
+    private static OpenTSDBMetricStorage storage(boolean lastQueryEnabled) {
+        MetricServiceConfig conf = new MetricServiceConfig();
+        conf.setOpenTsdbUrl("http://localhost:" + server.port());
+        conf.setLastQueryEnabled(lastQueryEnabled);
+        MetricServiceAppConfiguration configuration = mock(MetricServiceAppConfiguration.class);
+        when(configuration.getMetricServiceConfig()).thenReturn(conf);
+        OpenTSDBMetricStorage storage = new OpenTSDBMetricStorage();
+        storage.config = configuration;
+        storage.startup();
+        return storage;
+    }
+
+    /**
+     * Keeps the last point of each series in the range, as the query
+     * service does for the last return set
+     */
+    private static void filterLast(OpenTSDBQueryReturn result, long start, long end) {
+        for (OpenTSDBQueryResult series : result.getResults()) {
+            DataPointSeries dataPoints = series.getDataPoints();
+            DataPointSeries last = new DataPointSeries(1);
+            int index = dataPoints.floorIndex(end);
+            if (index >= 0 && dataPoints.getTimestamp(index) >= start) {
+                last.add(dataPoints.getTimestamp(index), dataPoints.getValue(index));
+            }
+            series.setDataPoints(last);
+        }
+    }
+
+    private static void assertSameSeries(OpenTSDBQueryReturn expected, OpenTSDBQueryReturn actual) {
+        assertEquals(expected.getResults().size(), actual.getResults().size());
+        for (int i = 0; i < expected.getResults().size(); i++) {
+            assertEquals(expected.getResults().get(i).metric, actual.getResults().get(i).metric);
+            assertEquals(expected.getResults().get(i).tags, actual.getResults().get(i).tags);
+            assertEquals(expected.getResults().get(i).getDataPoints(), actual.getResults().get(i).getDataPoints());
+        }
+    }
+
+    private static int scans(String metric) {
+        return stub.find(postRequestedFor(urlEqualTo("/api/query"))
+                .withRequestBody(containing("\"metric\":\"" + metric + "\""))).size();
+    }
+
+    /**
+     * Answers range queries of the metric with three points in the last five minutes
+     */
+    private static void scan(String metric, String tags) {
+        stub.register(post(urlEqualTo("/api/query"))
+                .withRequestBody(containing("\"metric\":\"" + metric + "\""))
+                .willReturn(aResponse().withStatus(200).withBody(String.format(
+                        "[{\"metric\":\"%s\",\"tags\":%s,\"aggregateTags\":[],\"dps\":{\"%d\":1.0,\"%d\":2.0,\"%d\":3.0}}]",
+                        metric, tags, NOW - 300, NOW - 200, NOW - 100))));
+    }
+
+    private static void last(String metric, String tags) {
+        stub.register(post(urlEqualTo("/api/query/last"))
+                .withRequestBody(containing("\"metric\":\"" + metric + "\""))
+                .willReturn(aResponse().withStatus(200).withBody("[" + point(metric, tags, NOW - 100) + "]")));
+    }
+
+    private static String point(String metric, String tags, long timestamp) {
+        return String.format("{\"metric\":\"%s\",\"tags\":%s,\"timestamp\":%d,\"value\":\"3\",\"tsuid\":\"000001000001000001\"}",
+                metric, tags, timestamp * 1000);
+    }
+}
@@ -0,0 +1,153 @@
+/*
+ * ****************************************************************************
+ *
+ *  Copyright (C) Zenoss, Inc. 2026, all rights reserved.
+ *
+ *  This content is made available according to terms specified in
+ *  License.zenoss distributed with this file.
+ *
+ * ***************************************************************************
+ */
+package org.zenoss.app.metricservice.api.impl;
+
+import org.junit.Before;
+import org.junit.Test;
+import org.mockito.invocation.InvocationOnMock;
+import org.mockito.stubbing.Answer;
+import org.zenoss.app.metricservice.api.model.MetricSpecification;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.concurrent.CompletableFuture;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+import static org.mockito.ArgumentMatchers.any;
+import static org.mockito.ArgumentMatchers.anyBoolean;
+import static org.mockito.ArgumentMatchers.anyLong;
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.when;
+
+public class MetricSpecBatchTest {
+
+    private OpenTSDBClient client;
+    private List<OpenTSDBQuery> sent;
+
+    @Before
+    public void setUp() {
+        client = mock(OpenTSDBClient.class);
+        sent = new ArrayList<>();
+    }
+
+    @Test
+    public void testPlanSplitsBatchesAndKeepsRateQueriesApartWhenIgnoringRates() {
+        MetricSpecification a = spec("a", false);
+        MetricSpecification b = spec("b", true);
+        MetricSpecification c = spec("c", false);
+        MetricSpecification d = spec("d", false);
+        List<MetricSpecification> specs = Arrays.asList(a, b, c, d);
+
+        assertEquals(Arrays.asList(Arrays.asList(a, b), Arrays.asList(c, d)), MetricSpecBatch.plan(specs, 2, false));
+        assertEquals(Arrays.asList(Arrays.asList(b), Arrays.asList(a, c), Arrays.asList(d)), MetricSpecBatch.plan(specs, 2, true));
+        assertEquals(4, MetricSpecBatch.plan(specs, 1, false).size());
+    }
+
+    @Test
+    public void testResultsAreReturnedToTheirSpecificationsByIndex() {
+        answer(new Answer<CompletableFuture<OpenTSDBQueryReturn>>() {
+            @Override
+            public CompletableFuture<OpenTSDBQueryReturn> answer(InvocationOnMock invocation) {
+                return success(result("b", 1), result("a", 0), result("a-extra", 0));
+            }
+        });
+        List<OpenTSDBQueryResult> results = call(spec("a", false), spec("b", false));
+
+        assertEquals(1, sent.size());
+        assertTrue(sent.get(0).showQuery);
+        assertEquals(2, sent.get(0).queries.size());
+        assertEquals("a", results.get(0).metric);
+        assertEquals("a", results.get(0).metricSpecName);
+        assertEquals("b", results.get(1).metric);
+        assertEquals("b", results.get(1).metricSpecName);
+    }
+
+    @Test
+    public void testFailedBatchFallsBackToSingleQueries() {
+        answer(new Answer<CompletableFuture<OpenTSDBQueryReturn>>() {
+            @Override
+            public CompletableFuture<OpenTSDBQueryReturn> answer(InvocationOnMock invocation) {
+                OpenTSDBQuery query = invocation.getArgument(0);
+                if (query.queries.size() > 1 || query.queries.get(0).metric.equals("bad")) {
+                    return CompletableFuture.completedFuture(new OpenTSDBQueryReturn(new OpenTSDBQueryResult[0],
+                            new QueryStatus(QueryStatus.QueryStatusEnum.ERROR, "No such name for 'metrics': 'bad'")));
+                }
+                return success(result(query.queries.get(0).metric, null));
+            }
+        });
+        List<OpenTSDBQueryResult> results = call(spec("a", false), spec("bad", false), spec("c", false));
+
+        assertEquals(4, sent.size());
+        assertEquals("a", results.get(0).metric);
+        assertEquals(QueryStatus.QueryStatusEnum.ERROR, results.get(1).getStatus().getStatus());
+        assertEquals("bad", results.get(1).metricSpecName);
+        assertEquals("c", results.get(2).metric);
+    }
+
+    @Test
+    public void testUnansweredSpecificationIsQueriedAlone() {
+        answer(new Answer<CompletableFuture<OpenTSDBQueryReturn>>() {
+            @Override
+            public CompletableFuture<OpenTSDBQueryReturn> answer(InvocationOnMock invocation) {
+                OpenTSDBQuery query = invocation.getArgument(0);
+                if (query.queries.size() > 1) {
+                    return success(result("a", 0));
+                }
+                return success(result(query.queries.get(0).metric, null));
+            }
+        });
+        List<OpenTSDBQueryResult> results = call(spec("a", false), spec("b", false));
+
+        assertEquals(2, sent.size());
+        assertEquals("b", sent.get(1).queries.get(0).metric);
+        assertEquals("a", results.get(0).metric);
+        assertEquals("b", results.get(1).metric);
+    }
+
+    private void answer(final Answer<CompletableFuture<OpenTSDBQueryReturn>> answer) {
+        when(client.queryAsync(any(OpenTSDBQuery.class), anyBoolean(), anyLong())).thenAnswer(new Answer<CompletableFuture<OpenTSDBQueryReturn>>() {
+            @Override
+            public CompletableFuture<OpenTSDBQueryReturn> answer(InvocationOnMock invocation) throws Throwable {
+                sent.add(invocation.<OpenTSDBQuery>getArgument(0));
+                return answer.answer(invocation);
+            }
+        });
+    }
+
+    private List<OpenTSDBQueryResult> call(MetricSpecification... specs) {
+        MetricSpecBatch batch = new MetricSpecBatch(client, "1h-ago", "now", Arrays.asList(specs), false, 0);
+        List<OpenTSDBQueryResult> results = new ArrayList<>();
+        for (CompletableFuture<OpenTSDBQueryResult> future : batch.callAsync()) {
+            results.add(future.join());
+        }
+        return results;
+    }
+
+    private static MetricSpecification spec(String metric, boolean rate) {
+        MetricSpecification spec = MetricSpecification.fromString(metric);
+        spec.setRate(rate);
+        return spec;
+    }
+
+    private static OpenTSDBQueryResult result(String metric, Integer index) {
+        OpenTSDBQueryResult result = new OpenTSDBQueryResult();
+        result.metric = metric;
+        result.subQueryIndex = index;
+        result.addDataPoint(10, 1.0);
+        return result;
+    }
+
+    private static CompletableFuture<OpenTSDBQueryReturn> success(OpenTSDBQueryResult... results) {
+        return CompletableFuture.completedFuture(new OpenTSDBQueryReturn(results, new QueryStatus(QueryStatus.QueryStatusEnum.SUCCESS, "")));
+    }
+}
@@ -0,0 +1,147 @@
+/*
+ * ****************************************************************************
+ *
+ *  Copyright (C) Zenoss, Inc. 2026, all rights reserved.
+ *
+ *  This content is made available according to terms specified in
+ *  License.zenoss distributed with this file.
+ *
+ * ***************************************************************************
+ */
+package org.zenoss.app.metricservice.api.impl;
+
+import com.github.tomakehurst.wiremock.WireMockServer;
+import com.github.tomakehurst.wiremock.client.WireMock;
+import org.junit.AfterClass;
+import org.junit.BeforeClass;
+import org.junit.Test;
+
+import java.net.ServerSocket;
+
+import static com.github.tomakehurst.wiremock.client.WireMock.aResponse;
+import static com.github.tomakehurst.wiremock.client.WireMock.containing;
+import static com.github.tomakehurst.wiremock.client.WireMock.post;
+import static com.github.tomakehurst.wiremock.client.WireMock.urlEqualTo;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+public class OpenTSDBClientTest {
+
+    private static final int RESPONSE_DELAY_MS = 200;
+    private static final int COUNTERS = 10;
+    private static final long CUTOFF = 1_700_000_000L;
+
+    private static WireMockServer server;
+    private static WireMock stub;
+    private static AsyncHttpTransport transport;
+
+    @BeforeClass
+    public static void startStub() throws Exception {
+        int port;
+        try (ServerSocket socket = new ServerSocket(0)) {
+            port = socket.getLocalPort();
+        }
+        server = new WireMockServer(port);
+        server.start();
+        stub = new WireMock("localhost", port);
+        transport = new AsyncHttpTransport(2 * COUNTERS + 1, 5000, 5000L, false);
+        transport.start();
+    }
+
+    @AfterClass
+    public static void stopStub() {
+        if (null != server) {
+            server.stop();
+        }
+        if (null != transport) {
+            transport.stop();
+        }
+    }
+
+    @Test
+    public void testRateCutoffPartsAreSentAtOnce() {
+        for (int i = 0; i < COUNTERS; i++) {
+            answer("a" + i, "\"end\":\"" + CUTOFF + "\"", CUTOFF - 100, i);
+            answer("a" + i, "\"start\":\"" + CUTOFF + "\"", CUTOFF + 100, i);
+        }
+        answer("gauge", "\"metric\":\"gauge\"", CUTOFF, -1);
+
+        long started = System.nanoTime();
+        OpenTSDBQueryReturn result = client().query(query("a"), true, CUTOFF);
+        long elapsedMs = (System.nanoTime() - started) / 1_000_000;
+
+        assertEquals(QueryStatus.QueryStatusEnum.SUCCESS, result.getStatus().getStatus());
+        assertEquals(COUNTERS + 1, result.getResults().size());
+        for (int i = 0; i < COUNTERS; i++) {
+            OpenTSDBQueryResult series = result.getResults().get(i);
+            assertEquals("a" + i, series.metric);
+            assertEquals("the parts before and after the cutoff should be merged", 2, series.getDataPoints().size());
+            assertEquals(CUTOFF - 100, series.getDataPoints().getTimestamp(0));
+            assertEquals(CUTOFF + 100, series.getDataPoints().getTimestamp(1));
+        }
+        assertEquals("gauge", result.getResults().get(COUNTERS).metric);
+        assertTrue(String.format("%d parts took %d ms, which is not much less than one after another", 2 * COUNTERS + 1, elapsedMs),
+                elapsedMs < (2 * COUNTERS + 1) * RESPONSE_DELAY_MS / 3);
+    }
+
+    @Test
+    public void testFirstFailedPartFailsTheQuery() {
+        for (int i = 0; i < COUNTERS; i++) {
+            if (i == 2) {
+                fail("b" + i, "\"end\":\"" + CUTOFF + "\"", "b2 failed");
+            } else {
+                answer("b" + i, "\"end\":\"" + CUTOFF + "\"", CUTOFF - 100, i);
+            }
+            if (i == 5) {
+                fail("b" + i, "\"start\":\"" + CUTOFF + "\"", "b5 failed");
+            } else {
+                answer("b" + i, "\"start\":\"" + CUTOFF + "\"", CUTOFF + 100, i);
+            }
+        }
+        answer("gauge", "\"metric\":\"gauge\"", CUTOFF, -1);
+
+        OpenTSDBQueryReturn result = client().query(query("b"), true, CUTOFF);
+        assertEquals(QueryStatus.QueryStatusEnum.ERROR, result.getStatus().getStatus());
+        assertEquals("b2 failed", result.getStatus().getMessage());
+    }
+
+    private static OpenTSDBClient client() {
+        return OpenTSDBClient.builder(transport, "http://localhost:" + server.port() + "/api/query").build();
+    }
+
+    /**
+     * A query of counters named with a prefix, spanning the cutoff, and of a gauge
+     */
+    private static OpenTSDBQuery query(String prefix) {
+        OpenTSDBQuery query = new OpenTSDBQuery();
+        query.start = String.valueOf(CUTOFF - 1000);
+        query.end = String.valueOf(CUTOFF + 1000);
+        for (int i = 0; i < COUNTERS; i++) {
+            OpenTSDBSubQuery counter = new OpenTSDBSubQuery();
+            counter.metric = prefix + i;
+            counter.rate = true;
+            query.addSubQuery(counter);
+        }
+        OpenTSDBSubQuery gauge = new OpenTSDBSubQuery();
+        gauge.metric = "gauge";
+        query.addSubQuery(gauge);
+        return query;
+    }
+
+    private static void answer(String metric, String part, long timestamp, double value) {
+        stub.register(post(urlEqualTo("/api/query"))
+                .withRequestBody(containing("\"metric\":\"" + metric + "\""))
+                .withRequestBody(containing(part))
+                .willReturn(aResponse().withStatus(200).withFixedDelay(RESPONSE_DELAY_MS).withBody(
+                        String.format("[{\"metric\":\"%s\",\"tags\":{\"host\":\"a\"},\"aggregateTags\":[],\"dps\":{\"%d\":%s}}]",
+                                metric, timestamp, value))));
+    }
+
+    private static void fail(String metric, String part, String message) {
+        stub.register(post(urlEqualTo("/api/query"))
+                .withRequestBody(containing("\"metric\":\"" + metric + "\""))
+                .withRequestBody(containing(part))
+                .willReturn(aResponse().withStatus(500).withFixedDelay(RESPONSE_DELAY_MS).withBody(
+                        String.format("{\"error\":{\"code\":500,\"message\":\"%s\"}}", message))));
+    }
+}
@@ -55,6 +55,6 @@ public class OpenTSDBQueryResultTest {
         OpenTSDBQueryResult subject = new OpenTSDBQueryResult();
         subject.setDataPoints(null);
         subject.addDataPoint(TEST_I, TEST_POINT_VALUE);
-        assertTrue("DataPoints list is populated properly after setting null", subject.getDataPoints().containsKey(TEST_I));
+        assertTrue("DataPoints list is populated properly after setting null", subject.getDataPoints().contains(TEST_I));
     }
 }
@@ -0,0 +1,150 @@
+/*
+ * ****************************************************************************
+ *
+ *  Copyright (C) Zenoss, Inc. 2026, all rights reserved.
+ *
+ *  This content is made available according to terms specified in
+ *  License.zenoss distributed with this file.
+ *
+ * ***************************************************************************
+ */
+package org.zenoss.app.metricservice.api.impl;
+
+import com.fasterxml.jackson.core.JsonEncoding;
+import com.fasterxml.jackson.core.JsonGenerator;
+import org.apache.http.entity.FileEntity;
+import org.apache.http.util.EntityUtils;
+import org.junit.AfterClass;
+import org.junit.BeforeClass;
+import org.junit.Ignore;
+import org.junit.Test;
+
+import java.io.BufferedInputStream;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.lang.management.ManagementFactory;
+import java.util.Random;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+/**
+ * Compares decoding a large /api/query response by reading it into a String
+ * and binding it (the former OpenTSDBClient path) with streaming it through
+ * {@link OpenTSDBResponseReader}. The fixture is generated at
+ * {@code opentsdb.benchmark.mb} megabytes, 50 by default. What it allocates
+ * depends on the JVM, so it is only run by hand;
+ * {@link OpenTSDBResponseReaderTest} checks the decoded results.
+ */
+@Ignore("benchmark; run by hand")
+public class OpenTSDBResponseReaderPerformanceTest {
+
+    private static final int POINTS_PER_SERIES = 10080; // one week at one minute
+    private static final int ROUNDS = 3;
+
+    private static File fixture;
+    private static int seriesCount;
+
+    @BeforeClass
+    public static void writeFixture() throws IOException {
+        long targetBytes = Long.getLong("opentsdb.benchmark.mb", 50) * 1024 * 1024;
+        fixture = File.createTempFile("otsdb-response", ".json");
+        Random random = new Random(42);
+        try (JsonGenerator jg = Utils.getObjectMapper().getFactory().createGenerator(fixture, JsonEncoding.UTF8)) {
+            jg.writeStartArray();
+            while (jg.getOutputBuffered() + fixture.length() < targetBytes) {
+                jg.writeStartObject();
+                jg.writeStringField("metric", "cgroup.cpuacct.user");
+                jg.writeObjectFieldStart("tags");
+                jg.writeStringField("device", "device" + seriesCount);
+                jg.writeStringField("isvcname", "elasticsearch-serviced");
+                jg.writeEndObject();
+                jg.writeArrayFieldStart("aggregateTags");
+                jg.writeEndArray();
+                jg.writeObjectFieldStart("dps");
+                long ts = 1437520683;
+                for (int i = 0; i < POINTS_PER_SERIES; i++, ts += 60) {
+                    jg.writeNumberField(Long.toString(ts), Math.round(random.nextDouble() * 1e7) / 100.0);
+                }
+                jg.writeEndObject();
+                jg.writeEndObject();
+                jg.flush();
+                seriesCount++;
+            }
+            jg.writeEndArray();
+        }
+    }
+
+    @AfterClass
+    public static void deleteFixture() {
+        if (null != fixture) {
+            fixture.delete();
+        }
+    }
+
+    @Test
+    public void compareDecoders() throws IOException {
+        Run stringPath = null;
+        Run streamingPath = null;
+        for (int round = 0; round < ROUNDS; round++) {
+            stringPath = measure(new Decoder() {
+                @Override
+                public OpenTSDBQueryResult[] decode() throws IOException {
+                    String content = EntityUtils.toString(new FileEntity(fixture));
+                    return Utils.getObjectMapper().readValue(content, OpenTSDBQueryResult[].class);
+                }
+            });
+            streamingPath = measure(new Decoder() {
+                @Override
+                public OpenTSDBQueryResult[] decode() throws IOException {
+                    try (InputStream in = new BufferedInputStream(new FileInputStream(fixture))) {
+                        return OpenTSDBResponseReader.readResults(in);
+                    }
+                }
+            });
+        }
+
+        assertEquals(seriesCount, streamingPath.results.length);
+        for (int i = 0; i < seriesCount; i++) {
+            assertEquals(stringPath.results[i].tags, streamingPath.results[i].tags);
+            assertEquals(stringPath.results[i].getDataPoints(), streamingPath.results[i].getDataPoints());
+        }
+        if (stringPath.allocated > 0) {
+            assertTrue("Streaming should allocate less than reading the body into a String",
+                    streamingPath.allocated < stringPath.allocated);
+        }
+    }
+
+    private static Run measure(Decoder decoder) throws IOException {
+        long allocatedBefore = allocatedBytes();
+        OpenTSDBQueryResult[] results = decoder.decode();
+        return new Run(results, allocatedBytes() - allocatedBefore);
+    }
+
+    /**
+     * @return bytes allocated by the current thread, or 0 if the JVM cannot tell
+     */
+    private static long allocatedBytes() {
+        java.lang.management.ThreadMXBean bean = ManagementFactory.getThreadMXBean();
+        if (bean instanceof com.sun.management.ThreadMXBean) {
+            return ((com.sun.management.ThreadMXBean) bean).getThreadAllocatedBytes(Thread.currentThread().getId());
+        }
+        return 0;
+    }
+
+    private interface Decoder {
+        OpenTSDBQueryResult[] decode() throws IOException;
+    }
+
+    private static class Run {
+        private final OpenTSDBQueryResult[] results;
+        private final long allocated;
+
+        private Run(OpenTSDBQueryResult[] results, long allocated) {
+            this.results = results;
+            this.allocated = allocated;
+        }
+    }
+}
@@ -0,0 +1,121 @@
+/*
+ * ****************************************************************************
+ *
+ *  Copyright (C) Zenoss, Inc. 2026, all rights reserved.
+ *
+ *  This content is made available according to terms specified in
+ *  License.zenoss distributed with this file.
+ *
+ * ***************************************************************************
+ */
+package org.zenoss.app.metricservice.api.impl;
+
+import com.fasterxml.jackson.core.JsonProcessingException;
+import com.fasterxml.jackson.databind.JsonNode;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import org.junit.Test;
+
+import java.io.ByteArrayInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.charset.StandardCharsets;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+
+public class OpenTSDBResponseReaderTest {
+
+    private static final ObjectMapper objectMapper = Utils.getObjectMapper();
+
+    @Test
+    public void testReadResultsMatchesDatabind() throws Exception {
+        JsonNode interaction;
+        try (InputStream in = getClass().getResourceAsStream("/simplequery/otsdbInteraction.json")) {
+            interaction = objectMapper.readTree(in);
+        }
+        byte[] content = objectMapper.writeValueAsBytes(interaction.get("response"));
+
+        OpenTSDBQueryResult[] expected = objectMapper.readValue(content, OpenTSDBQueryResult[].class);
+        OpenTSDBQueryResult[] actual = OpenTSDBResponseReader.readResults(new ByteArrayInputStream(content));
+
+        assertEquals(expected.length, actual.length);
+        for (int i = 0; i < expected.length; i++) {
+            assertEquals(expected[i].metric, actual[i].metric);
+            assertEquals(expected[i].tags, actual[i].tags);
+            assertEquals(expected[i].aggregateTags, actual[i].aggregateTags);
+            assertEquals(expected[i].tsuids, actual[i].tsuids);
+            assertEquals(expected[i].getDataPoints(), actual[i].getDataPoints());
+        }
+        assertTrue("fixture should hold data points", actual[0].getDataPoints().size() > 0);
+    }
+
+    @Test
+    public void testReadResultsSkipsUnknownFields() throws Exception {
+        OpenTSDBQueryResult[] results = read("[{\"metric\":\"m\",\"query\":{\"index\":0,\"tags\":{}},"
+                + "\"annotations\":[{\"description\":\"x\"}],\"tags\":{\"a\":\"b\"},\"dps\":{\"10\":1,\"20\":\"2.5\",\"30\":null}}]");
+        assertEquals(1, results.length);
+        assertEquals("m", results[0].metric);
+        assertEquals("b", results[0].tags.get("a"));
+        DataPointSeries dps = results[0].getDataPoints();
+        assertEquals(3, dps.size());
+        assertEquals(1.0, dps.getValue(0), 0.0);
+        assertEquals(2.5, dps.getValue(1), 0.0);
+        assertTrue(Double.isNaN(dps.getValue(2)));
+    }
+
+    @Test
+    public void testReadResultsKeepsSubQueryIndex() throws Exception {
+        OpenTSDBQueryResult[] results = read("[{\"metric\":\"a\",\"query\":{\"aggregator\":\"sum\",\"index\":1,\"tags\":{}}},"
+                + "{\"metric\":\"b\",\"query\":{\"aggregator\":\"sum\"}},{\"metric\":\"c\"}]");
+        assertEquals(Integer.valueOf(1), results[0].subQueryIndex);
+        assertNull(results[1].subQueryIndex);
+        assertNull(results[2].subQueryIndex);
+    }
+
+    @Test
+    public void testReadEmptyResults() throws Exception {
+        assertEquals(0, read("[]").length);
+        OpenTSDBQueryResult[] results = read("[{\"metric\":\"m\",\"dps\":null}]");
+        assertTrue(results[0].getDataPoints().isEmpty());
+    }
+
+    @Test(expected = JsonProcessingException.class)
+    public void testReadResultsRejectsObject() throws Exception {
+        read("{\"metric\":\"m\"}");
+    }
+
+    @Test(expected = JsonProcessingException.class)
+    public void testReadResultsRejectsBadTimestamp() throws Exception {
+        read("[{\"metric\":\"m\",\"dps\":{\"abc\":1}}]");
+    }
+
+    @Test(expected = JsonProcessingException.class)
+    public void testReadResultsRejectsTruncatedContent() throws Exception {
+        read("[{\"metric\":\"m\",\"dps\":{\"10\":1,");
+    }
+
+    @Test
+    public void testReadError() throws Exception {
+        String content = "{\"error\":{\"code\":400,\"message\":\"No such name for 'metrics': 'foo'\","
+                + "\"trace\":\"net.opentsdb.uid.NoSuchUniqueName\",\"details\":\"d\"}}";
+        OpenTSDBErrorResponse response = OpenTSDBResponseReader.readError(stream(content));
+        assertEquals(400, response.error.code);
+        assertEquals("No such name for 'metrics': 'foo'", response.error.message);
+        assertEquals("net.opentsdb.uid.NoSuchUniqueName", response.error.trace);
+        assertEquals("d", response.error.details);
+    }
+
+    @Test
+    public void testReadErrorWithoutError() throws Exception {
+        assertNull(OpenTSDBResponseReader.readError(stream("{\"other\":[1,2]}")).error);
+    }
+
+    private static OpenTSDBQueryResult[] read(String content) throws IOException {
+        return OpenTSDBResponseReader.readResults(stream(content));
+    }
+
+    private static InputStream stream(String content) {
+        return new ByteArrayInputStream(content.getBytes(StandardCharsets.UTF_8));
+    }
+}
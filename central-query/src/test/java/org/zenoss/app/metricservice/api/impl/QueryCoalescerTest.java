@@ -0,0 +1,139 @@
+/*
+ * ****************************************************************************
+ *
+ *  Copyright (C) Zenoss, Inc. 2026, all rights reserved.
+ *
+ *  This content is made available according to terms specified in
+ *  License.zenoss distributed with this file.
+ *
+ * ***************************************************************************
+ */
+package org.zenoss.app.metricservice.api.impl;
+
+import org.junit.Test;
+
+import java.util.HashMap;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.function.Supplier;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNotEquals;
+import static org.junit.Assert.assertNotSame;
+import static org.junit.Assert.assertSame;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+public class QueryCoalescerTest {
+
+    private final QueryCoalescer coalescer = new QueryCoalescer();
+    private final AtomicInteger fetches = new AtomicInteger();
+
+    @Test
+    public void testIdenticalQueriesInFlightShareOneFetch() {
+        CompletableFuture<OpenTSDBQueryReturn> backend = new CompletableFuture<>();
+        long coalescedBefore = QueryCoalescer.getCoalesced();
+
+        CompletableFuture<OpenTSDBQueryReturn> first = coalescer.query("k", fetch(backend));
+        CompletableFuture<OpenTSDBQueryReturn> second = coalescer.query("k", fetch(new CompletableFuture<OpenTSDBQueryReturn>()));
+        assertFalse(first.isDone());
+        OpenTSDBQueryReturn answer = answer();
+        backend.complete(answer);
+
+        assertEquals(1, fetches.get());
+        assertEquals(coalescedBefore + 1, QueryCoalescer.getCoalesced());
+        OpenTSDBQueryResult a = first.join().getResults().get(0);
+        OpenTSDBQueryResult b = second.join().getResults().get(0);
+        assertNotSame("shared results must be copied", a, b);
+        assertNotSame(a.getDataPoints(), b.getDataPoints());
+        assertEquals(a.getDataPoints(), b.getDataPoints());
+        assertEquals(a.tags, b.tags);
+        a.getDataPoints().setValue(0, 42.0);
+        a.tags.put("host", "changed");
+        assertEquals(1.0, b.getDataPoints().getValue(0), 0.0);
+        assertEquals("a", b.tags.get("host"));
+    }
+
+    @Test
+    public void testQueryNobodyJoinedIsNotCopied() {
+        OpenTSDBQueryReturn answer = answer();
+        OpenTSDBQueryReturn result = coalescer.query("k", fetch(CompletableFuture.completedFuture(answer))).join();
+        assertSame(answer, result);
+    }
+
+    @Test
+    public void testCompletedQueryIsFetchedAgain() {
+        coalescer.query("k", fetch(CompletableFuture.completedFuture(answer()))).join();
+        coalescer.query("k", fetch(CompletableFuture.completedFuture(answer()))).join();
+        assertEquals(2, fetches.get());
+    }
+
+    @Test
+    public void testFailureIsSharedAndForgotten() {
+        CompletableFuture<OpenTSDBQueryReturn> backend = new CompletableFuture<>();
+        CompletableFuture<OpenTSDBQueryReturn> first = coalescer.query("k", fetch(backend));
+        CompletableFuture<OpenTSDBQueryReturn> second = coalescer.query("k", fetch(backend));
+        backend.completeExceptionally(new IllegalStateException("boom"));
+        for (CompletableFuture<OpenTSDBQueryReturn> future : new CompletableFuture[]{first, second}) {
+            try {
+                future.join();
+                fail("the failure should reach every caller");
+            } catch (CompletionException e) {
+                assertTrue(e.getCause() instanceof IllegalStateException);
+            }
+        }
+        coalescer.query("k", fetch(CompletableFuture.completedFuture(answer()))).join();
+        assertEquals(2, fetches.get());
+    }
+
+    @Test
+    public void testKeyIgnoresTagAndFilterOrder() {
+        OpenTSDBQuery a = query();
+        a.queries.get(0).addTag("host", "a");
+        a.queries.get(0).addTag("host", "b");
+        a.queries.get(0).addTag("device", "eth0");
+        a.queries.get(0).addFilter(new OpenTSDBFilter("literal_or", "x", "1", true));
+        a.queries.get(0).addFilter(new OpenTSDBFilter("wildcard", "y", "*", false));
+        OpenTSDBQuery b = query();
+        b.queries.get(0).addTag("device", "eth0");
+        b.queries.get(0).addTag("host", "b");
+        b.queries.get(0).addTag("host", "a");
+        b.queries.get(0).addFilter(new OpenTSDBFilter("wildcard", "y", "*", false));
+        b.queries.get(0).addFilter(new OpenTSDBFilter("literal_or", "x", "1", true));
+        assertEquals(QueryCoalescer.key("u", a, false, 0), QueryCoalescer.key("u", b, false, 0));
+
+        b.queries.get(0).downsample = "5m-avg";
+        assertNotEquals(QueryCoalescer.key("u", a, false, 0), QueryCoalescer.key("u", b, false, 0));
+        assertNotEquals(QueryCoalescer.key("u", a, false, 0), QueryCoalescer.key("u", a, true, 0));
+        assertNotEquals(QueryCoalescer.key("u", a, false, 0), QueryCoalescer.key("v", a, false, 0));
+    }
+
+    private Supplier<CompletableFuture<OpenTSDBQueryReturn>> fetch(final CompletableFuture<OpenTSDBQueryReturn> result) {
+        return () -> {
+            fetches.incrementAndGet();
+            return result;
+        };
+    }
+
+    private static OpenTSDBQuery query() {
+        OpenTSDBQuery query = new OpenTSDBQuery();
+        query.start = "1h-ago";
+        OpenTSDBSubQuery subQuery = new OpenTSDBSubQuery();
+        subQuery.metric = "laLoadInt1";
+        subQuery.downsample = "1m-avg";
+        query.addSubQuery(subQuery);
+        return query;
+    }
+
+    private static OpenTSDBQueryReturn answer() {
+        OpenTSDBQueryResult result = new OpenTSDBQueryResult();
+        result.metric = "laLoadInt1";
+        result.tags = new HashMap<>();
+        result.tags.put("host", "a");
+        result.addDataPoint(10, 1.0);
+        result.addDataPoint(20, 2.0);
+        return new OpenTSDBQueryReturn(new OpenTSDBQueryResult[]{result}, new QueryStatus(QueryStatus.QueryStatusEnum.SUCCESS, ""));
+    }
+}
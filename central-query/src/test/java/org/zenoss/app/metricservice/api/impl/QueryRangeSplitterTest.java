@@ -0,0 +1,193 @@
+/*
+ * ****************************************************************************
+ *
+ *  Copyright (C) Zenoss, Inc. 2026, all rights reserved.
+ *
+ *  This content is made available according to terms specified in
+ *  License.zenoss distributed with this file.
+ *
+ * ***************************************************************************
+ */
+package org.zenoss.app.metricservice.api.impl;
+
+import org.junit.Test;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.CompletableFuture;
+import java.util.function.Function;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNotNull;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+
+public class QueryRangeSplitterTest {
+
+    private static final long DAY = 86400;
+    private static final long START = 1_700_000_017L;
+
+    private final List<OpenTSDBQuery> sent = new ArrayList<>();
+    private final Function<OpenTSDBQuery, CompletableFuture<OpenTSDBQueryReturn>> fetch = query -> {
+        sent.add(query);
+        return CompletableFuture.completedFuture(respond(query));
+    };
+
+    @Test
+    public void testChunksAreAlignedAndJoinBackTheWholeRange() {
+        QueryRangeSplitter splitter = new QueryRangeSplitter(DAY - 1000, 4);
+        OpenTSDBQuery query = query("7m-avg", START, START + 10 * DAY);
+        OpenTSDBQueryReturn joined = splitter.queryAsync(query, false, 0, fetch).join();
+
+        OpenTSDBQueryReturn whole = respond(query);
+        assertEquals(whole.getResults().size(), joined.getResults().size());
+        for (int i = 0; i < whole.getResults().size(); i++) {
+            assertEquals(whole.getResults().get(i).tags, joined.getResults().get(i).tags);
+            assertEquals(whole.getResults().get(i).getDataPoints(), joined.getResults().get(i).getDataPoints());
+        }
+        assertTrue(sent.size() >= 10);
+        long length = 7 * 60 * 204;  // the first multiple of 7m of at least the chunk length
+        for (OpenTSDBQuery chunk : sent.subList(1, sent.size())) {
+            assertEquals("chunks should start on a multiple of the chunk length", 0, Long.parseLong(chunk.start) % length);
+        }
+        assertEquals(String.valueOf(START), sent.get(0).start);
+        assertEquals(String.valueOf(START + 10 * DAY), sent.get(sent.size() - 1).end);
+    }
+
+    @Test
+    public void testAtMostParallelismChunksAreInFlight() {
+        QueryRangeSplitter splitter = new QueryRangeSplitter(DAY, 3);
+        final Map<CompletableFuture<OpenTSDBQueryReturn>, OpenTSDBQuery> inFlight = new LinkedHashMap<>();
+        int most = 0;
+        CompletableFuture<OpenTSDBQueryReturn> result = splitter.queryAsync(query("1h-avg", START, START + 30 * DAY), false, 0, query -> {
+            CompletableFuture<OpenTSDBQueryReturn> future = new CompletableFuture<>();
+            inFlight.put(future, query);
+            sent.add(query);
+            return future;
+        });
+        while (!inFlight.isEmpty()) {
+            most = Math.max(most, inFlight.size());
+            CompletableFuture<OpenTSDBQueryReturn> first = inFlight.keySet().iterator().next();
+            first.complete(respond(inFlight.remove(first)));
+        }
+        assertTrue(result.isDone());
+        assertEquals(31, sent.size());
+        assertEquals(3, most);
+    }
+
+    @Test
+    public void testFailedChunkFailsTheWhole() {
+        QueryRangeSplitter splitter = new QueryRangeSplitter(DAY, 4);
+        OpenTSDBQueryReturn result = splitter.queryAsync(query("1h-avg", START, START + 5 * DAY), false, 0, query -> {
+            if (Long.parseLong(query.start) == (START / DAY + 3) * DAY) {
+                return CompletableFuture.completedFuture(new OpenTSDBQueryReturn(new OpenTSDBQueryResult[0],
+                        new QueryStatus(QueryStatus.QueryStatusEnum.ERROR, "failed")));
+            }
+            return fetch.apply(query);
+        }).join();
+        assertEquals(QueryStatus.QueryStatusEnum.ERROR, result.getStatus().getStatus());
+    }
+
+    @Test
+    public void testQueriesThatCannotBeSplitAreSentWhole() {
+        QueryRangeSplitter splitter = new QueryRangeSplitter(DAY, 4);
+        assertNull("short ranges", splitter.queryAsync(query("1h-avg", START, START + DAY - 1), false, 0, fetch));
+        assertNull("whole range downsampling", splitter.queryAsync(query("0all-avg", START, START + 5 * DAY), false, 0, fetch));
+
+        OpenTSDBQuery rate = query("1h-avg", START, START + 5 * DAY);
+        rate.queries.get(0).rate = true;
+        assertNull("rates", splitter.queryAsync(rate, false, 0, fetch));
+        assertNull("rates before the cutoff", splitter.queryAsync(rate, true, START + DAY, fetch));
+        assertNotNull("stored rates after the cutoff", splitter.queryAsync(rate, true, START - DAY, fetch));
+
+        OpenTSDBQuery twice = query("1h-avg", START, START + 5 * DAY);
+        twice.addSubQuery(query("1h-max", START, START + 5 * DAY).queries.get(0));
+        assertNull("sub-queries of one metric", splitter.queryAsync(twice, false, 0, fetch));
+    }
+
+    @Test
+    public void testAggregatedSeriesIsJoinedAcrossTags() {
+        QueryRangeSplitter splitter = new QueryRangeSplitter(DAY, 4);
+        OpenTSDBQuery query = query("1h-avg", START, START + 5 * DAY);
+        query.queries.get(0).tags = null;
+        OpenTSDBQueryReturn joined = splitter.queryAsync(query, false, 0, chunk -> {
+            sent.add(chunk);
+            // The series aggregated differ from chunk to chunk, so only the first tells the tag
+            OpenTSDBQueryResult result = respond(chunk).getResults().get(0);
+            if (sent.size() > 1) {
+                result.tags.put("host", "b");
+            }
+            result.tags.put("dc", "east");
+            return CompletableFuture.completedFuture(new OpenTSDBQueryReturn(new OpenTSDBQueryResult[]{result},
+                    new QueryStatus(QueryStatus.QueryStatusEnum.SUCCESS, "")));
+        }).join();
+
+        assertEquals(1, joined.getResults().size());
+        OpenTSDBQueryResult series = joined.getResults().get(0);
+        assertEquals(respond(query).getResults().get(0).getDataPoints(), series.getDataPoints());
+        assertEquals(Collections.singletonMap("dc", "east"), series.tags);
+        assertEquals(Collections.singletonList("host"), series.aggregateTags);
+    }
+
+    @Test
+    public void testSeriesAreJoinedBySubQuery() {
+        QueryRangeSplitter splitter = new QueryRangeSplitter(DAY, 4);
+        OpenTSDBQuery query = query("1h-avg", START, START + 5 * DAY);
+        OpenTSDBQuery other = query("1h-avg", START, START + 5 * DAY);
+        other.queries.get(0).metric = "laLoadInt5";
+        query.addSubQuery(other.queries.get(0));
+        OpenTSDBQueryReturn joined = splitter.queryAsync(query, false, 0, chunk -> {
+            sent.add(chunk);
+            List<OpenTSDBQueryResult> results = new ArrayList<>();
+            for (OpenTSDBSubQuery subQuery : chunk.queries) {
+                OpenTSDBQuery single = query(subQuery.downsample, Long.parseLong(chunk.start), Long.parseLong(chunk.end));
+                single.queries.get(0).metric = subQuery.metric;
+                results.addAll(respond(single).getResults());
+            }
+            return CompletableFuture.completedFuture(new OpenTSDBQueryReturn(results.toArray(new OpenTSDBQueryResult[results.size()]),
+                    new QueryStatus(QueryStatus.QueryStatusEnum.SUCCESS, "")));
+        }).join();
+
+        assertEquals(4, joined.getResults().size());
+        assertEquals("laLoadInt1", joined.getResults().get(0).metric);
+        assertEquals("laLoadInt5", joined.getResults().get(2).metric);
+        assertEquals(respond(query).getResults().get(1).getDataPoints(), joined.getResults().get(3).getDataPoints());
+    }
+
+    private static OpenTSDBQuery query(String downsample, long start, long end) {
+        OpenTSDBQuery query = new OpenTSDBQuery();
+        query.start = String.valueOf(start);
+        query.end = String.valueOf(end);
+        OpenTSDBSubQuery subQuery = new OpenTSDBSubQuery();
+        subQuery.metric = "laLoadInt1";
+        subQuery.downsample = downsample;
+        subQuery.addTag("host", "*");
+        query.addSubQuery(subQuery);
+        return query;
+    }
+
+    /**
+     * Answers a query with two series of a point every downsample interval,
+     * valued by its timestamp
+     */
+    private static OpenTSDBQueryReturn respond(OpenTSDBQuery query) {
+        long start = Long.parseLong(query.start);
+        long end = Long.parseLong(query.end);
+        long interval = Utils.parseDuration(query.queries.get(0).downsample);
+        OpenTSDBQueryResult[] results = new OpenTSDBQueryResult[2];
+        for (int i = 0; i < results.length; i++) {
+            results[i] = new OpenTSDBQueryResult();
+            results[i].metric = query.queries.get(0).metric;
+            results[i].tags = new HashMap<>();
+            results[i].tags.put("host", String.valueOf(i));
+            for (long ts = Math.floorDiv(start, interval) * interval; ts <= end; ts += interval) {
+                results[i].addDataPoint(ts, i + ts / (double) interval);
+            }
+        }
+        return new OpenTSDBQueryReturn(results, new QueryStatus(QueryStatus.QueryStatusEnum.SUCCESS, ""));
+    }
+}
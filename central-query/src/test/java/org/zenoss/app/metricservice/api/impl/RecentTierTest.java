@@ -0,0 +1,312 @@
+/*
+ * ****************************************************************************
+ *
+ *  Copyright (C) Zenoss, Inc. 2026, all rights reserved.
+ *
+ *  This content is made available according to terms specified in
+ *  License.zenoss distributed with this file.
+ *
+ * ***************************************************************************
+ */
+package org.zenoss.app.metricservice.api.impl;
+
+import org.junit.Test;
+import org.zenoss.app.metricservice.api.model.v2.Metric;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.TreeMap;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.function.Function;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNotNull;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+public class RecentTierTest {
+
+    private static final long NOW = 1_700_000_017L;
+
+    private final AtomicLong clock = new AtomicLong(NOW);
+    private final List<OpenTSDBQuery> sent = new ArrayList<>();
+
+    /**
+     * Every point written to OpenTSDB, by host
+     */
+    private final Map<String, TreeMap<Long, Double>> written = new HashMap<>();
+
+    private final Function<OpenTSDBQuery, CompletableFuture<OpenTSDBQueryReturn>> fetch = query -> {
+        sent.add(query);
+        return CompletableFuture.completedFuture(respond(query));
+    };
+
+    @Test
+    public void testRecentRangeIsAnsweredFromMemory() {
+        RecentTier tier = new RecentTier(100, 64, 60, 3600, clock::get);
+        push(tier, "a", NOW - 600, NOW, 10);
+
+        OpenTSDBQuery query = query("a", NOW - 300, "1m-avg");
+        OpenTSDBQueryReturn result = tier.queryAsync(query, q -> {
+            fail("the range is held in memory");
+            return null;
+        }).join();
+
+        assertEquals(QueryStatus.QueryStatusEnum.SUCCESS, result.getStatus().getStatus());
+        assertSameSeries(respond(query), result);
+    }
+
+    @Test
+    public void testStoredPartEndsAtTheHorizon() {
+        RecentTier tier = new RecentTier(100, 32, 60, 3600, clock::get);
+        push(tier, "a", NOW - 3600, NOW, 10);
+
+        for (String downsample : new String[]{null, "1m-avg", "5m-max", "2m-count", "1m-last"}) {
+            sent.clear();
+            OpenTSDBQuery query = query("a", NOW - 3600, downsample);
+            OpenTSDBQueryReturn result = tier.queryAsync(query, fetch).join();
+
+            assertSameSeries(respond(query), result);
+            assertEquals(1, sent.size());
+            long end = Long.parseLong(sent.get(0).end);
+            long interval = null == downsample ? 1 : Utils.parseDuration(downsample);
+            assertEquals("the stored part should end before a bucket", 0, (end + 1) % interval);
+            assertTrue("the stored part should not reach past the points dropped from memory", end >= NOW - 32 * 10);
+        }
+    }
+
+    @Test
+    public void testPointsBeforeAGapInPushesAreNotRead() {
+        RecentTier tier = new RecentTier(100, 64, 60, 3600, clock::get);
+        push(tier, "a", NOW - 300, NOW, 10);
+
+        clock.addAndGet(120);
+        assertNull("nothing pushed for longer than the staleness budget", tier.queryAsync(query("a", NOW - 300, null), fetch));
+
+        // points pushed during the gap may have been lost
+        written.get("a").put(NOW + 60, 42.0);
+        push(tier, "a", NOW + 110, NOW + 120, 10);
+        OpenTSDBQuery query = query("a", NOW - 300, null);
+        OpenTSDBQueryReturn result = tier.queryAsync(query, fetch).join();
+        assertSameSeries(respond(query), result);
+        assertEquals(NOW + 109, Long.parseLong(sent.get(0).end));
+    }
+
+    @Test
+    public void testRangeBeforeTheFirstPushIsStored() {
+        RecentTier tier = new RecentTier(100, 64, 60, 3600, clock::get);
+        // Points of host b were written before the tier started, and never pushed
+        written.put("b", new TreeMap<>(Collections.singletonMap(NOW - 100, 1.0)));
+        List<Metric> backlog = new ArrayList<>();
+        TreeMap<Long, Double> points = new TreeMap<>();
+        for (long ts = NOW - 300; ts <= NOW; ts += 10) {
+            points.put(ts, 1.0);
+            backlog.add(metric("a", ts, 1.0));
+        }
+        written.put("a", points);
+        assertEquals(backlog.size(), tier.store(backlog));
+
+        OpenTSDBQuery query = query(null, NOW - 300, null);
+        OpenTSDBQueryReturn result = tier.queryAsync(query, fetch).join();
+        assertEquals("a range from before the first push is not in memory", String.valueOf(NOW - 300), sent.get(0).start);
+        assertSameSeries(respond(query), result);
+    }
+
+    @Test
+    public void testMissingPointsAreSkipped() {
+        RecentTier tier = new RecentTier(100, 64, 60, 3600, clock::get);
+        assertEquals(1, tier.store(Arrays.asList(null, metric("a", NOW, 1.0))));
+    }
+
+    @Test
+    public void testOtherStoredSeriesFallBackToTheWholeQuery() {
+        RecentTier tier = new RecentTier(100, 16, 60, 3600, clock::get);
+        push(tier, "a", NOW - 300, NOW, 10);
+        // only OpenTSDB has the older points of another host
+        written.put("b", new TreeMap<>(Collections.singletonMap(NOW - 3000, 1.0)));
+
+        OpenTSDBQuery query = query(null, NOW - 3600, "1m-avg");
+        OpenTSDBQueryReturn result = tier.queryAsync(query, fetch).join();
+
+        assertEquals(2, sent.size());
+        assertEquals(query, sent.get(1));
+        assertSameSeries(respond(query), result);
+    }
+
+    @Test
+    public void testOnlySubQueriesOfOneHeldSeriesAreRead() {
+        RecentTier tier = new RecentTier(100, 64, 60, 3600, clock::get);
+        push(tier, "a", NOW - 300, NOW, 10);
+        push(tier, "b", NOW - 300, NOW, 10);
+
+        assertNull("several series", tier.queryAsync(query(null, NOW - 300, null), fetch));
+        assertNull("wildcards", tier.queryAsync(query("*", NOW - 300, null), fetch));
+        assertNull("series not held", tier.queryAsync(query("c", NOW - 300, null), fetch));
+        assertNull("percentiles", tier.queryAsync(query("a", NOW - 300, "1m-p95"), fetch));
+        assertNull("fill policies", tier.queryAsync(query("a", NOW - 300, "1m-avg-nan"), fetch));
+        OpenTSDBQuery rate = query("a", NOW - 300, null);
+        rate.queries.get(0).rate = true;
+        assertNull("rates", tier.queryAsync(rate, fetch));
+        OpenTSDBQuery past = query("a", NOW - 3600, null);
+        past.end = String.valueOf(NOW - 1800);
+        assertNull("ranges ending before the points held", tier.queryAsync(past, fetch));
+        assertNotNull(tier.queryAsync(query("a", NOW - 300, null), fetch));
+    }
+
+    @Test
+    public void testDroppedSeriesMoveTheHorizonOfTheirMetric() {
+        RecentTier tier = new RecentTier(1, 64, 60, 3600, clock::get);
+        push(tier, "a", NOW - 300, NOW, 10);
+        assertEquals(0, tier.store(Collections.singletonList(metric("b", NOW - 50, 1.0))));
+        written.put("b", new TreeMap<>(Collections.singletonMap(NOW - 50, 1.0)));
+
+        OpenTSDBQuery query = query(null, NOW - 300, null);
+        OpenTSDBQueryReturn result = tier.queryAsync(query, fetch).join();
+        assertTrue(Long.parseLong(sent.get(0).end) >= NOW - 50);
+        assertSameSeries(respond(query), result);
+    }
+
+    @Test
+    public void testRingKeepsItsHorizon() {
+        RecentSeries series = new RecentSeries(4);
+        assertEquals(Long.MAX_VALUE, series.read(0).horizon);
+        for (long ts = 100; ts < 160; ts += 10) {
+            assertTrue(series.add(ts, ts));
+        }
+        RecentSeries.View view = series.read(0);
+        assertEquals(4, view.size);
+        assertEquals(120, view.timestamps[0]);
+        assertEquals("every point after the last one dropped is held", 111, view.horizon);
+
+        assertEquals(false, series.add(145, 1.0));
+        assertEquals("a late point is dropped", 146, series.read(0).horizon);
+        assertEquals(2, series.read(140).size);
+    }
+
+    /**
+     * Writes a point every step to OpenTSDB and pushes it to the tier as it
+     * is written
+     */
+    private void push(RecentTier tier, String host, long from, long to, long step) {
+        TreeMap<Long, Double> points = written.get(host);
+        if (null == points) {
+            points = new TreeMap<>();
+            written.put(host, points);
+        }
+        for (long ts = from; ts <= to; ts += step) {
+            double value = (ts % 97) + host.charAt(0);
+            points.put(ts, value);
+            clock.set(ts);
+            assertEquals(1, tier.store(Collections.singletonList(metric(host, ts, value))));
+        }
+    }
+
+    private static Metric metric(String host, long timestamp, double value) {
+        return new Metric("laLoadInt1", timestamp, value, new HashMap<>(Collections.singletonMap("host", host)));
+    }
+
+    private static OpenTSDBQuery query(String host, long start, String downsample) {
+        OpenTSDBQuery query = new OpenTSDBQuery();
+        query.start = String.valueOf(start);
+        OpenTSDBSubQuery subQuery = new OpenTSDBSubQuery();
+        subQuery.metric = "laLoadInt1";
+        subQuery.downsample = downsample;
+        if (null != host) {
+            subQuery.addTag("host", host);
+        }
+        query.addSubQuery(subQuery);
+        return query;
+    }
+
+    /**
+     * Answers a query from the points written, as OpenTSDB would: a series
+     * for each host matched, unless several are matched and aggregated
+     */
+    private OpenTSDBQueryReturn respond(OpenTSDBQuery query) {
+        long start = Long.parseLong(query.start);
+        long end = null == query.end ? clock.get() : Long.parseLong(query.end);
+        OpenTSDBSubQuery subQuery = query.queries.get(0);
+        String wanted = null == subQuery.tags ? null : subQuery.tags.get("host");
+        List<String> hosts = new ArrayList<>();
+        for (Map.Entry<String, TreeMap<Long, Double>> entry : written.entrySet()) {
+            if ((null == wanted || wanted.equals(entry.getKey()))
+                    && !entry.getValue().subMap(start, true, end, true).isEmpty()) {
+                hosts.add(entry.getKey());
+            }
+        }
+        if (hosts.isEmpty()) {
+            return new OpenTSDBQueryReturn(new OpenTSDBQueryResult[0], new QueryStatus(QueryStatus.QueryStatusEnum.WARNING, "no data"));
+        }
+        Collections.sort(hosts);
+        OpenTSDBQueryResult result = new OpenTSDBQueryResult();
+        result.metric = subQuery.metric;
+        result.tags = new HashMap<>();
+        result.aggregateTags = new ArrayList<>();
+        if (hosts.size() == 1) {
+            result.tags.put("host", hosts.get(0));
+        } else {
+            result.aggregateTags.add("host");
+        }
+        TreeMap<Long, Double> points = new TreeMap<>();
+        for (String host : hosts) {
+            for (Map.Entry<Long, Double> point : written.get(host).subMap(start, true, end, true).entrySet()) {
+                points.merge(point.getKey(), point.getValue(), Double::sum);
+            }
+        }
+        result.setDataPoints(downsample(points, subQuery.downsample));
+        return new OpenTSDBQueryReturn(new OpenTSDBQueryResult[]{result}, new QueryStatus(QueryStatus.QueryStatusEnum.SUCCESS, ""));
+    }
+
+    private static DataPointSeries downsample(TreeMap<Long, Double> points, String downsample) {
+        DataPointSeries series = new DataPointSeries();
+        if (null == downsample) {
+            for (Map.Entry<Long, Double> point : points.entrySet()) {
+                series.add(point.getKey(), point.getValue());
+            }
+            return series;
+        }
+        long interval = Utils.parseDuration(downsample);
+        String function = downsample.split("-")[1];
+        TreeMap<Long, List<Double>> buckets = new TreeMap<>();
+        for (Map.Entry<Long, Double> point : points.entrySet()) {
+            buckets.computeIfAbsent(Math.floorDiv(point.getKey(), interval) * interval, b -> new ArrayList<>()).add(point.getValue());
+        }
+        for (Map.Entry<Long, List<Double>> bucket : buckets.entrySet()) {
+            List<Double> values = bucket.getValue();
+            double value;
+            switch (function) {
+                case "max":
+                    value = Collections.max(values);
+                    break;
+                case "count":
+                    value = values.size();
+                    break;
+                case "last":
+                    value = values.get(values.size() - 1);
+                    break;
+                default:
+                    double sum = 0;
+                    for (double v : values) {
+                        sum += v;
+                    }
+                    value = sum / values.size();
+            }
+            series.add(bucket.getKey(), value);
+        }
+        return series;
+    }
+
+    private static void assertSameSeries(OpenTSDBQueryReturn expected, OpenTSDBQueryReturn actual) {
+        assertEquals(expected.getResults().size(), actual.getResults().size());
+        for (int i = 0; i < expected.getResults().size(); i++) {
+            assertEquals(expected.getResults().get(i).tags, actual.getResults().get(i).tags);
+            assertEquals(expected.getResults().get(i).getDataPoints(), actual.getResults().get(i).getDataPoints());
+        }
+    }
+}
@@ -0,0 +1,268 @@
+/*
+ * ****************************************************************************
+ *
+ *  Copyright (C) Zenoss, Inc. 2026, all rights reserved.
+ *
+ *  This content is made available according to terms specified in
+ *  License.zenoss distributed with this file.
+ *
+ * ***************************************************************************
+ */
+package org.zenoss.app.metricservice.api.impl;
+
+import org.junit.Before;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+import org.mockito.invocation.InvocationOnMock;
+import org.mockito.stubbing.Answer;
+import org.zenoss.app.metricservice.api.model.MetricSpecification;
+
+import java.io.IOException;
+import java.text.ParseException;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.List;
+import java.util.concurrent.CompletableFuture;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+import static org.mockito.ArgumentMatchers.any;
+import static org.mockito.ArgumentMatchers.anyBoolean;
+import static org.mockito.ArgumentMatchers.anyLong;
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.when;
+
+public class ResultSegmentCacheTest {
+
+    private static final String URL = "http://localhost:4242/api/query";
+    private static final long HOUR = 3600;
+
+    @Rule
+    public TemporaryFolder folder = new TemporaryFolder();
+
+    private OpenTSDBClient client;
+    private List<OpenTSDBQuery> sent;
+    private String failingStart;
+    private QueryStatus emptyAnswer;
+    private long secondHostFrom = Long.MAX_VALUE;
+
+    @Before
+    public void setUp() {
+        client = mock(OpenTSDBClient.class);
+        sent = new ArrayList<>();
+        when(client.queryAsync(any(OpenTSDBQuery.class), anyBoolean(), anyLong())).thenAnswer(new Answer<CompletableFuture<OpenTSDBQueryReturn>>() {
+            @Override
+            public CompletableFuture<OpenTSDBQueryReturn> answer(InvocationOnMock invocation) throws Throwable {
+                OpenTSDBQuery query = invocation.getArgument(0);
+                sent.add(query);
+                if (query.start.equals(failingStart)) {
+                    return CompletableFuture.completedFuture(new OpenTSDBQueryReturn(new OpenTSDBQueryResult[0],
+                            new QueryStatus(QueryStatus.QueryStatusEnum.ERROR, "failed")));
+                }
+                if (null != emptyAnswer) {
+                    return CompletableFuture.completedFuture(new OpenTSDBQueryReturn(new OpenTSDBQueryResult[0], emptyAnswer));
+                }
+                OpenTSDBQueryReturn answer = respond(query);
+                if (Long.parseLong(query.start) >= secondHostFrom) {
+                    answer.getResults().get(0).tags.put("host", "b");
+                }
+                return CompletableFuture.completedFuture(answer);
+            }
+        });
+    }
+
+    @Test
+    public void testStitchedSegmentsMatchTheWholeRange() {
+        // Nothing is left to settle, so the number of completed segments does not depend on the time of day
+        ResultSegmentCache cache = new ResultSegmentCache(1 << 20, HOUR, 0);
+        String start = String.valueOf(now() - 5 * HOUR - 17);
+        String end = String.valueOf(now());
+        MetricSpecification spec = spec(false);
+
+        OpenTSDBQueryResult expected = MetricSpecCallable.toResult(null, respond(MetricSpecCallable.createQuery(start, end, spec)), spec);
+        long misses = ResultSegmentCache.getMisses();
+        OpenTSDBQueryResult first = cache.queryAsync(client, URL, start, end, spec(false), false, 0).join();
+        int firstQueries = sent.size();
+        long segments = ResultSegmentCache.getMisses() - misses;
+        long hits = ResultSegmentCache.getHits();
+        OpenTSDBQueryResult second = cache.queryAsync(client, URL, start, end, spec(false), false, 0).join();
+
+        assertEquals(expected.getDataPoints(), first.getDataPoints());
+        assertEquals(expected.getDataPoints(), second.getDataPoints());
+        assertEquals(expected.tags, second.tags);
+        assertEquals("laLoadInt1", second.metricSpecName);
+        assertTrue("completed segments should be cached", segments >= 4);
+        assertEquals("missing segments in a row should be queried as one range", 3, firstQueries);
+        assertEquals("only the head and the tail should be queried again", firstQueries + 2, sent.size());
+        assertEquals(hits + segments, ResultSegmentCache.getHits());
+    }
+
+    @Test
+    public void testOnlyMissingSegmentsAreQueried() {
+        ResultSegmentCache cache = new ResultSegmentCache(1 << 20, HOUR, 300);
+        long aligned = (now() / HOUR - 6) * HOUR;
+        cache.queryAsync(client, URL, String.valueOf(aligned + 2 * HOUR), String.valueOf(aligned + 3 * HOUR - 1), spec(false), false, 0).join();
+        sent.clear();
+        OpenTSDBQueryResult result = cache.queryAsync(client, URL, String.valueOf(aligned), String.valueOf(aligned + 5 * HOUR - 1), spec(false), false, 0).join();
+
+        assertEquals(2, sent.size());
+        assertEquals(String.valueOf(aligned), sent.get(0).start);
+        assertEquals(String.valueOf(aligned + 2 * HOUR - 1), sent.get(0).end);
+        assertEquals(String.valueOf(aligned + 3 * HOUR), sent.get(1).start);
+        assertEquals(String.valueOf(aligned + 5 * HOUR - 1), sent.get(1).end);
+        OpenTSDBQuery whole = MetricSpecCallable.createQuery(String.valueOf(aligned), String.valueOf(aligned + 5 * HOUR - 1), spec(false));
+        assertEquals(respond(whole).getResults().get(0).getDataPoints(), result.getDataPoints());
+    }
+
+    @Test
+    public void testSegmentsWithoutDataAreKept() {
+        ResultSegmentCache cache = new ResultSegmentCache(1 << 20, HOUR, 300);
+        long aligned = (now() / HOUR - 4) * HOUR;
+        String start = String.valueOf(aligned);
+        String end = String.valueOf(aligned + 3 * HOUR - 1);
+        emptyAnswer = new QueryStatus(QueryStatus.QueryStatusEnum.WARNING, OpenTSDBClient.NO_DATA);
+        OpenTSDBQueryResult first = cache.queryAsync(client, URL, start, end, spec(false), false, 0).join();
+        assertEquals(QueryStatus.QueryStatusEnum.WARNING, first.getStatus().getStatus());
+        int firstQueries = sent.size();
+
+        OpenTSDBQueryResult second = cache.queryAsync(client, URL, start, end, spec(false), false, 0).join();
+        assertEquals(QueryStatus.QueryStatusEnum.WARNING, second.getStatus().getStatus());
+        assertEquals("segments without data should not be queried again", firstQueries, sent.size());
+    }
+
+    @Test
+    public void testUnreadableAnswersAreQueriedAgain() {
+        ResultSegmentCache cache = new ResultSegmentCache(1 << 20, HOUR, 300);
+        long aligned = (now() / HOUR - 4) * HOUR;
+        String start = String.valueOf(aligned);
+        String end = String.valueOf(aligned + 3 * HOUR - 1);
+        emptyAnswer = new QueryStatus(QueryStatus.QueryStatusEnum.WARNING, "Could not parse content as OpenTSDBQueryResult[]");
+        cache.queryAsync(client, URL, start, end, spec(false), false, 0).join();
+        int firstQueries = sent.size();
+        emptyAnswer = null;
+
+        OpenTSDBQueryResult second = cache.queryAsync(client, URL, start, end, spec(false), false, 0).join();
+        assertEquals(2 * firstQueries, sent.size());
+        assertTrue(second.getDataPoints().size() > 0);
+    }
+
+    @Test
+    public void testAggregatedSeriesIsJoinedAcrossTags() {
+        ResultSegmentCache cache = new ResultSegmentCache(1 << 20, HOUR, 300);
+        long aligned = (now() / HOUR - 4) * HOUR;
+        secondHostFrom = aligned + 2 * HOUR;
+        OpenTSDBQueryResult cached = cache.queryAsync(client, URL, String.valueOf(aligned + 2 * HOUR), String.valueOf(aligned + 3 * HOUR - 1), spec(false), false, 0).join();
+        assertEquals("b", cached.tags.get("host"));
+
+        OpenTSDBQueryResult result = cache.queryAsync(client, URL, String.valueOf(aligned), String.valueOf(aligned + 3 * HOUR - 1), spec(false), false, 0).join();
+        OpenTSDBQuery whole = MetricSpecCallable.createQuery(String.valueOf(aligned), String.valueOf(aligned + 3 * HOUR - 1), spec(false));
+        assertEquals(respond(whole).getResults().get(0).getDataPoints(), result.getDataPoints());
+        assertNull(result.tags.get("host"));
+        assertEquals(Collections.singletonList("host"), result.aggregateTags);
+    }
+
+    @Test
+    public void testCachedSegmentsAreNotChangedByCallers() {
+        ResultSegmentCache cache = new ResultSegmentCache(1 << 20, HOUR, 300);
+        String start = String.valueOf((now() / HOUR - 3) * HOUR);
+        OpenTSDBQueryResult first = cache.queryAsync(client, URL, start, "now", spec(false), false, 0).join();
+        DataPointSeries expected = first.getDataPoints().slice(Long.MIN_VALUE, Long.MAX_VALUE);
+        first.getDataPoints().setValue(0, -1);
+        first.getDataPoints().clear();
+        OpenTSDBQueryResult second = cache.queryAsync(client, URL, start, "now", spec(false), false, 0).join();
+        assertEquals(expected, second.getDataPoints());
+    }
+
+    @Test
+    public void testRecentRangeIsNotSegmented() {
+        ResultSegmentCache cache = new ResultSegmentCache(1 << 20, HOUR, 300);
+        assertNull(cache.queryAsync(client, URL, "30m-ago", "now", spec(false), false, 0));
+        assertTrue(sent.isEmpty());
+    }
+
+    @Test
+    public void testRateQueriesAreOnlySegmentedAfterTheCutoffWhenIgnoringRates() {
+        ResultSegmentCache cache = new ResultSegmentCache(1 << 20, HOUR, 300);
+        String start = String.valueOf(now() - 10 * HOUR);
+        long cutoff = now() - 4 * HOUR - 100;
+        assertNull(cache.queryAsync(client, URL, start, "now", spec(true), false, cutoff));
+
+        cache.queryAsync(client, URL, start, "now", spec(true), true, cutoff).join();
+        assertEquals(start, sent.get(0).start);
+        long headEnd = Long.parseLong(sent.get(0).end);
+        assertTrue(headEnd + 1 >= cutoff);
+        for (OpenTSDBQuery query : sent.subList(1, sent.size())) {
+            assertTrue(Long.parseLong(query.start) >= cutoff);
+        }
+    }
+
+    @Test
+    public void testFailedPartFailsTheSeries() {
+        ResultSegmentCache cache = new ResultSegmentCache(1 << 20, HOUR, 300);
+        long aligned = (now() / HOUR - 4) * HOUR;
+        failingStart = String.valueOf(aligned);
+        OpenTSDBQueryResult result = cache.queryAsync(client, URL, String.valueOf(aligned), "now", spec(false), false, 0).join();
+        assertEquals(QueryStatus.QueryStatusEnum.ERROR, result.getStatus().getStatus());
+        assertEquals("laLoadInt1", result.metricSpecName);
+    }
+
+    @Test
+    public void testSegmentsBeyondTheMemoryBoundAreQueriedAgain() {
+        ResultSegmentCache cache = new ResultSegmentCache(1, HOUR, 300);
+        String start = String.valueOf((now() / HOUR - 3) * HOUR);
+        cache.queryAsync(client, URL, start, "now", spec(false), false, 0).join();
+        int firstQueries = sent.size();
+        cache.queryAsync(client, URL, start, "now", spec(false), false, 0).join();
+        assertEquals(2 * firstQueries, sent.size());
+    }
+
+    @Test
+    public void testRestartedCacheReadsSegmentsFromDisk() throws IOException {
+        String start = String.valueOf((now() / HOUR - 3) * HOUR);
+        String end = String.valueOf(now());
+        OpenTSDBQueryResult first;
+        try (SegmentStore store = new SegmentStore(folder.getRoot(), 1 << 20)) {
+            first = new ResultSegmentCache(1 << 20, HOUR, 300, store).queryAsync(client, URL, start, end, spec(false), false, 0).join();
+        }
+        int firstQueries = sent.size();
+        try (SegmentStore store = new SegmentStore(folder.getRoot(), 1 << 20)) {
+            OpenTSDBQueryResult second = new ResultSegmentCache(1 << 20, HOUR, 300, store).queryAsync(client, URL, start, end, spec(false), false, 0).join();
+            assertEquals(first.getDataPoints(), second.getDataPoints());
+        }
+        assertEquals("only the tail should be queried after a restart", firstQueries + 1, sent.size());
+    }
+
+    private static long now() {
+        return System.currentTimeMillis() / 1000;
+    }
+
+    private static MetricSpecification spec(boolean rate) {
+        MetricSpecification spec = MetricSpecification.fromString("laLoadInt1");
+        spec.setDownsample("1m-avg");
+        spec.setRate(rate);
+        return spec;
+    }
+
+    /**
+     * Answers a query with one point a minute, valued by its timestamp
+     */
+    private static OpenTSDBQueryReturn respond(OpenTSDBQuery query) {
+        try {
+            long start = Utils.parseDate(query.start);
+            long end = null == query.end ? now() : Utils.parseDate(query.end);
+            OpenTSDBQueryResult result = new OpenTSDBQueryResult();
+            result.metric = query.queries.get(0).metric;
+            result.tags = new HashMap<>();
+            result.tags.put("host", "a");
+            for (long ts = (start + 59) / 60 * 60; ts <= end; ts += 60) {
+                result.addDataPoint(ts, ts / 60.0);
+            }
+            return new OpenTSDBQueryReturn(new OpenTSDBQueryResult[]{result}, new QueryStatus(QueryStatus.QueryStatusEnum.SUCCESS, ""));
+        } catch (ParseException e) {
+            throw new IllegalArgumentException(e);
+        }
+    }
+}
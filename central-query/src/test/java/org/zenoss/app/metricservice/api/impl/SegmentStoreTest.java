@@ -0,0 +1,175 @@
+/*
+ * ****************************************************************************
+ *
+ *  Copyright (C) Zenoss, Inc. 2026, all rights reserved.
+ *
+ *  This content is made available according to terms specified in
+ *  License.zenoss distributed with this file.
+ *
+ * ***************************************************************************
+ */
+package org.zenoss.app.metricservice.api.impl;
+
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.ByteBuffer;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.List;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNotNull;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+public class SegmentStoreTest {
+
+    @Rule
+    public TemporaryFolder folder = new TemporaryFolder();
+
+    @Test
+    public void testStoredResultsReadBackTheSame() throws IOException {
+        OpenTSDBQueryResult tagged = result("laLoadInt1", 100, 0);
+        tagged.aggregateTags = Arrays.asList("device", "idx");
+        tagged.addDataPoint(100 * 60 + 60, Double.NaN);
+        OpenTSDBQueryResult untagged = result("cpu ü", 3, 1000);
+        untagged.tags = null;
+        untagged.aggregateTags = null;
+
+        try (SegmentStore store = new SegmentStore(folder.getRoot(), 1 << 20)) {
+            store.put("k", Arrays.asList(tagged, untagged));
+            List<OpenTSDBQueryResult> read = store.get("k");
+            assertEquals(2, read.size());
+            assertSame(tagged, read.get(0));
+            assertSame(untagged, read.get(1));
+            assertNull(store.get("other"));
+        }
+    }
+
+    @Test
+    public void testSegmentsSurviveReopening() throws IOException {
+        try (SegmentStore store = new SegmentStore(folder.getRoot(), 1 << 20)) {
+            store.put("a", Collections.singletonList(result("a", 10, 0)));
+            store.put("b", Collections.singletonList(result("b", 10, 0)));
+            store.put("a", Collections.singletonList(result("a", 20, 0)));
+        }
+        try (SegmentStore store = new SegmentStore(folder.getRoot(), 1 << 20)) {
+            assertEquals(2, store.size());
+            assertSame(result("a", 20, 0), store.get("a").get(0));
+            assertSame(result("b", 10, 0), store.get("b").get(0));
+        }
+    }
+
+    @Test
+    public void testStrayFilesAreIgnored() throws IOException {
+        try (SegmentStore store = new SegmentStore(folder.getRoot(), 1 << 20)) {
+            store.put("a", Collections.singletonList(result("a", 10, 0)));
+        }
+        assertTrue(new File(folder.getRoot(), "segments-old.dat").createNewFile());
+        try (SegmentStore store = new SegmentStore(folder.getRoot(), 1 << 20)) {
+            assertEquals(1, store.size());
+            assertSame(result("a", 10, 0), store.get("a").get(0));
+        }
+    }
+
+    @Test
+    public void testTruncatedIndexKeepsCompleteEntries() throws IOException {
+        try (SegmentStore store = new SegmentStore(folder.getRoot(), 1 << 20)) {
+            store.put("a", Collections.singletonList(result("a", 10, 0)));
+        }
+        try (FileOutputStream out = new FileOutputStream(new File(folder.getRoot(), "index"), true)) {
+            out.write(new byte[]{0, 5, 'b'});
+        }
+        try (SegmentStore store = new SegmentStore(folder.getRoot(), 1 << 20)) {
+            assertEquals(1, store.size());
+            assertNotNull(store.get("a"));
+        }
+    }
+
+    @Test
+    public void testCorruptCountsFailTheRead() throws IOException {
+        ByteBuffer record = SegmentStore.writeRecord("k", Collections.singletonList(result("m", 10, 0)));
+        // The count of series follows the magic number and the key
+        record.putInt(4 + 4 + 1, Integer.MAX_VALUE);
+        try {
+            SegmentStore.readRecord(record, "k");
+            fail("a count larger than the record should fail the read");
+        } catch (IllegalStateException e) {
+            // expected
+        }
+
+        try (SegmentStore store = new SegmentStore(folder.getRoot(), 1 << 20)) {
+            store.put("k", Collections.singletonList(result("m", 10, 0)));
+        }
+        File data = new File(folder.getRoot(), "segments-0.dat");
+        try (RandomAccessFile file = new RandomAccessFile(data, "rw")) {
+            file.seek(4 + 4 + 1);
+            file.writeInt(Integer.MAX_VALUE);
+        }
+        try (SegmentStore store = new SegmentStore(folder.getRoot(), 1 << 20)) {
+            assertNull(store.get("k"));
+            assertEquals(0, store.size());
+        }
+    }
+
+    @Test
+    public void testActiveFileIsReadBetweenAppends() throws IOException {
+        try (SegmentStore store = new SegmentStore(folder.getRoot(), 1 << 20)) {
+            for (int i = 0; i < 50; i++) {
+                store.put("k" + i, Collections.singletonList(result("m", 10, i)));
+                assertSame(result("m", 10, i), store.get("k" + i).get(0));
+                assertSame(result("m", 10, 0), store.get("k0").get(0));
+            }
+        }
+    }
+
+    @Test
+    public void testLeastRecentlyUsedSegmentsAreDroppedAndFilesCompacted() throws IOException {
+        int segmentBytes = SegmentStore.writeRecord("k000", Collections.singletonList(result("m", 100, 0))).limit();
+        long maxBytes = 20L * segmentBytes;
+        try (SegmentStore store = new SegmentStore(folder.getRoot(), maxBytes)) {
+            store.put("keep", Collections.singletonList(result("m", 100, 0)));
+            for (int i = 0; i < 200; i++) {
+                store.put(String.format("k%03d", i), Collections.singletonList(result("m", 100, i)));
+                assertNotNull(store.get("keep"));
+            }
+            assertNotNull(store.get("k199"));
+            assertNull(store.get("k000"));
+            assertTrue(store.size() <= 21);
+        }
+        long onDisk = 0;
+        for (File file : folder.getRoot().listFiles()) {
+            if (file.getName().endsWith(".dat")) {
+                onDisk += file.length();
+            }
+        }
+        assertTrue("compaction should delete emptied files, found " + onDisk + " bytes", onDisk <= 3 * maxBytes);
+    }
+
+    private static OpenTSDBQueryResult result(String metric, int points, int offset) {
+        OpenTSDBQueryResult result = new OpenTSDBQueryResult();
+        result.metric = metric;
+        result.tags = new HashMap<>();
+        result.tags.put("host", "a");
+        result.aggregateTags = Collections.emptyList();
+        for (int i = 0; i < points; i++) {
+            result.addDataPoint(60L * i, offset + i / 4.0);
+        }
+        return result;
+    }
+
+    private static void assertSame(OpenTSDBQueryResult expected, OpenTSDBQueryResult actual) {
+        assertEquals(expected.metric, actual.metric);
+        assertEquals(expected.tags, actual.tags);
+        assertEquals(expected.aggregateTags, actual.aggregateTags);
+        assertEquals(expected.getDataPoints(), actual.getDataPoints());
+    }
+}
@@ -0,0 +1,199 @@
+/*
+ * ****************************************************************************
+ *
+ *  Copyright (C) Zenoss, Inc. 2026, all rights reserved.
+ *
+ *  This content is made available according to terms specified in
+ *  License.zenoss distributed with this file.
+ *
+ * ***************************************************************************
+ */
+package org.zenoss.app.metricservice.api.impl;
+
+import org.junit.Test;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.List;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.function.Function;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+public class SlidingWindowCacheTest {
+
+    private static final long HOUR = 3600;
+
+    private final AtomicLong clock = new AtomicLong(1_700_000_017L);
+    private final List<OpenTSDBQuery> sent = new ArrayList<>();
+    private CompletableFuture<OpenTSDBQueryReturn> held;
+
+    private final Function<OpenTSDBQuery, CompletableFuture<OpenTSDBQueryReturn>> fetch = query -> {
+        sent.add(query);
+        if (null != held) {
+            final long at = clock.get();
+            return held.thenApply(v -> respond(query, at));
+        }
+        return CompletableFuture.completedFuture(respond(query, clock.get()));
+    };
+
+    @Test
+    public void testSlidWindowMatchesAFreshQuery() {
+        SlidingWindowCache cache = new SlidingWindowCache(10, 600, 0, 120, clock::get);
+        cache.query("k", query("1m-avg"), fetch).join();
+        assertEquals(1, sent.size());
+
+        for (int poll = 0; poll < 5; poll++) {
+            clock.addAndGet(60 + poll);
+            sent.clear();
+            OpenTSDBQueryReturn slid = cache.query("k", query("1m-avg"), fetch).join();
+            OpenTSDBQueryReturn fresh = respond(query("1m-avg"), clock.get());
+            assertEquals(fresh.getResults().get(0).getDataPoints(), slid.getResults().get(0).getDataPoints());
+            assertEquals(QueryStatus.QueryStatusEnum.SUCCESS, slid.getStatus().getStatus());
+            for (OpenTSDBQuery query : sent) {
+                long start = Long.parseLong(query.start);
+                long end = null == query.end ? clock.get() : Long.parseLong(query.end);
+                assertTrue("only the new tail and the partial first bucket should be fetched", end - start <= 300);
+            }
+        }
+    }
+
+    @Test
+    public void testRawPointsLeaveTheWindow() {
+        SlidingWindowCache cache = new SlidingWindowCache(10, 600, 0, 120, clock::get);
+        cache.query("k", query(null), fetch).join();
+        clock.addAndGet(HOUR / 2);
+        OpenTSDBQueryReturn slid = cache.query("k", query(null), fetch).join();
+        assertEquals(respond(query(null), clock.get()).getResults().get(0).getDataPoints(), slid.getResults().get(0).getDataPoints());
+        assertEquals("raw points need no partial bucket", 2, sent.size());
+    }
+
+    @Test
+    public void testStaleResultIsServedWhileRefreshing() {
+        SlidingWindowCache cache = new SlidingWindowCache(10, 600, 60, 120, clock::get);
+        DataPointSeries first = cache.query("k", query("1m-avg"), fetch).join().getResults().get(0).getDataPoints();
+
+        held = new CompletableFuture<>();
+        clock.addAndGet(30);
+        CompletableFuture<OpenTSDBQueryReturn> stale = cache.query("k", query("1m-avg"), fetch);
+        assertTrue("a result within the staleness budget is answered at once", stale.isDone());
+        DataPointSeries served = stale.join().getResults().get(0).getDataPoints();
+        assertEquals(first.lastTimestamp(), served.lastTimestamp());
+        int refreshes = sent.size();
+        cache.query("k", query("1m-avg"), fetch);
+        assertEquals("a refresh in flight is not started again", refreshes, sent.size());
+
+        held.complete(null);
+        held = null;
+        clock.addAndGet(10);
+        DataPointSeries refreshed = cache.query("k", query("1m-avg"), fetch).join().getResults().get(0).getDataPoints();
+        assertTrue(refreshed.lastTimestamp() > first.lastTimestamp());
+    }
+
+    @Test
+    public void testFailedRefreshKeepsTheLastResult() {
+        SlidingWindowCache cache = new SlidingWindowCache(10, 600, 0, 120, clock::get);
+        cache.query("k", query("1m-avg"), fetch).join();
+        clock.addAndGet(60);
+        OpenTSDBQueryReturn failed = cache.query("k", query("1m-avg"),
+                q -> CompletableFuture.completedFuture(new OpenTSDBQueryReturn(new OpenTSDBQueryResult[0],
+                        new QueryStatus(QueryStatus.QueryStatusEnum.ERROR, "failed")))).join();
+        assertEquals(QueryStatus.QueryStatusEnum.ERROR, failed.getStatus().getStatus());
+
+        clock.addAndGet(60);
+        sent.clear();
+        OpenTSDBQueryReturn slid = cache.query("k", query("1m-avg"), fetch).join();
+        assertEquals(respond(query("1m-avg"), clock.get()).getResults().get(0).getDataPoints(), slid.getResults().get(0).getDataPoints());
+        for (OpenTSDBQuery query : sent) {
+            assertFalse(query.start.endsWith("-ago"));
+        }
+    }
+
+    @Test
+    public void testAggregatedSeriesIsJoinedAcrossTags() {
+        SlidingWindowCache cache = new SlidingWindowCache(10, 600, 0, 120, clock::get);
+        cache.query("k", query("1m-avg"), fetch).join();
+        clock.addAndGet(60);
+        // The series aggregated since the last poll no longer share the host
+        OpenTSDBQueryReturn slid = cache.query("k", query("1m-avg"), q -> {
+            OpenTSDBQueryReturn answer = respond(q, clock.get());
+            answer.getResults().get(0).tags.remove("host");
+            answer.getResults().get(0).aggregateTags = Collections.singletonList("host");
+            return CompletableFuture.completedFuture(answer);
+        }).join();
+
+        assertEquals(1, slid.getResults().size());
+        assertEquals(respond(query("1m-avg"), clock.get()).getResults().get(0).getDataPoints(), slid.getResults().get(0).getDataPoints());
+        assertFalse(slid.getResults().get(0).tags.containsKey("host"));
+    }
+
+    @Test
+    public void testOnlyWindowsEndingNowWithoutRatesAreAccepted() {
+        assertTrue(SlidingWindowCache.accepts(query("1m-avg")));
+        OpenTSDBQuery query = query("1m-avg");
+        query.end = "now";
+        assertTrue(SlidingWindowCache.accepts(query));
+
+        query.end = String.valueOf(clock.get());
+        assertFalse(SlidingWindowCache.accepts(query));
+        query = query("1m-avg");
+        query.start = String.valueOf(clock.get() - HOUR);
+        assertFalse(SlidingWindowCache.accepts(query));
+        query = query("1m-avg");
+        query.queries.get(0).rate = true;
+        assertFalse(SlidingWindowCache.accepts(query));
+        query = query("1m-avg");
+        query.addSubQuery(query("1m-avg").queries.get(0));
+        assertFalse(SlidingWindowCache.accepts(query));
+        assertFalse(SlidingWindowCache.accepts(query("0all-avg")));
+    }
+
+    private static OpenTSDBQuery query(String downsample) {
+        OpenTSDBQuery query = new OpenTSDBQuery();
+        query.start = "1h-ago";
+        OpenTSDBSubQuery subQuery = new OpenTSDBSubQuery();
+        subQuery.metric = "laLoadInt1";
+        subQuery.downsample = downsample;
+        query.addSubQuery(subQuery);
+        return query;
+    }
+
+    /**
+     * Answers a query as of a time from a point every ten seconds, valued by
+     * its timestamp, averaged into buckets of the downsample interval
+     */
+    private static OpenTSDBQueryReturn respond(OpenTSDBQuery query, long now) {
+        long start = query.start.endsWith("-ago")
+                ? now - Utils.parseDuration(query.start.substring(0, query.start.length() - 4))
+                : Long.parseLong(query.start);
+        long end = null == query.end ? now : Long.parseLong(query.end);
+        String downsample = query.queries.get(0).downsample;
+        long interval = null == downsample ? 1 : Utils.parseDuration(downsample);
+        OpenTSDBQueryResult result = new OpenTSDBQueryResult();
+        result.metric = query.queries.get(0).metric;
+        result.tags = new HashMap<>();
+        result.tags.put("host", "a");
+        long bucket = Long.MIN_VALUE;
+        double sum = 0;
+        int count = 0;
+        for (long ts = (start + 9) / 10 * 10; ts <= end; ts += 10) {
+            long b = Math.floorDiv(ts, interval) * interval;
+            if (b != bucket && count > 0) {
+                result.addDataPoint(bucket, sum / count);
+                sum = 0;
+                count = 0;
+            }
+            bucket = b;
+            sum += ts;
+            count++;
+        }
+        if (count > 0) {
+            result.addDataPoint(bucket, sum / count);
+        }
+        return new OpenTSDBQueryReturn(new OpenTSDBQueryResult[]{result}, new QueryStatus(QueryStatus.QueryStatusEnum.SUCCESS, ""));
+    }
+}
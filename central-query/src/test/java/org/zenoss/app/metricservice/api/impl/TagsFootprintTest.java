@@ -0,0 +1,99 @@
+/*
+ * ****************************************************************************
+ *
+ *  Copyright (C) Zenoss, Inc. 2026, all rights reserved.
+ *
+ *  This content is made available according to terms specified in
+ *  License.zenoss distributed with this file.
+ *
+ * ***************************************************************************
+ */
+package org.zenoss.app.metricservice.api.impl;
+
+import org.junit.Assert;
+import org.junit.Ignore;
+import org.junit.Test;
+
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+
+/**
+ * Compares the retained heap of per series tag maps, as {@link Tags} used to
+ * hold them, against canonical {@link Tags}. Every series of a query is read
+ * twice, as when a query is split at the rate cutoff, with a high
+ * cardinality device tag. The heap measurement depends on the collector, so
+ * it is only run by hand.
+ */
+public class TagsFootprintTest {
+
+    private static final int SERIES = 50000;
+    private static final int READS = 2;
+
+    @Test
+    public void testSeriesReadAgainShareTheirTags() {
+        List<Map<String, String>> first = readTags();
+        List<Map<String, String>> second = readTags();
+        Set<Tags> distinct = new HashSet<>();
+        for (int i = 0; i < SERIES; i++) {
+            Tags tags = Tags.fromOpenTsdbTags(first.get(i));
+            Assert.assertSame(tags, Tags.fromOpenTsdbTags(second.get(i)));
+            Assert.assertEquals(first.get(i), tags.toOpenTsdbTags());
+            distinct.add(tags);
+        }
+        Assert.assertEquals(SERIES, distinct.size());
+    }
+
+    @Ignore("measures the heap, which depends on the collector; run by hand")
+    @Test
+    public void compareRetainedHeap() {
+        long baseline = usedHeap();
+        List<Map<String, String>> maps = new ArrayList<>(SERIES * READS);
+        for (int read = 0; read < READS; read++) {
+            for (Map<String, String> tags : readTags()) {
+                maps.add(new HashMap<>(tags));
+            }
+        }
+        long mapBytes = usedHeap() - baseline;
+        Assert.assertEquals(SERIES * READS, maps.size());
+        maps = null;
+
+        baseline = usedHeap();
+        List<Tags> canonical = new ArrayList<>(SERIES * READS);
+        for (int read = 0; read < READS; read++) {
+            for (Map<String, String> tags : readTags()) {
+                canonical.add(Tags.fromOpenTsdbTags(tags));
+            }
+        }
+        long tagsBytes = usedHeap() - baseline;
+        Assert.assertEquals(SERIES * READS, canonical.size());
+
+        Assert.assertTrue("Canonical tags should retain less heap than a map per series", tagsBytes < mapBytes);
+    }
+
+    /**
+     * Tags as freshly parsed from an OpenTSDB response, with new strings
+     */
+    private static List<Map<String, String>> readTags() {
+        List<Map<String, String>> result = new ArrayList<>(SERIES);
+        for (int i = 0; i < SERIES; i++) {
+            Map<String, String> tags = new HashMap<>();
+            tags.put(new String("contextUUID"), "f2b7c3a0-8e64-4b4e-9d0c-" + String.format("%012d", i / 10));
+            tags.put(new String("key"), "Devices/device-" + (i / 10) + "/os/interfaces/eth" + (i % 10));
+            tags.put(new String("zenoss_tenant_id"), new String("8a8b5b7c2ad04cbd9d1e3f0a6a4c5e21"));
+            result.add(tags);
+        }
+        return result;
+    }
+
+    private static long usedHeap() {
+        Runtime runtime = Runtime.getRuntime();
+        for (int i = 0; i < 4; i++) {
+            System.gc();
+        }
+        return runtime.totalMemory() - runtime.freeMemory();
+    }
+}
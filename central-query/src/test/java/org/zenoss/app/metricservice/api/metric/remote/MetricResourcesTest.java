@@ -3,31 +3,57 @@ package org.zenoss.app.metricservice.api.metric.remote;
 import com.google.common.base.Optional;
 import com.google.common.collect.Lists;
 import com.google.common.collect.Maps;
+import com.sun.jersey.core.util.MultivaluedMapImpl;
+import com.yammer.dropwizard.config.Environment;
+import com.yammer.dropwizard.config.ServerFactory;
+import com.yammer.dropwizard.json.ObjectMapperFactory;
+import com.yammer.dropwizard.validation.Validator;
+import org.apache.http.HttpResponse;
+import org.apache.http.client.methods.HttpPost;
+import org.apache.http.entity.ByteArrayEntity;
+import org.apache.http.impl.client.DefaultHttpClient;
+import org.apache.http.util.EntityUtils;
 import org.apache.shiro.subject.PrincipalCollection;
 import org.apache.shiro.subject.Subject;
+import org.eclipse.jetty.server.Server;
 import org.junit.Before;
 import org.junit.Test;
-import org.zenoss.app.AppConfiguration;
+import org.mockito.ArgumentCaptor;
+import org.zenoss.app.metricservice.MetricServiceAppConfiguration;
 import org.zenoss.app.metricservice.api.MetricServiceAPI;
+import org.zenoss.app.metricservice.api.impl.ResultEncoding;
+import org.zenoss.app.metricservice.api.model.MetricSpecification;
+import org.zenoss.app.metricservice.api.model.ReturnSet;
 import org.zenoss.app.security.ZenossTenant;
 import org.zenoss.app.zauthbundle.ZappSecurity;
 
+import javax.ws.rs.WebApplicationException;
+import javax.ws.rs.core.HttpHeaders;
+import javax.ws.rs.core.MediaType;
+import javax.ws.rs.core.Response;
+import javax.ws.rs.ext.Providers;
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
 import java.util.List;
 import java.util.Map;
+import java.util.zip.GZIPOutputStream;
 
 import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.fail;
+import static org.mockito.ArgumentMatchers.any;
+import static org.mockito.ArgumentMatchers.anyDouble;
 import static org.mockito.Mockito.mock;
 import static org.mockito.Mockito.when;
 
 public class MetricResourcesTest {
 
-    AppConfiguration configuration;
+    MetricServiceAppConfiguration configuration;
     ZappSecurity security;
     MetricServiceAPI api;
 
     @Before
     public void setUp() {
-        configuration = mock(AppConfiguration.class);
+        configuration = mock(MetricServiceAppConfiguration.class);
         security = mock(ZappSecurity.class);
         api = mock(MetricServiceAPI.class);
     }
@@ -59,4 +85,56 @@ public class MetricResourcesTest {
         when(configuration.isAuthEnabled()).thenReturn(false);
         assertEquals(tags, new MetricResources(configuration, security, api).getTags(null));
     }
+
+    @Test
+    public void testUnreadableQueryIsUnsupported() throws Exception {
+        HttpHeaders headers = mock(HttpHeaders.class);
+        when(headers.getMediaType()).thenReturn(MediaType.APPLICATION_JSON_TYPE);
+        when(headers.getRequestHeaders()).thenReturn(new MultivaluedMapImpl());
+        try {
+            new MetricResources(new MetricServiceAppConfiguration(), security, api)
+                    .query(new ByteArrayInputStream(new byte[0]), headers, mock(Providers.class));
+            fail("A query no provider reads should be rejected");
+        } catch (WebApplicationException e) {
+            assertEquals(415, e.getResponse().getStatus());
+        }
+    }
+
+    @Test
+    @SuppressWarnings("unchecked")
+    public void testGzipRequestThroughJetty() throws Exception {
+        ArgumentCaptor<List<MetricSpecification>> metrics = ArgumentCaptor.forClass((Class) List.class);
+        when(api.query(any(Optional.class), any(Optional.class), any(Optional.class), any(Optional.class), any(Optional.class),
+                any(Optional.class), anyDouble(), any(Optional.class), metrics.capture(), any(ResultEncoding.class)))
+                .thenReturn(Response.ok("{}").build());
+        MetricServiceAppConfiguration config = new MetricServiceAppConfiguration();
+        config.getHttpConfiguration().setPort(0);
+        config.getHttpConfiguration().setAdminPort(0);
+        Environment environment = new Environment("query", config, new ObjectMapperFactory(), new Validator());
+        environment.addResource(new MetricResources(config, security, api));
+        Server server = new ServerFactory(config.getHttpConfiguration(), "query").buildServer(environment);
+        server.start();
+        try {
+            ByteArrayOutputStream body = new ByteArrayOutputStream();
+            try (GZIPOutputStream out = new GZIPOutputStream(body)) {
+                out.write("{\"start\":\"1h-ago\",\"returnset\":\"exact\",\"metrics\":[{\"metric\":\"laLoadInt1\"}]}".getBytes("UTF-8"));
+            }
+            HttpPost post = new HttpPost(String.format("http://localhost:%d/api/performance/query",
+                    server.getConnectors()[0].getLocalPort()));
+            post.setHeader(HttpHeaders.CONTENT_TYPE, MediaType.APPLICATION_JSON);
+            post.setHeader(HttpHeaders.CONTENT_ENCODING, "gzip");
+            post.setEntity(new ByteArrayEntity(body.toByteArray()));
+            DefaultHttpClient client = new DefaultHttpClient();
+            try {
+                HttpResponse response = client.execute(post);
+                EntityUtils.consume(response.getEntity());
+                assertEquals(200, response.getStatusLine().getStatusCode());
+            } finally {
+                client.getConnectionManager().shutdown();
+            }
+            assertEquals("laLoadInt1", metrics.getValue().get(0).getMetric());
+        } finally {
+            server.stop();
+        }
+    }
 }
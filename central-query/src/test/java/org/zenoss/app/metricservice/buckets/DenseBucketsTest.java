@@ -0,0 +1,154 @@
+/*
+ * ****************************************************************************
+ *
+ *  Copyright (C) Zenoss, Inc. 2026, all rights reserved.
+ *
+ *  This content is made available according to terms specified in
+ *  License.zenoss distributed with this file.
+ *
+ * ***************************************************************************
+ */
+package org.zenoss.app.metricservice.buckets;
+
+import org.junit.Test;
+import org.zenoss.app.metricservice.api.impl.IHasShortcut;
+import org.zenoss.app.metricservice.api.impl.MetricKey;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.List;
+
+import static org.junit.Assert.*;
+
+public class DenseBucketsTest {
+    private static final double EPSILON = 0.001;
+
+    private static final MetricKey METRIC1 = MetricKey.fromValue("Metric1", "GizmosPerGadget", "device=dev1 Series=M1");
+    private static final MetricKey METRIC2 = MetricKey.fromValue("Metric2", "WidgetThroughput", "device=dev1 Series=M2");
+
+    @Test
+    public void testAdd() throws Exception {
+        Buckets<IHasShortcut> testSubject = new DenseBuckets<>(300, 0, 3000);
+        MetricKey key = MetricKey.fromValue("My.Metric.Formal.Name", "MyMetric", "Foo=Bar");
+        testSubject.add(key, 123, 4.0);
+        testSubject.add(key, 299, 5.0);
+        Buckets<IHasShortcut>.Bucket bucket = testSubject.getBucket(123);
+        assertNotNull("get bucket with a value should return a bucket.", bucket);
+        assertEquals("getValue should return the average of the values in the bucket", 4.5, bucket.getValue(key).getValue(), EPSILON);
+        assertEquals("getValue should return the average of the values in the bucket", 4.5, testSubject.getValue(key, 0), EPSILON);
+        assertEquals("getValueByShortcut should return the value put in with that shortcut",
+                4.5, testSubject.getValueByShortcut("My.Metric.Formal.Name", 150), EPSILON);
+        assertEquals("count should reflect the values added", 2, bucket.getValue(key).getCount());
+        assertTrue("hasValue should be true for a bucket with values", testSubject.hasValue(key, 0));
+        assertNull("get bucket without values should return null.", testSubject.getBucket(600));
+    }
+
+    @Test
+    public void testAddSumsMatchesAddingValues() {
+        Buckets<IHasShortcut> dense = new DenseBuckets<>(10, 100, 200);
+        Buckets<IHasShortcut> sparse = new Buckets<>(10);
+        for (Buckets<IHasShortcut> buckets : Arrays.asList(dense, sparse)) {
+            buckets.add(METRIC1, 51, 1.0);
+            buckets.add(METRIC1, 52, 2.0);
+            buckets.add(METRIC1, 151, 0.1);
+            buckets.add(METRIC1, 152, 0.2);
+        }
+        Buckets<IHasShortcut> summed = new DenseBuckets<>(10, 100, 200);
+        summed.add(METRIC1, 50, 3.0, 2);
+        summed.add(METRIC1, 150, 0.1 + 0.2, 2);
+        assertBucketsEqual(sparse, dense);
+        assertBucketsEqual(dense, summed);
+    }
+
+    @Test(expected = IllegalArgumentException.class)
+    public void addWithNullKeyShouldThrowException() {
+        new DenseBuckets<IHasShortcut>(300, 0, 3000).add(null, 123, 1.234);
+    }
+
+    @Test
+    public void testIsSupported() {
+        assertTrue(DenseBuckets.isSupported(300, 0, 7 * 24 * 3600));
+        assertTrue(DenseBuckets.isSupported(60, 0, 7 * 24 * 3600));
+        assertFalse("A range without a start is not bounded.", DenseBuckets.isSupported(300, -1, 3000));
+        assertFalse("A range without an end is not bounded.", DenseBuckets.isSupported(300, 0, -1));
+        assertFalse("Too many buckets should not be supported.", DenseBuckets.isSupported(1, 0, 7 * 24 * 3600));
+    }
+
+    @Test
+    public void testIsWorthwhile() {
+        long week = 7 * 24 * 3600;
+        assertTrue("Every bucket filled", DenseBuckets.isWorthwhile(300, 0, week, 10, 10 * 2016));
+        assertTrue("A quarter of the buckets filled", DenseBuckets.isWorthwhile(300, 0, week, 10, 10 * 505));
+        assertFalse("Few buckets filled", DenseBuckets.isWorthwhile(300, 0, week, 10, 10 * 100));
+        assertFalse("Not downsampled", DenseBuckets.isWorthwhile(1, 0, 3600, 10, 10 * 3600));
+        assertFalse("No series", DenseBuckets.isWorthwhile(300, 0, week, 0, 0));
+        assertFalse("Not supported", DenseBuckets.isWorthwhile(300, -1, week, 10, 10 * 2016));
+    }
+
+    @Test
+    public void testOrderedTimestampsIncludeValuesOutsideOfRange() {
+        Buckets<IHasShortcut> testSubject = new DenseBuckets<>(10, 100, 200);
+        testSubject.add(METRIC1, 250, 3.0);
+        testSubject.add(METRIC1, 150, 2.0);
+        testSubject.add(METRIC1, 50, 1.0);
+        assertArrayEquals(new long[]{50, 150, 250}, testSubject.getOrderedTimestamps());
+        assertEquals(1.0, testSubject.getValue(METRIC1, 50), EPSILON);
+        assertEquals(3.0, testSubject.getBucket(250).getValue(METRIC1).getValue(), EPSILON);
+    }
+
+    @Test
+    public void testMatchesSparseBuckets() {
+        Buckets<IHasShortcut> sparse = BucketTestUtilities.makeAndPopulateTestBuckets();
+        // Range covers only part of the test data
+        Buckets<IHasShortcut> dense = populate(new DenseBuckets<IHasShortcut>(51, 200, 1000));
+        assertBucketsEqual(sparse, dense);
+    }
+
+    @Test
+    public void testLinearInterpolationMatchesSparseBuckets() {
+        Buckets<IHasShortcut> sparse = BucketTestUtilities.makeAndPopulateTestBuckets();
+        Buckets<IHasShortcut> dense = populate(new DenseBuckets<IHasShortcut>(51, 200, 1000));
+        Collection<IHasShortcut> keys = new ArrayList<>();
+        keys.add(METRIC1);
+        keys.add(METRIC2);
+        new LinearInterpolator().interpolate(sparse, keys);
+        new LinearInterpolator().interpolate(dense, keys);
+        assertBucketsEqual(sparse, dense);
+    }
+
+    @Test
+    public void testDump() throws Exception {
+        BucketTestUtilities.dumpBucketsToStdout(populate(new DenseBuckets<IHasShortcut>(51, 200, 1000)));
+    }
+
+    /**
+     * Same contents as {@link BucketTestUtilities#makeAndPopulateTestBuckets()}
+     */
+    private static Buckets<IHasShortcut> populate(Buckets<IHasShortcut> buckets) {
+        for (long ts = 3; ts <= 1203; ts += 7) {
+            buckets.add(METRIC1, ts, 5.0);
+        }
+        for (long ts = 0; ts <= 1200; ts += 13) {
+            buckets.add(METRIC2, ts, 5.0);
+        }
+        return buckets;
+    }
+
+    private static void assertBucketsEqual(Buckets<IHasShortcut> expected, Buckets<IHasShortcut> actual) {
+        assertEquals(expected.getTimestamps(), actual.getTimestamps());
+        assertArrayEquals(expected.getOrderedTimestamps(), actual.getOrderedTimestamps());
+        List<MetricKey> keys = new ArrayList<>();
+        keys.add(METRIC1);
+        keys.add(METRIC2);
+        for (long ts : expected.getOrderedTimestamps()) {
+            for (MetricKey key : keys) {
+                String point = String.format("%s at %d", key.getShortcut(), ts);
+                assertEquals(point, expected.hasValue(key, ts), actual.hasValue(key, ts));
+                assertEquals(point, expected.getValue(key, ts), actual.getValue(key, ts), EPSILON);
+                assertEquals(point, expected.getValueByShortcut(key.getShortcut(), ts), actual.getValueByShortcut(key.getShortcut(), ts), EPSILON);
+                assertEquals(point, expected.getBucket(ts).getValue(key).valueIsInterpolated(), actual.getBucket(ts).getValue(key).valueIsInterpolated());
+            }
+        }
+    }
+}
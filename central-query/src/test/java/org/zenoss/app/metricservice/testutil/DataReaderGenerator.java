@@ -30,6 +30,7 @@
  */
 package org.zenoss.app.metricservice.testutil;
 
+import org.zenoss.app.metricservice.api.impl.DataPointSeries;
 import org.zenoss.app.metricservice.api.impl.OpenTSDBQueryResult;
 import org.zenoss.app.metricservice.api.model.MetricSpecification;
 
@@ -52,9 +53,7 @@ public class DataReaderGenerator {
         result.metricSpecName = specification.getNameOrMetric();
         result.addTags(specification.getTags());
         Map<Long, Double> generatedValues = dataGen.generateValues(start, end, step);
-        SortedMap<Long, Double> dataPoints = new TreeMap<>();
-        dataPoints.putAll(generatedValues);
-        result.setDataPoints(dataPoints);
+        result.setDataPoints(DataPointSeries.fromMap(generatedValues));
         result.metric = specification.getNameOrMetric();
         return result;
     }
@@ -0,0 +1,109 @@
+/*
+ * ****************************************************************************
+ *
+ *  Copyright (C) Zenoss, Inc. 2026, all rights reserved.
+ *
+ *  This content is made available according to terms specified in
+ *  License.zenoss distributed with this file.
+ *
+ * ***************************************************************************
+ */
+package org.zenoss.app.metricservice.v2.impl;
+
+import com.fasterxml.jackson.databind.ObjectMapper;
+import org.junit.Test;
+import org.zenoss.app.metricservice.api.impl.DataPointSeries;
+import org.zenoss.app.metricservice.api.impl.QueryStatus;
+import org.zenoss.app.metricservice.api.impl.Utils;
+import org.zenoss.app.metricservice.v2.QueryResultCollector;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.util.HashMap;
+import java.util.Map;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+public class StreamingQueryResultWriterTest {
+
+    private static final ObjectMapper mapper = Utils.getObjectMapper();
+
+    @Test
+    public void testMatchesBuiltResult() throws IOException {
+        QueryResultBuilder qrb = new QueryResultBuilder();
+        populate(qrb);
+        String expected = mapper.writeValueAsString(qrb.build());
+
+        ByteArrayOutputStream out = new ByteArrayOutputStream();
+        StreamingQueryResultWriter writer = new StreamingQueryResultWriter(mapper, out);
+        populate(writer);
+        writer.finish();
+
+        assertEquals(expected, out.toString("UTF-8"));
+    }
+
+    @Test
+    public void testSeriesAreFlushedAsTheyAreAdded() throws IOException {
+        ByteArrayOutputStream out = new ByteArrayOutputStream();
+        StreamingQueryResultWriter writer = new StreamingQueryResultWriter(mapper, out);
+        assertFalse(writer.isStarted());
+        assertEquals(0, out.size());
+
+        writer.addSeries("m1", series(10, 1.0), tags("a", "b"));
+        assertTrue(writer.isStarted());
+        String first = out.toString("UTF-8");
+        assertTrue(first, first.startsWith("{\"series\":[{"));
+        assertTrue(first, first.endsWith("}"));
+
+        writer.addSeries("m2", series(20, 2.0), tags("a", "c"));
+        assertTrue(out.size() > first.length());
+    }
+
+    @Test
+    public void testWithoutSeries() throws IOException {
+        QueryResultBuilder qrb = new QueryResultBuilder();
+        qrb.setStatus(status(QueryStatus.QueryStatusEnum.SUCCESS));
+        ByteArrayOutputStream out = new ByteArrayOutputStream();
+        StreamingQueryResultWriter writer = new StreamingQueryResultWriter(mapper, out);
+        writer.setStatus(status(QueryStatus.QueryStatusEnum.SUCCESS));
+        writer.finish();
+
+        assertEquals(mapper.writeValueAsString(qrb.build()), out.toString("UTF-8"));
+    }
+
+    @Test(expected = IllegalArgumentException.class)
+    public void testFinishWithoutStatuses() throws IOException {
+        new StreamingQueryResultWriter(mapper, new ByteArrayOutputStream()).finish();
+    }
+
+    private static void populate(QueryResultCollector collector) {
+        collector.setStatus(status(QueryStatus.QueryStatusEnum.SUCCESS));
+        collector.addSeries("m1", series(10, 1.0, 20, 2.5), tags("device", "d1"));
+        collector.addSeries("m1", series(10, 3.0), tags("device", "d2"));
+        collector.addSeries("m2", new DataPointSeries(), tags("device", "d1"));
+        collector.setStatus(status(QueryStatus.QueryStatusEnum.ERROR));
+    }
+
+    private static DataPointSeries series(double... pairs) {
+        DataPointSeries result = new DataPointSeries();
+        for (int i = 0; i < pairs.length; i += 2) {
+            result.add((long) pairs[i], pairs[i + 1]);
+        }
+        return result;
+    }
+
+    private static Map<String, String> tags(String key, String value) {
+        Map<String, String> result = new HashMap<>();
+        result.put(key, value);
+        return result;
+    }
+
+    private static QueryStatus status(QueryStatus.QueryStatusEnum value) {
+        QueryStatus status = new QueryStatus();
+        status.setStatus(value);
+        status.setMessage(value.name());
+        return status;
+    }
+}
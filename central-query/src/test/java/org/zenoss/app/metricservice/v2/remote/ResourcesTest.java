@@ -3,10 +3,12 @@ package org.zenoss.app.metricservice.v2.remote;
 import com.fasterxml.jackson.annotation.JsonProperty;
 import com.fasterxml.jackson.databind.JsonNode;
 import com.fasterxml.jackson.databind.ObjectMapper;
+import com.github.tomakehurst.wiremock.client.ResponseDefinitionBuilder;
 import com.github.tomakehurst.wiremock.junit.WireMockRule;
 import com.google.common.collect.Lists;
 import com.google.common.collect.Maps;
 import com.google.common.io.CharStreams;
+import com.sun.jersey.api.client.ClientResponse;
 import com.yammer.dropwizard.testing.ResourceTest;
 import org.apache.shiro.subject.PrincipalCollection;
 import org.apache.shiro.subject.Subject;
@@ -18,22 +20,29 @@ import org.zenoss.app.metricservice.api.configs.MetricServiceConfig;
 import org.zenoss.app.metricservice.api.impl.OpenTSDBMetricStorage;
 import org.zenoss.app.metricservice.api.impl.OpenTSDBQuery;
 import org.zenoss.app.metricservice.api.impl.OpenTSDBQueryResult;
+import org.zenoss.app.metricservice.api.impl.ResultEncoding;
 import org.zenoss.app.metricservice.api.impl.Utils;
+import org.zenoss.app.metricservice.api.model.v2.QueryResult;
 import org.zenoss.app.metricservice.v2.impl.QueryServiceImpl;
 import org.zenoss.app.security.ZenossTenant;
 import org.zenoss.app.zauthbundle.ZappSecurity;
 
 import javax.ws.rs.core.HttpHeaders;
 import javax.ws.rs.core.MediaType;
+import java.io.ByteArrayOutputStream;
 import java.io.IOException;
 import java.io.InputStream;
 import java.io.InputStreamReader;
 import java.util.List;
 import java.util.Map;
+import java.util.zip.GZIPInputStream;
+import java.util.zip.GZIPOutputStream;
+import java.util.zip.InflaterInputStream;
 
 import static com.github.tomakehurst.wiremock.client.WireMock.*;
 import static org.junit.Assert.assertEquals;
 import static org.junit.Assert.assertNotNull;
+import static org.junit.Assert.assertNull;
 import static org.mockito.Mockito.mock;
 import static org.mockito.Mockito.when;
 
@@ -249,6 +258,105 @@ public class ResourcesTest extends ResourceTest {
         testQuery(expectedResultFile, metricRequestFile, otsdbInteraction);
     }
 
+    @Test
+    public void testStreamedQueries() throws IOException, JSONException {
+        try {
+            configuration.getMetricServiceConfig().setStreamResults(true);
+            testQuery("/simplequery/result.json", "/simplequery/request.json", "/simplequery/otsdbInteraction.json");
+            testQuery("/wildcardquery/query1Result.json", "/wildcardquery/query1Request.json",
+                    "/wildcardquery/query1OtsdbRequest.json", "/wildcardquery/query1OtsdbRequest2.json");
+            testQuery("/expressionquery/result.json", "/expressionquery/request.json", "/expressionquery/otsdbInteraction.json");
+            testQuery("/emptydataquery/query1Result.json", "/emptydataquery/query1Request.json", "/emptydataquery/query1OtsdbRequest.json");
+        } finally {
+            configuration.getMetricServiceConfig().setStreamResults(false);
+        }
+    }
+
+    @Test
+    public void testBinaryEncodings() throws IOException {
+        InputStream input = this.getClass().getResourceAsStream("/wildcardquery/query1Request.json");
+        String metricRequest = CharStreams.toString(new InputStreamReader(input));
+        stubOtsdbInteractions("/wildcardquery/query1OtsdbRequest.json", "/wildcardquery/query1OtsdbRequest2.json");
+
+        String json = client().resource(URL_PATH)
+                .type(MediaType.APPLICATION_JSON_TYPE)
+                .post(String.class, metricRequest);
+        QueryResult expected = Utils.getObjectMapper().readValue(json, QueryResult.class);
+
+        for (boolean streamResults : new boolean[]{false, true}) {
+            configuration.getMetricServiceConfig().setStreamResults(streamResults);
+            try {
+                for (ResultEncoding encoding : new ResultEncoding[]{ResultEncoding.SMILE, ResultEncoding.CBOR,
+                        ResultEncoding.SMILE_GORILLA, ResultEncoding.CBOR_GORILLA}) {
+                    ClientResponse response = client().resource(URL_PATH)
+                            .type(MediaType.APPLICATION_JSON_TYPE)
+                            .accept(encoding.getMediaType())
+                            .post(ClientResponse.class, metricRequest);
+                    assertEquals(200, response.getStatus());
+                    assertEquals(MediaType.valueOf(encoding.getMediaType()), response.getType());
+                    QueryResult actual = encoding.getObjectMapper().readValue(response.getEntity(byte[].class), QueryResult.class);
+
+                    assertEquals(expected.getSeries().size(), actual.getSeries().size());
+                    for (int i = 0; i < expected.getSeries().size(); i++) {
+                        assertEquals(expected.getSeries().get(i).getMetric(), actual.getSeries().get(i).getMetric());
+                        assertEquals(expected.getSeries().get(i).getTags(), actual.getSeries().get(i).getTags());
+                        assertEquals(expected.getSeries().get(i).getDatapoints(), actual.getSeries().get(i).getDatapoints());
+                    }
+                    assertEquals(expected.getStatuses(), actual.getStatuses());
+                }
+            } finally {
+                configuration.getMetricServiceConfig().setStreamResults(false);
+            }
+        }
+    }
+
+    @Test
+    public void testCompressedTransport() throws IOException {
+        InputStream input = this.getClass().getResourceAsStream("/wildcardquery/query1Request.json");
+        String metricRequest = CharStreams.toString(new InputStreamReader(input));
+        stubOtsdbInteractions(true, "/wildcardquery/query1OtsdbRequest.json", "/wildcardquery/query1OtsdbRequest2.json");
+
+        String expected = client().resource(URL_PATH)
+                .type(MediaType.APPLICATION_JSON_TYPE)
+                .post(String.class, metricRequest);
+        // OpenTSDB was asked for, and sent, gzip responses
+        verify(postRequestedFor(urlEqualTo(OTSDB_QUERY_PATH)).withHeader(HttpHeaders.ACCEPT_ENCODING, containing("gzip")));
+
+        MetricServiceConfig config = configuration.getMetricServiceConfig();
+        config.setCompressResponses(true);
+        try {
+            for (boolean streamResults : new boolean[]{false, true}) {
+                config.setStreamResults(streamResults);
+                for (String coding : new String[]{"gzip", "deflate"}) {
+                    ClientResponse response = client().resource(URL_PATH)
+                            .type(MediaType.APPLICATION_JSON_TYPE)
+                            .header(HttpHeaders.ACCEPT_ENCODING, coding)
+                            .post(ClientResponse.class, metricRequest);
+                    assertEquals(200, response.getStatus());
+                    assertEquals(coding, response.getHeaders().getFirst(HttpHeaders.CONTENT_ENCODING));
+                    InputStream body = response.getEntityInputStream();
+                    body = "gzip".equals(coding) ? new GZIPInputStream(body) : new InflaterInputStream(body);
+                    assertJsonEquals(expected, CharStreams.toString(new InputStreamReader(body, "UTF-8")));
+                }
+            }
+
+            // Small responses are not worth compressing
+            config.setStreamResults(false);
+            config.setCompressionThresholdBytes(expected.length() + 1);
+            ClientResponse response = client().resource(URL_PATH)
+                    .type(MediaType.APPLICATION_JSON_TYPE)
+                    .header(HttpHeaders.ACCEPT_ENCODING, "gzip")
+                    .post(ClientResponse.class, metricRequest);
+            assertEquals(200, response.getStatus());
+            assertNull(response.getHeaders().getFirst(HttpHeaders.CONTENT_ENCODING));
+            assertJsonEquals(expected, response.getEntity(String.class));
+        } finally {
+            config.setCompressResponses(false);
+            config.setStreamResults(false);
+            config.setCompressionThresholdBytes(new MetricServiceConfig().getCompressionThresholdBytes());
+        }
+    }
+
     /**
      * posts a metric query and verifies results.  OpenTSDB interaction needs to "mocked" out in infiles
      *
@@ -267,28 +375,45 @@ public class ResourcesTest extends ResourceTest {
         input = this.getClass().getResourceAsStream(metricRequestFile);
         String metricRequest = CharStreams.toString(new InputStreamReader(input));
 
+        stubOtsdbInteractions(otsdbInteractionFiles);
+
+        String qr = client().resource(URL_PATH)
+                .type(MediaType.APPLICATION_JSON_TYPE)
+                .post(String.class, metricRequest);
+
+        assertNotNull(qr);
+        assertJsonEquals(expectedJSON, qr);
+    }
+
+    private void stubOtsdbInteractions(String... otsdbInteractionFiles) throws IOException {
+        stubOtsdbInteractions(false, otsdbInteractionFiles);
+    }
+
+    private void stubOtsdbInteractions(boolean gzip, String... otsdbInteractionFiles) throws IOException {
         for (String otsdbInteraction : otsdbInteractionFiles) {
-            input = this.getClass().getResourceAsStream(otsdbInteraction);
+            InputStream input = this.getClass().getResourceAsStream(otsdbInteraction);
             String interactionJson = CharStreams.toString(new InputStreamReader(input));
             OtsdbInteraction interaction = Utils.getObjectMapper().readValue(interactionJson, OtsdbInteraction.class);
             String otsdbRequest = Utils.jsonStringFromObject(interaction.request);
             String otsdbResponse = Utils.jsonStringFromObject(interaction.response);
+            ResponseDefinitionBuilder response = aResponse()
+                    .withStatus(200)
+                    .withHeader("Content-Type", "application/json");
+            if (gzip) {
+                ByteArrayOutputStream compressed = new ByteArrayOutputStream();
+                try (GZIPOutputStream out = new GZIPOutputStream(compressed)) {
+                    out.write(otsdbResponse.getBytes("UTF-8"));
+                }
+                response.withHeader(HttpHeaders.CONTENT_ENCODING, "gzip").withBody(compressed.toByteArray());
+            } else {
+                response.withBody(otsdbResponse);
+            }
             stubFor(post(urlEqualTo(OTSDB_QUERY_PATH))
                     .withHeader(HttpHeaders.CONTENT_TYPE, matching("application/json"))
                     .withRequestBody(equalToJson(otsdbRequest))
-                    .willReturn(aResponse()
-                            .withStatus(200)
-                            .withHeader("Content-Type", "application/json")
-                            .withBody(otsdbResponse)));
+                    .willReturn(response));
 
         }
-
-        String qr = client().resource(URL_PATH)
-                .type(MediaType.APPLICATION_JSON_TYPE)
-                .post(String.class, metricRequest);
-
-        assertNotNull(qr);
-        assertJsonEquals(expectedJSON, qr);
     }
 
     private void enableMockAuth() {